@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.UiThread;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a value for each of a list of keys in parallel, such as the credentials of every profile,
+ * and delivers each value on the main thread as soon as it is loaded. All loaders share one small
+ * pool, whose threads exit when idle.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the loaded values
+ */
+class ParallelLoader<K, V> {
+
+    private static final String TAG = "ParallelLoader";
+    private static final int MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static ExecutorService sExecutor;
+
+    /** Loads the value of a key. */
+    interface Task<K, V> {
+        @WorkerThread
+        V load(K key);
+    }
+
+    /** Receives the loaded values. */
+    interface Callback<K, V> {
+        /** Called for each key, in the order the values are loaded, unless its load failed. */
+        @UiThread
+        void onLoaded(K key, V value);
+
+        /** Called once every value has been delivered. */
+        @UiThread
+        void onFinished();
+    }
+
+    private final List<K> mKeys;
+    private final Task<K, V> mTask;
+    private final Callback<K, V> mCallback;
+    private final ExecutorService mExecutor;
+    private final List<Future<?>> mFutures = new ArrayList<>();
+    private int mPending;
+    private volatile boolean mCancelled;
+
+    ParallelLoader(List<K> keys, Task<K, V> task, Callback<K, V> callback) {
+        this(keys, task, callback, getExecutor());
+    }
+
+    @VisibleForTesting
+    ParallelLoader(List<K> keys, Task<K, V> task, Callback<K, V> callback,
+            ExecutorService executor) {
+        mKeys = new ArrayList<>(keys);
+        mTask = task;
+        mCallback = callback;
+        mExecutor = executor;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, TAG));
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    /** Starts loading all the keys. */
+    @UiThread
+    void start() {
+        mPending = mKeys.size();
+        if (mPending == 0) {
+            mCallback.onFinished();
+            return;
+        }
+        for (K key : mKeys) {
+            mFutures.add(mExecutor.submit(() -> {
+                if (mCancelled) {
+                    return;
+                }
+                V value = null;
+                boolean loaded = false;
+                try {
+                    value = mTask.load(key);
+                    loaded = true;
+                } catch (RuntimeException e) {
+                    // Still accounted for, so onFinished() is called.
+                    Log.w(TAG, "Failed to load " + key, e);
+                }
+                final V result = value;
+                final boolean succeeded = loaded;
+                ThreadUtils.postOnMainThread(() -> deliver(key, result, succeeded));
+            }));
+        }
+    }
+
+    /** Stops the loads in progress and drops their values. */
+    @UiThread
+    void cancel() {
+        mCancelled = true;
+        for (Future<?> future : mFutures) {
+            future.cancel(true /* mayInterruptIfRunning */);
+        }
+        mFutures.clear();
+    }
+
+    /** Returns whether {@link #cancel} was called, for long tasks to stop early. */
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void deliver(K key, V value, boolean loaded) {
+        if (mCancelled) {
+            return;
+        }
+        if (loaded) {
+            mCallback.onLoaded(key, value);
+        }
+        if (--mPending == 0) {
+            mFutures.clear();
+            mCallback.onFinished();
+        }
+    }
+}
@@ -36,6 +36,9 @@ import androidx.annotation.VisibleForTesting;
 
 import com.android.settings.applications.ProcStatsData;
 import com.android.settings.fuelgauge.batterytip.AnomalyConfigJobService;
+import com.android.settings.network.ims.ImsStateService;
+import com.android.settings.slices.SliceChangeDispatcher;
+import com.android.settings.slices.SlicesDatabaseHelper;
 import com.android.settingslib.net.DataUsageController;
 
 import org.json.JSONArray;
@@ -60,6 +63,12 @@ public class SettingsDumpService extends Service {
     @VisibleForTesting
     static final String KEY_ANOMALY_DETECTION = "anomaly_detection";
     @VisibleForTesting
+    static final String KEY_SLICES_INDEX = "slices_index";
+    @VisibleForTesting
+    static final String KEY_SLICE_UPDATES = "slice_updates";
+    @VisibleForTesting
+    static final String KEY_IMS_QUERIES = "ims_queries";
+    @VisibleForTesting
     static final Intent BROWSER_INTENT =
             new Intent("android.intent.action.VIEW", Uri.parse("http://"));
 
@@ -79,6 +88,9 @@ public class SettingsDumpService extends Service {
             dump.put(KEY_MEMORY, dumpMemory());
             dump.put(KEY_DEFAULT_BROWSER_APP, dumpDefaultBrowser());
             dump.put(KEY_ANOMALY_DETECTION, dumpAnomalyDetection());
+            dump.put(KEY_SLICES_INDEX, dumpSlicesIndex());
+            dump.put(KEY_SLICE_UPDATES, SliceChangeDispatcher.dumpStats());
+            dump.put(KEY_IMS_QUERIES, ImsStateService.dumpStats());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -191,4 +203,21 @@ public class SettingsDumpService extends Service {
 
         return obj;
     }
+
+    @VisibleForTesting
+    JSONObject dumpSlicesIndex() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        final SlicesDatabaseHelper.IndexStats stats =
+                SlicesDatabaseHelper.getInstance(this).getLastIndexStats();
+        if (stats == null) {
+            return obj;
+        }
+        obj.put("mode", stats.isIncremental() ? "incremental" : "full");
+        obj.put("duration_ms", stats.getDurationMs());
+        obj.put("rows_written", stats.getRowsWritten());
+        obj.put("providers_parsed", stats.getProvidersParsed());
+        obj.put("providers_skipped", stats.getProvidersSkipped());
+
+        return obj;
+    }
 }
@@ -21,6 +21,7 @@ import static android.widget.LinearLayout.LayoutParams.WRAP_CONTENT;
 
 import android.animation.LayoutTransition;
 import android.annotation.UiThread;
+import android.annotation.WorkerThread;
 import android.app.Activity;
 import android.app.KeyguardManager;
 import android.app.admin.DevicePolicyManager;
@@ -45,6 +46,7 @@ import android.security.KeyChain;
 import android.security.KeyChain.KeyChainConnection;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -62,17 +64,22 @@ import android.widget.Switch;
 import android.widget.TabHost;
 import android.widget.TextView;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.app.UnlaunchableAppActivity;
 import com.android.internal.widget.LockPatternUtils;
 import com.android.settings.core.InstrumentedFragment;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntConsumer;
 
 public class TrustedCredentialsSettings extends InstrumentedFragment
@@ -232,7 +239,7 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
     public void onDestroy() {
         getActivity().unregisterReceiver(mWorkProfileChangedReceiver);
         for (AdapterData.AliasLoader aliasLoader : mAliasLoaders) {
-            aliasLoader.cancel(true);
+            aliasLoader.cancel();
         }
         mAliasLoaders.clear();
         mGroupAdapters.clear();
@@ -663,7 +670,11 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
             mTab = tab;
         }
 
-        private class AliasLoader extends AsyncTask<Void, Integer, SparseArray<List<CertHolder>>> {
+        private class AliasLoader implements ParallelLoader.Callback<UserHandle, List<CertHolder>> {
+            private final ParallelLoader<UserHandle, List<CertHolder>> mLoader;
+            private final List<UserHandle> mProfiles;
+            private final AtomicInteger mProgress = new AtomicInteger();
+            private final AtomicInteger mMax = new AtomicInteger();
             private ProgressBar mProgressBar;
             private View mContentView;
             private Context mContext;
@@ -671,10 +682,11 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
             public AliasLoader() {
                 mContext = getActivity();
                 mAliasLoaders.add(this);
-                List<UserHandle> profiles = mUserManager.getUserProfiles();
-                for (UserHandle profile : profiles) {
+                mProfiles = mUserManager.getUserProfiles();
+                for (UserHandle profile : mProfiles) {
                     mCertHoldersByUserId.put(profile.getIdentifier(), new ArrayList<CertHolder>());
                 }
+                mLoader = new ParallelLoader<>(mProfiles, this::loadProfile, this);
             }
 
             private boolean shouldSkipProfile(UserHandle userHandle) {
@@ -682,96 +694,88 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                         || !mUserManager.isUserUnlocked(userHandle.getIdentifier());
             }
 
-            @Override protected void onPreExecute() {
+            public void execute() {
                 View content = mTabHost.getTabContentView();
                 mProgressBar = (ProgressBar) content.findViewById(mTab.mProgress);
                 mContentView = content.findViewById(mTab.mContentView);
                 mProgressBar.setVisibility(View.VISIBLE);
                 mContentView.setVisibility(View.GONE);
+                // Each profile binds to its own KeyChain service, so they don't wait on each other.
+                mLoader.start();
+            }
+
+            public void cancel() {
+                mLoader.cancel();
             }
-            @Override protected SparseArray<List<CertHolder>> doInBackground(Void... params) {
-                SparseArray<List<CertHolder>> certHoldersByProfile =
-                        new SparseArray<List<CertHolder>>();
+
+            @WorkerThread
+            private List<CertHolder> loadProfile(UserHandle profile) {
+                final int profileId = profile.getIdentifier();
+                if (shouldSkipProfile(profile)) {
+                    return new ArrayList<CertHolder>(0);
+                }
                 try {
-                    synchronized(mKeyChainConnectionByProfileId) {
-                        List<UserHandle> profiles = mUserManager.getUserProfiles();
-                        final int n = profiles.size();
-                        // First we get all aliases for all profiles in order to show progress
-                        // correctly. Otherwise this could all be in a single loop.
-                        SparseArray<List<String>> aliasesByProfileId = new SparseArray<
-                                List<String>>(n);
-                        int max = 0;
-                        int progress = 0;
-                        for (int i = 0; i < n; ++i) {
-                            UserHandle profile = profiles.get(i);
-                            int profileId = profile.getIdentifier();
-                            if (shouldSkipProfile(profile)) {
-                                continue;
-                            }
-                            KeyChainConnection keyChainConnection = KeyChain.bindAsUser(mContext,
-                                    profile);
-                            // Saving the connection for later use on the certificate dialog.
-                            mKeyChainConnectionByProfileId.put(profileId, keyChainConnection);
-                            IKeyChainService service = keyChainConnection.getService();
-                            List<String> aliases = mTab.getAliases(service);
-                            if (isCancelled()) {
-                                return new SparseArray<List<CertHolder>>();
-                            }
-                            max += aliases.size();
-                            aliasesByProfileId.put(profileId, aliases);
+                    KeyChainConnection keyChainConnection = KeyChain.bindAsUser(mContext, profile);
+                    synchronized (mKeyChainConnectionByProfileId) {
+                        if (mLoader.isCancelled()) {
+                            keyChainConnection.close();
+                            return new ArrayList<CertHolder>(0);
                         }
-                        for (int i = 0; i < n; ++i) {
-                            UserHandle profile = profiles.get(i);
-                            int profileId = profile.getIdentifier();
-                            List<String> aliases = aliasesByProfileId.get(profileId);
-                            if (isCancelled()) {
-                                return new SparseArray<List<CertHolder>>();
-                            }
-                            KeyChainConnection keyChainConnection = mKeyChainConnectionByProfileId.get(
-                                    profileId);
-                            if (shouldSkipProfile(profile) || aliases == null
-                                    || keyChainConnection == null) {
-                                certHoldersByProfile.put(profileId, new ArrayList<CertHolder>(0));
-                                continue;
-                            }
-                            IKeyChainService service = keyChainConnection.getService();
-                            List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
-                            final int aliasMax = aliases.size();
-                            for (int j = 0; j < aliasMax; ++j) {
-                                String alias = aliases.get(j);
-                                byte[] encodedCertificate = service.getEncodedCaCertificate(alias,
-                                        true);
-                                X509Certificate cert = KeyChain.toCertificate(encodedCertificate);
-                                certHolders.add(new CertHolder(service, mAdapter,
-                                        mTab, alias, cert, profileId));
-                                publishProgress(++progress, max);
-                            }
-                            Collections.sort(certHolders);
-                            certHoldersByProfile.put(profileId, certHolders);
+                        // Saving the connection for later use on the certificate dialog.
+                        mKeyChainConnectionByProfileId.put(profileId, keyChainConnection);
+                    }
+                    IKeyChainService service = keyChainConnection.getService();
+                    List<String> aliases = mTab.getAliases(service);
+                    mMax.addAndGet(aliases.size());
+                    List<CertHolder> certHolders = new ArrayList<CertHolder>(aliases.size());
+                    for (String alias : aliases) {
+                        if (mLoader.isCancelled()) {
+                            return new ArrayList<CertHolder>(0);
                         }
-                        return certHoldersByProfile;
+                        byte[] encodedCertificate = service.getEncodedCaCertificate(alias, true);
+                        certHolders.add(new CertHolder(service, mAdapter, mTab, alias,
+                                ParsedCert.get(alias, encodedCertificate), profileId));
+                        final int progress = mProgress.incrementAndGet();
+                        ThreadUtils.postOnMainThread(() -> onProgressUpdate(progress, mMax.get()));
                     }
+                    Collections.sort(certHolders);
+                    return certHolders;
                 } catch (RemoteException e) {
                     Log.e(TAG, "Remote exception while loading aliases.", e);
-                    return new SparseArray<List<CertHolder>>();
+                    return new ArrayList<CertHolder>(0);
                 } catch (InterruptedException e) {
                     Log.e(TAG, "InterruptedException while loading aliases.", e);
-                    return new SparseArray<List<CertHolder>>();
+                    return new ArrayList<CertHolder>(0);
                 }
             }
-            @Override protected void onProgressUpdate(Integer... progressAndMax) {
-                int progress = progressAndMax[0];
-                int max = progressAndMax[1];
+
+            @UiThread
+            private void onProgressUpdate(int progress, int max) {
+                if (mLoader.isCancelled()) {
+                    return;
+                }
                 if (max != mProgressBar.getMax()) {
                     mProgressBar.setMax(max);
                 }
                 mProgressBar.setProgress(progress);
             }
-            @Override protected void onPostExecute(SparseArray<List<CertHolder>> certHolders) {
-                mCertHoldersByUserId.clear();
-                final int n = certHolders.size();
-                for (int i = 0; i < n; ++i) {
-                    mCertHoldersByUserId.put(certHolders.keyAt(i), certHolders.valueAt(i));
+
+            @Override
+            public void onLoaded(UserHandle profile, List<CertHolder> certHolders) {
+                // Shows each profile as soon as it's ready rather than waiting for the slowest.
+                mCertHoldersByUserId.put(profile.getIdentifier(), certHolders);
+                mAdapter.notifyDataSetChanged();
+                mProgressBar.setVisibility(View.GONE);
+                mContentView.setVisibility(View.VISIBLE);
+            }
+
+            @Override
+            public void onFinished() {
+                // Drops the profiles removed since the previous load.
+                for (int i = mCertHoldersByUserId.size() - 1; i >= 0; i--) {
+                    if (!mProfiles.contains(UserHandle.of(mCertHoldersByUserId.keyAt(i)))) {
+                        mCertHoldersByUserId.removeAt(i);
+                    }
                 }
                 mAdapter.notifyDataSetChanged();
                 mProgressBar.setVisibility(View.GONE);
@@ -822,33 +826,40 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
         }
     }
 
-    /* package */ static class CertHolder implements Comparable<CertHolder> {
-        public int mProfileId;
-        private final IKeyChainService mService;
-        private final GroupAdapter mAdapter;
-        private final Tab mTab;
-        private final String mAlias;
-        private final X509Certificate mX509Cert;
+    /**
+     * A CA certificate and the subject shown for it. Parsing is the bulk of loading a certificate,
+     * so they are kept across loads and profiles for as long as the encoded certificate matches.
+     */
+    @VisibleForTesting
+    static final class ParsedCert {
+        private static final int MAX_PARSED_CERTS = 512;
 
-        private final SslCertificate mSslCert;
-        private final String mSubjectPrimary;
-        private final String mSubjectSecondary;
-        private boolean mDeleted;
+        // Keyed by alias and content hash.
+        private static final LruCache<String, ParsedCert> sCache =
+                new LruCache<>(MAX_PARSED_CERTS);
 
-        private CertHolder(IKeyChainService service,
-                           GroupAdapter adapter,
-                           Tab tab,
-                           String alias,
-                           X509Certificate x509Cert,
-                           int profileId) {
-            mProfileId = profileId;
-            mService = service;
-            mAdapter = adapter;
-            mTab = tab;
-            mAlias = alias;
-            mX509Cert = x509Cert;
+        private final byte[] mEncoded;
+        private final X509Certificate mX509Cert;
+        private final SslCertificate mSslCert;
+        @VisibleForTesting
+        final String mSubjectPrimary;
+        @VisibleForTesting
+        final String mSubjectSecondary;
+
+        static ParsedCert get(String alias, byte[] encodedCertificate) {
+            final String key = alias + '/' + Arrays.hashCode(encodedCertificate);
+            ParsedCert parsedCert = sCache.get(key);
+            if (parsedCert == null || !Arrays.equals(parsedCert.mEncoded, encodedCertificate)) {
+                parsedCert = new ParsedCert(encodedCertificate);
+                sCache.put(key, parsedCert);
+            }
+            return parsedCert;
+        }
 
-            mSslCert = new SslCertificate(x509Cert);
+        private ParsedCert(byte[] encodedCertificate) {
+            mEncoded = encodedCertificate;
+            mX509Cert = KeyChain.toCertificate(encodedCertificate);
+            mSslCert = new SslCertificate(mX509Cert);
 
             String cn = mSslCert.getIssuedTo().getCName();
             String o = mSslCert.getIssuedTo().getOName();
@@ -873,6 +884,37 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                     mSubjectSecondary = "";
                 }
             }
+        }
+    }
+
+    /* package */ static class CertHolder implements Comparable<CertHolder> {
+        public int mProfileId;
+        private final IKeyChainService mService;
+        private final GroupAdapter mAdapter;
+        private final Tab mTab;
+        private final String mAlias;
+        private final X509Certificate mX509Cert;
+
+        private final SslCertificate mSslCert;
+        private final String mSubjectPrimary;
+        private final String mSubjectSecondary;
+        private boolean mDeleted;
+
+        private CertHolder(IKeyChainService service,
+                           GroupAdapter adapter,
+                           Tab tab,
+                           String alias,
+                           ParsedCert parsedCert,
+                           int profileId) {
+            mProfileId = profileId;
+            mService = service;
+            mAdapter = adapter;
+            mTab = tab;
+            mAlias = alias;
+            mX509Cert = parsedCert.mX509Cert;
+            mSslCert = parsedCert.mSslCert;
+            mSubjectPrimary = parsedCert.mSubjectPrimary;
+            mSubjectSecondary = parsedCert.mSubjectSecondary;
             try {
                 mDeleted = mTab.deleted(mService, mAlias);
             } catch (RemoteException e) {
@@ -956,8 +998,7 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                 certificates = new ArrayList<X509Certificate>(n);
                 for (int i = 0; i < n; ++i) {
                     byte[] encodedCertificate = service.getEncodedCaCertificate(chain.get(i), true);
-                    X509Certificate certificate = KeyChain.toCertificate(encodedCertificate);
-                    certificates.add(certificate);
+                    certificates.add(ParsedCert.get(chain.get(i), encodedCertificate).mX509Cert);
                 }
             }
         } catch (RemoteException ex) {
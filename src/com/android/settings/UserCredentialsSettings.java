@@ -18,6 +18,7 @@ package com.android.settings;
 
 import android.annotation.LayoutRes;
 import android.annotation.Nullable;
+import android.annotation.WorkerThread;
 import android.app.Dialog;
 import android.app.settings.SettingsEnums;
 import android.content.Context;
@@ -258,42 +259,65 @@ public class UserCredentialsSettings extends SettingsPreferenceFragment
      * The credentials are stored in a {@link CredentialAdapter} attached to the main
      * {@link ListView} in the fragment.
      */
-    private class AliasLoader extends AsyncTask<Void, Void, List<Credential>> {
-        /**
-         * @return a list of credentials ordered:
-         * <ol>
-         *   <li>first by purpose;</li>
-         *   <li>then by alias.</li>
-         * </ol>
-         */
-        @Override
-        protected List<Credential> doInBackground(Void... params) {
+    private class AliasLoader implements ParallelLoader.Callback<Integer, List<Credential>> {
+        private final List<Integer> mUids = new ArrayList<>(2);
+        private final SparseArray<List<Credential>> mCredentialsByUid = new SparseArray<>(2);
+
+        AliasLoader() {
             // Certificates can be installed into SYSTEM_UID or WIFI_UID through CertInstaller.
             final int myUserId = UserHandle.myUserId();
-            final int systemUid = UserHandle.getUid(myUserId, Process.SYSTEM_UID);
-            final int wifiUid = UserHandle.getUid(myUserId, Process.WIFI_UID);
+            mUids.add(UserHandle.getUid(myUserId, Process.SYSTEM_UID));
+            if (myUserId == 0) {
+                mUids.add(UserHandle.getUid(myUserId, Process.WIFI_UID));
+            }
+        }
+
+        void execute() {
+            // Each uid has its own keystore namespace, so they are read at the same time.
+            new ParallelLoader<>(mUids, this::loadCredentials, this).start();
+        }
 
+        @WorkerThread
+        private List<Credential> loadCredentials(int uid) {
             try {
-                KeyStore processKeystore = KeyStore.getInstance(KEYSTORE_PROVIDER);
-                processKeystore.load(null);
-                KeyStore wifiKeystore = null;
-                if (myUserId == 0) {
-                    wifiKeystore = KeyStore.getInstance(KEYSTORE_PROVIDER);
-                    wifiKeystore.load(new AndroidKeyStoreLoadStoreParameter(
+                KeyStore keyStore = KeyStore.getInstance(KEYSTORE_PROVIDER);
+                if (UserHandle.getAppId(uid) == Process.WIFI_UID) {
+                    keyStore.load(new AndroidKeyStoreLoadStoreParameter(
                             KeyProperties.NAMESPACE_WIFI));
+                } else {
+                    keyStore.load(null);
                 }
-
-                List<Credential> credentials = new ArrayList<>();
-                credentials.addAll(getCredentialsForUid(processKeystore, systemUid).values());
-                if (wifiKeystore != null) {
-                    credentials.addAll(getCredentialsForUid(wifiKeystore, wifiUid).values());
-                }
-                return credentials;
+                return new ArrayList<>(getCredentialsForUid(keyStore, uid).values());
             } catch (Exception e) {
                 throw new RuntimeException("Failed to load credentials from Keystore.", e);
             }
         }
 
+        @Override
+        public void onLoaded(Integer uid, List<Credential> credentials) {
+            mCredentialsByUid.put(uid, credentials);
+        }
+
+        /**
+         * Shows the credentials ordered:
+         * <ol>
+         *   <li>first by purpose;</li>
+         *   <li>then by alias.</li>
+         * </ol>
+         */
+        @Override
+        public void onFinished() {
+            final List<Credential> credentials = new ArrayList<>();
+            for (int uid : mUids) {
+                // Missing if its keystore failed to load.
+                final List<Credential> credentialsForUid = mCredentialsByUid.get(uid);
+                if (credentialsForUid != null) {
+                    credentials.addAll(credentialsForUid);
+                }
+            }
+            showCredentials(credentials);
+        }
+
         private SortedMap<String, Credential> getCredentialsForUid(KeyStore keyStore, int uid) {
             try {
                 final SortedMap<String, Credential> aliasMap = new TreeMap<>();
@@ -362,8 +386,7 @@ public class UserCredentialsSettings extends SettingsPreferenceFragment
             }
         }
 
-        @Override
-        protected void onPostExecute(List<Credential> credentials) {
+        private void showCredentials(List<Credential> credentials) {
             if (!isAdded()) {
                 return;
             }
@@ -26,10 +26,12 @@ import java.util.List;
 
 public abstract class AppCounter extends AsyncTask<Void, Void, Integer> {
 
+    private final Context mContext;
     protected final PackageManager mPm;
     protected final UserManager mUm;
 
     public AppCounter(Context context, PackageManager packageManager) {
+        mContext = context;
         mPm = packageManager;
         mUm = (UserManager) context.getSystemService(Context.USER_SERVICE);
     }
@@ -39,10 +41,10 @@ public abstract class AppCounter extends AsyncTask<Void, Void, Integer> {
         int count = 0;
         for (UserInfo user : mUm.getProfiles(UserHandle.myUserId())) {
             final List<ApplicationInfo> list =
-                    mPm.getInstalledApplicationsAsUser(PackageManager.GET_DISABLED_COMPONENTS
+                    InstalledAppsSnapshot.get(mContext, user.id).getApplications(
+                            PackageManager.GET_DISABLED_COMPONENTS
                             | PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS
-                            | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
-                            user.id);
+                            | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0));
             for (ApplicationInfo info : list) {
                 if (includeInCount(info)) {
                     count++;
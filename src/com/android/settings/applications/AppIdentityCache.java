@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppGlobals;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.IconDrawableFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of the label and icon apps are shown with.
+ *
+ * <p>Identities are resolved either for a uid, picking the label and icon the same way battery
+ * usage always has, or for a single {@link ApplicationInfo}. They are kept in an LRU bounded by
+ * the byte size of the icon bitmaps, and dropped when the default locale changes or a package
+ * is added, changed or removed for their user. Concurrent lookups of the same key share one load.
+ */
+public class AppIdentityCache {
+
+    private static final String TAG = "AppIdentityCache";
+    private static final String PACKAGE_SYSTEM = "android";
+
+    @VisibleForTesting
+    static final int MAX_THREADS = 2;
+    // Upper bound of the icon budget, the budget is also capped to a share of the heap.
+    @VisibleForTesting
+    static final int MAX_CACHE_BYTES = 16 * 1024 * 1024;
+    // Charged for entries without an icon, or whose icon size is not known.
+    @VisibleForTesting
+    static final int MIN_ENTRY_BYTES = 1024;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static AppIdentityCache sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    // Guarded by itself.
+    private final LruCache<String, AppIdentity> mEntries;
+    // Loads still running, so concurrent lookups share them. Guarded by mEntries.
+    private final Map<String, CompletableFuture<AppIdentity>> mInFlight = new ArrayMap<>();
+    private int mGeneration;
+    private Locale mLocale;
+    private boolean mReceiverRegistered;
+
+    /** Label and icon of an app. */
+    public static final class AppIdentity {
+        /** May be null for a uid without any package. */
+        public final CharSequence label;
+        /** The package the icon was loaded from, or null if there is no icon. */
+        public final String packageName;
+        // Shared by every consumer, never handed out as is.
+        private final Drawable mIcon;
+        final int mByteCount;
+
+        public AppIdentity(CharSequence label, String packageName, Drawable icon) {
+            this.label = label;
+            this.packageName = packageName;
+            mIcon = icon;
+            mByteCount = getByteCount(icon);
+        }
+
+        /**
+         * Returns a new drawable of the icon for each call, so that views showing the same app
+         * don't fight over its bounds and callback. Null if there is no icon.
+         */
+        public Drawable getIcon() {
+            if (mIcon == null) {
+                return null;
+            }
+            final Drawable.ConstantState constState = mIcon.getConstantState();
+            return constState == null ? mIcon : constState.newDrawable();
+        }
+    }
+
+    /** Callback for {@link #loadUidIdentities}. */
+    public interface Listener {
+        /** Called on a worker thread for every uid as soon as it is resolved. */
+        void onUidIdentityLoaded(int uid, AppIdentity identity);
+
+        /** Called on a worker thread once every uid of the request is resolved. */
+        void onLoadFinished();
+    }
+
+    /** Handle of a running {@link #loadUidIdentities} request. */
+    public static final class LoadRequest {
+        private volatile boolean mCancelled;
+
+        /** Stops reporting results, uids already being resolved are still cached. */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    public static synchronized AppIdentityCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new AppIdentityCache((int) Math.min(MAX_CACHE_BYTES,
+                    Runtime.getRuntime().maxMemory() / 16));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppIdentityCache(int maxBytes) {
+        mEntries = new LruCache<String, AppIdentity>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, AppIdentity identity) {
+                return identity.mByteCount;
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, TAG));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Returns the cached identity of {@code uid} without loading it, or null. */
+    public AppIdentity peekUidIdentity(Context context, int uid) {
+        return peek(context, getUidKey(uid));
+    }
+
+    /**
+     * Returns the identity of {@code uid}, loading it on the calling thread if it is not
+     * cached, or null for the kernel and invalid uids.
+     */
+    public AppIdentity getUidIdentity(Context context, int uid) {
+        if (uid == 0 || uid == Process.INVALID_UID) {
+            return null;
+        }
+        return getOrLoad(context, getUidKey(uid), () -> loadUidIdentity(context, uid));
+    }
+
+    /**
+     * Returns the label of {@code info} and its icon badged for the user of {@code info},
+     * loading them with {@code pm} on the calling thread if they are not cached.
+     */
+    public AppIdentity getApplicationIdentity(Context context, PackageManager pm,
+            ApplicationInfo info) {
+        return getApplicationIdentity(context, pm, info, UserHandle.getUserId(info.uid));
+    }
+
+    /**
+     * Returns the label of {@code info} and its icon badged for {@code userId}, loading them with
+     * {@code pm} on the calling thread if they are not cached.
+     */
+    public AppIdentity getApplicationIdentity(Context context, PackageManager pm,
+            ApplicationInfo info, int userId) {
+        final String key = getApplicationKey(userId, info.packageName);
+        return getOrLoad(context, key, () -> new AppIdentity(info.loadLabel(pm),
+                info.packageName,
+                IconDrawableFactory.newInstance(context).getBadgedIcon(info, info, userId)));
+    }
+
+    /**
+     * Resolves {@code uids} as one batch on a background thread. Uids already cached are reported
+     * first, without waiting for the others.
+     */
+    public LoadRequest loadUidIdentities(Context context, int[] uids, Listener listener) {
+        final LoadRequest request = new LoadRequest();
+        mExecutor.execute(() -> {
+            final boolean[] reported = new boolean[uids.length];
+            for (int i = 0; i < uids.length; i++) {
+                final AppIdentity identity = peekUidIdentity(context, uids[i]);
+                if (identity != null && !request.isCancelled()) {
+                    listener.onUidIdentityLoaded(uids[i], identity);
+                    reported[i] = true;
+                }
+            }
+            for (int i = 0; i < uids.length; i++) {
+                if (request.isCancelled()) {
+                    return;
+                }
+                if (reported[i]) {
+                    continue;
+                }
+                final AppIdentity identity = getUidIdentity(context, uids[i]);
+                if (identity != null && !request.isCancelled()) {
+                    listener.onUidIdentityLoaded(uids[i], identity);
+                }
+            }
+            if (!request.isCancelled()) {
+                listener.onLoadFinished();
+            }
+        });
+        return request;
+    }
+
+    /** Drops every cached identity, e.g. when the configuration icons depend on changes. */
+    public void invalidate() {
+        synchronized (mEntries) {
+            mEntries.evictAll();
+            mGeneration++;
+        }
+    }
+
+    /** Caches {@code identity} for {@code uid}. */
+    @VisibleForTesting
+    public void putUidIdentity(int uid, AppIdentity identity) {
+        synchronized (mEntries) {
+            checkLocaleLocked();
+            mEntries.put(getUidKey(uid), identity);
+        }
+    }
+
+    @VisibleForTesting
+    void invalidatePackage(int userId, String packageName, int uid) {
+        synchronized (mEntries) {
+            if (uid != Process.INVALID_UID) {
+                mEntries.remove(getUidKey(uid));
+            }
+            for (Map.Entry<String, AppIdentity> entry : mEntries.snapshot().entrySet()) {
+                if (packageName.equals(entry.getValue().packageName)
+                        && getKeyUserId(entry.getKey()) == userId) {
+                    mEntries.remove(entry.getKey());
+                }
+            }
+            mGeneration++;
+        }
+    }
+
+    @VisibleForTesting
+    int getCachedBytes() {
+        return mEntries.size();
+    }
+
+    private AppIdentity peek(Context context, String key) {
+        registerReceiverIfNeeded(context);
+        synchronized (mEntries) {
+            checkLocaleLocked();
+            return mEntries.get(key);
+        }
+    }
+
+    private AppIdentity getOrLoad(Context context, String key, Loader loader) {
+        registerReceiverIfNeeded(context);
+        final int generation;
+        final CompletableFuture<AppIdentity> future;
+        CompletableFuture<AppIdentity> inFlight;
+        synchronized (mEntries) {
+            checkLocaleLocked();
+            final AppIdentity identity = mEntries.get(key);
+            if (identity != null) {
+                return identity;
+            }
+            inFlight = mInFlight.get(key);
+            generation = mGeneration;
+            future = new CompletableFuture<>();
+            if (inFlight == null) {
+                mInFlight.put(key, future);
+            }
+        }
+        if (inFlight != null) {
+            return inFlight.join();
+        }
+
+        AppIdentity identity = null;
+        try {
+            identity = loader.load();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to load identity for " + key, e);
+        }
+        synchronized (mEntries) {
+            mInFlight.remove(key);
+            // Identities loaded before an invalidation may be stale, don't cache them.
+            if (identity != null && generation == mGeneration) {
+                mEntries.put(key, identity);
+            }
+        }
+        future.complete(identity);
+        return identity;
+    }
+
+    private void checkLocaleLocked() {
+        final Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mEntries.evictAll();
+            mGeneration++;
+            mLocale = locale;
+        }
+    }
+
+    private void registerReceiverIfNeeded(Context context) {
+        synchronized (this) {
+            if (mReceiverRegistered) {
+                return;
+            }
+            mReceiverRegistered = true;
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        // Identities of every user are cached, so listen to package changes of all of them.
+        context.getApplicationContext().registerReceiverAsUser(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (intent.getData() == null) {
+                    return;
+                }
+                final int uid = intent.getIntExtra(Intent.EXTRA_UID, Process.INVALID_UID);
+                invalidatePackage(uid != Process.INVALID_UID
+                                ? UserHandle.getUserId(uid) : getSendingUserId(),
+                        intent.getData().getSchemeSpecificPart(), uid);
+            }
+        }, UserHandle.ALL, filter, null /* broadcastPermission */, null /* scheduler */);
+    }
+
+    // Keys are "u|<uid>" for uid identities and "p|<userId>|<package>" for applications.
+    private static String getUidKey(int uid) {
+        return "u|" + uid;
+    }
+
+    private static String getApplicationKey(int userId, String packageName) {
+        return "p|" + userId + "|" + packageName;
+    }
+
+    private static int getKeyUserId(String key) {
+        final int end = key.indexOf('|', 2);
+        final int id = Integer.parseInt(end < 0 ? key.substring(2) : key.substring(2, end));
+        return key.startsWith("u|") ? UserHandle.getUserId(id) : id;
+    }
+
+    private static int getByteCount(Drawable icon) {
+        if (icon instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) icon).getBitmap();
+            if (bitmap != null) {
+                return Math.max(MIN_ENTRY_BYTES, bitmap.getAllocationByteCount());
+            }
+        }
+        if (icon != null && icon.getIntrinsicWidth() > 0 && icon.getIntrinsicHeight() > 0) {
+            // ARGB_8888, as the icon would be once it is drawn into a bitmap.
+            return Math.max(MIN_ENTRY_BYTES,
+                    icon.getIntrinsicWidth() * icon.getIntrinsicHeight() * 4);
+        }
+        return MIN_ENTRY_BYTES;
+    }
+
+    /**
+     * Loads the label and icon of {@code uid}. The label is the one of its only package, or the
+     * shared user label if it has several; the icon is the one of the first package with one.
+     */
+    private static AppIdentity loadUidIdentity(Context context, int uid) {
+        final PackageManager pm = context.getPackageManager();
+        final String[] packages;
+        if (uid == Process.SYSTEM_UID) {
+            packages = new String[] {PACKAGE_SYSTEM};
+        } else {
+            packages = pm.getPackagesForUid(uid);
+        }
+        if (packages == null) {
+            return new AppIdentity(null /* label */, null /* packageName */, null /* icon */);
+        }
+
+        CharSequence name = null;
+        String packageName = null;
+        Drawable icon = null;
+        final String[] packageLabels = new String[packages.length];
+        System.arraycopy(packages, 0, packageLabels, 0, packages.length);
+
+        // Convert package names to user-facing labels where possible
+        final IPackageManager ipm = AppGlobals.getPackageManager();
+        final int userId = UserHandle.getUserId(uid);
+        for (int i = 0; i < packageLabels.length; i++) {
+            try {
+                final ApplicationInfo ai = ipm.getApplicationInfo(packageLabels[i],
+                        0 /* no flags */, userId);
+                if (ai == null) {
+                    Log.d(TAG, "Retrieving null app info for package "
+                            + packageLabels[i] + ", user " + userId);
+                    continue;
+                }
+                final CharSequence label = ai.loadLabel(pm);
+                if (label != null) {
+                    packageLabels[i] = label.toString();
+                }
+                if (ai.icon != 0) {
+                    packageName = packages[i];
+                    icon = ai.loadIcon(pm);
+                    break;
+                }
+            } catch (RemoteException e) {
+                Log.d(TAG, "Error while retrieving app info for package "
+                        + packageLabels[i] + ", user " + userId, e);
+            }
+        }
+
+        if (packageLabels.length == 1) {
+            name = packageLabels[0];
+        } else {
+            // Look for an official name for this UID.
+            for (String pkgName : packages) {
+                try {
+                    final PackageInfo pi = ipm.getPackageInfo(pkgName, 0 /* no flags */, userId);
+                    if (pi == null) {
+                        Log.d(TAG, "Retrieving null package info for package "
+                                + pkgName + ", user " + userId);
+                        continue;
+                    }
+                    if (pi.sharedUserLabel != 0) {
+                        final CharSequence nm = pm.getText(pkgName,
+                                pi.sharedUserLabel, pi.applicationInfo);
+                        if (nm != null) {
+                            name = nm.toString();
+                            if (pi.applicationInfo.icon != 0) {
+                                packageName = pkgName;
+                                icon = pi.applicationInfo.loadIcon(pm);
+                            }
+                            break;
+                        }
+                    }
+                } catch (RemoteException e) {
+                    Log.d(TAG, "Error while retrieving package info for package "
+                            + pkgName + ", user " + userId, e);
+                }
+            }
+        }
+        return new AppIdentity(name, packageName, icon);
+    }
+
+    private interface Loader {
+        AppIdentity load();
+    }
+}
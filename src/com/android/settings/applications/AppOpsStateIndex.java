@@ -0,0 +1,507 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppGlobals;
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.internal.util.ArrayUtils;
+import com.android.settings.applications.AppStateAppOpsBridge.PermissionState;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Index of the {@link PermissionState} of every package and profile for one set of app ops and
+ * permissions, shared by the {@link AppStateAppOpsBridge}s using them.
+ *
+ * <p>While a bridge watches it, the index is loaded once and then kept up to date one package at
+ * a time from app op changes and package broadcasts, so lookups don't query the package manager
+ * or app ops again. Otherwise every read loads it from scratch. The package manager and app ops
+ * are never queried while holding the lock of the index.
+ */
+class AppOpsStateIndex {
+
+    private static final String TAG = "AppOpsStateIndex";
+
+    // Guarded by AppOpsStateIndex.class.
+    private static final ArrayMap<String, AppOpsStateIndex> sInstances = new ArrayMap<>();
+
+    /** Notified in the background when the state of one package changed. */
+    interface Listener {
+        void onPermissionStateChanged(String packageName, int uid);
+    }
+
+    private final Context mContext;
+    private final IPackageManager mIPackageManager;
+    private final UserManager mUserManager;
+    private final AppOpsManager mAppOpsManager;
+    private final int[] mAppOpsOpCodes;
+    private final String[] mPermissions;
+
+    // Guarded by this.
+    private final ArraySet<Listener> mListeners = new ArraySet<>();
+    // Profile id -> package name -> state, only kept while watched. Guarded by this.
+    private SparseArray<ArrayMap<String, PermissionState>> mEntries;
+    // Counts the refresh requests, to drop loads and refreshes that a newer one supersedes.
+    // Guarded by this.
+    private long mRefreshCount;
+    // "userId/packageName" -> count of the latest refresh of the package. Guarded by this.
+    private final ArrayMap<String, Long> mLatestRefreshes = new ArrayMap<>();
+
+    private final AppOpsManager.OnOpChangedListener mOpChangedListener =
+            (op, packageName) -> ThreadUtils.postOnBackgroundThread(
+                    () -> refreshAppOpMode(packageName));
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final String packageName = intent.getData() != null
+                    ? intent.getData().getSchemeSpecificPart() : null;
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+            if (packageName != null && uid != -1) {
+                ThreadUtils.postOnBackgroundThread(() -> refreshPackage(packageName,
+                        UserHandle.getUserId(uid)));
+            }
+        }
+    };
+
+    /** Returns the index shared by the bridges of {@code appOpsOpCodes} and {@code permissions}. */
+    static synchronized AppOpsStateIndex getInstance(Context context, int[] appOpsOpCodes,
+            String[] permissions) {
+        final Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        final String key = Arrays.toString(appOpsOpCodes) + Arrays.toString(permissions);
+        AppOpsStateIndex index = sInstances.get(key);
+        if (index == null || index.mContext != appContext) {
+            index = new AppOpsStateIndex(appContext, AppGlobals.getPackageManager(),
+                    appOpsOpCodes, permissions);
+            sInstances.put(key, index);
+        }
+        return index;
+    }
+
+    @VisibleForTesting
+    AppOpsStateIndex(Context context, IPackageManager packageManager, int[] appOpsOpCodes,
+            String[] permissions) {
+        mContext = context;
+        mIPackageManager = packageManager;
+        mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
+        mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mAppOpsOpCodes = appOpsOpCodes;
+        mPermissions = permissions;
+    }
+
+    /** Keeps the index loaded and up to date until {@link #stopWatching} for the last listener. */
+    void startWatching(Listener listener) {
+        synchronized (this) {
+            if (!mListeners.add(listener) || mListeners.size() > 1) {
+                return;
+            }
+        }
+        for (int op : mAppOpsOpCodes) {
+            mAppOpsManager.startWatchingMode(op, null /* packageName */, mOpChangedListener);
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter,
+                null /* broadcastPermission */, null /* scheduler */);
+    }
+
+    void stopWatching(Listener listener) {
+        synchronized (this) {
+            if (!mListeners.remove(listener) || !mListeners.isEmpty()) {
+                return;
+            }
+            // Changes are no longer tracked.
+            mEntries = null;
+            mLatestRefreshes.clear();
+        }
+        mAppOpsManager.stopWatchingMode(mOpChangedListener);
+        mContext.unregisterReceiver(mPackageReceiver);
+    }
+
+    /** Returns a copy of the states of every profile, by profile id and package name. */
+    SparseArray<ArrayMap<String, PermissionState>> getAll() {
+        final SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
+        final SparseArray<ArrayMap<String, PermissionState>> copy = new SparseArray<>();
+        synchronized (this) {
+            for (int i = 0; i < entries.size(); i++) {
+                copy.put(entries.keyAt(i), new ArrayMap<>(entries.valueAt(i)));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the state of {@code packageName} in {@code userId}, or null if it doesn't
+     * request the permissions or the index isn't kept up to date. Never loads the index.
+     */
+    synchronized PermissionState get(int userId, String packageName) {
+        if (mEntries == null) {
+            return null;
+        }
+        final ArrayMap<String, PermissionState> entriesForProfile = mEntries.get(userId);
+        final PermissionState state =
+                entriesForProfile != null ? entriesForProfile.get(packageName) : null;
+        return state != null ? copyOf(state) : null;
+    }
+
+    /** Returns the number of packages of {@code userId} requesting the permissions. */
+    int getPackageCount(int userId) {
+        final SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
+        synchronized (this) {
+            final ArrayMap<String, PermissionState> entriesForProfile = entries.get(userId);
+            return entriesForProfile != null ? entriesForProfile.size() : 0;
+        }
+    }
+
+    /** Returns the number of packages of {@code userId} being granted the permissions. */
+    int getPermissibleCount(int userId) {
+        final SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
+        synchronized (this) {
+            final ArrayMap<String, PermissionState> entriesForProfile = entries.get(userId);
+            if (entriesForProfile == null) {
+                return 0;
+            }
+            int result = 0;
+            for (int i = 0; i < entriesForProfile.size(); i++) {
+                if (entriesForProfile.valueAt(i).isPermissible()) {
+                    result++;
+                }
+            }
+            return result;
+        }
+    }
+
+    @VisibleForTesting
+    void refreshAppOpMode(String packageName) {
+        final int[] userIds;
+        synchronized (this) {
+            mRefreshCount++;
+            if (mEntries == null) {
+                return;
+            }
+            int count = 0;
+            final int[] candidates = new int[mEntries.size()];
+            for (int i = 0; i < mEntries.size(); i++) {
+                if (mEntries.valueAt(i).containsKey(packageName)) {
+                    candidates[count++] = mEntries.keyAt(i);
+                }
+            }
+            userIds = Arrays.copyOf(candidates, count);
+        }
+        // The whole package is loaded again, so the bridges can serve it from the index.
+        for (int userId : userIds) {
+            refreshPackage(packageName, userId);
+        }
+    }
+
+    @VisibleForTesting
+    void refreshPackage(String packageName, int userId) {
+        final String refreshKey = userId + "/" + packageName;
+        final long refresh;
+        synchronized (this) {
+            refresh = ++mRefreshCount;
+            if (mEntries == null || mEntries.get(userId) == null) {
+                return;
+            }
+            mLatestRefreshes.put(refreshKey, refresh);
+        }
+        final int uid = getPackageUid(packageName, userId);
+        final PermissionState state = uid != -1 ? loadPackage(packageName, uid) : null;
+        final ArraySet<Listener> listeners;
+        synchronized (this) {
+            final Long latestRefresh = mLatestRefreshes.get(refreshKey);
+            if (latestRefresh == null || latestRefresh != refresh) {
+                // A newer refresh of the package will update it.
+                return;
+            }
+            mLatestRefreshes.remove(refreshKey);
+            final ArrayMap<String, PermissionState> entriesForProfile =
+                    mEntries != null ? mEntries.get(userId) : null;
+            if (entriesForProfile == null) {
+                return;
+            }
+            if (state != null) {
+                entriesForProfile.put(packageName, state);
+            } else if (entriesForProfile.remove(packageName) == null) {
+                // Neither requested before nor now.
+                return;
+            }
+            listeners = new ArraySet<>(mListeners);
+        }
+        if (uid != -1) {
+            // Removed packages are dropped from the app list along with their state.
+            notifyListeners(listeners, packageName, uid);
+        }
+    }
+
+    // Returns the entries, loading them unless they are kept up to date.
+    private SparseArray<ArrayMap<String, PermissionState>> getEntries() {
+        final long refreshCount;
+        synchronized (this) {
+            if (mEntries != null) {
+                return mEntries;
+            }
+            refreshCount = mRefreshCount;
+        }
+        final List<UserHandle> profiles = mUserManager.getUserProfiles();
+        final SparseArray<ArrayMap<String, PermissionState>> entries = loadEntries(profiles);
+        loadPermissionsStates(entries, profiles);
+        loadAppOpsStates(entries, profiles);
+        synchronized (this) {
+            if (mEntries != null) {
+                // Loaded by another thread meanwhile.
+                return mEntries;
+            }
+            // Keep the entries only if no package changed while they were loaded.
+            if (!mListeners.isEmpty() && refreshCount == mRefreshCount) {
+                mEntries = entries;
+            }
+        }
+        return entries;
+    }
+
+    // Loads the state of one package the same way as loadAllExtraInfo() does for all of them.
+    private PermissionState loadPackage(String packageName, int uid) {
+        final int userId = UserHandle.getUserId(uid);
+        if (shouldIgnorePackage(packageName)) {
+            return null;
+        }
+        try {
+            final PackageInfo packageInfo = mIPackageManager.getPackageInfo(packageName,
+                    PackageManager.GET_PERMISSIONS, userId);
+            if (packageInfo == null || packageInfo.requestedPermissions == null
+                    || !mIPackageManager.isPackageAvailable(packageName, userId)) {
+                return null;
+            }
+            final PermissionState state = new PermissionState(packageName, UserHandle.of(userId));
+            boolean requested = false;
+            for (int i = 0; i < packageInfo.requestedPermissions.length; i++) {
+                if (!ArrayUtils.contains(mPermissions, packageInfo.requestedPermissions[i])) {
+                    continue;
+                }
+                requested = true;
+                if ((packageInfo.requestedPermissionsFlags[i]
+                        & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0) {
+                    state.staticPermissionGranted = true;
+                }
+            }
+            if (!requested) {
+                return null;
+            }
+            state.packageInfo = packageInfo;
+            state.permissionDeclared = true;
+            state.appOpMode = getAppOpMode(packageName, uid);
+            return state;
+        } catch (RemoteException e) {
+            Log.w(TAG, "PackageManager is dead. Can't get package info " + packageName, e);
+            return null;
+        }
+    }
+
+    private int getAppOpMode(String packageName, int uid) {
+        final List<AppOpsManager.PackageOps> ops = mAppOpsManager.getOpsForPackage(uid,
+                packageName, mAppOpsOpCodes);
+        if (ops != null && ops.size() > 0 && ops.get(0).getOps().size() > 0) {
+            return ops.get(0).getOps().get(0).getMode();
+        }
+        return AppOpsManager.MODE_DEFAULT;
+    }
+
+    private int getPackageUid(String packageName, int userId) {
+        try {
+            return mIPackageManager.getPackageUid(packageName, 0 /* flags */, userId);
+        } catch (RemoteException e) {
+            Log.w(TAG, "PackageManager is dead. Can't get uid of " + packageName, e);
+            return -1;
+        }
+    }
+
+    private static void notifyListeners(ArraySet<Listener> listeners, String packageName,
+            int uid) {
+        for (Listener listener : listeners) {
+            listener.onPermissionStateChanged(packageName, uid);
+        }
+    }
+
+    private static PermissionState copyOf(PermissionState state) {
+        final PermissionState copy = new PermissionState(state.packageName, state.userHandle);
+        copy.packageInfo = state.packageInfo;
+        copy.staticPermissionGranted = state.staticPermissionGranted;
+        copy.permissionDeclared = state.permissionDeclared;
+        copy.appOpMode = state.appOpMode;
+        return copy;
+    }
+
+    private static boolean isThisUserAProfileOfCurrentUser(List<UserHandle> profiles,
+            final int userId) {
+        final int profilesMax = profiles.size();
+        for (int i = 0; i < profilesMax; i++) {
+            if (profiles.get(i).getIdentifier() == userId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Gets a sparse array that describes every user on the device and all the associated packages
+     * of each user, together with the packages available for that user.
+     */
+    private SparseArray<ArrayMap<String, PermissionState>> loadEntries(
+            List<UserHandle> profiles) {
+        final SparseArray<ArrayMap<String, PermissionState>> entries = new SparseArray<>();
+        try {
+            Set<String> packagesSet = new HashSet<>();
+            for (String permission : mPermissions) {
+                String[] pkgs = mIPackageManager.getAppOpPermissionPackages(permission);
+                if (pkgs != null) {
+                    packagesSet.addAll(Arrays.asList(pkgs));
+                }
+            }
+
+            // Create a sparse array that maps profileIds to an ArrayMap that maps package names to
+            // an associated PermissionState object
+            for (final UserHandle profile : profiles) {
+                final ArrayMap<String, PermissionState> entriesForProfile = new ArrayMap<>();
+                final int profileId = profile.getIdentifier();
+                entries.put(profileId, entriesForProfile);
+                for (final String packageName : packagesSet) {
+                    final boolean isAvailable = mIPackageManager.isPackageAvailable(packageName,
+                            profileId);
+                    if (!shouldIgnorePackage(packageName) && isAvailable) {
+                        final PermissionState newEntry = new PermissionState(packageName, profile);
+                        newEntry.permissionDeclared = true;
+                        entriesForProfile.put(packageName, newEntry);
+                    }
+                }
+            }
+        } catch (RemoteException e) {
+            Log.w(TAG, "PackageManager is dead. Can't get list of packages requesting "
+                    + mPermissions[0], e);
+            entries.clear();
+        }
+        return entries;
+    }
+
+    /*
+     * This method will set the packageInfo and staticPermissionGranted field of the associated
+     * PermissionState, which describes a particular package.
+     */
+    private void loadPermissionsStates(SparseArray<ArrayMap<String, PermissionState>> entries,
+            List<UserHandle> profiles) {
+        // Load the packages that have been granted the permission specified in mPermission.
+        try {
+            for (final UserHandle profile : profiles) {
+                final int profileId = profile.getIdentifier();
+                final ArrayMap<String, PermissionState> entriesForProfile = entries.get(profileId);
+                if (entriesForProfile == null || entriesForProfile.isEmpty()) {
+                    continue;
+                }
+                @SuppressWarnings("unchecked") final List<PackageInfo> packageInfos =
+                        mIPackageManager
+                                .getPackagesHoldingPermissions(mPermissions, 0,
+                                        profileId).getList();
+                final int packageInfoCount = packageInfos != null ? packageInfos.size() : 0;
+                for (int i = 0; i < packageInfoCount; i++) {
+                    final PackageInfo packageInfo = packageInfos.get(i);
+                    final PermissionState pe = entriesForProfile.get(packageInfo.packageName);
+                    if (pe != null) {
+                        pe.packageInfo = packageInfo;
+                        pe.staticPermissionGranted = true;
+                    }
+                }
+            }
+        } catch (RemoteException e) {
+            Log.w(TAG, "PackageManager is dead. Can't get list of packages granted "
+                    + Arrays.toString(mPermissions), e);
+        }
+    }
+
+    /*
+     * This method will set the appOpMode field of the associated PermissionState, which describes
+     * a particular package.
+     */
+    private void loadAppOpsStates(SparseArray<ArrayMap<String, PermissionState>> entries,
+            List<UserHandle> profiles) {
+        if (entries.size() == 0) {
+            return;
+        }
+
+        // Find out which packages have been granted permission from AppOps.
+        final List<AppOpsManager.PackageOps> packageOps = mAppOpsManager.getPackagesForOps(
+                mAppOpsOpCodes);
+        final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
+        for (int i = 0; i < packageOpsCount; i++) {
+            final AppOpsManager.PackageOps packageOp = packageOps.get(i);
+            final int userId = UserHandle.getUserId(packageOp.getUid());
+            if (!isThisUserAProfileOfCurrentUser(profiles, userId)) {
+                // This AppOp does not belong to any of this user's profiles.
+                continue;
+            }
+
+            final ArrayMap<String, PermissionState> entriesForProfile = entries.get(userId);
+            if (entriesForProfile == null) {
+                continue;
+            }
+            final PermissionState pe = entriesForProfile.get(packageOp.getPackageName());
+            if (pe == null) {
+                Log.w(TAG, "AppOp permission exists for package " + packageOp.getPackageName()
+                        + " of user " + userId + " but package doesn't exist or did not request "
+                        + Arrays.toString(mPermissions) + " access");
+                continue;
+            }
+
+            if (packageOp.getOps().size() < 1) {
+                Log.w(TAG, "No AppOps permission exists for package " + packageOp.getPackageName());
+                continue;
+            }
+            pe.appOpMode = packageOp.getOps().get(0).getMode();
+        }
+    }
+
+    /*
+     * Check for packages that should be ignored for further processing
+     */
+    private boolean shouldIgnorePackage(String packageName) {
+        return packageName.equals("android") || packageName.equals(mContext.getPackageName());
+    }
+}
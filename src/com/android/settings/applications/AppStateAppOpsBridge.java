@@ -34,38 +34,34 @@ import androidx.annotation.VisibleForTesting;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /*
  * Connects app ops info to the ApplicationsState. Makes use of AppOpsManager to
  * determine further permission level.
  */
-public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
+public abstract class AppStateAppOpsBridge extends AppStateBaseBridge implements
+        AppOpsStateIndex.Listener {
 
     private static final String TAG = "AppStateAppOpsBridge";
 
     private final IPackageManager mIPackageManager;
     private final UserManager mUserManager;
-    private final List<UserHandle> mProfiles;
     private final AppOpsManager mAppOpsManager;
-    private final Context mContext;
     private final int[] mAppOpsOpCodes;
     private final String[] mPermissions;
+    private final AppOpsStateIndex mIndex;
 
     public AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int appOpsOpCode, String[] permissions) {
-        this(context, appState, callback, appOpsOpCode, permissions,
-                AppGlobals.getPackageManager());
+        this(context, appState, callback, new int[]{appOpsOpCode}, permissions);
     }
 
     AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int[] appOpsOpCodes, String[] permissions) {
         this(context, appState, callback, appOpsOpCodes, permissions,
-                AppGlobals.getPackageManager());
+                AppGlobals.getPackageManager(),
+                AppOpsStateIndex.getInstance(context, appOpsOpCodes, permissions));
     }
 
     @VisibleForTesting
@@ -77,24 +73,38 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
 
     AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int[] appOpsOpCodes, String[] permissions, IPackageManager packageManager) {
+        this(context, appState, callback, appOpsOpCodes, permissions, packageManager,
+                new AppOpsStateIndex(context, packageManager, appOpsOpCodes, permissions));
+    }
+
+    private AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
+            int[] appOpsOpCodes, String[] permissions, IPackageManager packageManager,
+            AppOpsStateIndex index) {
         super(appState, callback);
-        mContext = context;
         mIPackageManager = packageManager;
         mUserManager = UserManager.get(context);
-        mProfiles = mUserManager.getUserProfiles();
         mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
         mAppOpsOpCodes = appOpsOpCodes;
         mPermissions = permissions;
+        mIndex = index;
     }
 
-    private boolean isThisUserAProfileOfCurrentUser(final int userId) {
-        final int profilesMax = mProfiles.size();
-        for (int i = 0; i < profilesMax; i++) {
-            if (mProfiles.get(i).getIdentifier() == userId) {
-                return true;
-            }
-        }
-        return false;
+    @Override
+    public void resume() {
+        // Keep the index up to date while shown, instead of reloading it on every change.
+        mIndex.startWatching(this);
+        super.resume();
+    }
+
+    @Override
+    public void pause() {
+        super.pause();
+        mIndex.stopWatching(this);
+    }
+
+    @Override
+    public void onPermissionStateChanged(String packageName, int uid) {
+        forceUpdate(packageName, uid);
     }
 
     protected abstract void updateExtraInfo(AppEntry app, String pkg, int uid);
@@ -109,6 +119,13 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
     }
 
     public PermissionState getPermissionInfo(String pkg, int uid) {
+        // While watched, the index reloads the packages whose app op or package changed, along
+        // with their requested permissions. Those don't need querying again.
+        final PermissionState indexedState = mIndex.get(UserHandle.getUserId(uid), pkg);
+        if (indexedState != null && indexedState.packageInfo != null
+                && indexedState.packageInfo.requestedPermissions != null) {
+            return indexedState;
+        }
         PermissionState permissionState = new PermissionState(pkg, new UserHandle(UserHandle
                 .getUserId(uid)));
         try {
@@ -145,11 +162,7 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
 
     @Override
     protected void loadAllExtraInfo() {
-        SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
-
-        // Load state info.
-        loadPermissionsStates(entries);
-        loadAppOpsStates(entries);
+        final SparseArray<ArrayMap<String, PermissionState>> entries = mIndex.getAll();
 
         // Map states to application info.
         List<AppEntry> apps = mAppSession.getAllApps();
@@ -157,178 +170,17 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
         for (int i = 0; i < N; i++) {
             AppEntry app = apps.get(i);
             int userId = UserHandle.getUserId(app.info.uid);
-            if (entries != null) {
-                ArrayMap<String, PermissionState> userMap = entries.get(userId);
-                app.extraInfo = userMap != null ? userMap.get(app.info.packageName) : null;
-            } else {
-                app.extraInfo = null;
-            }
-        }
-    }
-
-    /*
-     * Gets a sparse array that describes every user on the device and all the associated packages
-     * of each user, together with the packages available for that user.
-     */
-    private SparseArray<ArrayMap<String, PermissionState>> getEntries() {
-        try {
-            Set<String> packagesSet = new HashSet<>();
-            for (String permission : mPermissions) {
-                String[] pkgs = mIPackageManager.getAppOpPermissionPackages(permission);
-                if (pkgs != null) {
-                    packagesSet.addAll(Arrays.asList(pkgs));
-                }
-            }
-
-            if (packagesSet.isEmpty()) {
-                // No packages are requesting permission as specified by mPermissions.
-                return null;
-            }
-
-            // Create a sparse array that maps profileIds to an ArrayMap that maps package names to
-            // an associated PermissionState object
-            SparseArray<ArrayMap<String, PermissionState>> entries = new SparseArray<>();
-            for (final UserHandle profile : mProfiles) {
-                final ArrayMap<String, PermissionState> entriesForProfile = new ArrayMap<>();
-                final int profileId = profile.getIdentifier();
-                entries.put(profileId, entriesForProfile);
-                for (final String packageName : packagesSet) {
-                    final boolean isAvailable = mIPackageManager.isPackageAvailable(packageName,
-                            profileId);
-                    if (!shouldIgnorePackage(packageName) && isAvailable) {
-                        final PermissionState newEntry = new PermissionState(packageName, profile);
-                        entriesForProfile.put(packageName, newEntry);
-                    }
-                }
-            }
-
-            return entries;
-        } catch (RemoteException e) {
-            Log.w(TAG, "PackageManager is dead. Can't get list of packages requesting "
-                    + mPermissions[0], e);
-            return null;
+            ArrayMap<String, PermissionState> userMap = entries.get(userId);
+            app.extraInfo = userMap != null ? userMap.get(app.info.packageName) : null;
         }
     }
 
-    /*
-     * This method will set the packageInfo and staticPermissionGranted field of the associated
-     * PermissionState, which describes a particular package.
-     */
-    private void loadPermissionsStates(SparseArray<ArrayMap<String, PermissionState>> entries) {
-        // Load the packages that have been granted the permission specified in mPermission.
-        if (entries == null) {
-            return;
-        }
-
-        try {
-            for (final UserHandle profile : mProfiles) {
-                final int profileId = profile.getIdentifier();
-                final ArrayMap<String, PermissionState> entriesForProfile = entries.get(profileId);
-                if (entriesForProfile == null) {
-                    continue;
-                }
-                @SuppressWarnings("unchecked") final List<PackageInfo> packageInfos =
-                        mIPackageManager
-                                .getPackagesHoldingPermissions(mPermissions, 0,
-                                        profileId).getList();
-                final int packageInfoCount = packageInfos != null ? packageInfos.size() : 0;
-                for (int i = 0; i < packageInfoCount; i++) {
-                    final PackageInfo packageInfo = packageInfos.get(i);
-                    final PermissionState pe = entriesForProfile.get(packageInfo.packageName);
-                    if (pe != null) {
-                        pe.packageInfo = packageInfo;
-                        pe.staticPermissionGranted = true;
-                    }
-                }
-            }
-        } catch (RemoteException e) {
-            Log.w(TAG, "PackageManager is dead. Can't get list of packages granted "
-                    + mPermissions, e);
-            return;
-        }
-    }
-
-    /*
-     * This method will set the appOpMode field of the associated PermissionState, which describes
-     * a particular package.
-     */
-    private void loadAppOpsStates(SparseArray<ArrayMap<String, PermissionState>> entries) {
-        if (entries == null) {
-            return;
-        }
-
-        // Find out which packages have been granted permission from AppOps.
-        final List<AppOpsManager.PackageOps> packageOps = mAppOpsManager.getPackagesForOps(
-                mAppOpsOpCodes);
-        final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
-        for (int i = 0; i < packageOpsCount; i++) {
-            final AppOpsManager.PackageOps packageOp = packageOps.get(i);
-            final int userId = UserHandle.getUserId(packageOp.getUid());
-            if (!isThisUserAProfileOfCurrentUser(userId)) {
-                // This AppOp does not belong to any of this user's profiles.
-                continue;
-            }
-
-            final ArrayMap<String, PermissionState> entriesForProfile = entries.get(userId);
-            if (entriesForProfile == null) {
-                continue;
-            }
-            final PermissionState pe = entriesForProfile.get(packageOp.getPackageName());
-            if (pe == null) {
-                Log.w(TAG, "AppOp permission exists for package " + packageOp.getPackageName()
-                        + " of user " + userId + " but package doesn't exist or did not request "
-                        + Arrays.toString(mPermissions) + " access");
-                continue;
-            }
-
-            if (packageOp.getOps().size() < 1) {
-                Log.w(TAG, "No AppOps permission exists for package " + packageOp.getPackageName());
-                continue;
-            }
-            pe.appOpMode = packageOp.getOps().get(0).getMode();
-        }
-    }
-
-    /*
-     * Check for packages that should be ignored for further processing
-     */
-    private boolean shouldIgnorePackage(String packageName) {
-        return packageName.equals("android") || packageName.equals(mContext.getPackageName());
-    }
-
     public int getNumPackagesDeclaredPermission() {
-        SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
-        if (entries == null) {
-            return 0;
-        }
-        final ArrayMap<String, PermissionState> entriesForProfile = entries.get(mUserManager
-                .getUserHandle());
-        if (entriesForProfile == null) {
-            return 0;
-        }
-        return entriesForProfile.size();
+        return mIndex.getPackageCount(mUserManager.getUserHandle());
     }
 
     public int getNumPackagesAllowedByAppOps() {
-        SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
-        if (entries == null) {
-            return 0;
-        }
-        loadPermissionsStates(entries);
-        loadAppOpsStates(entries);
-        final ArrayMap<String, PermissionState> entriesForProfile = entries.get(mUserManager
-                .getUserHandle());
-        if (entriesForProfile == null) {
-            return 0;
-        }
-        Collection<PermissionState> permStates = entriesForProfile.values();
-        int result = 0;
-        for (PermissionState permState : permStates) {
-            if (permState.isPermissible()) {
-                result++;
-            }
-        }
-        return result;
+        return mIndex.getPermissibleCount(mUserManager.getUserHandle());
     }
 
     public static class PermissionState {
@@ -16,12 +16,9 @@
 package com.android.settings.applications;
 
 import android.app.usage.IUsageStatsManager;
-import android.app.usage.UsageEvents;
 import android.content.Context;
-import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
-import android.text.format.DateUtils;
 import android.util.ArrayMap;
 import android.util.Log;
 import android.util.Slog;
@@ -30,9 +27,13 @@ import android.view.ViewGroup;
 import android.widget.CompoundButton;
 import android.widget.Switch;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.settings.R;
 import com.android.settings.Utils;
 import com.android.settings.notification.NotificationBackend;
+import com.android.settings.notification.NotificationsSentAggregator;
+import com.android.settings.notification.NotificationsSentAggregator.SentCount;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 import com.android.settingslib.applications.ApplicationsState.AppFilter;
@@ -55,15 +56,26 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
     private IUsageStatsManager mUsageStatsManager;
     protected List<Integer> mUserIds;
     private NotificationBackend mBackend;
-    private static final int DAYS_TO_CHECK = 7;
+    private final NotificationsSentAggregator mSentAggregator;
+    private static final int DAYS_TO_CHECK = NotificationsSentAggregator.DAYS_TO_CHECK;
 
     public AppStateNotificationBridge(Context context, ApplicationsState appState,
             Callback callback, IUsageStatsManager usageStatsManager,
             UserManager userManager, NotificationBackend backend) {
+        this(context, appState, callback, usageStatsManager, userManager, backend,
+                NotificationsSentAggregator.getInstance());
+    }
+
+    @VisibleForTesting
+    AppStateNotificationBridge(Context context, ApplicationsState appState,
+            Callback callback, IUsageStatsManager usageStatsManager,
+            UserManager userManager, NotificationBackend backend,
+            NotificationsSentAggregator sentAggregator) {
         super(appState, callback);
         mContext = context;
         mUsageStatsManager = usageStatsManager;
         mBackend = backend;
+        mSentAggregator = sentAggregator;
         mUserIds = new ArrayList<>();
         mUserIds.add(mContext.getUserId());
         int workUserId = Utils.getManagedProfileId(userManager, mContext.getUserId());
@@ -144,69 +156,27 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
     protected Map<String, NotificationsSentState> getAggregatedUsageEvents() {
         ArrayMap<String, NotificationsSentState> aggregatedStats = new ArrayMap<>();
 
-        long now = System.currentTimeMillis();
-        long startTime = now - (DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
         for (int userId : mUserIds) {
-            UsageEvents events = null;
-            try {
-                events = mUsageStatsManager.queryEventsForUser(
-                        startTime, now, userId, mContext.getPackageName());
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-            if (events != null) {
-                UsageEvents.Event event = new UsageEvents.Event();
-                while (events.hasNextEvent()) {
-                    events.getNextEvent(event);
-                    NotificationsSentState stats =
-                            aggregatedStats.get(getKey(userId, event.getPackageName()));
-                    if (stats == null) {
-                        stats = new NotificationsSentState();
-                        aggregatedStats.put(getKey(userId, event.getPackageName()), stats);
-                    }
-
-                    if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
-                        if (event.getTimeStamp() > stats.lastSent) {
-                            stats.lastSent = event.getTimeStamp();
-                        }
-                        stats.sentCount++;
-                    }
-
-                }
+            final Map<String, SentCount> counts = mSentAggregator.getPackageCounts(
+                    mUsageStatsManager, mContext.getPackageName(), userId);
+            for (Map.Entry<String, SentCount> count : counts.entrySet()) {
+                aggregatedStats.put(getKey(userId, count.getKey()),
+                        getNotificationsSentState(count.getValue()));
             }
         }
         return aggregatedStats;
     }
 
     protected NotificationsSentState getAggregatedUsageEvents(int userId, String pkg) {
-        NotificationsSentState stats = null;
-
-        long now = System.currentTimeMillis();
-        long startTime = now - (DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
-        UsageEvents events = null;
-        try {
-            events = mUsageStatsManager.queryEventsForPackageForUser(
-                    startTime, now, userId, pkg, mContext.getPackageName());
-        } catch (RemoteException e) {
-            e.printStackTrace();
-        }
-        if (events != null) {
-            UsageEvents.Event event = new UsageEvents.Event();
-            while (events.hasNextEvent()) {
-                events.getNextEvent(event);
-
-                if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
-                    if (stats == null) {
-                        stats = new NotificationsSentState();
-                    }
-                    if (event.getTimeStamp() > stats.lastSent) {
-                        stats.lastSent = event.getTimeStamp();
-                    }
-                    stats.sentCount++;
-                }
+        final SentCount count = mSentAggregator.getPackageCount(
+                mUsageStatsManager, mContext.getPackageName(), userId, pkg);
+        return count == null ? null : getNotificationsSentState(count);
+    }
 
-            }
-        }
+    private static NotificationsSentState getNotificationsSentState(SentCount count) {
+        final NotificationsSentState stats = new NotificationsSentState();
+        stats.sentCount = count.sentCount;
+        stats.lastSent = count.lastSent;
         return stats;
     }
 
@@ -17,6 +17,7 @@
 package com.android.settings.applications;
 
 import android.app.admin.DevicePolicyManager;
+import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageManager;
@@ -31,10 +32,10 @@ public abstract class AppWithAdminGrantedPermissionsLister extends AppLister {
     private final IPackageManager mPackageManagerService;
     private final DevicePolicyManager mDevicePolicyManager;
 
-    public AppWithAdminGrantedPermissionsLister(String[] permissions,
+    public AppWithAdminGrantedPermissionsLister(Context context, String[] permissions,
             PackageManager packageManager, IPackageManager packageManagerService,
             DevicePolicyManager devicePolicyManager, UserManager userManager) {
-        super(packageManager, userManager);
+        super(context, packageManager, userManager);
         mPermissions = permissions;
         mPackageManagerService = packageManagerService;
         mDevicePolicyManager = devicePolicyManager;
@@ -82,7 +82,7 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
     @Override
     public void listPolicyInstalledApps(ListOfAppsCallback callback) {
         final CurrentUserPolicyInstalledAppLister lister =
-                new CurrentUserPolicyInstalledAppLister(mPm, mUm, callback);
+                new CurrentUserPolicyInstalledAppLister(mContext, mPm, mUm, callback);
         lister.execute();
     }
 
@@ -103,8 +103,8 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
     public void listAppsWithAdminGrantedPermissions(String[] permissions,
             ListOfAppsCallback callback) {
         final CurrentUserAppWithAdminGrantedPermissionsLister lister =
-                new CurrentUserAppWithAdminGrantedPermissionsLister(permissions, mPm, mPms, mDpm,
-                        mUm, callback);
+                new CurrentUserAppWithAdminGrantedPermissionsLister(mContext, permissions, mPm,
+                        mPms, mDpm, mUm, callback);
         lister.execute();
     }
 
@@ -223,9 +223,9 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
     private static class CurrentUserPolicyInstalledAppLister extends InstalledAppLister {
         private ListOfAppsCallback mCallback;
 
-        CurrentUserPolicyInstalledAppLister(PackageManager packageManager,
+        CurrentUserPolicyInstalledAppLister(Context context, PackageManager packageManager,
                 UserManager userManager, ListOfAppsCallback callback) {
-            super(packageManager, userManager);
+            super(context, packageManager, userManager);
             mCallback = callback;
         }
 
@@ -239,12 +239,12 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
             AppWithAdminGrantedPermissionsLister {
         private ListOfAppsCallback mCallback;
 
-        CurrentUserAppWithAdminGrantedPermissionsLister(String[] permissions,
+        CurrentUserAppWithAdminGrantedPermissionsLister(Context context, String[] permissions,
                 PackageManager packageManager, IPackageManager packageManagerService,
                 DevicePolicyManager devicePolicyManager, UserManager userManager,
                 ListOfAppsCallback callback) {
-            super(permissions, packageManager, packageManagerService, devicePolicyManager,
-                    userManager);
+            super(context, permissions, packageManager, packageManagerService,
+                    devicePolicyManager, userManager);
             mCallback = callback;
         }
 
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.internal.util.ArrayUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Installed applications of a user, loaded once and shared by everything listing or counting
+ * them in the process, until a package changes.
+ *
+ * <p>Each list is a large binder transfer, and screens such as the enterprise privacy page used to
+ * request it again for every counter. Lists are loaded on first use per flags, and dropped by any
+ * package broadcast. Filtered views reuse the same lists.
+ *
+ * <p>Loading a list costs the same as asking {@link PackageManager} directly, and a few callers,
+ * such as {@link com.android.settings.development.AppPicker} and the zen access page, still do
+ * that on the main thread as they did before. Serving the same list again costs no binder call.
+ */
+public class InstalledAppsSnapshot {
+
+    /** Applications that aren't part of the system image. */
+    public static final Predicate<ApplicationInfo> FILTER_NON_SYSTEM =
+            info -> (info.flags & ApplicationInfo.FLAG_SYSTEM) == 0;
+
+    // The application context the snapshots are kept for, and its snapshot of each user. Guarded
+    // by InstalledAppsSnapshot.class.
+    private static Context sAppContext;
+    private static final SparseArray<InstalledAppsSnapshot> sSnapshots = new SparseArray<>();
+    // Bumped by every package broadcast. Guarded by InstalledAppsSnapshot.class.
+    private static int sGeneration;
+
+    private final Context mContext;
+    private final int mUserId;
+    // Guarded by this.
+    private int mGeneration;
+    // By flags.
+    private final SparseArray<List<ApplicationInfo>> mApplications = new SparseArray<>();
+    // By permission.
+    private final ArrayMap<String, ArraySet<String>> mRequestingPackages = new ArrayMap<>();
+
+    /** Returns the snapshot of the applications installed for {@code userId}. */
+    public static synchronized InstalledAppsSnapshot get(Context context, int userId) {
+        final Context appContext = context.getApplicationContext();
+        if (appContext != sAppContext) {
+            // Once per process, unless tests replace the application.
+            sAppContext = appContext;
+            sSnapshots.clear();
+            registerReceiver(appContext);
+        }
+        InstalledAppsSnapshot snapshot = sSnapshots.get(userId);
+        if (snapshot == null) {
+            snapshot = new InstalledAppsSnapshot(appContext, userId);
+            sSnapshots.put(userId, snapshot);
+        }
+        return snapshot;
+    }
+
+    @VisibleForTesting
+    static synchronized void invalidateAll() {
+        sGeneration++;
+    }
+
+    private InstalledAppsSnapshot(Context appContext, int userId) {
+        mContext = appContext;
+        mUserId = userId;
+    }
+
+    /**
+     * Returns the applications installed for the user, as returned by
+     * {@link PackageManager#getInstalledApplicationsAsUser} for {@code flags}. Don't modify them.
+     * Queries the package manager unless the list is kept, so prefer a background thread.
+     */
+    public synchronized List<ApplicationInfo> getApplications(int flags) {
+        checkGeneration();
+        List<ApplicationInfo> applications = mApplications.get(flags);
+        if (applications == null) {
+            applications = Collections.unmodifiableList(
+                    mContext.getPackageManager().getInstalledApplicationsAsUser(flags, mUserId));
+            mApplications.put(flags, applications);
+        }
+        return applications;
+    }
+
+    /** Returns the applications of {@link #getApplications} matching {@code filter}. */
+    public List<ApplicationInfo> getApplications(int flags, Predicate<ApplicationInfo> filter) {
+        final List<ApplicationInfo> applications = getApplications(flags);
+        final List<ApplicationInfo> result = new ArrayList<>();
+        for (int i = 0, size = applications.size(); i < size; i++) {
+            if (filter.test(applications.get(i))) {
+                result.add(applications.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a filter matching applications of the user requesting {@code permission}. All of
+     * them are resolved at once, with one package manager query unless they are kept.
+     */
+    public synchronized Predicate<ApplicationInfo> getRequestingPermissionFilter(
+            String permission) {
+        checkGeneration();
+        ArraySet<String> packages = mRequestingPackages.get(permission);
+        if (packages == null) {
+            packages = new ArraySet<>();
+            final List<PackageInfo> packageInfos = mContext.getPackageManager()
+                    .getInstalledPackagesAsUser(PackageManager.GET_PERMISSIONS, mUserId);
+            for (PackageInfo packageInfo : packageInfos) {
+                if (ArrayUtils.contains(packageInfo.requestedPermissions, permission)) {
+                    packages.add(packageInfo.packageName);
+                }
+            }
+            mRequestingPackages.put(permission, packages);
+        }
+        final ArraySet<String> requestingPackages = packages;
+        return info -> requestingPackages.contains(info.packageName);
+    }
+
+    // Drops the lists if a package changed since they were loaded.
+    private void checkGeneration() {
+        final int generation;
+        synchronized (InstalledAppsSnapshot.class) {
+            generation = sGeneration;
+        }
+        if (generation != mGeneration) {
+            mGeneration = generation;
+            mApplications.clear();
+            mRequestingPackages.clear();
+        }
+    }
+
+    private static void registerReceiver(Context appContext) {
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        // Lives as long as the application context, like the snapshots. Lists of admin users
+        // include the packages of other users, so any change drops every list.
+        appContext.registerReceiverAsUser(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidateAll();
+            }
+        }, UserHandle.ALL, filter, null /* broadcastPermission */, null /* scheduler */);
+    }
+}
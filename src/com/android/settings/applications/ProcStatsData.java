@@ -29,6 +29,8 @@ import android.util.Log;
 import android.util.LongSparseArray;
 import android.util.SparseArray;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.internal.app.ProcessMap;
 import com.android.internal.app.procstats.DumpUtils;
 import com.android.internal.app.procstats.IProcessStats;
@@ -40,6 +42,7 @@ import com.android.internal.app.procstats.ServiceState;
 import com.android.internal.util.MemInfoReader;
 import com.android.settings.R;
 import com.android.settings.Utils;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -53,7 +56,8 @@ public class ProcStatsData {
 
     private static final boolean DEBUG = ProcessStatsUi.DEBUG;
 
-    private static ProcessStats sStatsXfer;
+    // Handed over to the next ProcStatsData created with useXfer, which takes it.
+    private static LongSparseArray<StatsSnapshot> sStatsXfer;
 
     private PackageManager mPm;
     private Context mContext;
@@ -73,6 +77,19 @@ public class ProcStatsData {
 
     private ArrayList<ProcStatsPackageEntry> pkgEntries;
 
+    // The stats computed for each duration, including the current one.
+    private LongSparseArray<StatsSnapshot> mSnapshots = new LongSparseArray<>();
+
+    private OnStatsLoadedListener mListener;
+    // Incremented to stop loading stats in the background.
+    private volatile int mLoadGeneration;
+
+    /** Listener of the stats loaded by {@link #refreshStatsInBackground}. */
+    public interface OnStatsLoadedListener {
+        /** Called on the main thread when new stats are loaded for the current duration. */
+        void onStatsLoaded();
+    }
+
     public ProcStatsData(Context context, boolean useXfer) {
         mContext = context;
         mPm = context.getPackageManager();
@@ -80,17 +97,34 @@ public class ProcStatsData {
                 ServiceManager.getService(ProcessStats.SERVICE_NAME));
         mMemStates = ProcessStats.ALL_MEM_ADJ;
         mStates = ProcessStats.BACKGROUND_PROC_STATES;
-        if (useXfer) {
-            mStats = sStatsXfer;
+        if (useXfer && sStatsXfer != null) {
+            mSnapshots = sStatsXfer;
+            sStatsXfer = null;
         }
     }
 
+    // Computes the stats of another duration with the same states as data.
+    private ProcStatsData(ProcStatsData data, long duration) {
+        mContext = data.mContext;
+        mPm = data.mPm;
+        mProcessStats = data.mProcessStats;
+        mUseUss = data.mUseUss;
+        mMemStates = data.mMemStates;
+        mStates = data.mStates;
+        mDuration = duration;
+    }
+
     public void setTotalTime(int totalTime) {
         memTotalTime = totalTime;
     }
 
     public void xferStats() {
-        sStatsXfer = mStats;
+        sStatsXfer = mSnapshots.clone();
+    }
+
+    /** Drops the stats handed over by {@link #xferStats} that weren't taken. */
+    public static void clearXferStats() {
+        sStatsXfer = null;
     }
 
     public void setMemStates(int[] memStates) {
@@ -122,10 +156,15 @@ public class ProcStatsData {
         return mStats.mTimePeriodEndRealtime - mStats.mTimePeriodStartRealtime;
     }
 
+    /**
+     * Switches to the stats of {@code duration}, which are available right away if they were
+     * loaded before, see {@link #hasStats}. Otherwise they are loaded by the next call to
+     * {@link #refreshStats} or {@link #refreshStatsInBackground}.
+     */
     public void setDuration(long duration) {
         if (duration != mDuration) {
             mDuration = duration;
-            refreshStats(true);
+            restoreSnapshot(mSnapshots.get(duration));
         }
     }
 
@@ -133,15 +172,29 @@ public class ProcStatsData {
         return mDuration;
     }
 
+    /** Returns whether stats are loaded for the current duration. */
+    public boolean hasStats() {
+        return pkgEntries != null;
+    }
+
     public List<ProcStatsPackageEntry> getEntries() {
         return pkgEntries;
     }
 
+    public void setOnStatsLoadedListener(OnStatsLoadedListener listener) {
+        mListener = listener;
+    }
+
     public void refreshStats(boolean forceLoad) {
         if (mStats == null || forceLoad) {
             load();
         }
+        computeEntries();
+        mSnapshots.put(mDuration, new StatsSnapshot(this));
+    }
 
+    @VisibleForTesting
+    void computeEntries() {
         pkgEntries = new ArrayList<>();
 
         long now = SystemClock.uptimeMillis();
@@ -170,6 +223,70 @@ public class ProcStatsData {
         pkgEntries.add(osPkg);
     }
 
+    /**
+     * Loads the stats of the current duration again in the background, then the stats of the
+     * other {@code durations} that aren't loaded yet so that switching to them shows them right
+     * away. The listener is called once the stats of the current duration are loaded, until then
+     * the ones loaded before, if any, stay available.
+     */
+    public void refreshStatsInBackground(long[] durations) {
+        final int generation = ++mLoadGeneration;
+        final List<ProcStatsData> loaders = new ArrayList<>();
+        loaders.add(new ProcStatsData(this, mDuration));
+        for (long duration : durations) {
+            if (duration != mDuration && mSnapshots.get(duration) == null) {
+                loaders.add(new ProcStatsData(this, duration));
+            }
+        }
+        ThreadUtils.postOnBackgroundThread(() -> {
+            for (ProcStatsData loader : loaders) {
+                if (generation != mLoadGeneration) {
+                    return;
+                }
+                loader.load();
+                if (loader.mStats != null) {
+                    loader.refreshStats(false);
+                    final StatsSnapshot snapshot = new StatsSnapshot(loader);
+                    ThreadUtils.postOnMainThread(
+                            () -> onSnapshotLoaded(generation, loader.mDuration, snapshot));
+                }
+            }
+        });
+    }
+
+    /** Stops loading stats in the background, the listener isn't called anymore. */
+    public void cancelBackgroundRefresh() {
+        mLoadGeneration++;
+    }
+
+    private void onSnapshotLoaded(int generation, long duration, StatsSnapshot snapshot) {
+        if (snapshot.mMemStates != mMemStates || snapshot.mStates != mStates) {
+            // Computed for states that were changed since.
+            return;
+        }
+        mSnapshots.put(duration, snapshot);
+        if (duration == mDuration) {
+            restoreSnapshot(snapshot);
+            if (generation == mLoadGeneration && mListener != null) {
+                mListener.onStatsLoaded();
+            }
+        }
+    }
+
+    private void restoreSnapshot(StatsSnapshot snapshot) {
+        mStats = snapshot != null ? snapshot.mStats : null;
+        if (snapshot == null || snapshot.mMemStates != mMemStates
+                || snapshot.mStates != mStates) {
+            // Only the loaded stats can be reused, refreshStats() computes the rest.
+            mMemInfo = null;
+            pkgEntries = null;
+            return;
+        }
+        memTotalTime = snapshot.mMemTotalTime;
+        mMemInfo = snapshot.mMemInfo;
+        pkgEntries = snapshot.mEntries;
+    }
+
     private void createPkgMap(ArrayList<ProcStatsEntry> procEntries, ProcessDataCollection bgTotals,
             ProcessDataCollection runTotals) {
         // Combine processes into packages.
@@ -341,7 +458,8 @@ public class ProcStatsData {
         return procEntries;
     }
 
-    private void load() {
+    @VisibleForTesting
+    void load() {
         try {
             ParcelFileDescriptor pfd = mProcessStats.getStatsOverTime(mDuration);
             mStats = new ProcessStats(false);
@@ -359,6 +477,25 @@ public class ProcStatsData {
         }
     }
 
+    /** The stats loaded for a duration and what was computed from them. */
+    private static class StatsSnapshot {
+        final ProcessStats mStats;
+        final long mMemTotalTime;
+        final MemInfo mMemInfo;
+        final ArrayList<ProcStatsPackageEntry> mEntries;
+        final int[] mMemStates;
+        final int[] mStates;
+
+        StatsSnapshot(ProcStatsData data) {
+            mStats = data.mStats;
+            mMemTotalTime = data.memTotalTime;
+            mMemInfo = data.mMemInfo;
+            mEntries = data.pkgEntries;
+            mMemStates = data.mMemStates;
+            mStates = data.mStates;
+        }
+    }
+
     public static class MemInfo {
         public double realUsedRam;
         public double realFreeRam;
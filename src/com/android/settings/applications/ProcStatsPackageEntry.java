@@ -125,7 +125,11 @@ public class ProcStatsPackageEntry implements Parcelable {
                         PackageManager.MATCH_DISABLED_COMPONENTS |
                         PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS |
                         PackageManager.MATCH_ANY_USER);
-                mUiLabel = mUiTargetApp.loadLabel(pm).toString();
+                final AppIdentityCache.AppIdentity identity = AppIdentityCache.getInstance()
+                        .getApplicationIdentity(context, pm, mUiTargetApp);
+                if (identity != null) {
+                    mUiLabel = identity.label.toString();
+                }
             }
         } catch (PackageManager.NameNotFoundException e) {
             Log.d(TAG, "could not find package: " + mPackage);
@@ -76,6 +76,7 @@ public abstract class ProcessStatsBase extends SettingsPreferenceFragment
                 : args != null ? args.getInt(ARG_DURATION_INDEX) : 0;
         mStatsManager.setDuration(icicle != null
                 ? icicle.getLong(DURATION, sDurations[0]) : sDurations[0]);
+        mStatsManager.setOnStatsLoadedListener(this::refreshUi);
     }
 
     @Override
@@ -88,15 +89,22 @@ public abstract class ProcessStatsBase extends SettingsPreferenceFragment
     @Override
     public void onResume() {
         super.onResume();
-        mStatsManager.refreshStats(false);
-        refreshUi();
+        // Show the stats loaded before right away, then the ones loaded in the background.
+        if (mStatsManager.hasStats()) {
+            refreshUi();
+        }
+        mStatsManager.refreshStatsInBackground(sDurations);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        mStatsManager.cancelBackgroundRefresh();
+        mStatsManager.setOnStatsLoadedListener(null);
         if (getActivity().isChangingConfigurations()) {
             mStatsManager.xferStats();
+        } else {
+            ProcStatsData.clearXferStats();
         }
     }
 
@@ -118,8 +126,13 @@ public abstract class ProcessStatsBase extends SettingsPreferenceFragment
     @Override
     public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
         mDurationIndex = position;
-        mStatsManager.setDuration(sDurations[position]);
-        refreshUi();
+        if (mStatsManager.getDuration() != sDurations[position]) {
+            mStatsManager.setDuration(sDurations[position]);
+            mStatsManager.refreshStatsInBackground(sDurations);
+        }
+        if (mStatsManager.hasStats()) {
+            refreshUi();
+        }
     }
 
     @Override
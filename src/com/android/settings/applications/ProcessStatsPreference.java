@@ -41,8 +41,12 @@ public class ProcessStatsPreference extends AppPreference {
         if (TextUtils.isEmpty(title)) {
             Log.d(TAG, "PackageEntry contained no package name or uiLabel");
         }
-        if (entry.mUiTargetApp != null) {
-            setIcon(entry.mUiTargetApp.loadIcon(pm));
+        final AppIdentityCache.AppIdentity identity = entry.mUiTargetApp != null
+                ? AppIdentityCache.getInstance().getApplicationIdentity(getContext(), pm,
+                        entry.mUiTargetApp)
+                : null;
+        if (identity != null) {
+            setIcon(identity.getIcon());
         } else {
             setIcon(pm.getDefaultActivityIcon());
         }
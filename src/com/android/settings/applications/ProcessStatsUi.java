@@ -79,7 +79,9 @@ public class ProcessStatsUi extends ProcessStatsBase {
             case MENU_SHOW_AVG:
             case MENU_SHOW_MAX:
                 mShowMax = !mShowMax;
-                refreshUi();
+                if (mStatsManager.hasStats()) {
+                    refreshUi();
+                }
                 updateMenu();
                 return true;
         }
@@ -51,6 +51,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 public class RunningProcessesView extends FrameLayout
         implements AdapterView.OnItemClickListener, RecyclerListener,
@@ -210,7 +211,7 @@ public class RunningProcessesView extends FrameLayout
         final RunningState mState;
         final LayoutInflater mInflater;
         boolean mShowBackground;
-        ArrayList<RunningState.MergedItem> mOrigItems;
+        List<RunningState.MergedItem> mOrigItems;
         final ArrayList<RunningState.MergedItem> mItems
                 = new ArrayList<RunningState.MergedItem>();
 
@@ -235,7 +236,7 @@ public class RunningProcessesView extends FrameLayout
         }
 
         void refreshItems() {
-            ArrayList<RunningState.MergedItem> newItems =
+            List<RunningState.MergedItem> newItems =
                 mShowBackground ? mState.getCurrentBackgroundItems()
                         : mState.getCurrentMergedItems();
             if (mOrigItems != newItems) {
@@ -338,60 +339,59 @@ public class RunningProcessesView extends FrameLayout
         }
         */
 
-        synchronized (mState.mLock) {
-            if (mCurShowCached != mAdapter.mShowBackground) {
-                mCurShowCached = mAdapter.mShowBackground;
-                if (mCurShowCached) {
-                    mForegroundProcessPrefix.setText(getResources().getText(
-                            R.string.running_processes_header_used_prefix));
-                    mAppsProcessPrefix.setText(getResources().getText(
-                            R.string.running_processes_header_cached_prefix));
-                } else {
-                    mForegroundProcessPrefix.setText(getResources().getText(
-                            R.string.running_processes_header_system_prefix));
-                    mAppsProcessPrefix.setText(getResources().getText(
-                            R.string.running_processes_header_apps_prefix));
-                }
-            }
-
-            final long totalRam = mMemInfoReader.getTotalSize();
-            final long medRam;
-            final long lowRam;
+        if (mCurShowCached != mAdapter.mShowBackground) {
+            mCurShowCached = mAdapter.mShowBackground;
             if (mCurShowCached) {
-                lowRam = mMemInfoReader.getFreeSize() + mMemInfoReader.getCachedSize();
-                medRam = mState.mBackgroundProcessMemory;
+                mForegroundProcessPrefix.setText(getResources().getText(
+                        R.string.running_processes_header_used_prefix));
+                mAppsProcessPrefix.setText(getResources().getText(
+                        R.string.running_processes_header_cached_prefix));
             } else {
-                lowRam = mMemInfoReader.getFreeSize() + mMemInfoReader.getCachedSize()
-                        + mState.mBackgroundProcessMemory;
-                medRam = mState.mServiceProcessMemory;
-
-            }
-            final long highRam = totalRam - medRam - lowRam;
-
-            if (mCurTotalRam != totalRam || mCurHighRam != highRam || mCurMedRam != medRam
-                    || mCurLowRam != lowRam) {
-                mCurTotalRam = totalRam;
-                mCurHighRam = highRam;
-                mCurMedRam = medRam;
-                mCurLowRam = lowRam;
-                BidiFormatter bidiFormatter = BidiFormatter.getInstance();
-                String sizeStr = bidiFormatter.unicodeWrap(
-                        Formatter.formatShortFileSize(getContext(), lowRam));
-                mBackgroundProcessText.setText(getResources().getString(
-                        R.string.running_processes_header_ram, sizeStr));
-                sizeStr = bidiFormatter.unicodeWrap(
-                        Formatter.formatShortFileSize(getContext(), medRam));
-                mAppsProcessText.setText(getResources().getString(
-                        R.string.running_processes_header_ram, sizeStr));
-                sizeStr = bidiFormatter.unicodeWrap(
-                        Formatter.formatShortFileSize(getContext(), highRam));
-                mForegroundProcessText.setText(getResources().getString(
-                        R.string.running_processes_header_ram, sizeStr));
-                int progress = (int) ((highRam/(float) totalRam) * 100);
-                mColorBar.setProgress(progress);
-                mColorBar.setSecondaryProgress(progress + (int) ((medRam/(float) totalRam) * 100));
+                mForegroundProcessPrefix.setText(getResources().getText(
+                        R.string.running_processes_header_system_prefix));
+                mAppsProcessPrefix.setText(getResources().getText(
+                        R.string.running_processes_header_apps_prefix));
             }
         }
+
+        final RunningState.Snapshot snapshot = mState.getSnapshot();
+        final long totalRam = mMemInfoReader.getTotalSize();
+        final long medRam;
+        final long lowRam;
+        if (mCurShowCached) {
+            lowRam = mMemInfoReader.getFreeSize() + mMemInfoReader.getCachedSize();
+            medRam = snapshot.mBackgroundProcessMemory;
+        } else {
+            lowRam = mMemInfoReader.getFreeSize() + mMemInfoReader.getCachedSize()
+                    + snapshot.mBackgroundProcessMemory;
+            medRam = snapshot.mServiceProcessMemory;
+
+        }
+        final long highRam = totalRam - medRam - lowRam;
+
+        if (mCurTotalRam != totalRam || mCurHighRam != highRam || mCurMedRam != medRam
+                || mCurLowRam != lowRam) {
+            mCurTotalRam = totalRam;
+            mCurHighRam = highRam;
+            mCurMedRam = medRam;
+            mCurLowRam = lowRam;
+            BidiFormatter bidiFormatter = BidiFormatter.getInstance();
+            String sizeStr = bidiFormatter.unicodeWrap(
+                    Formatter.formatShortFileSize(getContext(), lowRam));
+            mBackgroundProcessText.setText(getResources().getString(
+                    R.string.running_processes_header_ram, sizeStr));
+            sizeStr = bidiFormatter.unicodeWrap(
+                    Formatter.formatShortFileSize(getContext(), medRam));
+            mAppsProcessText.setText(getResources().getString(
+                    R.string.running_processes_header_ram, sizeStr));
+            sizeStr = bidiFormatter.unicodeWrap(
+                    Formatter.formatShortFileSize(getContext(), highRam));
+            mForegroundProcessText.setText(getResources().getString(
+                    R.string.running_processes_header_ram, sizeStr));
+            int progress = (int) ((highRam/(float) totalRam) * 100);
+            mColorBar.setProgress(progress);
+            mColorBar.setSecondaryProgress(progress + (int) ((medRam/(float) totalRam) * 100));
+        }
     }
 
     public void onItemClick(AdapterView<?> parent, View v, int position, long id) {
@@ -43,6 +43,8 @@ import android.text.format.Formatter;
 import android.util.Log;
 import android.util.SparseArray;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.settings.R;
 import com.android.settingslib.Utils;
 import com.android.settingslib.applications.InterestingConfigChanges;
@@ -53,6 +55,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Singleton for retrieving and monitoring the state about all running
@@ -72,6 +75,8 @@ public class RunningState {
 
     static final long TIME_UPDATE_DELAY = 1000;
     static final long CONTENTS_UPDATE_DELAY = 2000;
+    // Upper bound of the update delay, reached after a few updates without any change.
+    static final long MAX_CONTENTS_UPDATE_DELAY = 8000;
 
     static final int MAX_SERVICES = 100;
 
@@ -137,6 +142,21 @@ public class RunningState {
     // Temporary structure used when updating above information.
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
+    // What ActivityManager reported on the last update, by pid for processes and in order
+    // for services.  When it reports the same again only the process sizes are refreshed.
+    final SparseArray<ActivityManager.RunningAppProcessInfo> mLastProcesses
+            = new SparseArray<ActivityManager.RunningAppProcessInfo>();
+    final ArrayList<ActivityManager.RunningServiceInfo> mLastServices
+            = new ArrayList<ActivityManager.RunningServiceInfo>();
+    boolean mHaveLastSnapshot;
+
+    @VisibleForTesting
+    public interface ProcessPssReader {
+        long[] getProcessPss(int[] pids) throws RemoteException;
+    }
+
+    ProcessPssReader mPssReader = pids -> ActivityManager.getService().getProcessPss(pids);
+
     int mSequence = 0;
 
     final Comparator<RunningState.MergedItem> mBackgroundComparator =
@@ -203,25 +223,62 @@ public class RunningState {
 
     // ----- following protected by mLock -----
 
-    // Lock for protecting the state that will be shared between the
-    // background update thread and the UI thread.
+    // Lock for protecting the resume state shared between the background
+    // update thread and the UI thread.  Also held by the background thread
+    // while it updates the items of the model, and by the UI thread while it
+    // binds them; the lists and totals are read through mSnapshot instead.
     final Object mLock = new Object();
 
     boolean mResumed;
-    boolean mHaveData;
-    boolean mWatchingBackgroundItems;
+    volatile boolean mHaveData;
+    volatile boolean mWatchingBackgroundItems;
+
+    // ----- following only used by the background thread -----
 
     ArrayList<BaseItem> mItems = new ArrayList<BaseItem>();
     ArrayList<MergedItem> mMergedItems = new ArrayList<MergedItem>();
     ArrayList<MergedItem> mBackgroundItems = new ArrayList<MergedItem>();
     ArrayList<MergedItem> mUserBackgroundItems = new ArrayList<MergedItem>();
 
-    int mNumBackgroundProcesses;
-    long mBackgroundProcessMemory;
-    int mNumForegroundProcesses;
-    long mForegroundProcessMemory;
-    int mNumServiceProcesses;
-    long mServiceProcessMemory;
+    // Whether a size shown by the UI changed in the last update.
+    boolean mSizesChanged;
+
+    // ----- following published to the UI thread -----
+
+    volatile long mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+
+    volatile Snapshot mSnapshot = new Snapshot(Collections.emptyList(),
+            Collections.emptyList(), 0, 0, 0, 0, 0, 0);
+
+    /**
+     * State of the model after an update.  The lists are copies that later
+     * updates never modify, so the UI can keep them without locking.  The
+     * items in them are still updated in place, under mLock.
+     */
+    static final class Snapshot {
+        final List<MergedItem> mMergedItems;
+        final List<MergedItem> mBackgroundItems;
+        final int mNumBackgroundProcesses;
+        final long mBackgroundProcessMemory;
+        final int mNumForegroundProcesses;
+        final long mForegroundProcessMemory;
+        final int mNumServiceProcesses;
+        final long mServiceProcessMemory;
+
+        Snapshot(List<MergedItem> mergedItems, List<MergedItem> backgroundItems,
+                int numBackgroundProcesses, long backgroundProcessMemory,
+                int numForegroundProcesses, long foregroundProcessMemory,
+                int numServiceProcesses, long serviceProcessMemory) {
+            mMergedItems = mergedItems;
+            mBackgroundItems = backgroundItems;
+            mNumBackgroundProcesses = numBackgroundProcesses;
+            mBackgroundProcessMemory = backgroundProcessMemory;
+            mNumForegroundProcesses = numForegroundProcesses;
+            mForegroundProcessMemory = foregroundProcessMemory;
+            mNumServiceProcesses = numServiceProcesses;
+            mServiceProcessMemory = serviceProcessMemory;
+        }
+    }
 
     // ----- BACKGROUND MONITORING THREAD -----
 
@@ -245,11 +302,23 @@ public class RunningState {
                         }
                     }
                     Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
-                    cmd.arg1 = update(mApplicationContext, mAm) ? 1 : 0;
+                    final List<ActivityManager.RunningServiceInfo> services =
+                            mAm.getRunningServices(MAX_SERVICES);
+                    final List<ActivityManager.RunningAppProcessInfo> processes =
+                            mAm.getRunningAppProcesses();
+                    final boolean changed;
+                    synchronized (mLock) {
+                        changed = update(mApplicationContext, services, processes);
+                    }
+                    cmd.arg1 = changed ? 1 : 0;
                     mHandler.sendMessage(cmd);
+                    // Back off while nothing the user can see changes.
+                    mContentsUpdateDelay = changed || mSizesChanged
+                            ? CONTENTS_UPDATE_DELAY
+                            : Math.min(mContentsUpdateDelay * 2, MAX_CONTENTS_UPDATE_DELAY);
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    sendMessageDelayed(msg, mContentsUpdateDelay);
                     break;
             }
         }
@@ -355,6 +424,8 @@ public class RunningState {
         long mActiveSince;
         long mSize;
         String mSizeStr;
+        // The size mSizeStr was formatted for.
+        long mFormattedSize;
         String mCurSizeStr;
         boolean mNeedDivider;
         boolean mBackground;
@@ -365,6 +436,15 @@ public class RunningState {
         }
 
         public Drawable loadIcon(Context context, RunningState state) {
+            if (mPackageInfo instanceof ApplicationInfo) {
+                final AppIdentityCache.AppIdentity identity = AppIdentityCache.getInstance()
+                        .getApplicationIdentity(context, state.mPm,
+                                (ApplicationInfo) mPackageInfo, mUserId);
+                final Drawable icon = identity != null ? identity.getIcon() : null;
+                if (icon != null) {
+                    return icon;
+                }
+            }
             if (mPackageInfo != null) {
                 Drawable unbadgedIcon = mPackageInfo.loadUnbadgedIcon(state.mPm);
                 Drawable icon = state.mPm.getUserBadgedIcon(unbadgedIcon, new UserHandle(mUserId));
@@ -523,16 +603,24 @@ public class RunningState {
                 mServices.put(service.service, si);
             }
             si.mCurSeq = mCurSeq;
+            final ActivityManager.RunningServiceInfo lastService = si.mRunningService;
             si.mRunningService = service;
             long activeSince = service.restarting == 0 ? service.activeSince : -1;
             if (si.mActiveSince != activeSince) {
                 si.mActiveSince = activeSince;
                 changed = true;
             }
+            // The description only depends on the client, don't resolve it again on every
+            // update.
+            final boolean sameClient = si.mDescription != null && lastService != service
+                    && lastService.clientLabel == service.clientLabel
+                    && Objects.equals(lastService.clientPackage, service.clientPackage);
             if (service.clientPackage != null && service.clientLabel != 0) {
                 if (si.mShownAsStarted) {
                     si.mShownAsStarted = false;
                     changed = true;
+                } else if (sameClient) {
+                    return changed;
                 }
                 try {
                     Resources clientr = pm.getResourcesForApplication(service.clientPackage);
@@ -546,6 +634,8 @@ public class RunningState {
                 if (!si.mShownAsStarted) {
                     si.mShownAsStarted = true;
                     changed = true;
+                } else if (sameClient) {
+                    return changed;
                 }
                 si.mDescription = context.getResources().getString(
                         R.string.service_started_by_app);
@@ -556,7 +646,8 @@ public class RunningState {
 
         boolean updateSize(Context context, long pss, int curSeq) {
             mSize = pss * 1024;
-            if (mCurSeq == curSeq) {
+            if (mCurSeq == curSeq && (mSizeStr == null || mFormattedSize != mSize)) {
+                mFormattedSize = mSize;
                 String sizeStr = Formatter.formatShortFileSize(
                         context, mSize);
                 if (!sizeStr.equals(mSizeStr)) {
@@ -686,19 +777,25 @@ public class RunningState {
         }
 
         boolean updateSize(Context context) {
+            long size;
             if (mUser != null) {
-                mSize = 0;
+                size = 0;
                 for (int i = 0; i < mChildren.size(); i++) {
                     MergedItem child = mChildren.get(i);
                     child.updateSize(context);
-                    mSize += child.mSize;
+                    size += child.mSize;
                 }
             } else {
-                mSize = mProcess.mSize;
+                size = mProcess.mSize;
                 for (int i = 0; i < mOtherProcesses.size(); i++) {
-                    mSize += mOtherProcesses.get(i).mSize;
+                    size += mOtherProcesses.get(i).mSize;
                 }
             }
+            mSize = size;
+            if (mSizeStr != null && mFormattedSize == mSize) {
+                return false;
+            }
+            mFormattedSize = mSize;
 
             String sizeStr = Formatter.formatShortFileSize(
                     context, mSize);
@@ -780,7 +877,8 @@ public class RunningState {
         }
     }
 
-    private RunningState(Context context) {
+    @VisibleForTesting
+    public RunningState(Context context) {
         mApplicationContext = context.getApplicationContext();
         mAm = mApplicationContext.getSystemService(ActivityManager.class);
         mPm = mApplicationContext.getPackageManager();
@@ -808,6 +906,7 @@ public class RunningState {
                 mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
                 mBackgroundHandler.sendEmptyMessage(MSG_RESET_CONTENTS);
             }
+            mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
             if (!mBackgroundHandler.hasMessages(MSG_UPDATE_CONTENTS)) {
                 mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
             }
@@ -816,16 +915,13 @@ public class RunningState {
     }
 
     void updateNow() {
-        synchronized (mLock) {
-            mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
-            mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
-        }
+        mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+        mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
+        mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
     }
 
     boolean hasData() {
-        synchronized (mLock) {
-            return mHaveData;
-        }
+        return mHaveData;
     }
 
     void waitForData() {
@@ -862,6 +958,9 @@ public class RunningState {
     }
 
     private void reset() {
+        mHaveLastSnapshot = false;
+        mLastProcesses.clear();
+        mLastServices.clear();
         mServiceProcessesByName.clear();
         mServiceProcessesByPid.clear();
         mInterestingProcesses.clear();
@@ -899,17 +998,26 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
-    private boolean update(Context context, ActivityManager am) {
-        final PackageManager pm = context.getPackageManager();
+    @VisibleForTesting
+    public void setProcessPssReader(ProcessPssReader pssReader) {
+        mPssReader = pssReader;
+    }
 
-        mSequence++;
+    @VisibleForTesting
+    public void quitBackgroundThread() {
+        mBackgroundThread.quit();
+    }
+
+    @VisibleForTesting
+    public boolean update(Context context, List<ActivityManager.RunningServiceInfo> services,
+            List<ActivityManager.RunningAppProcessInfo> processes) {
+        final PackageManager pm = context.getPackageManager();
 
         boolean changed = false;
+        mSizesChanged = false;
 
-        // Retrieve list of services, filtering out anything that definitely
+        // Filter the list of services, taking out anything that definitely
         // won't be shown in the UI.
-        List<ActivityManager.RunningServiceInfo> services
-                = am.getRunningServices(MAX_SERVICES);
         int NS = services != null ? services.size() : 0;
         for (int i = 0; i < NS; i++) {
             ActivityManager.RunningServiceInfo si = services.get(i);
@@ -933,10 +1041,16 @@ public class RunningState {
             }
         }
 
-        // Retrieve list of running processes, organizing them into a sparse
-        // array for easy retrieval.
-        List<ActivityManager.RunningAppProcessInfo> processes
-                = am.getRunningAppProcesses();
+        if (isSameSnapshot(services, processes)) {
+            // Nothing but the memory use of the processes can have changed.
+            updateSizes(context);
+            return false;
+        }
+        rememberSnapshot(services, processes);
+        mSequence++;
+
+        // Organize the list of running processes into a sparse array for
+        // easy retrieval.
         final int NP = processes != null ? processes.size() : 0;
         mTmpAppProcesses.clear();
         for (int i = 0; i < NP; i++) {
@@ -1048,7 +1162,8 @@ public class RunningState {
             }
 
             if (isInterestingProcess(pi)) {
-                if (!mInterestingProcesses.contains(proc)) {
+                // mInteresting is only left set on processes in the list.
+                if (!proc.mInteresting) {
                     changed = true;
                     mInterestingProcesses.add(proc);
                 }
@@ -1098,6 +1213,7 @@ public class RunningState {
             ProcessItem proc = mInterestingProcesses.get(i);
             if (!proc.mInteresting || mRunningProcesses.get(proc.mPid) == null) {
                 changed = true;
+                proc.mInteresting = false;
                 mInterestingProcesses.remove(i);
                 i--;
                 NHP--;
@@ -1276,10 +1392,8 @@ public class RunningState {
                 }
             }
 
-            synchronized (mLock) {
-                mItems = newItems;
-                mMergedItems = newMergedItems;
-            }
+            mItems = newItems;
+            mMergedItems = newMergedItems;
         }
 
         // Count number of interesting other (non-active) processes, and
@@ -1324,8 +1438,7 @@ public class RunningState {
             for (int i = 0; i < numProc; i++) {
                 pids[i] = mAllProcessItems.get(i).mPid;
             }
-            long[] pss = ActivityManager.getService()
-                    .getProcessPss(pids);
+            long[] pss = mPssReader.getProcessPss(pids);
             int bgIndex = 0;
             for (int i = 0; i < pids.length; i++) {
                 ProcessItem proc = mAllProcessItems.get(i);
@@ -1359,7 +1472,9 @@ public class RunningState {
                         }
                     }
                     mergedItem.update(context, true);
+                    final String sizeStr = mergedItem.mSizeStr;
                     mergedItem.updateSize(context);
+                    mSizesChanged |= sizeStr != mergedItem.mSizeStr;
                     bgIndex++;
                 } else if (proc.mRunningProcessInfo.importance <=
                         ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE) {
@@ -1414,48 +1529,177 @@ public class RunningState {
             }
         }
 
-        for (int i = 0; i < mMergedItems.size(); i++) {
-            mMergedItems.get(i).updateSize(context);
+        mSizesChanged |= updateItemSizes(context, mMergedItems);
+
+        if (newBackgroundItems != null) {
+            mBackgroundItems = newBackgroundItems;
+            mUserBackgroundItems = newUserBackgroundItems;
+            if (mWatchingBackgroundItems) {
+                changed = true;
+            }
         }
+        publishSnapshot(changed || newBackgroundItems != null, numBackgroundProcesses,
+                backgroundProcessMemory, numForegroundProcesses, foregroundProcessMemory,
+                numServiceProcesses, serviceProcessMemory);
 
-        synchronized (mLock) {
-            mNumBackgroundProcesses = numBackgroundProcesses;
-            mNumForegroundProcesses = numForegroundProcesses;
-            mNumServiceProcesses = numServiceProcesses;
-            mBackgroundProcessMemory = backgroundProcessMemory;
-            mForegroundProcessMemory = foregroundProcessMemory;
-            mServiceProcessMemory = serviceProcessMemory;
-            if (newBackgroundItems != null) {
-                mBackgroundItems = newBackgroundItems;
-                mUserBackgroundItems = newUserBackgroundItems;
-                if (mWatchingBackgroundItems) {
-                    changed = true;
-                }
+        return changed;
+    }
+
+    private boolean isSameSnapshot(List<ActivityManager.RunningServiceInfo> services,
+            List<ActivityManager.RunningAppProcessInfo> processes) {
+        if (!mHaveLastSnapshot) {
+            return false;
+        }
+        final int NP = processes != null ? processes.size() : 0;
+        if (NP != mLastProcesses.size()) {
+            return false;
+        }
+        for (int i = 0; i < NP; i++) {
+            ActivityManager.RunningAppProcessInfo pi = processes.get(i);
+            ActivityManager.RunningAppProcessInfo last = mLastProcesses.get(pi.pid);
+            if (last == null || !isSameProcess(last, pi)) {
+                return false;
             }
-            if (!mHaveData) {
-                mHaveData = true;
-                mLock.notifyAll();
+        }
+        final int NS = services != null ? services.size() : 0;
+        if (NS != mLastServices.size()) {
+            return false;
+        }
+        for (int i = 0; i < NS; i++) {
+            if (!isSameService(mLastServices.get(i), services.get(i))) {
+                return false;
             }
         }
+        return true;
+    }
 
-        return changed;
+    private void rememberSnapshot(List<ActivityManager.RunningServiceInfo> services,
+            List<ActivityManager.RunningAppProcessInfo> processes) {
+        mLastProcesses.clear();
+        mLastServices.clear();
+        if (processes != null) {
+            for (int i = 0; i < processes.size(); i++) {
+                ActivityManager.RunningAppProcessInfo pi = processes.get(i);
+                mLastProcesses.put(pi.pid, pi);
+            }
+        }
+        if (services != null) {
+            mLastServices.addAll(services);
+        }
+        mHaveLastSnapshot = true;
     }
 
-    void setWatchingBackgroundItems(boolean watching) {
-        synchronized (mLock) {
-            mWatchingBackgroundItems = watching;
+    // Compares everything update() looks at, except for the pid used as key.
+    private static boolean isSameProcess(ActivityManager.RunningAppProcessInfo a,
+            ActivityManager.RunningAppProcessInfo b) {
+        return a.uid == b.uid
+                && a.importance == b.importance
+                && a.importanceReasonCode == b.importanceReasonCode
+                && a.importanceReasonPid == b.importanceReasonPid
+                && a.flags == b.flags
+                && a.lru == b.lru
+                && Objects.equals(a.processName, b.processName);
+    }
+
+    private static boolean isSameService(ActivityManager.RunningServiceInfo a,
+            ActivityManager.RunningServiceInfo b) {
+        return a.pid == b.pid
+                && a.uid == b.uid
+                && a.restarting == b.restarting
+                && a.activeSince == b.activeSince
+                && a.started == b.started
+                && a.foreground == b.foreground
+                && a.flags == b.flags
+                && a.clientLabel == b.clientLabel
+                && Objects.equals(a.clientPackage, b.clientPackage)
+                && Objects.equals(a.process, b.process)
+                && Objects.equals(a.service, b.service);
+    }
+
+    // Refreshes the process sizes for an update where the processes and
+    // services are the same as last time.
+    private void updateSizes(Context context) {
+        long backgroundProcessMemory = 0;
+        long foregroundProcessMemory = 0;
+        long serviceProcessMemory = 0;
+        try {
+            final int numProc = mAllProcessItems.size();
+            int[] pids = new int[numProc];
+            for (int i = 0; i < numProc; i++) {
+                pids[i] = mAllProcessItems.get(i).mPid;
+            }
+            long[] pss = mPssReader.getProcessPss(pids);
+            for (int i = 0; i < pids.length; i++) {
+                ProcessItem proc = mAllProcessItems.get(i);
+                proc.updateSize(context, pss[i], mSequence);
+                if (proc.mCurSeq == mSequence) {
+                    serviceProcessMemory += proc.mSize;
+                } else if (proc.mRunningProcessInfo.importance >=
+                        ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND) {
+                    backgroundProcessMemory += proc.mSize;
+                } else if (proc.mRunningProcessInfo.importance <=
+                        ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE) {
+                    foregroundProcessMemory += proc.mSize;
+                }
+            }
+        } catch (RemoteException e) {
         }
+
+        mSizesChanged = updateItemSizes(context, mMergedItems)
+                | updateItemSizes(context, mUserBackgroundItems);
+        final Snapshot last = mSnapshot;
+        publishSnapshot(false /* listsChanged */, last.mNumBackgroundProcesses,
+                backgroundProcessMemory, last.mNumForegroundProcesses, foregroundProcessMemory,
+                last.mNumServiceProcesses, serviceProcessMemory);
     }
 
-    ArrayList<MergedItem> getCurrentMergedItems() {
-        synchronized (mLock) {
-            return mMergedItems;
+    // Returns whether the size text of any of the items changed.
+    private static boolean updateItemSizes(Context context, List<MergedItem> items) {
+        boolean changed = false;
+        for (int i = 0; i < items.size(); i++) {
+            MergedItem item = items.get(i);
+            final String sizeStr = item.mSizeStr;
+            item.updateSize(context);
+            changed |= sizeStr != item.mSizeStr;
         }
+        return changed;
     }
 
-    ArrayList<MergedItem> getCurrentBackgroundItems() {
-        synchronized (mLock) {
-            return mUserBackgroundItems;
+    private void publishSnapshot(boolean listsChanged, int numBackgroundProcesses,
+            long backgroundProcessMemory, int numForegroundProcesses,
+            long foregroundProcessMemory, int numServiceProcesses, long serviceProcessMemory) {
+        final Snapshot last = mSnapshot;
+        mSnapshot = new Snapshot(
+                listsChanged
+                        ? Collections.unmodifiableList(new ArrayList<>(mMergedItems))
+                        : last.mMergedItems,
+                listsChanged
+                        ? Collections.unmodifiableList(new ArrayList<>(mUserBackgroundItems))
+                        : last.mBackgroundItems,
+                numBackgroundProcesses, backgroundProcessMemory,
+                numForegroundProcesses, foregroundProcessMemory,
+                numServiceProcesses, serviceProcessMemory);
+        if (!mHaveData) {
+            synchronized (mLock) {
+                mHaveData = true;
+                mLock.notifyAll();
+            }
         }
     }
+
+    void setWatchingBackgroundItems(boolean watching) {
+        mWatchingBackgroundItems = watching;
+    }
+
+    Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    List<MergedItem> getCurrentMergedItems() {
+        return mSnapshot.mMergedItems;
+    }
+
+    List<MergedItem> getCurrentBackgroundItems() {
+        return mSnapshot.mBackgroundItems;
+    }
 }
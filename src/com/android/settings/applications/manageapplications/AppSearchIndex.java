@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import android.text.TextUtils;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Search index over the labels and package names of a list of apps, to filter it as the user types.
+ *
+ * <p>Labels, package names and queries are folded once: lower cased for the locale and stripped
+ * of accents. An app matches when its label contains the query, or when each word of the query
+ * starts a word of its label. Package names are only searched for queries that look like one, as
+ * most of them share words such as "com" or "android". A query extending the previous one can
+ * only match fewer apps, so only the previous matches are searched again.
+ */
+public class AppSearchIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{Mn}+");
+    private static final Pattern WORD_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final String[] NO_WORDS = new String[0];
+
+    private final ArrayList<AppEntry> mEntries;
+    private final Locale mLocale;
+    private final String[] mLabels;
+    private final String[][] mLabelWords;
+    private final String[] mPackageNames;
+
+    // Guarded by this.
+    private String mLastQuery = "";
+    private int[] mLastMatches;
+    private int mLastMatchCount;
+
+    public AppSearchIndex(ArrayList<AppEntry> entries, Locale locale) {
+        mEntries = entries;
+        mLocale = locale;
+        final int size = entries.size();
+        mLabels = new String[size];
+        mLabelWords = new String[size][];
+        mPackageNames = new String[size];
+        for (int i = 0; i < size; i++) {
+            final AppEntry entry = entries.get(i);
+            mLabels[i] = fold(entry.label);
+            mLabelWords[i] = split(mLabels[i]);
+            mPackageNames[i] = entry.info != null ? fold(entry.info.packageName) : "";
+        }
+        resetMatches();
+    }
+
+    /** Returns the indexed entries. */
+    public ArrayList<AppEntry> getEntries() {
+        return mEntries;
+    }
+
+    /** Returns the entries matching {@code query}, in their original order. */
+    @WorkerThread
+    public synchronized ArrayList<AppEntry> filter(CharSequence query) {
+        final String foldedQuery = query != null ? fold(query.toString()).trim() : "";
+        if (foldedQuery.isEmpty()) {
+            resetMatches();
+            return mEntries;
+        }
+        if (!canNarrow(mLastQuery, foldedQuery)) {
+            resetMatches();
+        }
+        final String[] queryWords = split(foldedQuery);
+        final boolean searchPackageNames = isPackageQuery(foldedQuery);
+        int count = 0;
+        for (int i = 0; i < mLastMatchCount; i++) {
+            final int index = mLastMatches[i];
+            if (matches(index, foldedQuery, queryWords, searchPackageNames)) {
+                mLastMatches[count++] = index;
+            }
+        }
+        mLastQuery = foldedQuery;
+        mLastMatchCount = count;
+
+        final ArrayList<AppEntry> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(mEntries.get(mLastMatches[i]));
+        }
+        return result;
+    }
+
+    private boolean matches(int index, String query, String[] queryWords,
+            boolean searchPackageNames) {
+        if (mLabels[index].contains(query)) {
+            return true;
+        }
+        if (searchPackageNames && mPackageNames[index].contains(query)) {
+            return true;
+        }
+        if (queryWords.length == 0) {
+            return false;
+        }
+        for (String queryWord : queryWords) {
+            if (!startsAnyWord(mLabelWords[index], queryWord)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether the matches of query are all among the matches of lastQuery.
+    private static boolean canNarrow(String lastQuery, String query) {
+        return query.startsWith(lastQuery)
+                && (isPackageQuery(lastQuery) || !isPackageQuery(query));
+    }
+
+    private static boolean isPackageQuery(String query) {
+        return query.indexOf('.') >= 0;
+    }
+
+    private void resetMatches() {
+        final int size = mEntries.size();
+        if (mLastMatches == null) {
+            mLastMatches = new int[size];
+        }
+        for (int i = 0; i < size; i++) {
+            mLastMatches[i] = i;
+        }
+        mLastMatchCount = size;
+        mLastQuery = "";
+    }
+
+    private String fold(String text) {
+        if (TextUtils.isEmpty(text)) {
+            return "";
+        }
+        final String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(mLocale);
+    }
+
+    private static boolean startsAnyWord(String[] words, String prefix) {
+        for (String word : words) {
+            if (word.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] split(String text) {
+        if (text.isEmpty()) {
+            return NO_WORDS;
+        }
+        final List<String> words = new ArrayList<>();
+        for (String word : WORD_SEPARATORS.split(text)) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(NO_WORDS);
+    }
+}
@@ -75,6 +75,7 @@ import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
 import androidx.core.view.ViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -138,6 +139,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
 /**
@@ -1040,6 +1043,7 @@ public class ManageApplications extends InstrumentedFragment
         private boolean mHasReceivedLoadEntries;
         private boolean mHasReceivedBridgeCallback;
         private SearchFilter mSearchFilter;
+        private AppSearchIndex mSearchIndex;
         private PowerAllowlistBackend mBackend;
 
         // This is to remember and restore the last scroll position when this
@@ -1273,6 +1277,9 @@ public class ManageApplications extends InstrumentedFragment
                 Log.w(TAG, "Apps haven't loaded completely yet, so nothing can be filtered");
                 return;
             }
+            if (mSearchIndex == null || mSearchIndex.getEntries() != mOriginalEntries) {
+                mSearchIndex = new AppSearchIndex(mOriginalEntries, Locale.getDefault());
+            }
             mSearchFilter.filter(query);
         }
 
@@ -1576,34 +1583,83 @@ public class ManageApplications extends InstrumentedFragment
         }
 
         /**
-         * An array filter that constrains the content of the array adapter with a substring.
-         * Item that does not contains the specified substring will be removed from the list.</p>
+         * Filters the apps through {@link AppSearchIndex}, and computes the changes to the shown
+         * list off the main thread so that only the removed or added rows are updated.
          */
         private class SearchFilter extends Filter {
             @WorkerThread
             @Override
             protected FilterResults performFiltering(CharSequence query) {
-                final ArrayList<ApplicationsState.AppEntry> matchedEntries;
-                if (TextUtils.isEmpty(query)) {
-                    matchedEntries = mOriginalEntries;
-                } else {
-                    matchedEntries = new ArrayList<>();
-                    for (ApplicationsState.AppEntry entry : mOriginalEntries) {
-                        if (entry.label.toLowerCase().contains(query.toString().toLowerCase())) {
-                            matchedEntries.add(entry);
-                        }
-                    }
-                }
+                final ArrayList<ApplicationsState.AppEntry> oldEntries = mEntries;
+                final ArrayList<ApplicationsState.AppEntry> matchedEntries =
+                        mSearchIndex.filter(query);
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new SearchDiffCallback(oldEntries, matchedEntries),
+                        false /* detectMoves */);
                 final FilterResults results = new FilterResults();
-                results.values = matchedEntries;
+                results.values = new SearchResults(oldEntries, matchedEntries, diff);
                 results.count = matchedEntries.size();
                 return results;
             }
 
             @Override
             protected void publishResults(CharSequence constraint, FilterResults results) {
-                mEntries = (ArrayList<ApplicationsState.AppEntry>) results.values;
-                notifyDataSetChanged();
+                final SearchResults searchResults = (SearchResults) results.values;
+                final boolean sameBase = mEntries == searchResults.mOldEntries;
+                mEntries = searchResults.mEntries;
+                if (sameBase) {
+                    searchResults.mDiff.dispatchUpdatesTo(ApplicationsAdapter.this);
+                } else {
+                    // The list was rebuilt while filtering, so the diff doesn't apply to it.
+                    notifyDataSetChanged();
+                }
+            }
+        }
+
+        private static class SearchResults {
+            private final ArrayList<ApplicationsState.AppEntry> mOldEntries;
+            private final ArrayList<ApplicationsState.AppEntry> mEntries;
+            private final DiffUtil.DiffResult mDiff;
+
+            private SearchResults(ArrayList<ApplicationsState.AppEntry> oldEntries,
+                    ArrayList<ApplicationsState.AppEntry> entries, DiffUtil.DiffResult diff) {
+                mOldEntries = oldEntries;
+                mEntries = entries;
+                mDiff = diff;
+            }
+        }
+
+        // Filtering keeps the entries themselves, so an entry is the same item only if it is the
+        // same instance. Filtering doesn't change what a row shows, so the same item always has
+        // the same contents; changes to the entries are notified by the adapter itself.
+        private static class SearchDiffCallback extends DiffUtil.Callback {
+            private final List<ApplicationsState.AppEntry> mOldEntries;
+            private final List<ApplicationsState.AppEntry> mNewEntries;
+
+            private SearchDiffCallback(List<ApplicationsState.AppEntry> oldEntries,
+                    List<ApplicationsState.AppEntry> newEntries) {
+                mOldEntries = oldEntries != null ? oldEntries : Collections.emptyList();
+                mNewEntries = newEntries;
+            }
+
+            @Override
+            public int getOldListSize() {
+                return mOldEntries.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return mNewEntries.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return mOldEntries.get(oldItemPosition) == mNewEntries.get(newItemPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return true;
             }
         }
     }
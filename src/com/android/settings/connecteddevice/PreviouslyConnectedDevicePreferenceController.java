@@ -37,6 +37,7 @@ import com.android.settings.connecteddevice.dock.DockUpdater;
 import com.android.settings.core.BasePreferenceController;
 import com.android.settings.dashboard.DashboardFragment;
 import com.android.settings.overlay.FeatureFactory;
+import com.android.settings.utils.PreferenceGroupReconciler;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
 import com.android.settingslib.core.lifecycle.events.OnStart;
 import com.android.settingslib.core.lifecycle.events.OnStop;
@@ -53,11 +54,14 @@ public class PreviouslyConnectedDevicePreferenceController extends BasePreferenc
     private static final int MAX_DEVICE_NUM = 3;
     private static final int DOCK_DEVICE_INDEX = 9;
     private static final String KEY_SEE_ALL = "previously_connected_devices_see_all";
+    // Dock preferences have no stable identity, so they are matched by position.
+    private static final String KEY_DOCK_DEVICE_PREFIX = "dock_device_";
 
     private final List<Preference> mDevicesList = new ArrayList<>();
     private final List<Preference> mDockDevicesList = new ArrayList<>();
 
     private PreferenceGroup mPreferenceGroup;
+    private PreferenceGroupReconciler mReconciler;
     private BluetoothDeviceUpdater mBluetoothDeviceUpdater;
     private DockUpdater mSavedDockUpdater;
     private BluetoothAdapter mBluetoothAdapter;
@@ -96,6 +100,7 @@ public class PreviouslyConnectedDevicePreferenceController extends BasePreferenc
     public void displayPreference(PreferenceScreen screen) {
         super.displayPreference(screen);
         mPreferenceGroup = screen.findPreference(getPreferenceKey());
+        mReconciler = null;
         mSeeAllPreference = mPreferenceGroup.findPreference(KEY_SEE_ALL);
         updatePreferenceVisibility();
 
@@ -158,26 +163,38 @@ public class PreviouslyConnectedDevicePreferenceController extends BasePreferenc
     }
 
     private void addPreference() {
-        mPreferenceGroup.removeAll();
-        mPreferenceGroup.addPreference(mSeeAllPreference);
+        final List<PreferenceGroupReconciler.Item<?>> items = new ArrayList<>();
+        items.add(new PreferenceGroupReconciler.Item<>(KEY_SEE_ALL,
+                mSeeAllPreference.getOrder(), new FixedPreferenceBinder(mSeeAllPreference)));
         final int size = getDeviceListSize();
         for (int i = 0; i < size; i++) {
+            final Preference preference = mDevicesList.get(i);
             if (DEBUG) {
-                Log.d(TAG, "addPreference() add device : " + mDevicesList.get(i).getTitle());
+                Log.d(TAG, "addPreference() add device : " + preference.getTitle());
             }
-            mDevicesList.get(i).setOrder(i);
-            mPreferenceGroup.addPreference(mDevicesList.get(i));
+            final String address = ((BluetoothDevicePreference) preference)
+                    .getBluetoothDevice().getAddress();
+            items.add(new PreferenceGroupReconciler.Item<>(address, i,
+                    new FixedPreferenceBinder(preference)));
         }
         if (mDockDevicesList.size() > 0) {
             for (int i = 0; i < getDockDeviceListSize(MAX_DEVICE_NUM - size); i++) {
+                final Preference preference = mDockDevicesList.get(i);
                 if (DEBUG) {
-                    Log.d(TAG, "addPreference() add dock device : "
-                            + mDockDevicesList.get(i).getTitle());
+                    Log.d(TAG, "addPreference() add dock device : " + preference.getTitle());
                 }
-                mDockDevicesList.get(i).setOrder(DOCK_DEVICE_INDEX);
-                mPreferenceGroup.addPreference(mDockDevicesList.get(i));
+                items.add(new PreferenceGroupReconciler.Item<>(KEY_DOCK_DEVICE_PREFIX + i,
+                        DOCK_DEVICE_INDEX, new FixedPreferenceBinder(preference)));
             }
         }
+        getReconciler().reconcile(items);
+    }
+
+    private PreferenceGroupReconciler getReconciler() {
+        if (mReconciler == null) {
+            mReconciler = new PreferenceGroupReconciler(mPreferenceGroup);
+        }
+        return mReconciler;
     }
 
     private int getDeviceListSize() {
@@ -215,6 +232,7 @@ public class PreviouslyConnectedDevicePreferenceController extends BasePreferenc
     @VisibleForTesting
     void setPreferenceGroup(PreferenceGroup preferenceGroup) {
         mPreferenceGroup = preferenceGroup;
+        mReconciler = null;
     }
 
     @VisibleForTesting
@@ -226,4 +244,24 @@ public class PreviouslyConnectedDevicePreferenceController extends BasePreferenc
                     mContext.getString(R.string.connected_device_see_all_summary));
         }
     }
+
+    // Shows a preference created by the device updaters, replacing it if another one took its key.
+    private static class FixedPreferenceBinder
+            implements PreferenceGroupReconciler.Binder<Preference> {
+        private final Preference mPreference;
+
+        FixedPreferenceBinder(Preference preference) {
+            mPreference = preference;
+        }
+
+        @Override
+        public Preference create() {
+            return mPreference;
+        }
+
+        @Override
+        public boolean canReuse(Preference preference) {
+            return preference == mPreference;
+        }
+    }
 }
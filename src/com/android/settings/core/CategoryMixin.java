@@ -57,6 +57,8 @@ public class CategoryMixin implements LifecycleObserver {
     private final Context mContext;
     private final PackageReceiver mPackageReceiver = new PackageReceiver();
     private final List<CategoryListener> mCategoryListeners = new ArrayList<>();
+    // Packages named by broadcasts that the next update task has yet to reload. Guarded by itself.
+    private final Set<String> mPendingChangedPackages = new ArraySet<>();
     private int mCategoriesUpdateTaskCount;
 
     public CategoryMixin(Context context) {
@@ -121,6 +123,15 @@ public class CategoryMixin implements LifecycleObserver {
     }
 
     private void updateCategories(boolean fromBroadcast) {
+        updateCategories(fromBroadcast, null /* packageName */);
+    }
+
+    private void updateCategories(boolean fromBroadcast, @Nullable String packageName) {
+        if (packageName != null) {
+            synchronized (mPendingChangedPackages) {
+                mPendingChangedPackages.add(packageName);
+            }
+        }
         // Only allow at most 2 tasks existing at the same time since when the first one is
         // executing, there may be new data from the second update request.
         // Ignore the third update request because the second task is still waiting for the first
@@ -162,7 +173,12 @@ public class CategoryMixin implements LifecycleObserver {
         @Override
         protected Set<String> doInBackground(Boolean... params) {
             mPreviousTileMap = mCategoryManager.getTileByComponentMap();
-            mCategoryManager.reloadAllCategories(mContext);
+            final Set<String> changedPackages;
+            synchronized (mPendingChangedPackages) {
+                changedPackages = new ArraySet<>(mPendingChangedPackages);
+                mPendingChangedPackages.clear();
+            }
+            mCategoryManager.reloadCategoriesForPackages(mContext, changedPackages);
             mCategoryManager.updateCategoryFromDenylist(sTileDenylist);
             return getChangedCategories(params[0]);
         }
@@ -219,7 +235,8 @@ public class CategoryMixin implements LifecycleObserver {
     private class PackageReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
-            updateCategories(true /* fromBroadcast */);
+            updateCategories(true /* fromBroadcast */,
+                    intent.getData() != null ? intent.getData().getSchemeSpecificPart() : null);
         }
     }
 }
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_APPEND;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_CONTROLLER;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_FOR_WORK;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_HIGHLIGHTABLE_MENU_KEY;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_ICON;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_KEY;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_KEYWORDS;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_PREF_TYPE;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_SEARCHABLE;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_SUMMARY;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_TITLE;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_UNAVAILABLE_SLICE_SUBTITLE;
+import static com.android.settings.core.PreferenceXmlParserUtils.hasFlag;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settings.core.PreferenceXmlParserUtils.MetadataFlag;
+import com.android.settingslib.utils.ThreadUtils;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiled form of the metadata {@link PreferenceXmlParserUtils#extractMetadata} returns.
+ *
+ * <p>Each xml is parsed once with every {@link MetadataFlag} set, and the result is kept in
+ * memory and in a compact binary file. Callers get a copy filtered down to the flags they asked
+ * for, so controller creation, search indexing and slice indexing share a single parse.
+ *
+ * <p>Everything is keyed by the build, the apk and overlays of Settings, and the configuration
+ * the strings were resolved for. Once the key changes the tables are dropped and xml is parsed
+ * again.
+ */
+public class PreferenceMetadataCache {
+
+    private static final String TAG = "PrefMetadataCache";
+    private static final String FILE_NAME = "preference_metadata.bin";
+
+    @VisibleForTesting
+    static final int FORMAT_VERSION = 1;
+
+    private static final int ALL_FLAGS = MetadataFlag.FLAG_INCLUDE_PREF_SCREEN
+            | MetadataFlag.FLAG_NEED_KEY
+            | MetadataFlag.FLAG_NEED_PREF_TYPE
+            | MetadataFlag.FLAG_NEED_PREF_CONTROLLER
+            | MetadataFlag.FLAG_NEED_PREF_TITLE
+            | MetadataFlag.FLAG_NEED_PREF_SUMMARY
+            | MetadataFlag.FLAG_NEED_PREF_ICON
+            | MetadataFlag.FLAG_NEED_KEYWORDS
+            | MetadataFlag.FLAG_NEED_SEARCHABLE
+            | MetadataFlag.FLAG_NEED_PREF_APPEND
+            | MetadataFlag.FLAG_UNAVAILABLE_SLICE_SUBTITLE
+            | MetadataFlag.FLAG_FOR_WORK
+            | MetadataFlag.FLAG_NEED_HIGHLIGHTABLE_MENU_KEY;
+
+    private static PreferenceMetadataCache sInstance;
+
+    private final AtomicFile mFile;
+    // Guarded by this.
+    private final SparseArray<List<Bundle>> mTables = new SparseArray<>();
+    private String mResourceKey;
+    private boolean mWriteScheduled;
+
+    public static synchronized PreferenceMetadataCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PreferenceMetadataCache(
+                    new File(context.getApplicationContext().getCacheDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PreferenceMetadataCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * @return the metadata of {@code xmlResId} for {@code flags}, parsing it only if it is not
+     * cached for the current resource key.
+     */
+    List<Bundle> getMetadata(Context context, int xmlResId, int flags)
+            throws IOException, XmlPullParserException {
+        final String resourceKey = getResourceKey(context);
+        List<Bundle> table;
+        synchronized (this) {
+            if (!resourceKey.equals(mResourceKey)) {
+                mTables.clear();
+                mResourceKey = resourceKey;
+                readTables(resourceKey);
+            }
+            table = mTables.get(xmlResId);
+        }
+
+        if (table == null) {
+            table = PreferenceXmlParserUtils.parseMetadata(context, xmlResId, ALL_FLAGS);
+            synchronized (this) {
+                // Resources may have changed while parsing, don't mix keys.
+                if (resourceKey.equals(mResourceKey)) {
+                    mTables.put(xmlResId, table);
+                    scheduleWrite();
+                }
+            }
+        }
+        return filter(table, flags);
+    }
+
+    /**
+     * Drop the in-memory tables so the next lookup reloads them from disk, as a new process
+     * would.
+     */
+    @VisibleForTesting
+    public synchronized void clearMemory() {
+        mTables.clear();
+        mResourceKey = null;
+    }
+
+    @VisibleForTesting
+    synchronized boolean hasTable(int xmlResId) {
+        return mTables.get(xmlResId) != null;
+    }
+
+    @VisibleForTesting
+    static String getResourceKey(Context context) {
+        final Configuration config = context.getResources().getConfiguration();
+        final ApplicationInfo info = context.getApplicationInfo();
+        return Build.FINGERPRINT
+                + "/" + info.sourceDir
+                + "/" + Arrays.toString(info.resourceDirs)
+                + "/" + config.getLocales().toLanguageTags()
+                + "/" + config.mcc + "/" + config.mnc
+                + "/" + config.assetsSeq;
+    }
+
+    private static List<Bundle> filter(List<Bundle> table, int flags) {
+        final boolean hasPrefScreenFlag = hasFlag(flags, MetadataFlag.FLAG_INCLUDE_PREF_SCREEN);
+        final List<Bundle> metadata = new ArrayList<>(table.size());
+        for (Bundle compiled : table) {
+            final String nodeName = compiled.getString(METADATA_PREF_TYPE);
+            if (!hasPrefScreenFlag
+                    && TextUtils.equals(PreferenceXmlParserUtils.PREF_SCREEN_TAG, nodeName)) {
+                continue;
+            }
+            final Bundle preferenceMetadata = new Bundle();
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_TYPE)) {
+                preferenceMetadata.putString(METADATA_PREF_TYPE, nodeName);
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_KEY)) {
+                preferenceMetadata.putString(METADATA_KEY, compiled.getString(METADATA_KEY));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_CONTROLLER)) {
+                preferenceMetadata.putString(METADATA_CONTROLLER,
+                        compiled.getString(METADATA_CONTROLLER));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_TITLE)) {
+                preferenceMetadata.putString(METADATA_TITLE, compiled.getString(METADATA_TITLE));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_SUMMARY)) {
+                preferenceMetadata.putString(METADATA_SUMMARY,
+                        compiled.getString(METADATA_SUMMARY));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_ICON)) {
+                preferenceMetadata.putInt(METADATA_ICON, compiled.getInt(METADATA_ICON));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_KEYWORDS)) {
+                preferenceMetadata.putString(METADATA_KEYWORDS,
+                        compiled.getString(METADATA_KEYWORDS));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_SEARCHABLE)) {
+                preferenceMetadata.putBoolean(METADATA_SEARCHABLE,
+                        compiled.getBoolean(METADATA_SEARCHABLE));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_APPEND) && hasPrefScreenFlag) {
+                preferenceMetadata.putBoolean(METADATA_APPEND,
+                        compiled.getBoolean(METADATA_APPEND));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_UNAVAILABLE_SLICE_SUBTITLE)) {
+                preferenceMetadata.putString(METADATA_UNAVAILABLE_SLICE_SUBTITLE,
+                        compiled.getString(METADATA_UNAVAILABLE_SLICE_SUBTITLE));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_FOR_WORK)) {
+                preferenceMetadata.putBoolean(METADATA_FOR_WORK,
+                        compiled.getBoolean(METADATA_FOR_WORK));
+            }
+            if (hasFlag(flags, MetadataFlag.FLAG_NEED_HIGHLIGHTABLE_MENU_KEY)) {
+                preferenceMetadata.putString(METADATA_HIGHLIGHTABLE_MENU_KEY,
+                        compiled.getString(METADATA_HIGHLIGHTABLE_MENU_KEY));
+            }
+            metadata.add(preferenceMetadata);
+        }
+        return metadata;
+    }
+
+    private void scheduleWrite() {
+        if (mWriteScheduled) {
+            return;
+        }
+        mWriteScheduled = true;
+        ThreadUtils.postOnBackgroundThread(this::writeTables);
+    }
+
+    @VisibleForTesting
+    void writeTables() {
+        final byte[] data;
+        synchronized (this) {
+            mWriteScheduled = false;
+            if (mResourceKey == null) {
+                return;
+            }
+            try {
+                data = marshall(mResourceKey, mTables);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to marshall preference metadata", e);
+                return;
+            }
+        }
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(data);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write preference metadata", e);
+            mFile.failWrite(out);
+        }
+    }
+
+    // Must hold the lock.
+    private void readTables(String resourceKey) {
+        final byte[] data;
+        try {
+            data = mFile.readFully();
+        } catch (IOException e) {
+            // Nothing compiled yet.
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != FORMAT_VERSION || !resourceKey.equals(in.readUTF())) {
+                return;
+            }
+            final int tableCount = in.readInt();
+            for (int i = 0; i < tableCount; i++) {
+                final int xmlResId = in.readInt();
+                final int nodeCount = in.readInt();
+                final List<Bundle> table = new ArrayList<>(nodeCount);
+                for (int j = 0; j < nodeCount; j++) {
+                    table.add(readNode(in));
+                }
+                mTables.put(xmlResId, table);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable preference metadata", e);
+            mTables.clear();
+        }
+    }
+
+    private static byte[] marshall(String resourceKey, SparseArray<List<Bundle>> tables)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(resourceKey);
+            out.writeInt(tables.size());
+            for (int i = 0; i < tables.size(); i++) {
+                final List<Bundle> table = tables.valueAt(i);
+                out.writeInt(tables.keyAt(i));
+                out.writeInt(table.size());
+                for (Bundle node : table) {
+                    writeNode(out, node);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeNode(DataOutputStream out, Bundle node) throws IOException {
+        writeString(out, node.getString(METADATA_PREF_TYPE));
+        writeString(out, node.getString(METADATA_KEY));
+        writeString(out, node.getString(METADATA_CONTROLLER));
+        writeString(out, node.getString(METADATA_TITLE));
+        writeString(out, node.getString(METADATA_SUMMARY));
+        out.writeInt(node.getInt(METADATA_ICON));
+        writeString(out, node.getString(METADATA_KEYWORDS));
+        out.writeBoolean(node.getBoolean(METADATA_SEARCHABLE));
+        out.writeBoolean(node.getBoolean(METADATA_APPEND));
+        writeString(out, node.getString(METADATA_UNAVAILABLE_SLICE_SUBTITLE));
+        out.writeBoolean(node.getBoolean(METADATA_FOR_WORK));
+        writeString(out, node.getString(METADATA_HIGHLIGHTABLE_MENU_KEY));
+    }
+
+    private static Bundle readNode(DataInputStream in) throws IOException {
+        final Bundle node = new Bundle();
+        node.putString(METADATA_PREF_TYPE, readString(in));
+        node.putString(METADATA_KEY, readString(in));
+        node.putString(METADATA_CONTROLLER, readString(in));
+        node.putString(METADATA_TITLE, readString(in));
+        node.putString(METADATA_SUMMARY, readString(in));
+        node.putInt(METADATA_ICON, in.readInt());
+        node.putString(METADATA_KEYWORDS, readString(in));
+        node.putBoolean(METADATA_SEARCHABLE, in.readBoolean());
+        node.putBoolean(METADATA_APPEND, in.readBoolean());
+        node.putString(METADATA_UNAVAILABLE_SLICE_SUBTITLE, readString(in));
+        node.putBoolean(METADATA_FOR_WORK, in.readBoolean());
+        node.putString(METADATA_HIGHLIGHTABLE_MENU_KEY, readString(in));
+        return node;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
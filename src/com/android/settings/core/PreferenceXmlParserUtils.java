@@ -173,12 +173,29 @@ public class PreferenceXmlParserUtils {
     /**
      * Extracts metadata from preference xml and put them into a {@link Bundle}.
      *
+     * <p>Results are served from {@link PreferenceMetadataCache}, so each xml is only parsed once
+     * per resource configuration.
+     *
      * @param xmlResId xml res id of a preference screen
      * @param flags    Should be one or more of {@link MetadataFlag}.
      */
     @NonNull
     public static List<Bundle> extractMetadata(Context context, @XmlRes int xmlResId, int flags)
             throws IOException, XmlPullParserException {
+        if (xmlResId <= 0) {
+            Log.d(TAG, xmlResId + " is invalid.");
+            return new ArrayList<>();
+        }
+        return PreferenceMetadataCache.getInstance(context).getMetadata(context, xmlResId, flags);
+    }
+
+    /**
+     * Same as {@link #extractMetadata(Context, int, int)}, but always parses the xml. Only meant
+     * for {@link PreferenceMetadataCache} and for measuring it.
+     */
+    @NonNull
+    public static List<Bundle> parseMetadata(Context context, @XmlRes int xmlResId, int flags)
+            throws IOException, XmlPullParserException {
         final List<Bundle> metadata = new ArrayList<>();
         if (xmlResId <= 0) {
             Log.d(TAG, xmlResId + " is invalid.");
@@ -260,6 +277,9 @@ public class PreferenceXmlParserUtils {
             metadata.add(preferenceMetadata);
 
             preferenceAttributes.recycle();
+            if (preferenceScreenAttributes != null) {
+                preferenceScreenAttributes.recycle();
+            }
         } while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
                 && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth));
         parser.close();
@@ -278,7 +298,7 @@ public class PreferenceXmlParserUtils {
         return data;
     }
 
-    private static boolean hasFlag(int flags, @MetadataFlag int flag) {
+    static boolean hasFlag(int flags, @MetadataFlag int flag) {
         return (flags & flag) != 0;
     }
 
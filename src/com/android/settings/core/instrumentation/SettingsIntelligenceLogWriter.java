@@ -38,10 +38,13 @@ import com.android.settingslib.core.instrumentation.LogWriter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class SettingsIntelligenceLogWriter implements LogWriter {
     private static final String TAG = "IntelligenceLogWriter";
@@ -49,11 +52,27 @@ public class SettingsIntelligenceLogWriter implements LogWriter {
     private static final String LOG = "logs";
     private static final long MESSAGE_DELAY = DateUtils.MINUTE_IN_MILLIS; // 1 minute
 
-    private List<SettingsLog> mSettingsLogList;
+    // Events waiting for the worker thread. Further events are dropped when it is full.
+    @VisibleForTesting
+    public static final int BUFFER_CAPACITY = 512;
+    // Logs sent in one broadcast are bounded by both count and size.
+    @VisibleForTesting
+    static final int MAX_LOGS_PER_BROADCAST = 256;
+    @VisibleForTesting
+    static final int MAX_BYTES_PER_BROADCAST = 32 * 1024;
+
+    private final Object mLock = new Object();
+    // Events logged since the worker last drained them. Guarded by mLock.
+    private EventBuffer mPendingEvents = new EventBuffer(BUFFER_CAPACITY);
+    private long mDroppedCount;
+    // Only used on the worker thread.
+    private EventBuffer mDrainingEvents = new EventBuffer(BUFFER_CAPACITY);
+    private final LogChunk mLogChunk = new LogChunk();
+    private long mReportedDroppedCount;
+
     private SendLogHandler mLogHandler;
 
     public SettingsIntelligenceLogWriter() {
-        mSettingsLogList = new LinkedList<>();
         final HandlerThread workerThread = new HandlerThread("SettingsIntelligenceLogWriter",
                 Process.THREAD_PRIORITY_BACKGROUND);
         workerThread.start();
@@ -116,50 +135,107 @@ public class SettingsIntelligenceLogWriter implements LogWriter {
 
     @Override
     public void action(int attribution, int action, int pageId, String key, int value) {
-        final ZonedDateTime now = ZonedDateTime.now(ZoneId.systemDefault());
-        final SettingsLog settingsLog = SettingsLog.newBuilder()
-                .setAttribution(attribution)
-                .setAction(action)
-                .setPageId(pageId)
-                .setChangedPreferenceKey(key != null ? key : "")
-                .setChangedPreferenceIntValue(value)
-                .setTimestamp(now.toString())
-                .build();
-        mLogHandler.post(() -> {
-            mSettingsLogList.add(settingsLog);
-        });
+        final long timestampNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        final boolean wasEmpty;
+        synchronized (mLock) {
+            wasEmpty = mPendingEvents.isEmpty();
+            if (!mPendingEvents.add(attribution, action, pageId, key, value, timestampNanos)) {
+                mDroppedCount++;
+                return;
+            }
+        }
         if (action == SettingsEnums.ACTION_CONTEXTUAL_CARD_DISMISS) {
             // Directly send this event to notify SI instantly that the card is dismissed
             mLogHandler.sendLog();
-        } else {
-            mLogHandler.scheduleSendLog();
+        } else if (wasEmpty) {
+            // Later events are drained along with this one.
+            mLogHandler.drainLog();
+        }
+    }
+
+    @VisibleForTesting
+    public long getDroppedCount() {
+        synchronized (mLock) {
+            return mDroppedCount;
         }
     }
 
     @VisibleForTesting
     static byte[] serialize(List<SettingsLog> settingsLogs) {
-        final int size = settingsLogs.size();
-        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        final DataOutputStream output = new DataOutputStream(bout);
-        // The data format is "size, length, byte array, length, byte array ..."
+        final LogChunk chunk = new LogChunk();
         try {
-            output.writeInt(size);
             for (SettingsLog settingsLog : settingsLogs) {
-                final byte[] data = settingsLog.toByteArray();
-                output.writeInt(data.length);
-                output.write(data);
+                chunk.append(settingsLog);
             }
-            return bout.toByteArray();
-        } catch (Exception e) {
+            return chunk.toByteArray();
+        } catch (IOException e) {
             Log.e(TAG, "serialize error", e);
             return null;
-        } finally {
+        }
+    }
+
+    @VisibleForTesting
+    static String formatTimestamp(long timestampNanos) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(0, timestampNanos),
+                ZoneId.systemDefault()).toString();
+    }
+
+    // Moves the pending events into the chunk, sending it whenever it is full.
+    private void drainPendingEvents() {
+        synchronized (mLock) {
+            final EventBuffer drained = mPendingEvents;
+            mPendingEvents = mDrainingEvents;
+            mDrainingEvents = drained;
+        }
+        final EventBuffer events = mDrainingEvents;
+        for (int i = 0; i < events.mSize; i++) {
+            final SettingsLog settingsLog = SettingsLog.newBuilder()
+                    .setAttribution(events.mAttributions[i])
+                    .setAction(events.mActions[i])
+                    .setPageId(events.mPageIds[i])
+                    .setChangedPreferenceKey(events.mKeys[i] != null ? events.mKeys[i] : "")
+                    .setChangedPreferenceIntValue(events.mValues[i])
+                    .setTimestamp(formatTimestamp(events.mTimestampNanos[i]))
+                    .build();
             try {
-                output.close();
-            } catch (Exception e) {
-                Log.e(TAG, "close error", e);
+                mLogChunk.append(settingsLog);
+            } catch (IOException e) {
+                Log.e(TAG, "serialize error", e);
+            }
+            if (mLogChunk.getCount() >= MAX_LOGS_PER_BROADCAST
+                    || mLogChunk.getByteCount() >= MAX_BYTES_PER_BROADCAST) {
+                sendLogChunk();
             }
         }
+        events.clear();
+    }
+
+    private void sendLogChunk() {
+        if (mLogChunk.getCount() == 0) {
+            return;
+        }
+        final long droppedCount = getDroppedCount();
+        if (droppedCount != mReportedDroppedCount) {
+            Log.w(TAG, "Dropped " + (droppedCount - mReportedDroppedCount) + " logs");
+            mReportedDroppedCount = droppedCount;
+        }
+        final Context context = FeatureFactory.getAppContext();
+        if (context == null) {
+            Log.e(TAG, "context is null");
+            mLogChunk.reset();
+            return;
+        }
+        final String action = context.getString(R.string
+                .config_settingsintelligence_log_action);
+        if (!TextUtils.isEmpty(action)) {
+            final Intent intent = new Intent();
+            intent.setPackage(context.getString(R.string
+                    .config_settingsintelligence_package_name));
+            intent.setAction(action);
+            intent.putExtra(LOG, mLogChunk.toByteArray());
+            context.sendBroadcastAsUser(intent, UserHandle.CURRENT);
+        }
+        mLogChunk.reset();
     }
 
     private class SendLogHandler extends Handler {
@@ -168,6 +244,10 @@ public class SettingsIntelligenceLogWriter implements LogWriter {
             super(looper);
         }
 
+        void drainLog() {
+            post(mDrainLogsRunnable);
+        }
+
         void scheduleSendLog() {
             removeCallbacks(mSendLogsRunnable);
             postDelayed(mSendLogsRunnable, MESSAGE_DELAY);
@@ -179,22 +259,102 @@ public class SettingsIntelligenceLogWriter implements LogWriter {
         }
     }
 
+    private final Runnable mDrainLogsRunnable = () -> {
+        drainPendingEvents();
+        if (mLogChunk.getCount() > 0) {
+            mLogHandler.scheduleSendLog();
+        }
+    };
+
     private final Runnable mSendLogsRunnable = () -> {
-        final Context context = FeatureFactory.getAppContext();
-        if (context == null) {
-            Log.e(TAG, "context is null");
-            return;
+        drainPendingEvents();
+        sendLogChunk();
+    };
+
+    /**
+     * Fixed capacity buffer of events, kept as primitives so logging allocates nothing.
+     */
+    private static final class EventBuffer {
+        final int[] mAttributions;
+        final int[] mActions;
+        final int[] mPageIds;
+        final String[] mKeys;
+        final int[] mValues;
+        final long[] mTimestampNanos;
+        int mSize;
+
+        EventBuffer(int capacity) {
+            mAttributions = new int[capacity];
+            mActions = new int[capacity];
+            mPageIds = new int[capacity];
+            mKeys = new String[capacity];
+            mValues = new int[capacity];
+            mTimestampNanos = new long[capacity];
         }
-        final String action = context.getString(R.string
-                .config_settingsintelligence_log_action);
-        if (!TextUtils.isEmpty(action) && !mSettingsLogList.isEmpty()) {
-            final Intent intent = new Intent();
-            intent.setPackage(context.getString(R.string
-                    .config_settingsintelligence_package_name));
-            intent.setAction(action);
-            intent.putExtra(LOG, serialize(mSettingsLogList));
-            context.sendBroadcastAsUser(intent, UserHandle.CURRENT);
-            mSettingsLogList.clear();
+
+        boolean isEmpty() {
+            return mSize == 0;
         }
-    };
+
+        // Returns false when the buffer is full.
+        boolean add(int attribution, int action, int pageId, String key, int value,
+                long timestampNanos) {
+            if (mSize == mActions.length) {
+                return false;
+            }
+            mAttributions[mSize] = attribution;
+            mActions[mSize] = action;
+            mPageIds[mSize] = pageId;
+            mKeys[mSize] = key;
+            mValues[mSize] = value;
+            mTimestampNanos[mSize] = timestampNanos;
+            mSize++;
+            return true;
+        }
+
+        void clear() {
+            // Release the keys, the primitives are simply overwritten.
+            for (int i = 0; i < mSize; i++) {
+                mKeys[i] = null;
+            }
+            mSize = 0;
+        }
+    }
+
+    /**
+     * Serialized logs of one broadcast, in the format "size, length, byte array, length, byte
+     * array ...". The buffer is kept between broadcasts.
+     */
+    private static final class LogChunk {
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        private final DataOutputStream mOutput = new DataOutputStream(mBytes);
+        private int mCount;
+
+        void append(SettingsLog settingsLog) throws IOException {
+            final byte[] data = settingsLog.toByteArray();
+            mOutput.writeInt(data.length);
+            mOutput.write(data);
+            mCount++;
+        }
+
+        int getCount() {
+            return mCount;
+        }
+
+        int getByteCount() {
+            return mBytes.size();
+        }
+
+        byte[] toByteArray() {
+            return ByteBuffer.allocate(Integer.BYTES + mBytes.size())
+                    .putInt(mCount)
+                    .put(mBytes.toByteArray())
+                    .array();
+        }
+
+        void reset() {
+            mBytes.reset();
+            mCount = 0;
+        }
+    }
 }
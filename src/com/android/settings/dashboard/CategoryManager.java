@@ -34,6 +34,7 @@ import com.android.settingslib.drawer.Tile;
 import com.android.settingslib.drawer.TileUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,14 +48,15 @@ public class CategoryManager {
 
     private static CategoryManager sInstance;
     private final InterestingConfigChanges mInterestingConfigChanges;
+    private final TileSnapshotStore mSnapshotStore;
 
-    // Tile cache (key: <packageName, activityName>, value: tile)
+    // Tile cache (key: <packageName, activityName>, value: tile). Guarded by this.
     private final Map<Pair<String, String>, Tile> mTileByComponentCache;
 
-    // Tile cache (key: category key, value: category)
-    private final Map<String, DashboardCategory> mCategoryByKeyMap;
+    // Published categories. Replaced as a whole on every reload, so readers never lock.
+    private volatile CategorySnapshot mSnapshot;
 
-    private List<DashboardCategory> mCategories;
+    private boolean mFirstLoadHandled;
 
     public static CategoryManager get(Context context) {
         if (sInstance == null) {
@@ -64,28 +66,44 @@ public class CategoryManager {
     }
 
     CategoryManager(Context context) {
+        this(context, new TileSnapshotStore(context));
+    }
+
+    @VisibleForTesting
+    CategoryManager(Context context, TileSnapshotStore snapshotStore) {
         mTileByComponentCache = new ArrayMap<>();
-        mCategoryByKeyMap = new ArrayMap<>();
         mInterestingConfigChanges = new InterestingConfigChanges();
         mInterestingConfigChanges.applyNewConfig(context.getResources());
+        mSnapshotStore = snapshotStore;
     }
 
-    public synchronized DashboardCategory getTilesByCategory(Context context, String categoryKey) {
-        tryInitCategories(context);
-
-        return mCategoryByKeyMap.get(categoryKey);
+    public DashboardCategory getTilesByCategory(Context context, String categoryKey) {
+        return tryInitCategories(context).mCategoryByKeyMap.get(categoryKey);
     }
 
-    public synchronized List<DashboardCategory> getCategories(Context context) {
-        tryInitCategories(context);
-        return mCategories;
+    public List<DashboardCategory> getCategories(Context context) {
+        return tryInitCategories(context).mCategories;
     }
 
     public synchronized void reloadAllCategories(Context context) {
+        reloadCategoriesForPackages(context, Collections.emptySet());
+    }
+
+    /**
+     * Reload categories after the given packages changed. Tiles of those packages are rebuilt
+     * from scratch while tiles of every other package are reused from the cache.
+     */
+    public synchronized void reloadCategoriesForPackages(Context context,
+            Set<String> packageNames) {
         final boolean forceClearCache = mInterestingConfigChanges.applyNewConfig(
                 context.getResources());
-        mCategories = null;
-        tryInitCategories(context, forceClearCache);
+        if (forceClearCache) {
+            mTileByComponentCache.clear();
+        } else if (packageNames != null && !packageNames.isEmpty()) {
+            mTileByComponentCache.keySet().removeIf(
+                    component -> packageNames.contains(component.first));
+        }
+        publish(context, loadCategories(context), true /* persist */);
     }
 
     /**
@@ -93,29 +111,44 @@ public class CategoryManager {
      * @param tileDenylist
      */
     public synchronized void updateCategoryFromDenylist(Set<ComponentName> tileDenylist) {
-        if (mCategories == null) {
+        final CategorySnapshot snapshot = mSnapshot;
+        if (snapshot == null) {
             Log.w(TAG, "Category is null, skipping denylist update");
             return;
         }
-        for (int i = 0; i < mCategories.size(); i++) {
-            DashboardCategory category = mCategories.get(i);
+        final Map<String, DashboardCategory> categoryByKeyMap = new ArrayMap<>();
+        boolean changed = false;
+        for (DashboardCategory category : snapshot.mCategoryByKeyMap.values()) {
+            final DashboardCategory filtered = new DashboardCategory(category.key);
             for (int j = 0; j < category.getTilesCount(); j++) {
-                Tile tile = category.getTile(j);
+                final Tile tile = category.getTile(j);
                 if (tileDenylist.contains(tile.getIntent().getComponent())) {
-                    category.removeTile(j--);
+                    changed = true;
+                } else {
+                    filtered.addTile(tile);
                 }
             }
+            categoryByKeyMap.put(filtered.key, filtered);
+        }
+        if (changed) {
+            final List<DashboardCategory> categories =
+                    new ArrayList<>(snapshot.mCategories.size());
+            for (DashboardCategory category : snapshot.mCategories) {
+                categories.add(categoryByKeyMap.get(category.key));
+            }
+            mSnapshot = new CategorySnapshot(categories, categoryByKeyMap);
         }
     }
 
     /** Return the current tile map */
-    public synchronized Map<ComponentName, Tile> getTileByComponentMap() {
+    public Map<ComponentName, Tile> getTileByComponentMap() {
         final Map<ComponentName, Tile> result = new ArrayMap<>();
-        if (mCategories == null) {
+        final CategorySnapshot snapshot = mSnapshot;
+        if (snapshot == null) {
             Log.w(TAG, "Category is null, no tiles");
             return result;
         }
-        mCategories.forEach(category -> {
+        snapshot.mCategories.forEach(category -> {
             for (int i = 0; i < category.getTilesCount(); i++) {
                 final Tile tile = category.getTile(i);
                 result.put(tile.getIntent().getComponent(), tile);
@@ -133,48 +166,69 @@ public class CategoryManager {
         }
     }
 
-    private synchronized void tryInitCategories(Context context) {
-        // Keep cached tiles by default. The cache is only invalidated when InterestingConfigChange
-        // happens.
-        tryInitCategories(context, false /* forceClearCache */);
+    private CategorySnapshot tryInitCategories(Context context) {
+        final CategorySnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (mSnapshot == null) {
+                // Keep cached tiles by default. The cache is only invalidated when
+                // InterestingConfigChange happens.
+                final CategorySnapshot persisted = mSnapshotStore.read(context);
+                if (persisted != null) {
+                    Log.i(TAG, "Warm start from tile snapshot");
+                    publish(context, persisted, false /* persist */);
+                } else {
+                    publish(context, loadCategories(context), true /* persist */);
+                }
+            }
+            return mSnapshot;
+        }
+    }
+
+    /** Resolve every category from PackageManager. Must hold the lock. */
+    private CategorySnapshot loadCategories(Context context) {
+        final List<DashboardCategory> categories =
+                TileUtils.getCategories(context, mTileByComponentCache);
+        final Map<String, DashboardCategory> categoryByKeyMap = new ArrayMap<>();
+        for (DashboardCategory category : categories) {
+            categoryByKeyMap.put(category.key, category);
+        }
+        backwardCompatCleanupForCategory(mTileByComponentCache, categoryByKeyMap);
+        sortCategories(context, categoryByKeyMap);
+        filterDuplicateTiles(categoryByKeyMap);
+        return new CategorySnapshot(categories, categoryByKeyMap);
     }
 
-    private synchronized void tryInitCategories(Context context, boolean forceClearCache) {
-        if (mCategories == null) {
-            final boolean firstLoading = mCategoryByKeyMap.isEmpty();
-            if (forceClearCache) {
-                mTileByComponentCache.clear();
-            }
-            mCategoryByKeyMap.clear();
-            mCategories = TileUtils.getCategories(context, mTileByComponentCache);
-            for (DashboardCategory category : mCategories) {
-                mCategoryByKeyMap.put(category.key, category);
-            }
-            backwardCompatCleanupForCategory(mTileByComponentCache, mCategoryByKeyMap);
-            sortCategories(context, mCategoryByKeyMap);
-            filterDuplicateTiles(mCategoryByKeyMap);
-            if (firstLoading) {
-                logTiles(context);
+    /** Publish {@code categories} to readers. Must hold the lock. */
+    private void publish(Context context, CategorySnapshot snapshot, boolean persist) {
+        if (persist) {
+            mSnapshotStore.save(context, snapshot);
+        }
+        mSnapshot = snapshot;
+        if (!mFirstLoadHandled) {
+            mFirstLoadHandled = true;
+            logTiles(context);
 
-                final DashboardCategory homepageCategory = mCategoryByKeyMap.get(
-                        CategoryKey.CATEGORY_HOMEPAGE);
-                if (homepageCategory == null) {
-                    return;
-                }
-                for (Tile tile : homepageCategory.getTiles()) {
-                    final String key = tile.getKey(context);
-                    if (TextUtils.isEmpty(key)) {
-                        Log.w(TAG, "Key hint missing for homepage tile: " + tile.getTitle(context));
-                        continue;
-                    }
-                    HighlightableMenu.addMenuKey(key);
+            final DashboardCategory homepageCategory = mSnapshot.mCategoryByKeyMap.get(
+                    CategoryKey.CATEGORY_HOMEPAGE);
+            if (homepageCategory == null) {
+                return;
+            }
+            for (Tile tile : homepageCategory.getTiles()) {
+                final String key = tile.getKey(context);
+                if (TextUtils.isEmpty(key)) {
+                    Log.w(TAG, "Key hint missing for homepage tile: " + tile.getTitle(context));
+                    continue;
                 }
+                HighlightableMenu.addMenuKey(key);
             }
         }
     }
 
     @VisibleForTesting
-    synchronized void backwardCompatCleanupForCategory(
+    void backwardCompatCleanupForCategory(
             Map<Pair<String, String>, Tile> tileByComponentCache,
             Map<String, DashboardCategory> categoryByKeyMap) {
         // A package can use a) CategoryKey, b) old category keys, c) both.
@@ -232,7 +286,7 @@ public class CategoryManager {
      * scan.
      */
     @VisibleForTesting
-    synchronized void sortCategories(Context context,
+    void sortCategories(Context context,
             Map<String, DashboardCategory> categoryByKeyMap) {
         for (Entry<String, DashboardCategory> categoryEntry : categoryByKeyMap.entrySet()) {
             categoryEntry.getValue().sortTiles(context.getPackageName());
@@ -244,7 +298,7 @@ public class CategoryManager {
      * same intent for ActivityTile, and also the ones having the same description for ProviderTile.
      */
     @VisibleForTesting
-    synchronized void filterDuplicateTiles(Map<String, DashboardCategory> categoryByKeyMap) {
+    void filterDuplicateTiles(Map<String, DashboardCategory> categoryByKeyMap) {
         for (Entry<String, DashboardCategory> categoryEntry : categoryByKeyMap.entrySet()) {
             final DashboardCategory category = categoryEntry.getValue();
             final int count = category.getTilesCount();
@@ -270,4 +324,19 @@ public class CategoryManager {
             }
         }
     }
+
+    /**
+     * An immutable view of the resolved categories. {@link #mCategoryByKeyMap} may hold more
+     * categories than {@link #mCategories} when tiles were moved off legacy category keys.
+     */
+    static class CategorySnapshot {
+        final List<DashboardCategory> mCategories;
+        final Map<String, DashboardCategory> mCategoryByKeyMap;
+
+        CategorySnapshot(List<DashboardCategory> categories,
+                Map<String, DashboardCategory> categoryByKeyMap) {
+            mCategories = Collections.unmodifiableList(categories);
+            mCategoryByKeyMap = Collections.unmodifiableMap(categoryByKeyMap);
+        }
+    }
 }
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.app.settings.SettingsEnums;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.preference.Preference;
+import androidx.preference.PreferenceGroup;
+import androidx.preference.PreferenceScreen;
+
+import com.android.settingslib.core.AbstractPreferenceController;
+import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the state updates of a page's {@link AbstractPreferenceController}s.
+ *
+ * <p>Availability checks run on a small pool owned by the page, ordered so that preferences near
+ * the top of the screen are handled first. The resulting
+ * {@link AbstractPreferenceController#updateState(Preference)} calls are applied on the main
+ * thread in batches bounded by a frame budget. Each controller gets its own deadline, counted
+ * from when its check starts, so a slow controller does not eat into the time of the ones queued
+ * behind it. A controller that misses its deadline keeps showing its previous (stale) state; its
+ * result is still applied once it arrives.
+ */
+public class ControllerUpdateScheduler {
+    private static final String TAG = "ControllerUpdateSched";
+
+    @VisibleForTesting
+    static final int MAX_CONCURRENCY = 4;
+    @VisibleForTesting
+    static final long CONTROLLER_TIMEOUT_MS = 300;
+    @VisibleForTesting
+    static final long FRAME_BUDGET_MS = 8;
+    // Timeouts are logged under their own key so they don't skew the updateState latencies.
+    @VisibleForTesting
+    static final String TIMEOUT_KEY_PREFIX = "timeout:";
+    private static final int CONTROLLER_UPDATESTATE_TIME_THRESHOLD = 50;
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler;
+    private final MetricsFeatureProvider mMetricsFeature;
+    private final int mMetricsCategory;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final AtomicInteger mSequence = new AtomicInteger();
+    // Guarded by itself.
+    private final Queue<UpdateTask> mPendingUpdates = new ArrayDeque<>();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private final Runnable mDrainRunnable = this::drainPendingUpdates;
+
+    public ControllerUpdateScheduler(MetricsFeatureProvider metricsFeature, int metricsCategory) {
+        this(metricsFeature, metricsCategory, MAX_CONCURRENCY);
+    }
+
+    @VisibleForTesting
+    ControllerUpdateScheduler(MetricsFeatureProvider metricsFeature, int metricsCategory,
+            int maxConcurrency) {
+        mMetricsFeature = metricsFeature;
+        mMetricsCategory = metricsCategory;
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mExecutor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Update the state of every controller against {@code screen}.
+     *
+     * <p>Blocks until every availability check either completes or misses its own deadline.
+     * Results from an earlier call that arrive after this one started are
+     * dropped.
+     */
+    public void updatePreferenceStates(PreferenceScreen screen,
+            Collection<List<AbstractPreferenceController>> controllerLists) {
+        if (screen == null || mExecutor.isShutdown()) {
+            return;
+        }
+        final int generation = mGeneration.incrementAndGet();
+        final Map<String, Integer> positions = computePreferencePositions(screen);
+        final List<UpdateTask> tasks = new ArrayList<>();
+        for (List<AbstractPreferenceController> controllerList : controllerLists) {
+            for (AbstractPreferenceController controller : controllerList) {
+                // The key is read once here, both to order the task and to find its preference.
+                final String key = controller.getPreferenceKey();
+                final Integer position = positions.get(key);
+                tasks.add(new UpdateTask(controller, key, screen, generation,
+                        position != null ? position : Integer.MAX_VALUE,
+                        mSequence.getAndIncrement()));
+            }
+        }
+        // Submit in priority order so that above-the-fold work also starts first when the
+        // pool has idle threads.
+        Collections.sort(tasks);
+        for (UpdateTask task : tasks) {
+            mExecutor.execute(task);
+        }
+
+        for (UpdateTask task : tasks) {
+            // A check still queued behind slower ones gets its full deadline from now on.
+            final long startTime = task.getStartTime();
+            final long now = SystemClock.elapsedRealtime();
+            final long deadline = (startTime > 0 ? startTime : now) + CONTROLLER_TIMEOUT_MS;
+            try {
+                task.get(Math.max(0, deadline - now), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                task.markStale();
+                Log.w(TAG, "Controller " + task.getControllerName() + " missed the "
+                        + CONTROLLER_TIMEOUT_MS + " ms deadline, keeping stale state");
+                reportTimeout(task.getControllerName());
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, task.mKey + " " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop all pending work. The scheduler cannot be used afterwards.
+     */
+    public void release() {
+        mGeneration.incrementAndGet();
+        mExecutor.shutdownNow();
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.clear();
+        }
+        mMainHandler.removeCallbacks(mDrainRunnable);
+        mDrainScheduled.set(false);
+    }
+
+    /**
+     * Map each preference key to its depth-first position on screen, which approximates the
+     * order the user sees them in.
+     */
+    @VisibleForTesting
+    static Map<String, Integer> computePreferencePositions(PreferenceScreen screen) {
+        final Map<String, Integer> positions = new ArrayMap<>();
+        collectPositions(screen, positions);
+        return positions;
+    }
+
+    private static void collectPositions(PreferenceGroup group, Map<String, Integer> positions) {
+        final int count = group.getPreferenceCount();
+        for (int i = 0; i < count; i++) {
+            final Preference preference = group.getPreference(i);
+            final String key = preference.getKey();
+            if (!TextUtils.isEmpty(key) && !positions.containsKey(key)) {
+                positions.put(key, positions.size());
+            }
+            if (preference instanceof PreferenceGroup) {
+                collectPositions((PreferenceGroup) preference, positions);
+            }
+        }
+    }
+
+    private void enqueueUpdate(UpdateTask task) {
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.add(task);
+        }
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mMainHandler.post(mDrainRunnable);
+        }
+    }
+
+    @VisibleForTesting
+    void drainPendingUpdates() {
+        mDrainScheduled.set(false);
+        final long frameStart = SystemClock.elapsedRealtime();
+        while (SystemClock.elapsedRealtime() - frameStart < FRAME_BUDGET_MS) {
+            final UpdateTask task;
+            synchronized (mPendingUpdates) {
+                task = mPendingUpdates.poll();
+            }
+            if (task == null) {
+                return;
+            }
+            task.apply();
+        }
+        synchronized (mPendingUpdates) {
+            if (mPendingUpdates.isEmpty()) {
+                return;
+            }
+        }
+        // Out of budget for this frame, continue on the next looper iteration.
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mMainHandler.post(mDrainRunnable);
+        }
+    }
+
+    private void reportLatency(String name, int elapsedTime) {
+        if (mMetricsFeature != null) {
+            mMetricsFeature.action(SettingsEnums.PAGE_UNKNOWN,
+                    SettingsEnums.ACTION_CONTROLLER_UPDATE_STATE, mMetricsCategory, name,
+                    elapsedTime);
+        }
+    }
+
+    private void reportTimeout(String name) {
+        if (mMetricsFeature != null) {
+            mMetricsFeature.action(SettingsEnums.PAGE_UNKNOWN,
+                    SettingsEnums.ACTION_CONTROLLER_UPDATE_STATE, mMetricsCategory,
+                    TIMEOUT_KEY_PREFIX + name, (int) CONTROLLER_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Checks availability and resolves the preference in the background, then hands the
+     * controller to the main thread batch.
+     */
+    private class UpdateTask extends FutureTask<Preference> implements Comparable<UpdateTask> {
+        private final AbstractPreferenceController mController;
+        private final String mKey;
+        private final int mGenerationId;
+        private final int mPosition;
+        private final int mSequenceId;
+        private final long mSubmitTime;
+        private volatile long mStartTime;
+        private volatile boolean mStale;
+
+        UpdateTask(AbstractPreferenceController controller, String key, PreferenceScreen screen,
+                int generation, int position, int sequence) {
+            super(() -> findUpdatablePreference(controller, key, screen));
+            mController = controller;
+            mKey = key;
+            mGenerationId = generation;
+            mPosition = position;
+            mSequenceId = sequence;
+            mSubmitTime = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public int compareTo(UpdateTask other) {
+            if (mPosition != other.mPosition) {
+                return Integer.compare(mPosition, other.mPosition);
+            }
+            return Integer.compare(mSequenceId, other.mSequenceId);
+        }
+
+        @Override
+        public void run() {
+            mStartTime = SystemClock.elapsedRealtime();
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            if (!isCancelled()) {
+                enqueueUpdate(this);
+            }
+        }
+
+        long getStartTime() {
+            return mStartTime;
+        }
+
+        void markStale() {
+            mStale = true;
+        }
+
+        String getControllerName() {
+            return mController.getClass().getSimpleName();
+        }
+
+        void apply() {
+            if (mGenerationId != mGeneration.get()) {
+                return;
+            }
+            final Preference preference;
+            try {
+                preference = get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, mKey + " " + e.getMessage());
+                return;
+            }
+            if (preference == null) {
+                return;
+            }
+            final long t = SystemClock.elapsedRealtime();
+            mController.updateState(preference);
+            final int elapsedTime = (int) (SystemClock.elapsedRealtime() - t);
+            if (elapsedTime > CONTROLLER_UPDATESTATE_TIME_THRESHOLD) {
+                Log.w(TAG, "The updateState took " + elapsedTime + " ms in Controller "
+                        + getControllerName());
+                reportLatency(getControllerName(), elapsedTime);
+            }
+            if (mStale) {
+                final int latency = (int) (SystemClock.elapsedRealtime() - mSubmitTime);
+                Log.w(TAG, "Stale controller " + getControllerName() + " updated after "
+                        + latency + " ms");
+            }
+        }
+    }
+
+    private static Preference findUpdatablePreference(AbstractPreferenceController controller,
+            String key, PreferenceScreen screen) {
+        if (!controller.isAvailable()) {
+            return null;
+        }
+        if (TextUtils.isEmpty(key)) {
+            Log.d(TAG, String.format("Preference key is %s in Controller %s",
+                    key, controller.getClass().getSimpleName()));
+            return null;
+        }
+        final Preference preference = screen.findPreference(key);
+        if (preference == null) {
+            Log.d(TAG, String.format("Cannot find preference with key %s in Controller %s",
+                    key, controller.getClass().getSimpleName()));
+        }
+        return preference;
+    }
+}
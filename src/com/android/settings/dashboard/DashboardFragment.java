@@ -47,7 +47,6 @@ import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.ProviderTile;
 import com.android.settingslib.drawer.Tile;
 import com.android.settingslib.search.Indexable;
-import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -56,7 +55,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 
 /**
  * Base fragment for dashboard style UI containing a list of static and dynamic setting items.
@@ -78,6 +76,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     private DashboardFeatureProvider mDashboardFeatureProvider;
     private DashboardTilePlaceholderPreferenceController mPlaceholderPreferenceController;
     private boolean mListeningToCategoryChange;
+    private ControllerUpdateScheduler mControllerUpdateScheduler;
     private List<String> mSuppressInjectedTileKeys;
 
     @Override
@@ -250,6 +249,15 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mControllerUpdateScheduler != null) {
+            mControllerUpdateScheduler.release();
+            mControllerUpdateScheduler = null;
+        }
+    }
+
     @Override
     protected abstract int getPreferenceScreenResId();
 
@@ -358,6 +366,10 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
      * Update state of each preference managed by PreferenceController.
      */
     protected void updatePreferenceStates() {
+        if (isParalleledControllers()) {
+            updatePreferenceStatesInParallel();
+            return;
+        }
         final PreferenceScreen screen = getPreferenceScreen();
         Collection<List<AbstractPreferenceController>> controllerLists =
                 mPreferenceControllers.values();
@@ -392,27 +404,12 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     // To use this parallel approach will cause the side effect of the UI flicker. Such as
     // the thumb sliding of the toggle button.
     void updatePreferenceStatesInParallel() {
-        final PreferenceScreen screen = getPreferenceScreen();
-        final Collection<List<AbstractPreferenceController>> controllerLists =
-                mPreferenceControllers.values();
-        final List<ControllerFutureTask> taskList = new ArrayList<>();
-        for (List<AbstractPreferenceController> controllerList : controllerLists) {
-            for (AbstractPreferenceController controller : controllerList) {
-                final ControllerFutureTask task = new ControllerFutureTask(
-                        new ControllerTask(controller, screen, mMetricsFeatureProvider,
-                                getMetricsCategory()), null /* result */);
-                taskList.add(task);
-                ThreadUtils.postOnBackgroundThread(task);
-            }
-        }
-
-        for (ControllerFutureTask task : taskList) {
-            try {
-                task.get();
-            } catch (InterruptedException | ExecutionException e) {
-                Log.w(TAG, task.getController().getPreferenceKey() + " " + e.getMessage());
-            }
+        if (mControllerUpdateScheduler == null) {
+            mControllerUpdateScheduler = new ControllerUpdateScheduler(mMetricsFeatureProvider,
+                    getMetricsCategory());
         }
+        mControllerUpdateScheduler.updatePreferenceStates(getPreferenceScreen(),
+                mPreferenceControllers.values());
     }
 
     /**
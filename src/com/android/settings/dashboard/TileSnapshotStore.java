@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Parcel;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.drawer.DashboardCategory;
+import com.android.settingslib.drawer.Tile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persists the resolved dashboard tile graph so that a cold process can show injected tiles
+ * before {@link com.android.settingslib.drawer.TileUtils} has queried PackageManager.
+ *
+ * <p>A snapshot is only used when the build, the Settings version, the relevant configuration and
+ * the version code of every package contributing tiles are unchanged. It is a warm start only:
+ * the next full reload replaces it.
+ */
+class TileSnapshotStore {
+
+    private static final String TAG = "TileSnapshotStore";
+    private static final String FILE_NAME = "dashboard_tiles.snapshot";
+
+    @VisibleForTesting
+    static final int SNAPSHOT_VERSION = 3;
+
+    private final AtomicFile mFile;
+    // Writes run one at a time in the order they were requested.
+    private final Executor mWriteExecutor;
+    private final AtomicInteger mLatestSave = new AtomicInteger();
+
+    TileSnapshotStore(Context context) {
+        this(new File(context.getNoBackupFilesDir(), FILE_NAME),
+                Executors.newSingleThreadExecutor());
+    }
+
+    @VisibleForTesting
+    TileSnapshotStore(File file, Executor writeExecutor) {
+        mFile = new AtomicFile(file);
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * Persist {@code snapshot} in the background. Must be called before the categories are
+     * published, as the tiles are captured synchronously. Package versions are looked up on the
+     * writer thread, and a save is dropped if a newer one was requested in the meantime.
+     */
+    void save(Context context, CategoryManager.CategorySnapshot snapshot) {
+        final Set<String> packageNames = getPackageNames(snapshot);
+        final byte[] categories = marshallCategories(snapshot);
+        final int save = mLatestSave.incrementAndGet();
+        mWriteExecutor.execute(() -> {
+            if (save == mLatestSave.get()) {
+                write(marshall(context, packageNames, categories));
+            }
+        });
+    }
+
+    /** Serialize {@code snapshot} together with the keys that validate them. */
+    @VisibleForTesting
+    byte[] marshall(Context context, CategoryManager.CategorySnapshot snapshot) {
+        return marshall(context, getPackageNames(snapshot), marshallCategories(snapshot));
+    }
+
+    private static Set<String> getPackageNames(CategoryManager.CategorySnapshot snapshot) {
+        final Set<String> packageNames = new ArraySet<>();
+        for (DashboardCategory category : snapshot.mCategoryByKeyMap.values()) {
+            for (Tile tile : category.getTiles()) {
+                final String packageName = tile.getPackageName();
+                if (packageName != null) {
+                    packageNames.add(packageName);
+                }
+            }
+        }
+        return packageNames;
+    }
+
+    private static byte[] marshallCategories(CategoryManager.CategorySnapshot snapshot) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeTypedList(snapshot.mCategories);
+            final List<DashboardCategory> extraCategories = new ArrayList<>();
+            for (DashboardCategory category : snapshot.mCategoryByKeyMap.values()) {
+                if (!snapshot.mCategories.contains(category)) {
+                    extraCategories.add(category);
+                }
+            }
+            parcel.writeTypedList(extraCategories);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static byte[] marshall(Context context, Set<String> packageNames,
+            byte[] categories) {
+        final Map<String, Long> packageVersions = new ArrayMap<>();
+        final PackageManager pm = context.getPackageManager();
+        for (String packageName : packageNames) {
+            final Long versionCode = getVersionCode(pm, packageName);
+            if (versionCode == null) {
+                // Package vanished while resolving, the snapshot would never validate.
+                return null;
+            }
+            packageVersions.put(packageName, versionCode);
+        }
+
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(SNAPSHOT_VERSION);
+            // Settings can be updated without a new build, and its tile resolution with it.
+            parcel.writeLong(getSettingsVersionCode(context));
+            parcel.writeString(Build.FINGERPRINT);
+            parcel.writeString(getConfigKey(context));
+            parcel.writeInt(packageVersions.size());
+            for (Map.Entry<String, Long> entry : packageVersions.entrySet()) {
+                parcel.writeString(entry.getKey());
+                parcel.writeLong(entry.getValue());
+            }
+            parcel.writeByteArray(categories);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /** Write bytes from {@link #marshall} to disk. */
+    @VisibleForTesting
+    void write(byte[] data) {
+        if (data == null) {
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(data);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write tile snapshot", e);
+            mFile.failWrite(out);
+        }
+    }
+
+    /**
+     * @return the persisted snapshot, or {@code null} if there is no snapshot or it no longer
+     * matches the device state.
+     */
+    CategoryManager.CategorySnapshot read(Context context) {
+        final byte[] data;
+        try {
+            data = mFile.readFully();
+        } catch (IOException e) {
+            return null;
+        }
+        final Parcel parcel = Parcel.obtain();
+        final Parcel categoryParcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            if (parcel.readInt() != SNAPSHOT_VERSION
+                    || parcel.readLong() != getSettingsVersionCode(context)
+                    || !Build.FINGERPRINT.equals(parcel.readString())
+                    || !getConfigKey(context).equals(parcel.readString())) {
+                return null;
+            }
+            final PackageManager pm = context.getPackageManager();
+            final int packageCount = parcel.readInt();
+            for (int i = 0; i < packageCount; i++) {
+                final String packageName = parcel.readString();
+                final long versionCode = parcel.readLong();
+                final Long currentVersionCode = getVersionCode(pm, packageName);
+                if (currentVersionCode == null || currentVersionCode != versionCode) {
+                    Log.i(TAG, "Snapshot stale for " + packageName);
+                    return null;
+                }
+            }
+            final byte[] categoryData = parcel.createByteArray();
+            categoryParcel.unmarshall(categoryData, 0, categoryData.length);
+            categoryParcel.setDataPosition(0);
+            final List<DashboardCategory> categories = new ArrayList<>();
+            categoryParcel.readTypedList(categories, DashboardCategory.CREATOR);
+            final List<DashboardCategory> extraCategories = new ArrayList<>();
+            categoryParcel.readTypedList(extraCategories, DashboardCategory.CREATOR);
+            final Map<String, DashboardCategory> categoryByKeyMap = new ArrayMap<>();
+            for (DashboardCategory category : categories) {
+                categoryByKeyMap.put(category.key, category);
+            }
+            for (DashboardCategory category : extraCategories) {
+                categoryByKeyMap.put(category.key, category);
+            }
+            return new CategoryManager.CategorySnapshot(categories, categoryByKeyMap);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable tile snapshot", e);
+            return null;
+        } finally {
+            parcel.recycle();
+            categoryParcel.recycle();
+        }
+    }
+
+    @VisibleForTesting
+    static String getConfigKey(Context context) {
+        final Configuration config = context.getResources().getConfiguration();
+        return config.getLocales().toLanguageTags() + "/" + config.densityDpi + "/"
+                + (config.uiMode & Configuration.UI_MODE_NIGHT_MASK);
+    }
+
+    private static long getSettingsVersionCode(Context context) {
+        final Long versionCode = getVersionCode(context.getPackageManager(),
+                context.getPackageName());
+        return versionCode != null ? versionCode : 0;
+    }
+
+    private static Long getVersionCode(PackageManager pm, String packageName) {
+        try {
+            return pm.getPackageInfo(packageName, PackageManager.MATCH_ANY_USER)
+                    .getLongVersionCode();
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -34,7 +34,6 @@ import android.os.Bundle;
 import android.os.UserHandle;
 import android.telephony.SubscriptionManager;
 import android.util.ArraySet;
-import android.util.IconDrawableFactory;
 import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
@@ -47,6 +46,8 @@ import androidx.preference.Preference.OnPreferenceChangeListener;
 import androidx.preference.PreferenceCategory;
 
 import com.android.settings.R;
+import com.android.settings.applications.AppIdentityCache;
+import com.android.settings.applications.AppIdentityCache.AppIdentity;
 import com.android.settings.applications.AppInfoBase;
 import com.android.settings.widget.EntityHeaderController;
 import com.android.settingslib.AppItem;
@@ -180,8 +181,12 @@ public class AppDataUsage extends DataUsageBaseFragment implements OnPreferenceC
                     try {
                         final ApplicationInfo info = mPackageManager.getApplicationInfoAsUser(
                             mPackages.valueAt(0), 0, UserHandle.getUserId(mAppItem.key));
-                        mIcon = IconDrawableFactory.newInstance(getActivity()).getBadgedIcon(info);
-                        mLabel = info.loadLabel(mPackageManager);
+                        final AppIdentity identity = AppIdentityCache.getInstance()
+                                .getApplicationIdentity(mContext, mPackageManager, info);
+                        if (identity != null) {
+                            mIcon = identity.getIcon();
+                            mLabel = identity.label;
+                        }
                         mPackageName = info.packageName;
                     } catch (PackageManager.NameNotFoundException e) {
                     }
@@ -20,8 +20,6 @@ import android.app.ListActivity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Process;
@@ -33,12 +31,14 @@ import android.widget.ArrayAdapter;
 import android.widget.ListView;
 
 import com.android.settings.R;
+import com.android.settings.applications.InstalledAppsSnapshot;
 
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.Predicate;
 
 public class AppPicker extends ListActivity {
     private AppListAdapter mAdapter;
@@ -114,7 +114,12 @@ public class AppPicker extends ListActivity {
         public AppListAdapter(Context context) {
             super(context, 0);
             mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            List<ApplicationInfo> pkgs = context.getPackageManager().getInstalledApplications(0);
+            final InstalledAppsSnapshot snapshot =
+                    InstalledAppsSnapshot.get(context, context.getUserId());
+            List<ApplicationInfo> pkgs = snapshot.getApplications(0 /* flags */);
+            final Predicate<ApplicationInfo> requestsPermission = mPermissionName != null
+                    ? snapshot.getRequestingPermissionFilter(mPermissionName)
+                    : null;
             for (int i=0; i<pkgs.size(); i++) {
                 ApplicationInfo ai = pkgs.get(i);
                 if (ai.uid == Process.SYSTEM_UID) {
@@ -138,26 +143,8 @@ public class AppPicker extends ListActivity {
                 }
 
                 // Filter out apps that do not request the permission if required.
-                if (mPermissionName != null) {
-                    boolean requestsPermission = false;
-                    try {
-                        PackageInfo pi = getPackageManager().getPackageInfo(ai.packageName,
-                                PackageManager.GET_PERMISSIONS);
-                        if (pi.requestedPermissions == null) {
-                            continue;
-                        }
-                        for (String requestedPermission : pi.requestedPermissions) {
-                            if (requestedPermission.equals(mPermissionName)) {
-                                requestsPermission = true;
-                                break;
-                            }
-                        }
-                        if (!requestsPermission) {
-                            continue;
-                        }
-                    } catch (PackageManager.NameNotFoundException e) {
-                        continue;
-                    }
+                if (requestsPermission != null && !requestsPermission.test(ai)) {
+                    continue;
                 }
 
                 MyApplicationInfo info = new MyApplicationInfo();
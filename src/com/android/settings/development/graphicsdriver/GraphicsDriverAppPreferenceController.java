@@ -35,6 +35,7 @@ import androidx.preference.PreferenceGroup;
 import androidx.preference.PreferenceScreen;
 
 import com.android.settings.R;
+import com.android.settings.applications.InstalledAppsSnapshot;
 import com.android.settings.core.BasePreferenceController;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
 import com.android.settingslib.core.lifecycle.events.OnStart;
@@ -210,13 +211,12 @@ public class GraphicsDriverAppPreferenceController extends BasePreferenceControl
     private List<AppInfo> getAppInfos(Context context) {
         final PackageManager packageManager = context.getPackageManager();
         final List<ApplicationInfo> applicationInfos =
-                packageManager.getInstalledApplications(0 /* flags */);
+                InstalledAppsSnapshot.get(context, context.getUserId())
+                        .getApplications(0 /* flags */, InstalledAppsSnapshot.FILTER_NON_SYSTEM);
 
         final List<AppInfo> appInfos = new ArrayList<>();
         for (ApplicationInfo applicationInfo : applicationInfos) {
-            if ((applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) == 0) {
-                appInfos.add(new AppInfo(packageManager, applicationInfo));
-            }
+            appInfos.add(new AppInfo(packageManager, applicationInfo));
         }
 
         Collections.sort(appInfos, mAppInfoComparator);
@@ -49,6 +49,7 @@ import com.android.settings.deviceinfo.storage.SecondaryUserController;
 import com.android.settings.deviceinfo.storage.StorageAsyncLoader;
 import com.android.settings.deviceinfo.storage.StorageEntry;
 import com.android.settings.deviceinfo.storage.StorageItemPreferenceController;
+import com.android.settings.deviceinfo.storage.StorageResultCache;
 import com.android.settings.deviceinfo.storage.StorageSelectionPreferenceController;
 import com.android.settings.deviceinfo.storage.StorageUsageProgressBarPreferenceController;
 import com.android.settings.deviceinfo.storage.StorageUtils;
@@ -463,7 +464,15 @@ public class StorageDashboardFragment extends DashboardFragment
         return new StorageAsyncLoader(context, mUserManager,
                 mSelectedStorageEntry.getFsUuid(),
                 new StorageStatsSource(context),
-                context.getPackageManager());
+                context.getPackageManager(),
+                new StorageResultCache(context),
+                this::onInterimStorageResult);
+    }
+
+    // Shows the last known sizes while they are computed again.
+    private void onInterimStorageResult(SparseArray<StorageAsyncLoader.StorageResult> data) {
+        mAppsResult = data;
+        onReceivedSizes();
     }
 
     @Override
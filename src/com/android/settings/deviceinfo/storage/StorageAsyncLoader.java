@@ -30,89 +30,269 @@ import android.content.pm.UserInfo;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.MediaStore;
 import android.provider.MediaStore.Files.FileColumns;
 import android.provider.MediaStore.MediaColumns;
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
 
+import com.android.settings.applications.InstalledAppsSnapshot;
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.settingslib.utils.AsyncLoaderCompat;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * StorageAsyncLoader is a Loader which loads categorized app information and external stats for all
- * users
+ * users. Users and categories are loaded in parallel.
  */
 public class StorageAsyncLoader
         extends AsyncLoaderCompat<SparseArray<StorageAsyncLoader.StorageResult>> {
     private UserManager mUserManager;
     private static final String TAG = "StorageAsyncLoader";
 
+    // Shared by all loaders, so switching volumes doesn't pile up threads.
+    private static final int MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+    private static ThreadPoolExecutor sExecutor;
+
     private String mUuid;
     private StorageStatsSource mStatsManager;
     private PackageManager mPackageManager;
     private ArraySet<String> mSeenPackages;
+    private final StorageResultCache mCache;
+    private final ResultHandler mInterimResultHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     public StorageAsyncLoader(Context context, UserManager userManager,
             String uuid, StorageStatsSource source, PackageManager pm) {
+        this(context, userManager, uuid, source, pm, null /* cache */,
+                null /* interimResultHandler */);
+    }
+
+    /**
+     * Creates a loader which first hands the results persisted in {@code cache} to
+     * {@code interimResultHandler}, then updates them category by category as they are computed
+     * again. The final results are persisted in {@code cache}.
+     */
+    public StorageAsyncLoader(Context context, UserManager userManager,
+            String uuid, StorageStatsSource source, PackageManager pm, StorageResultCache cache,
+            ResultHandler interimResultHandler) {
         super(context);
         mUserManager = userManager;
         mUuid = uuid;
         mStatsManager = source;
         mPackageManager = pm;
+        mCache = cache;
+        mInterimResultHandler = interimResultHandler;
     }
 
     @Override
     public SparseArray<StorageResult> loadInBackground() {
-        return getStorageResultsForUsers();
+        final SparseArray<StorageResult> lastResults = mCache == null ? null : mCache.get(mUuid);
+        final SparseArray<StorageResult> results = getStorageResultsForUsers(lastResults);
+        if (mCache != null) {
+            mCache.put(mUuid, results);
+        }
+        return results;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, TAG));
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
     }
 
-    private SparseArray<StorageResult> getStorageResultsForUsers() {
+    private SparseArray<StorageResult> getStorageResultsForUsers(
+            SparseArray<StorageResult> lastResults) {
         mSeenPackages = new ArraySet<>();
-        final SparseArray<StorageResult> results = new SparseArray<>();
         final List<UserInfo> infos = mUserManager.getUsers();
 
         // Sort the users by user id ascending.
         Collections.sort(infos,
                 (userInfo, otherUser) -> Integer.compare(userInfo.id, otherUser.id));
 
+        // Results handed out while categories are computed, starting from the last ones.
+        final SparseArray<StorageResult> interimResults = getInterimResults(lastResults, infos);
+        if (interimResults != null) {
+            publishInterimResults(copyOf(interimResults));
+        }
+
+        // Every category of every user is computed in parallel.
+        final SparseArray<CompletableFuture<AppsSize>> appsSizes = new SparseArray<>();
+        final SparseArray<List<CompletableFuture<Consumer<StorageResult>>>> filesSizes =
+                new SparseArray<>();
         for (UserInfo info : infos) {
-            final StorageResult result = getAppsAndGamesSize(info.id);
-
-            result.imagesSize = getFilesSize(info.id, MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    null /* queryArgs */);
-            result.videosSize = getFilesSize(info.id, MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
-                    null /* queryArgs */);
-            result.audioSize = getFilesSize(info.id, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    null /* queryArgs */);
-
-            final Bundle documentsAndOtherQueryArgs = new Bundle();
-            documentsAndOtherQueryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION,
-                    FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_IMAGE
-                    + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_VIDEO
-                    + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_AUDIO
-                    + " AND " + FileColumns.MIME_TYPE + " IS NOT NULL");
-            result.documentsAndOtherSize = getFilesSize(info.id,
-                    MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL),
-                    documentsAndOtherQueryArgs);
-
-            final Bundle trashQueryArgs = new Bundle();
-            trashQueryArgs.putInt(MediaStore.QUERY_ARG_MATCH_TRASHED, MediaStore.MATCH_ONLY);
-            result.trashSize = getFilesSize(info.id,
-                    MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL), trashQueryArgs);
+            final int userId = info.id;
+            appsSizes.put(userId,
+                    submit(interimResults, userId, () -> getAppsAndGamesSize(userId)));
+
+            final List<CompletableFuture<Consumer<StorageResult>>> userFilesSizes =
+                    new ArrayList<>();
+            userFilesSizes.add(submit(interimResults, userId, () -> {
+                final long size = getFilesSize(userId,
+                        MediaStore.Images.Media.EXTERNAL_CONTENT_URI, null /* queryArgs */);
+                return result -> result.imagesSize = size;
+            }));
+            userFilesSizes.add(submit(interimResults, userId, () -> {
+                final long size = getFilesSize(userId,
+                        MediaStore.Video.Media.EXTERNAL_CONTENT_URI, null /* queryArgs */);
+                return result -> result.videosSize = size;
+            }));
+            userFilesSizes.add(submit(interimResults, userId, () -> {
+                final long size = getFilesSize(userId,
+                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, null /* queryArgs */);
+                return result -> result.audioSize = size;
+            }));
+            userFilesSizes.add(submit(interimResults, userId, () -> {
+                final Bundle documentsAndOtherQueryArgs = new Bundle();
+                documentsAndOtherQueryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION,
+                        FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_IMAGE
+                        + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_VIDEO
+                        + " AND " + FileColumns.MEDIA_TYPE + "!=" + FileColumns.MEDIA_TYPE_AUDIO
+                        + " AND " + FileColumns.MIME_TYPE + " IS NOT NULL");
+                final long size = getFilesSize(userId,
+                        MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL),
+                        documentsAndOtherQueryArgs);
+                return result -> result.documentsAndOtherSize = size;
+            }));
+            userFilesSizes.add(submit(interimResults, userId, () -> {
+                final Bundle trashQueryArgs = new Bundle();
+                trashQueryArgs.putInt(MediaStore.QUERY_ARG_MATCH_TRASHED, MediaStore.MATCH_ONLY);
+                final long size = getFilesSize(userId,
+                        MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL),
+                        trashQueryArgs);
+                return result -> result.trashSize = size;
+            }));
+            filesSizes.put(userId, userFilesSizes);
+        }
 
+        final SparseArray<StorageResult> results = new SparseArray<>();
+        final long lastUpdatedTime = System.currentTimeMillis();
+        for (UserInfo info : infos) {
+            final StorageResult result = new StorageResult();
+            final AppsSize appsSize = join(appsSizes.get(info.id));
+            appsSize.accept(result);
+            // Code bytes may share between different profiles. To know all the duplicate code
+            // size and we can get a reasonable system size in StorageItemPreferenceController.
+            // Users are visited in the same order as before they were loaded in parallel.
+            for (int i = 0; i < appsSize.mCodeBytes.size(); i++) {
+                final String packageName = appsSize.mCodeBytes.keyAt(i);
+                if (mSeenPackages.contains(packageName)) {
+                    result.duplicateCodeSize += appsSize.mCodeBytes.valueAt(i);
+                } else {
+                    mSeenPackages.add(packageName);
+                }
+            }
+            for (CompletableFuture<Consumer<StorageResult>> filesSize : filesSizes.get(info.id)) {
+                join(filesSize).accept(result);
+            }
+            result.lastUpdatedTime = lastUpdatedTime;
             results.put(info.id, result);
         }
         return results;
     }
 
+    // Runs task in the background. When interimResults is set, it is updated and published once
+    // the task is done, before the returned future completes.
+    private <T extends Consumer<StorageResult>> CompletableFuture<T> submit(
+            SparseArray<StorageResult> interimResults, int userId, Supplier<T> task) {
+        final CompletableFuture<T> future = CompletableFuture.supplyAsync(task, getExecutor());
+        if (interimResults == null) {
+            return future;
+        }
+        return future.thenApply(update -> {
+            final SparseArray<StorageResult> snapshot;
+            synchronized (interimResults) {
+                update.accept(interimResults.get(userId));
+                snapshot = copyOf(interimResults);
+            }
+            publishInterimResults(snapshot);
+            return update;
+        });
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Fail the same way as when the categories were loaded on this thread.
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void publishInterimResults(SparseArray<StorageResult> results) {
+        mMainHandler.post(() -> {
+            if (isStarted() && !isAbandoned()) {
+                mInterimResultHandler.handleResult(results);
+            }
+        });
+    }
+
+    // Returns a copy of lastResults to update as categories are computed, or null if there is
+    // nothing to hand out until the final results are ready.
+    private SparseArray<StorageResult> getInterimResults(SparseArray<StorageResult> lastResults,
+            List<UserInfo> infos) {
+        if (mInterimResultHandler == null || lastResults == null
+                || lastResults.size() != infos.size()) {
+            return null;
+        }
+        for (UserInfo info : infos) {
+            if (lastResults.get(info.id) == null) {
+                // Users changed, the stale results can't be attributed.
+                return null;
+            }
+        }
+        return copyOf(lastResults);
+    }
+
+    private static SparseArray<StorageResult> copyOf(SparseArray<StorageResult> results) {
+        final SparseArray<StorageResult> copy = new SparseArray<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            final StorageResult result = results.valueAt(i);
+            final StorageResult resultCopy = new StorageResult();
+            resultCopy.gamesSize = result.gamesSize;
+            resultCopy.allAppsExceptGamesSize = result.allAppsExceptGamesSize;
+            resultCopy.audioSize = result.audioSize;
+            resultCopy.imagesSize = result.imagesSize;
+            resultCopy.videosSize = result.videosSize;
+            resultCopy.documentsAndOtherSize = result.documentsAndOtherSize;
+            resultCopy.trashSize = result.trashSize;
+            resultCopy.cacheSize = result.cacheSize;
+            resultCopy.duplicateCodeSize = result.duplicateCodeSize;
+            resultCopy.externalStats = result.externalStats;
+            resultCopy.lastUpdatedTime = result.lastUpdatedTime;
+            copy.put(results.keyAt(i), resultCopy);
+        }
+        return copy;
+    }
+
     private long getFilesSize(int userId, Uri uri, Bundle queryArgs) {
         final Context perUserContext;
         try {
@@ -137,11 +317,11 @@ public class StorageAsyncLoader
         }
     }
 
-    private StorageResult getAppsAndGamesSize(int userId) {
+    private AppsSize getAppsAndGamesSize(int userId) {
         Log.d(TAG, "Loading apps");
         final List<ApplicationInfo> applicationInfos =
-                mPackageManager.getInstalledApplicationsAsUser(0, userId);
-        final StorageResult result = new StorageResult();
+                InstalledAppsSnapshot.get(getContext(), userId).getApplications(0);
+        final AppsSize result = new AppsSize();
         final UserHandle myUser = UserHandle.of(userId);
         for (int i = 0, size = applicationInfos.size(); i < size; i++) {
             final ApplicationInfo app = applicationInfos.get(i);
@@ -167,37 +347,32 @@ public class StorageAsyncLoader
                 blamedSize = blamedSize - cacheBytes + cacheQuota;
             }
 
-            // Code bytes may share between different profiles. To know all the duplicate code size
-            // and we can get a reasonable system size in StorageItemPreferenceController.
-            if (mSeenPackages.contains(app.packageName)) {
-                result.duplicateCodeSize += stats.getCodeBytes();
-            } else {
-                mSeenPackages.add(app.packageName);
-            }
+            // Duplicates across profiles are counted once all users are loaded.
+            result.mCodeBytes.put(app.packageName, stats.getCodeBytes());
 
             switch (app.category) {
                 case CATEGORY_GAME:
-                    result.gamesSize += blamedSize;
+                    result.mGamesSize += blamedSize;
                     break;
                 case CATEGORY_AUDIO:
                 case CATEGORY_VIDEO:
                 case CATEGORY_IMAGE:
-                    result.allAppsExceptGamesSize += blamedSize;
+                    result.mAllAppsExceptGamesSize += blamedSize;
                     break;
                 default:
                     // The deprecated game flag does not set the category.
                     if ((app.flags & ApplicationInfo.FLAG_IS_GAME) != 0) {
-                        result.gamesSize += blamedSize;
+                        result.mGamesSize += blamedSize;
                         break;
                     }
-                    result.allAppsExceptGamesSize += blamedSize;
+                    result.mAllAppsExceptGamesSize += blamedSize;
                     break;
             }
         }
 
         Log.d(TAG, "Loading external stats");
         try {
-            result.externalStats = mStatsManager.getExternalStorageStats(mUuid,
+            result.mExternalStats = mStatsManager.getExternalStorageStats(mUuid,
                     UserHandle.of(userId));
         } catch (IOException e) {
             Log.w(TAG, e);
@@ -226,6 +401,25 @@ public class StorageAsyncLoader
         public long cacheSize;
         public long duplicateCodeSize;
         public StorageStatsSource.ExternalStorageStats externalStats;
+
+        // When these sizes were computed, in milliseconds since the epoch.
+        public long lastUpdatedTime;
+    }
+
+    /** App based sizes of one user. */
+    private static class AppsSize implements Consumer<StorageResult> {
+        long mGamesSize;
+        long mAllAppsExceptGamesSize;
+        StorageStatsSource.ExternalStorageStats mExternalStats;
+        // Code bytes by package name.
+        final ArrayMap<String, Long> mCodeBytes = new ArrayMap<>();
+
+        @Override
+        public void accept(StorageResult result) {
+            result.gamesSize = mGamesSize;
+            result.allAppsExceptGamesSize = mAllAppsExceptGamesSize;
+            result.externalStats = mExternalStats;
+        }
     }
 
     /**
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.settings.deviceinfo.storage.StorageAsyncLoader.StorageResult;
+import com.android.settingslib.applications.StorageStatsSource;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Persists the last {@link StorageResult}s of each volume, so Storage Settings can show them while
+ * they are computed again.
+ */
+public class StorageResultCache {
+    private static final String TAG = "StorageResultCache";
+
+    private static final String PREFS_NAME = "storage_result_cache";
+    // Key of the internal storage, which has no fs uuid.
+    private static final String INTERNAL_VOLUME_KEY = "internal";
+
+    private static final String KEY_USER_ID = "user_id";
+    private static final String KEY_GAMES = "games";
+    private static final String KEY_APPS = "apps";
+    private static final String KEY_AUDIO = "audio";
+    private static final String KEY_IMAGES = "images";
+    private static final String KEY_VIDEOS = "videos";
+    private static final String KEY_DOCUMENTS_AND_OTHER = "documents_and_other";
+    private static final String KEY_TRASH = "trash";
+    private static final String KEY_CACHE = "cache";
+    private static final String KEY_DUPLICATE_CODE = "duplicate_code";
+    private static final String KEY_LAST_UPDATED_TIME = "last_updated_time";
+    private static final String KEY_EXTERNAL_TOTAL = "external_total";
+    private static final String KEY_EXTERNAL_AUDIO = "external_audio";
+    private static final String KEY_EXTERNAL_VIDEO = "external_video";
+    private static final String KEY_EXTERNAL_IMAGE = "external_image";
+    private static final String KEY_EXTERNAL_APP = "external_app";
+
+    private final SharedPreferences mSharedPreferences;
+
+    public StorageResultCache(Context context) {
+        mSharedPreferences = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the last results persisted for the volume {@code uuid} keyed by user id, or
+     * {@code null} if there are none.
+     */
+    public SparseArray<StorageResult> get(String uuid) {
+        final String json = mSharedPreferences.getString(getKey(uuid), null /* defValue */);
+        if (json == null) {
+            return null;
+        }
+        try {
+            final JSONArray array = new JSONArray(json);
+            final SparseArray<StorageResult> results = new SparseArray<>();
+            for (int i = 0; i < array.length(); i++) {
+                final JSONObject obj = array.getJSONObject(i);
+                results.put(obj.getInt(KEY_USER_ID), fromJson(obj));
+            }
+            return results;
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping malformed storage results of " + uuid, e);
+            remove(uuid);
+            return null;
+        }
+    }
+
+    /** Persists {@code results} as the last results of the volume {@code uuid}. */
+    public void put(String uuid, SparseArray<StorageResult> results) {
+        final JSONArray array = new JSONArray();
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                final JSONObject obj = toJson(results.valueAt(i));
+                obj.put(KEY_USER_ID, results.keyAt(i));
+                array.put(obj);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to persist storage results of " + uuid, e);
+            return;
+        }
+        mSharedPreferences.edit().putString(getKey(uuid), array.toString()).apply();
+    }
+
+    /** Drops the results persisted for the volume {@code uuid}. */
+    public void remove(String uuid) {
+        mSharedPreferences.edit().remove(getKey(uuid)).apply();
+    }
+
+    private static String getKey(String uuid) {
+        return uuid == null ? INTERNAL_VOLUME_KEY : uuid;
+    }
+
+    private static JSONObject toJson(StorageResult result) throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put(KEY_GAMES, result.gamesSize);
+        obj.put(KEY_APPS, result.allAppsExceptGamesSize);
+        obj.put(KEY_AUDIO, result.audioSize);
+        obj.put(KEY_IMAGES, result.imagesSize);
+        obj.put(KEY_VIDEOS, result.videosSize);
+        obj.put(KEY_DOCUMENTS_AND_OTHER, result.documentsAndOtherSize);
+        obj.put(KEY_TRASH, result.trashSize);
+        obj.put(KEY_CACHE, result.cacheSize);
+        obj.put(KEY_DUPLICATE_CODE, result.duplicateCodeSize);
+        obj.put(KEY_LAST_UPDATED_TIME, result.lastUpdatedTime);
+        if (result.externalStats != null) {
+            obj.put(KEY_EXTERNAL_TOTAL, result.externalStats.totalBytes);
+            obj.put(KEY_EXTERNAL_AUDIO, result.externalStats.audioBytes);
+            obj.put(KEY_EXTERNAL_VIDEO, result.externalStats.videoBytes);
+            obj.put(KEY_EXTERNAL_IMAGE, result.externalStats.imageBytes);
+            obj.put(KEY_EXTERNAL_APP, result.externalStats.appBytes);
+        }
+        return obj;
+    }
+
+    private static StorageResult fromJson(JSONObject obj) throws JSONException {
+        final StorageResult result = new StorageResult();
+        result.gamesSize = obj.getLong(KEY_GAMES);
+        result.allAppsExceptGamesSize = obj.getLong(KEY_APPS);
+        result.audioSize = obj.getLong(KEY_AUDIO);
+        result.imagesSize = obj.getLong(KEY_IMAGES);
+        result.videosSize = obj.getLong(KEY_VIDEOS);
+        result.documentsAndOtherSize = obj.getLong(KEY_DOCUMENTS_AND_OTHER);
+        result.trashSize = obj.getLong(KEY_TRASH);
+        result.cacheSize = obj.getLong(KEY_CACHE);
+        result.duplicateCodeSize = obj.getLong(KEY_DUPLICATE_CODE);
+        result.lastUpdatedTime = obj.getLong(KEY_LAST_UPDATED_TIME);
+        if (obj.has(KEY_EXTERNAL_TOTAL)) {
+            result.externalStats = new StorageStatsSource.ExternalStorageStats(
+                    obj.getLong(KEY_EXTERNAL_TOTAL), obj.getLong(KEY_EXTERNAL_AUDIO),
+                    obj.getLong(KEY_EXTERNAL_VIDEO), obj.getLong(KEY_EXTERNAL_IMAGE),
+                    obj.getLong(KEY_EXTERNAL_APP));
+        }
+        return result;
+    }
+}
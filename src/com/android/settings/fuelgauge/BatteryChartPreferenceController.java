@@ -269,23 +269,21 @@ public class BatteryChartPreferenceController extends AbstractPreferenceControll
             addFooterPreferenceIfNeeded(false);
             return;
         }
-        mBatteryHistoryKeys = getBatteryHistoryKeys(batteryHistoryMap);
+        final BatteryHistoryTable batteryHistoryTable =
+            BatteryHistoryTable.from(batteryHistoryMap);
+        mBatteryHistoryKeys = batteryHistoryTable.getTimestamps(CHART_KEY_ARRAY_SIZE);
         mBatteryHistoryLevels = new int[CHART_LEVEL_ARRAY_SIZE];
         for (int index = 0; index < CHART_LEVEL_ARRAY_SIZE; index++) {
             final long timestamp = mBatteryHistoryKeys[index * 2];
-            final Map<String, BatteryHistEntry> entryMap = batteryHistoryMap.get(timestamp);
-            if (entryMap == null || entryMap.isEmpty()) {
+            // Averages the battery level in each time slot to avoid corner conditions.
+            final int batteryLevel = batteryHistoryTable.getAverageBatteryLevel(
+                batteryHistoryTable.getSlot(timestamp));
+            if (batteryLevel < 0) {
                 Log.e(TAG, "abnormal entry list in the timestamp:"
                     + ConvertUtils.utcToLocalTime(mPrefContext, timestamp));
                 continue;
             }
-            // Averages the battery level in each time slot to avoid corner conditions.
-            float batteryLevelCounter = 0;
-            for (BatteryHistEntry entry : entryMap.values()) {
-                batteryLevelCounter += entry.mBatteryLevel;
-            }
-            mBatteryHistoryLevels[index] =
-                Math.round(batteryLevelCounter / entryMap.size());
+            mBatteryHistoryLevels[index] = batteryLevel;
         }
         forceRefreshUi();
         Log.d(TAG, String.format(
@@ -296,7 +294,7 @@ public class BatteryChartPreferenceController extends AbstractPreferenceControll
             Arrays.toString(mBatteryHistoryLevels)));
 
         // Loads item icon and label in the background.
-        new LoadAllItemsInfoTask(batteryHistoryMap).execute();
+        new LoadAllItemsInfoTask(batteryHistoryTable).execute();
     }
 
     void setBatteryChartView(final BatteryChartView batteryChartView) {
@@ -619,47 +617,34 @@ public class BatteryChartPreferenceController extends AbstractPreferenceControll
 
     public static List<BatteryDiffEntry> getBatteryLast24HrUsageData(Context context) {
         final long start = System.currentTimeMillis();
-        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap =
+        final BatteryHistoryTable batteryHistoryTable =
             FeatureFactory.getFactory(context)
                 .getPowerUsageFeatureProvider(context)
-                .getBatteryHistory(context);
-        if (batteryHistoryMap == null || batteryHistoryMap.isEmpty()) {
+                .getBatteryHistoryTable(context);
+        if (batteryHistoryTable == null || batteryHistoryTable.isEmpty()) {
             return null;
         }
-        Log.d(TAG, String.format("getBatteryLast24HrData() size=%d time=&d/ms",
-            batteryHistoryMap.size(), (System.currentTimeMillis() - start)));
+        Log.d(TAG, String.format("getBatteryLast24HrData() size=%d time=%d/ms",
+            batteryHistoryTable.getSlotCount(), (System.currentTimeMillis() - start)));
         final Map<Integer, List<BatteryDiffEntry>> batteryIndexedMap =
             ConvertUtils.getIndexedUsageMap(
                 context,
                 /*timeSlotSize=*/ CHART_LEVEL_ARRAY_SIZE - 1,
-                getBatteryHistoryKeys(batteryHistoryMap),
-                batteryHistoryMap,
+                batteryHistoryTable.getTimestamps(CHART_KEY_ARRAY_SIZE),
+                batteryHistoryTable,
                 /*purgeLowPercentageAndFakeData=*/ true);
         return batteryIndexedMap.get(BatteryChartView.SELECTED_INDEX_ALL);
     }
 
-    private static long[] getBatteryHistoryKeys(
-            final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
-        final List<Long> batteryHistoryKeyList =
-            new ArrayList<>(batteryHistoryMap.keySet());
-        Collections.sort(batteryHistoryKeyList);
-        final long[] batteryHistoryKeys = new long[CHART_KEY_ARRAY_SIZE];
-        for (int index = 0; index < CHART_KEY_ARRAY_SIZE; index++) {
-            batteryHistoryKeys[index] = batteryHistoryKeyList.get(index);
-        }
-        return batteryHistoryKeys;
-    }
-
     // Loads all items icon and label in the background.
     private final class LoadAllItemsInfoTask
             extends AsyncTask<Void, Void, Map<Integer, List<BatteryDiffEntry>>> {
 
         private long[] mBatteryHistoryKeysCache;
-        private Map<Long, Map<String, BatteryHistEntry>> mBatteryHistoryMap;
+        private BatteryHistoryTable mBatteryHistoryTable;
 
-        private LoadAllItemsInfoTask(
-                Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
-            this.mBatteryHistoryMap = batteryHistoryMap;
+        private LoadAllItemsInfoTask(BatteryHistoryTable batteryHistoryTable) {
+            this.mBatteryHistoryTable = batteryHistoryTable;
             this.mBatteryHistoryKeysCache = mBatteryHistoryKeys;
         }
 
@@ -672,7 +657,7 @@ public class BatteryChartPreferenceController extends AbstractPreferenceControll
             final Map<Integer, List<BatteryDiffEntry>> indexedUsageMap =
                 ConvertUtils.getIndexedUsageMap(
                     mPrefContext, /*timeSlotSize=*/ CHART_LEVEL_ARRAY_SIZE - 1,
-                    mBatteryHistoryKeysCache, mBatteryHistoryMap,
+                    mBatteryHistoryKeysCache, mBatteryHistoryTable,
                     /*purgeLowPercentageAndFakeData=*/ true);
             // Pre-loads each BatteryDiffEntry relative icon and label for all slots.
             for (List<BatteryDiffEntry> entries : indexedUsageMap.values()) {
@@ -686,7 +671,7 @@ public class BatteryChartPreferenceController extends AbstractPreferenceControll
         @Override
         protected void onPostExecute(
                 Map<Integer, List<BatteryDiffEntry>> indexedUsageMap) {
-            mBatteryHistoryMap = null;
+            mBatteryHistoryTable = null;
             mBatteryHistoryKeysCache = null;
             if (indexedUsageMap == null) {
                 return;
@@ -309,8 +309,6 @@ public class BatteryDiffEntry {
             BatteryEntry.loadNameAndIcon(
                 mContext, uid, /*handler=*/ null, /*batteryEntry=*/ null,
                 packageName, mAppLabel, mAppIcon);
-        // Clears BatteryEntry internal cache since we will have another one.
-        BatteryEntry.clearUidCache();
         if (nameAndIcon != null) {
             mAppLabel = nameAndIcon.name;
             mAppIcon = nameAndIcon.icon;
@@ -16,11 +16,8 @@
 
 package com.android.settings.fuelgauge;
 
-import android.app.AppGlobals;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.IPackageManager;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
@@ -28,23 +25,22 @@ import android.graphics.drawable.Drawable;
 import android.os.BatteryConsumer;
 import android.os.Handler;
 import android.os.Process;
-import android.os.RemoteException;
 import android.os.UidBatteryConsumer;
 import android.os.UserBatteryConsumer;
-import android.os.UserHandle;
 import android.os.UserManager;
 import android.util.DebugUtils;
 import android.util.Log;
+import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 
 import com.android.settings.R;
+import com.android.settings.applications.AppIdentityCache;
 import com.android.settingslib.Utils;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Locale;
+import java.util.List;
 
 /**
  * Wraps the power usage data of a BatterySipper with information about package name
@@ -75,83 +71,72 @@ public class BatteryEntry {
     public static final int MSG_REPORT_FULLY_DRAWN = 2;
 
     private static final String TAG = "BatteryEntry";
-    private static final String PACKAGE_SYSTEM = "android";
-
-    static final HashMap<String, UidToDetail> sUidCache = new HashMap<>();
 
+    // Entries waiting for their label and icon, resolved as one batch by startRequestQueue().
     static final ArrayList<BatteryEntry> sRequestQueue = new ArrayList<BatteryEntry>();
     static Handler sHandler;
 
-    static Locale sCurrentLocale = null;
-
-    static private class NameAndIconLoader extends Thread {
-        private boolean mAbort = false;
-
-        public NameAndIconLoader() {
-            super("BatteryUsage Icon Loader");
-        }
+    private static AppIdentityCache.LoadRequest sLoadRequest;
 
-        public void abort() {
-            mAbort = true;
-        }
-
-        @Override
-        public void run() {
-            while (true) {
-                BatteryEntry be;
-                synchronized (sRequestQueue) {
-                    if (sRequestQueue.isEmpty() || mAbort) {
-                        if (sHandler != null) {
-                            sHandler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
-                        }
-                        return;
-                    }
-                    be = sRequestQueue.remove(0);
-                }
-                final NameAndIcon nameAndIcon =
-                    BatteryEntry.loadNameAndIcon(
-                        be.mContext, be.getUid(), sHandler, be,
-                        be.mDefaultPackageName, be.name, be.icon);
-                if (nameAndIcon != null) {
-                    be.icon = nameAndIcon.icon;
-                    be.name = nameAndIcon.name;
-                    be.mDefaultPackageName = nameAndIcon.packageName;
+    public static void startRequestQueue() {
+        synchronized (sRequestQueue) {
+            if (sHandler == null || sRequestQueue.isEmpty()) {
+                return;
+            }
+            if (sLoadRequest != null) {
+                sLoadRequest.cancel();
+            }
+            final Handler handler = sHandler;
+            final Context context = sRequestQueue.get(0).mContext;
+            final SparseArray<List<BatteryEntry>> entriesByUid = new SparseArray<>();
+            for (BatteryEntry entry : sRequestQueue) {
+                List<BatteryEntry> entries = entriesByUid.get(entry.getUid());
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    entriesByUid.put(entry.getUid(), entries);
                 }
+                entries.add(entry);
             }
-        }
-    }
+            sRequestQueue.clear();
 
-    private static NameAndIconLoader mRequestThread;
-
-    public static void startRequestQueue() {
-        if (sHandler != null) {
-            synchronized (sRequestQueue) {
-                if (!sRequestQueue.isEmpty()) {
-                    if (mRequestThread != null) {
-                        mRequestThread.abort();
-                    }
-                    mRequestThread = new NameAndIconLoader();
-                    mRequestThread.setPriority(Thread.MIN_PRIORITY);
-                    mRequestThread.start();
-                    sRequestQueue.notify();
-                }
+            final int[] uids = new int[entriesByUid.size()];
+            for (int i = 0; i < uids.length; i++) {
+                uids[i] = entriesByUid.keyAt(i);
             }
+            sLoadRequest = AppIdentityCache.getInstance().loadUidIdentities(context, uids,
+                    new AppIdentityCache.Listener() {
+                        @Override
+                        public void onUidIdentityLoaded(int uid,
+                                AppIdentityCache.AppIdentity identity) {
+                            for (BatteryEntry entry : entriesByUid.get(uid)) {
+                                entry.setIdentity(identity);
+                                handler.sendMessage(
+                                        handler.obtainMessage(MSG_UPDATE_NAME_ICON, entry));
+                            }
+                        }
+
+                        @Override
+                        public void onLoadFinished() {
+                            handler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
+                        }
+                    });
         }
     }
 
     public static void stopRequestQueue() {
         synchronized (sRequestQueue) {
-            if (mRequestThread != null) {
-                mRequestThread.abort();
-                mRequestThread = null;
-                sRequestQueue.clear();
-                sHandler = null;
+            if (sLoadRequest != null) {
+                sLoadRequest.cancel();
+                sLoadRequest = null;
             }
+            sRequestQueue.clear();
+            sHandler = null;
         }
     }
 
+    /** Drops the cached labels and icons, e.g. before the configuration changes. */
     public static void clearUidCache() {
-        sUidCache.clear();
+        AppIdentityCache.getInstance().invalidate();
     }
 
     public static final Comparator<BatteryEntry> COMPARATOR =
@@ -176,12 +161,6 @@ public class BatteryEntry {
     private String mDefaultPackageName;
     private double mConsumedPower;
 
-    static class UidToDetail {
-        String name;
-        String packageName;
-        Drawable icon;
-    }
-
     public BatteryEntry(Context context, Handler handler, UserManager um,
             @NonNull BatteryConsumer batteryConsumer, boolean isHidden, int uid, String[] packages,
             String packageName) {
@@ -307,19 +286,10 @@ public class BatteryEntry {
 
     void getQuickNameIconForUid(
             final int uid, final String[] packages, final boolean loadDataInBackground) {
-        // Locale sync to system config in Settings
-        final Locale locale = Locale.getDefault();
-        if (sCurrentLocale != locale) {
-            clearUidCache();
-            sCurrentLocale = locale;
-        }
-
-        final String uidString = Integer.toString(uid);
-        if (sUidCache.containsKey(uidString)) {
-            UidToDetail utd = sUidCache.get(uidString);
-            mDefaultPackageName = utd.packageName;
-            name = utd.name;
-            icon = utd.icon;
+        final AppIdentityCache.AppIdentity identity =
+                AppIdentityCache.getInstance().peekUidIdentity(mContext, uid);
+        if (identity != null) {
+            setIdentity(identity);
             return;
         }
 
@@ -339,8 +309,16 @@ public class BatteryEntry {
         }
     }
 
+    private void setIdentity(AppIdentityCache.AppIdentity identity) {
+        final NameAndIcon nameAndIcon =
+                toNameAndIcon(mContext, identity, mDefaultPackageName, name, icon);
+        icon = nameAndIcon.icon;
+        name = nameAndIcon.name;
+        mDefaultPackageName = nameAndIcon.packageName;
+    }
+
     /**
-     * Loads the app label and icon image and stores into the cache.
+     * Loads the app label and icon image through the shared {@link AppIdentityCache}.
      */
     public static NameAndIcon loadNameAndIcon(
             Context context,
@@ -350,95 +328,31 @@ public class BatteryEntry {
             String defaultPackageName,
             String name,
             Drawable icon) {
-        // Bail out if the current sipper is not an App sipper.
-        if (uid == 0 || uid == Process.INVALID_UID) {
+        // Null if the current sipper is not an App sipper.
+        final AppIdentityCache.AppIdentity identity =
+                AppIdentityCache.getInstance().getUidIdentity(context, uid);
+        if (identity == null) {
             return null;
         }
-
-        final PackageManager pm = context.getPackageManager();
-        final String[] packages;
-        if (uid == Process.SYSTEM_UID) {
-            packages = new String[] {PACKAGE_SYSTEM};
-        } else {
-            packages = pm.getPackagesForUid(uid);
+        if (handler != null) {
+            handler.sendMessage(handler.obtainMessage(MSG_UPDATE_NAME_ICON, batteryEntry));
         }
+        return toNameAndIcon(context, identity, defaultPackageName, name, icon);
+    }
 
-        if (packages != null) {
-            final String[] packageLabels = new String[packages.length];
-            System.arraycopy(packages, 0, packageLabels, 0, packages.length);
-
-            // Convert package names to user-facing labels where possible
-            final IPackageManager ipm = AppGlobals.getPackageManager();
-            final int userId = UserHandle.getUserId(uid);
-            for (int i = 0; i < packageLabels.length; i++) {
-                try {
-                    final ApplicationInfo ai = ipm.getApplicationInfo(packageLabels[i],
-                            0 /* no flags */, userId);
-                    if (ai == null) {
-                        Log.d(TAG, "Retrieving null app info for package "
-                                + packageLabels[i] + ", user " + userId);
-                        continue;
-                    }
-                    final CharSequence label = ai.loadLabel(pm);
-                    if (label != null) {
-                        packageLabels[i] = label.toString();
-                    }
-                    if (ai.icon != 0) {
-                        defaultPackageName = packages[i];
-                        icon = ai.loadIcon(pm);
-                        break;
-                    }
-                } catch (RemoteException e) {
-                    Log.d(TAG, "Error while retrieving app info for package "
-                            + packageLabels[i] + ", user " + userId, e);
-                }
-            }
-
-            if (packageLabels.length == 1) {
-                name = packageLabels[0];
-            } else {
-                // Look for an official name for this UID.
-                for (String pkgName : packages) {
-                    try {
-                        final PackageInfo pi = ipm.getPackageInfo(pkgName, 0 /* no flags */, userId);
-                        if (pi == null) {
-                            Log.d(TAG, "Retrieving null package info for package "
-                                    + pkgName + ", user " + userId);
-                            continue;
-                        }
-                        if (pi.sharedUserLabel != 0) {
-                            final CharSequence nm = pm.getText(pkgName,
-                                    pi.sharedUserLabel, pi.applicationInfo);
-                            if (nm != null) {
-                                name = nm.toString();
-                                if (pi.applicationInfo.icon != 0) {
-                                    defaultPackageName = pkgName;
-                                    icon = pi.applicationInfo.loadIcon(pm);
-                                }
-                                break;
-                            }
-                        }
-                    } catch (RemoteException e) {
-                        Log.d(TAG, "Error while retrieving package info for package "
-                                + pkgName + ", user " + userId, e);
-                    }
-                }
-            }
+    private static NameAndIcon toNameAndIcon(Context context,
+            AppIdentityCache.AppIdentity identity, String defaultPackageName, String name,
+            Drawable icon) {
+        if (identity.label != null) {
+            name = identity.label.toString();
         }
-
-        final String uidString = Integer.toString(uid);
-        if (icon == null) {
-            icon = pm.getDefaultActivityIcon();
+        final Drawable identityIcon = identity.getIcon();
+        if (identityIcon != null) {
+            defaultPackageName = identity.packageName;
+            icon = identityIcon;
         }
-
-        UidToDetail utd = new UidToDetail();
-        utd.name = name;
-        utd.icon = icon;
-        utd.packageName = defaultPackageName;
-
-        sUidCache.put(uidString, utd);
-        if (handler != null) {
-            handler.sendMessage(handler.obtainMessage(MSG_UPDATE_NAME_ICON, batteryEntry));
+        if (icon == null) {
+            icon = context.getPackageManager().getDefaultActivityIcon();
         }
         return new NameAndIcon(name, defaultPackageName, icon, /*iconId=*/ 0);
     }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats.HistoryItem;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.internal.os.BatteryStatsHistoryIterator;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads battery history in a single pass over its iterator, working out the wall clock bounds of
+ * the history while keeping a compact copy of the records, which are then replayed to
+ * {@link BatteryInfo.BatteryDataParser}s.
+ *
+ * <p>Only the command, time, current time, battery level and states of the records are kept, so
+ * these are the only fields set on the records passed to the parsers.
+ */
+public class BatteryHistoryReader {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private byte[] mCmds = new byte[INITIAL_CAPACITY];
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private long[] mCurrentTimes = new long[INITIAL_CAPACITY];
+    private byte[] mBatteryLevels = new byte[INITIAL_CAPACITY];
+    private int[] mStates = new int[INITIAL_CAPACITY];
+    private int[] mStates2 = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    private long mStartWalltime;
+    private long mEndWalltime;
+    private long mHistoryStart;
+    private long mHistoryEnd;
+    private long mLastWallTime;
+    private long mLastRealtime;
+    // Records after the last data point are not replayed.
+    private int mInterestingSize;
+
+    private BatteryHistoryReader() {
+    }
+
+    /** Reads all the records of {@code iterator}. */
+    public static BatteryHistoryReader read(BatteryStatsHistoryIterator iterator) {
+        final BatteryHistoryReader reader = new BatteryHistoryReader();
+        final HistoryItem rec = new HistoryItem();
+        while (iterator.next(rec)) {
+            reader.readRecord(rec);
+        }
+        reader.finishReading();
+        return reader;
+    }
+
+    /** Reads {@code records}, as they would be returned by a history iterator. */
+    @VisibleForTesting
+    public static BatteryHistoryReader read(List<HistoryItem> records) {
+        final BatteryHistoryReader reader = new BatteryHistoryReader();
+        for (HistoryItem rec : records) {
+            reader.readRecord(rec);
+        }
+        reader.finishReading();
+        return reader;
+    }
+
+    private void readRecord(HistoryItem rec) {
+        add(rec);
+        if (mSize == 1) {
+            mHistoryStart = rec.time;
+        }
+        if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
+                || rec.cmd == HistoryItem.CMD_RESET) {
+            // If there is a ridiculously large jump in time, then we won't be
+            // able to create a good chart with that data, so just ignore the
+            // times we got before and pretend like our data extends back from
+            // the time we have now.
+            // Also, if we are getting a time change and we are less than 5 minutes
+            // since the start of the history real time, then also use this new
+            // time to compute the base time, since whatever time we had before is
+            // pretty much just noise.
+            if (rec.currentTime > (mLastWallTime + (180 * 24 * 60 * 60 * 1000L))
+                    || rec.time < (mHistoryStart + (5 * 60 * 1000L))) {
+                mStartWalltime = 0;
+            }
+            mLastWallTime = rec.currentTime;
+            mLastRealtime = rec.time;
+            if (mStartWalltime == 0) {
+                mStartWalltime = mLastWallTime - (mLastRealtime - mHistoryStart);
+            }
+        }
+        if (rec.isDeltaData()) {
+            mInterestingSize = mSize;
+            mHistoryEnd = rec.time;
+        }
+    }
+
+    private void finishReading() {
+        mEndWalltime = mLastWallTime + mHistoryEnd - mLastRealtime;
+    }
+
+    private void add(HistoryItem rec) {
+        if (mSize == mCmds.length) {
+            final int capacity = mSize * 2;
+            mCmds = Arrays.copyOf(mCmds, capacity);
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mCurrentTimes = Arrays.copyOf(mCurrentTimes, capacity);
+            mBatteryLevels = Arrays.copyOf(mBatteryLevels, capacity);
+            mStates = Arrays.copyOf(mStates, capacity);
+            mStates2 = Arrays.copyOf(mStates2, capacity);
+        }
+        mCmds[mSize] = rec.cmd;
+        mTimes[mSize] = rec.time;
+        mCurrentTimes[mSize] = rec.currentTime;
+        mBatteryLevels[mSize] = rec.batteryLevel;
+        mStates[mSize] = rec.states;
+        mStates2[mSize] = rec.states2;
+        mSize++;
+    }
+
+    /** Returns the number of records that were read. */
+    public int size() {
+        return mSize;
+    }
+
+    /** Feeds the records that were read to {@code parsers}. */
+    public void replay(BatteryInfo.BatteryDataParser... parsers) {
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingStarted(mStartWalltime, mEndWalltime);
+        }
+
+        if (mEndWalltime > mStartWalltime) {
+            final HistoryItem rec = new HistoryItem();
+            long curWalltime = 0;
+            long lastRealtime = mLastRealtime;
+            for (int i = 0; i < mInterestingSize; i++) {
+                rec.cmd = mCmds[i];
+                rec.time = mTimes[i];
+                rec.currentTime = mCurrentTimes[i];
+                rec.batteryLevel = mBatteryLevels[i];
+                rec.states = mStates[i];
+                rec.states2 = mStates2[i];
+                if (rec.isDeltaData()) {
+                    curWalltime += rec.time - lastRealtime;
+                    lastRealtime = rec.time;
+                    long x = (curWalltime - mStartWalltime);
+                    if (x < 0) {
+                        x = 0;
+                    }
+                    for (int j = 0; j < parsers.length; j++) {
+                        parsers[j].onDataPoint(x, rec);
+                    }
+                } else {
+                    long lastWalltime = curWalltime;
+                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
+                            || rec.cmd == HistoryItem.CMD_RESET) {
+                        if (rec.currentTime >= mStartWalltime) {
+                            curWalltime = rec.currentTime;
+                        } else {
+                            curWalltime = mStartWalltime + (rec.time - mHistoryStart);
+                        }
+                        lastRealtime = rec.time;
+                    }
+
+                    if (rec.cmd != HistoryItem.CMD_OVERFLOW
+                            && (rec.cmd != HistoryItem.CMD_CURRENT_TIME
+                            || Math.abs(lastWalltime - curWalltime) > (60 * 60 * 1000))) {
+                        for (int j = 0; j < parsers.length; j++) {
+                            parsers[j].onDataGap();
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingDone();
+        }
+    }
+}
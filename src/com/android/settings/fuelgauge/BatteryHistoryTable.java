@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Columnar form of the battery history returned by
+ * {@link PowerUsageFeatureProvider#getBatteryHistory}.
+ *
+ * <p>Every {@link BatteryHistEntry#getKey()} seen in any time slot gets a row, and every
+ * timestamp gets a slot. The cumulative values used to compute usage diffs are copied into
+ * primitive arrays indexed by {@code slot * rowCount + row}, so diffs can be computed without
+ * per-slot map lookups or key set unions.
+ */
+public final class BatteryHistoryTable {
+
+    // Sorted ascending.
+    final long[] mTimestamps;
+    final String[] mRowKeys;
+    // Cells, indexed by slot * mRowKeys.length + row. A null entry means no data for the cell.
+    final BatteryHistEntry[] mEntries;
+    final long[] mForegroundUsageTimeInMs;
+    final long[] mBackgroundUsageTimeInMs;
+    final double[] mConsumePower;
+    // Per slot.
+    final int[] mEntryCount;
+    final long[] mBatteryLevelSum;
+
+    private BatteryHistoryTable(long[] timestamps, String[] rowKeys) {
+        final int cellCount = timestamps.length * rowKeys.length;
+        mTimestamps = timestamps;
+        mRowKeys = rowKeys;
+        mEntries = new BatteryHistEntry[cellCount];
+        mForegroundUsageTimeInMs = new long[cellCount];
+        mBackgroundUsageTimeInMs = new long[cellCount];
+        mConsumePower = new double[cellCount];
+        mEntryCount = new int[timestamps.length];
+        mBatteryLevelSum = new long[timestamps.length];
+    }
+
+    /** Builds the table of {@code batteryHistoryMap}, or returns {@code null} if it is null. */
+    public static BatteryHistoryTable from(
+            Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap) {
+        if (batteryHistoryMap == null) {
+            return null;
+        }
+        final long[] timestamps = new long[batteryHistoryMap.size()];
+        final Set<String> allKeys = new HashSet<>();
+        int slot = 0;
+        for (Map.Entry<Long, Map<String, BatteryHistEntry>> entry
+                : batteryHistoryMap.entrySet()) {
+            timestamps[slot++] = entry.getKey();
+            if (entry.getValue() != null) {
+                allKeys.addAll(entry.getValue().keySet());
+            }
+        }
+        Arrays.sort(timestamps);
+        // Rows follow the key set order, as the per-slot key sets used to.
+        final String[] rowKeys = allKeys.toArray(new String[0]);
+        final Map<String, Integer> rowIndexes = new HashMap<>(rowKeys.length * 2);
+        for (int row = 0; row < rowKeys.length; row++) {
+            rowIndexes.put(rowKeys[row], row);
+        }
+
+        final BatteryHistoryTable table = new BatteryHistoryTable(timestamps, rowKeys);
+        for (slot = 0; slot < timestamps.length; slot++) {
+            final Map<String, BatteryHistEntry> entryMap =
+                    batteryHistoryMap.get(timestamps[slot]);
+            if (entryMap == null) {
+                continue;
+            }
+            for (Map.Entry<String, BatteryHistEntry> entry : entryMap.entrySet()) {
+                final BatteryHistEntry histEntry = entry.getValue();
+                final int cell = slot * rowKeys.length + rowIndexes.get(entry.getKey());
+                table.mEntries[cell] = histEntry;
+                table.mForegroundUsageTimeInMs[cell] = histEntry.mForegroundUsageTimeInMs;
+                table.mBackgroundUsageTimeInMs[cell] = histEntry.mBackgroundUsageTimeInMs;
+                table.mConsumePower[cell] = histEntry.mConsumePower;
+                table.mEntryCount[slot]++;
+                table.mBatteryLevelSum[slot] += histEntry.mBatteryLevel;
+            }
+        }
+        return table;
+    }
+
+    /** Returns whether the table has no time slot. */
+    public boolean isEmpty() {
+        return mTimestamps.length == 0;
+    }
+
+    /** Returns the number of time slots. */
+    public int getSlotCount() {
+        return mTimestamps.length;
+    }
+
+    /** Returns the number of distinct entry keys across all time slots. */
+    public int getRowCount() {
+        return mRowKeys.length;
+    }
+
+    /** Returns the first {@code size} timestamps in ascending order. */
+    public long[] getTimestamps(int size) {
+        return Arrays.copyOf(mTimestamps, size);
+    }
+
+    /** Returns the slot of {@code timestamp}, or a negative value if there is none. */
+    public int getSlot(long timestamp) {
+        return Arrays.binarySearch(mTimestamps, timestamp);
+    }
+
+    /** Returns the number of entries in {@code slot}, or 0 if {@code slot} is negative. */
+    public int getEntryCount(int slot) {
+        return slot < 0 ? 0 : mEntryCount[slot];
+    }
+
+    /**
+     * Returns the average battery level of the entries in {@code slot}, or -1 if there is no
+     * entry.
+     */
+    public int getAverageBatteryLevel(int slot) {
+        final int entryCount = getEntryCount(slot);
+        if (entryCount == 0) {
+            return -1;
+        }
+        return Math.round((float) mBatteryLevelSum[slot] / entryCount);
+    }
+}
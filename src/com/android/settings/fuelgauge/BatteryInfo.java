@@ -30,9 +30,9 @@ import android.util.SparseIntArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
-import com.android.internal.os.BatteryStatsHistoryIterator;
 import com.android.settings.Utils;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.widget.UsageView;
@@ -42,6 +42,9 @@ import com.android.settingslib.fuelgauge.EstimateKt;
 import com.android.settingslib.utils.PowerUtil;
 import com.android.settingslib.utils.StringUtil;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class BatteryInfo {
     private static final String TAG = "BatteryInfo";
 
@@ -61,77 +64,67 @@ public class BatteryInfo {
     private static final String LOG_TAG = "BatteryInfo";
     private long timePeriod;
 
+    // Rebinding the graph after a configuration change, with the history loaded again,
+    // doesn't need to read it again if it hasn't changed since.
+    private static final long HISTORY_PATH_MAX_AGE_MS = 60 * 1000;
+    private static HistoryPath sCachedHistoryPath;
+
     public interface Callback {
         void onBatteryInfoLoaded(BatteryInfo info);
     }
 
     public void bindHistory(final UsageView view, BatteryDataParser... parsers) {
         final Context context = view.getContext();
-        BatteryDataParser parser = new BatteryDataParser() {
-            SparseIntArray points = new SparseIntArray();
-            long startTime;
-            int lastTime = -1;
-            byte lastLevel;
-
-            @Override
-            public void onParsingStarted(long startTime, long endTime) {
-                this.startTime = startTime;
-                timePeriod = endTime - startTime;
-                view.clearPaths();
-                // Initially configure the graph for history only.
-                view.configureGraph((int) timePeriod, 100);
+        // One bucket per pixel, the graph is laid out no wider than the screen.
+        final int width = view.getWidth() > 0
+                ? view.getWidth() : context.getResources().getDisplayMetrics().widthPixels;
+        HistoryPath history = parsers.length == 0 ? getCachedHistoryPath(width) : null;
+        if (history == null) {
+            final HistoryPathParser parser = new HistoryPathParser(width);
+            BatteryDataParser[] parserList = new BatteryDataParser[parsers.length + 1];
+            for (int i = 0; i < parsers.length; i++) {
+                parserList[i] = parsers[i];
             }
-
-            @Override
-            public void onDataPoint(long time, HistoryItem record) {
-                lastTime = (int) time;
-                lastLevel = record.batteryLevel;
-                points.put(lastTime, lastLevel);
+            parserList[parsers.length] = parser;
+            parseBatteryHistory(parserList);
+            history = parser.mHistoryPath;
+            if (parsers.length == 0) {
+                cacheHistoryPath(width, history);
             }
+        }
+        timePeriod = history.mTimePeriod;
+        view.clearPaths();
+        // Initially configure the graph for history only.
+        view.configureGraph((int) timePeriod, 100);
+        for (SparseIntArray points : history.mPaths) {
+            view.addPath(points);
+        }
 
-            @Override
-            public void onDataGap() {
-                if (points.size() > 1) {
-                    view.addPath(points);
+        // Add projection if we have an estimate.
+        SparseIntArray points = null;
+        if (remainingTimeUs != 0) {
+            PowerUsageFeatureProvider provider = FeatureFactory.getFactory(context)
+                    .getPowerUsageFeatureProvider(context);
+            if (!mCharging && provider.isEnhancedBatteryPredictionEnabled(context)) {
+                points = provider.getEnhancedBatteryPredictionCurve(context, history.mStartTime);
+            } else {
+                // Linear extrapolation.
+                if (history.mLastTime >= 0) {
+                    points = new SparseIntArray();
+                    points.put(history.mLastTime, history.mLastLevel);
+                    points.put((int) (timePeriod +
+                                    PowerUtil.convertUsToMs(remainingTimeUs)),
+                            mCharging ? 100 : 0);
                 }
-                points.clear();
             }
+        }
 
-            @Override
-            public void onParsingDone() {
-                onDataGap();
-
-                // Add projection if we have an estimate.
-                if (remainingTimeUs != 0) {
-                    PowerUsageFeatureProvider provider = FeatureFactory.getFactory(context)
-                            .getPowerUsageFeatureProvider(context);
-                    if (!mCharging && provider.isEnhancedBatteryPredictionEnabled(context)) {
-                        points = provider.getEnhancedBatteryPredictionCurve(context, startTime);
-                    } else {
-                        // Linear extrapolation.
-                        if (lastTime >= 0) {
-                            points.put(lastTime, lastLevel);
-                            points.put((int) (timePeriod +
-                                            PowerUtil.convertUsToMs(remainingTimeUs)),
-                                    mCharging ? 100 : 0);
-                        }
-                    }
-                }
-
-                // If we have a projection, reconfigure the graph to show it.
-                if (points != null && points.size() > 0) {
-                    int maxTime = points.keyAt(points.size() - 1);
-                    view.configureGraph(maxTime, 100);
-                    view.addProjectedPath(points);
-                }
-            }
-        };
-        BatteryDataParser[] parserList = new BatteryDataParser[parsers.length + 1];
-        for (int i = 0; i < parsers.length; i++) {
-            parserList[i] = parsers[i];
+        // If we have a projection, reconfigure the graph to show it.
+        if (points != null && points.size() > 0) {
+            int maxTime = points.keyAt(points.size() - 1);
+            view.configureGraph(maxTime, 100);
+            view.addProjectedPath(points);
         }
-        parserList[parsers.length] = parser;
-        parseBatteryHistory(parserList);
         String timeString = context.getString(R.string.charge_length_format,
                 Formatter.formatShortElapsedTime(context, timePeriod));
         String remaining = "";
@@ -351,100 +344,96 @@ public class BatteryInfo {
      * was initialized with.
      */
     public void parseBatteryHistory(BatteryDataParser... parsers) {
-        long startWalltime = 0;
-        long endWalltime = 0;
-        long historyStart = 0;
-        long historyEnd = 0;
-        long curWalltime = startWalltime;
-        long lastWallTime = 0;
-        long lastRealtime = 0;
-        int lastInteresting = 0;
-        int pos = 0;
-        boolean first = true;
-        final BatteryStatsHistoryIterator iterator1 =
-                mBatteryUsageStats.iterateBatteryStatsHistory();
-        final HistoryItem rec = new HistoryItem();
-        while (iterator1.next(rec)) {
-            pos++;
-            if (first) {
-                first = false;
-                historyStart = rec.time;
-            }
-            if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                    || rec.cmd == HistoryItem.CMD_RESET) {
-                // If there is a ridiculously large jump in time, then we won't be
-                // able to create a good chart with that data, so just ignore the
-                // times we got before and pretend like our data extends back from
-                // the time we have now.
-                // Also, if we are getting a time change and we are less than 5 minutes
-                // since the start of the history real time, then also use this new
-                // time to compute the base time, since whatever time we had before is
-                // pretty much just noise.
-                if (rec.currentTime > (lastWallTime + (180 * 24 * 60 * 60 * 1000L))
-                        || rec.time < (historyStart + (5 * 60 * 1000L))) {
-                    startWalltime = 0;
-                }
-                lastWallTime = rec.currentTime;
-                lastRealtime = rec.time;
-                if (startWalltime == 0) {
-                    startWalltime = lastWallTime - (lastRealtime - historyStart);
-                }
-            }
-            if (rec.isDeltaData()) {
-                lastInteresting = pos;
-                historyEnd = rec.time;
+        BatteryHistoryReader.read(mBatteryUsageStats.iterateBatteryStatsHistory())
+                .replay(parsers);
+    }
+
+    private HistoryPath getCachedHistoryPath(int width) {
+        synchronized (BatteryInfo.class) {
+            final HistoryPath history = sCachedHistoryPath;
+            if (history == null || history.mWidth != width
+                    || history.mBatteryLevel != batteryLevel || history.mCharging != mCharging
+                    || history.mStatsStartTimestamp
+                            != mBatteryUsageStats.getStatsStartTimestamp()) {
+                return null;
             }
+            // A new snapshot of the same history, as loaded again after a configuration
+            // change, reuses the path of the previous one if it was taken just before.
+            final long age = mBatteryUsageStats.getStatsEndTimestamp()
+                    - history.mStatsEndTimestamp;
+            return age >= 0 && age <= HISTORY_PATH_MAX_AGE_MS ? history : null;
+        }
+    }
+
+    private void cacheHistoryPath(int width, HistoryPath history) {
+        history.mWidth = width;
+        history.mBatteryLevel = batteryLevel;
+        history.mCharging = mCharging;
+        history.mStatsStartTimestamp = mBatteryUsageStats.getStatsStartTimestamp();
+        history.mStatsEndTimestamp = mBatteryUsageStats.getStatsEndTimestamp();
+        synchronized (BatteryInfo.class) {
+            sCachedHistoryPath = history;
         }
+    }
+
+    @VisibleForTesting
+    static void clearHistoryPathCache() {
+        synchronized (BatteryInfo.class) {
+            sCachedHistoryPath = null;
+        }
+    }
 
-        endWalltime = lastWallTime + historyEnd - lastRealtime;
+    /** The battery level history as drawn by {@link #bindHistory}. */
+    private static class HistoryPath {
+        final List<SparseIntArray> mPaths = new ArrayList<>();
+        long mStartTime;
+        long mTimePeriod;
+        int mLastTime = -1;
+        byte mLastLevel;
+
+        // What the path was read for.
+        int mWidth;
+        int mBatteryLevel;
+        boolean mCharging;
+        long mStatsStartTimestamp;
+        long mStatsEndTimestamp;
+    }
 
-        int i = 0;
-        final int N = lastInteresting;
+    /** Builds the {@link HistoryPath} of the history, downsampled to the width of the graph. */
+    private static class HistoryPathParser implements BatteryDataParser {
+        final HistoryPath mHistoryPath = new HistoryPath();
+        private final int mWidth;
+        private BatteryLevelDownsampler mDownsampler;
 
-        for (int j = 0; j < parsers.length; j++) {
-            parsers[j].onParsingStarted(startWalltime, endWalltime);
+        HistoryPathParser(int width) {
+            mWidth = width;
         }
 
-        if (endWalltime > startWalltime) {
-            final BatteryStatsHistoryIterator iterator2 =
-                    mBatteryUsageStats.iterateBatteryStatsHistory();
-            while (iterator2.next(rec) && i < N) {
-                if (rec.isDeltaData()) {
-                    curWalltime += rec.time - lastRealtime;
-                    lastRealtime = rec.time;
-                    long x = (curWalltime - startWalltime);
-                    if (x < 0) {
-                        x = 0;
-                    }
-                    for (int j = 0; j < parsers.length; j++) {
-                        parsers[j].onDataPoint(x, rec);
-                    }
-                } else {
-                    long lastWalltime = curWalltime;
-                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                            || rec.cmd == HistoryItem.CMD_RESET) {
-                        if (rec.currentTime >= startWalltime) {
-                            curWalltime = rec.currentTime;
-                        } else {
-                            curWalltime = startWalltime + (rec.time - historyStart);
-                        }
-                        lastRealtime = rec.time;
-                    }
+        @Override
+        public void onParsingStarted(long startTime, long endTime) {
+            mHistoryPath.mStartTime = startTime;
+            mHistoryPath.mTimePeriod = endTime - startTime;
+            mDownsampler = new BatteryLevelDownsampler(mHistoryPath.mTimePeriod, mWidth);
+        }
 
-                    if (rec.cmd != HistoryItem.CMD_OVERFLOW
-                            && (rec.cmd != HistoryItem.CMD_CURRENT_TIME
-                            || Math.abs(lastWalltime - curWalltime) > (60 * 60 * 1000))) {
-                        for (int j = 0; j < parsers.length; j++) {
-                            parsers[j].onDataGap();
-                        }
-                    }
-                }
-                i++;
+        @Override
+        public void onDataPoint(long time, HistoryItem record) {
+            mHistoryPath.mLastTime = (int) time;
+            mHistoryPath.mLastLevel = record.batteryLevel;
+            mDownsampler.add(mHistoryPath.mLastTime, mHistoryPath.mLastLevel);
+        }
+
+        @Override
+        public void onDataGap() {
+            final SparseIntArray points = mDownsampler.finishSegment();
+            if (points.size() > 1) {
+                mHistoryPath.mPaths.add(points);
             }
         }
 
-        for (int j = 0; j < parsers.length; j++) {
-            parsers[j].onParsingDone();
+        @Override
+        public void onParsingDone() {
+            onDataGap();
         }
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.util.SparseIntArray;
+
+/**
+ * Reduces a stream of battery level points to at most four points per bucket of time, the first,
+ * lowest, highest and last points of the bucket. With one bucket per pixel of the graph, the
+ * reduced line draws the same as the full one while a long history only keeps a few points per
+ * pixel.
+ *
+ * <p>Points are expected in increasing time order, grouped in segments that are drawn as separate
+ * paths.
+ */
+public class BatteryLevelDownsampler {
+    private final long mTimePeriod;
+    private final int mBucketCount;
+
+    private SparseIntArray mPoints = new SparseIntArray();
+    private int mBucket = -1;
+    private int mFirstTime;
+    private int mFirstLevel;
+    private int mMinTime;
+    private int mMinLevel;
+    private int mMaxTime;
+    private int mMaxLevel;
+    private int mLastTime;
+    private int mLastLevel;
+
+    /**
+     * @param timePeriod The length of the history the points are in.
+     * @param bucketCount The number of buckets to divide the history in, usually the width of the
+     *                    graph in pixels.
+     */
+    public BatteryLevelDownsampler(long timePeriod, int bucketCount) {
+        mTimePeriod = timePeriod;
+        mBucketCount = Math.max(bucketCount, 1);
+    }
+
+    /** Adds a point to the current segment. */
+    public void add(int time, int level) {
+        final int bucket = getBucket(time);
+        if (bucket != mBucket) {
+            flushBucket();
+            mBucket = bucket;
+            mFirstTime = mMinTime = mMaxTime = time;
+            mFirstLevel = mMinLevel = mMaxLevel = level;
+        } else if (level < mMinLevel) {
+            mMinTime = time;
+            mMinLevel = level;
+        } else if (level > mMaxLevel) {
+            mMaxTime = time;
+            mMaxLevel = level;
+        }
+        mLastTime = time;
+        mLastLevel = level;
+    }
+
+    /** Returns the reduced points of the current segment, and starts a new one. */
+    public SparseIntArray finishSegment() {
+        flushBucket();
+        final SparseIntArray points = mPoints;
+        mPoints = new SparseIntArray();
+        return points;
+    }
+
+    private void flushBucket() {
+        if (mBucket < 0) {
+            return;
+        }
+        mPoints.put(mFirstTime, mFirstLevel);
+        if (mMinTime < mMaxTime) {
+            mPoints.put(mMinTime, mMinLevel);
+            mPoints.put(mMaxTime, mMaxLevel);
+        } else {
+            mPoints.put(mMaxTime, mMaxLevel);
+            mPoints.put(mMinTime, mMinLevel);
+        }
+        mPoints.put(mLastTime, mLastLevel);
+        mBucket = -1;
+    }
+
+    private int getBucket(int time) {
+        if (mTimePeriod <= 0) {
+            return 0;
+        }
+        final long bucket = time * (long) mBucketCount / mTimePeriod;
+        return (int) Math.max(0, Math.min(bucket, mBucketCount - 1));
+    }
+}
@@ -32,7 +32,6 @@ import java.lang.annotation.RetentionPolicy;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -44,9 +43,6 @@ import java.util.TimeZone;
 public final class ConvertUtils {
     private static final boolean DEBUG = false;
     private static final String TAG = "ConvertUtils";
-    private static final Map<String, BatteryHistEntry> EMPTY_BATTERY_MAP = new HashMap<>();
-    private static final BatteryHistEntry EMPTY_BATTERY_HIST_ENTRY =
-        new BatteryHistEntry(new ContentValues());
     // Maximum total time value for each slot cumulative data at most 2 hours.
     private static final float TOTAL_TIME_THRESHOLD = DateUtils.HOUR_IN_MILLIS * 2;
 
@@ -151,82 +147,92 @@ public final class ConvertUtils {
         if (batteryHistoryMap == null || batteryHistoryMap.isEmpty()) {
             return new HashMap<>();
         }
+        return getIndexedUsageMap(context, timeSlotSize, batteryHistoryKeys,
+                BatteryHistoryTable.from(batteryHistoryMap), purgeLowPercentageAndFakeData);
+    }
+
+    /** Gets indexed battery usage data for each corresponding time slot. */
+    public static Map<Integer, List<BatteryDiffEntry>> getIndexedUsageMap(
+            final Context context,
+            final int timeSlotSize,
+            final long[] batteryHistoryKeys,
+            final BatteryHistoryTable batteryHistoryTable,
+            final boolean purgeLowPercentageAndFakeData) {
+        if (batteryHistoryTable == null || batteryHistoryTable.isEmpty()) {
+            return new HashMap<>();
+        }
         final Map<Integer, List<BatteryDiffEntry>> resultMap = new HashMap<>();
+        final int rowCount = batteryHistoryTable.getRowCount();
+        final BatteryHistEntry[] entries = batteryHistoryTable.mEntries;
+        final long[] foregroundUsageTimes = batteryHistoryTable.mForegroundUsageTimeInMs;
+        final long[] backgroundUsageTimes = batteryHistoryTable.mBackgroundUsageTimeInMs;
+        final double[] consumePowers = batteryHistoryTable.mConsumePower;
         // Each time slot usage diff data =
         //     Math.abs(timestamp[i+2] data - timestamp[i+1] data) +
         //     Math.abs(timestamp[i+1] data - timestamp[i] data);
         // since we want to aggregate every two hours data into a single time slot.
         final int timestampStride = 2;
         for (int index = 0; index < timeSlotSize; index++) {
-            final Long currentTimestamp =
-                Long.valueOf(batteryHistoryKeys[index * timestampStride]);
-            final Long nextTimestamp =
-                Long.valueOf(batteryHistoryKeys[index * timestampStride + 1]);
-            final Long nextTwoTimestamp =
-                Long.valueOf(batteryHistoryKeys[index * timestampStride + 2]);
-            // Fetches BatteryHistEntry data from corresponding time slot.
-            final Map<String, BatteryHistEntry> currentBatteryHistMap =
-                batteryHistoryMap.getOrDefault(currentTimestamp, EMPTY_BATTERY_MAP);
-            final Map<String, BatteryHistEntry> nextBatteryHistMap =
-                batteryHistoryMap.getOrDefault(nextTimestamp, EMPTY_BATTERY_MAP);
-            final Map<String, BatteryHistEntry> nextTwoBatteryHistMap =
-                batteryHistoryMap.getOrDefault(nextTwoTimestamp, EMPTY_BATTERY_MAP);
+            // Fetches the table slots of the corresponding timestamps.
+            final int currentSlot = batteryHistoryTable.getSlot(
+                batteryHistoryKeys[index * timestampStride]);
+            final int nextSlot = batteryHistoryTable.getSlot(
+                batteryHistoryKeys[index * timestampStride + 1]);
+            final int nextTwoSlot = batteryHistoryTable.getSlot(
+                batteryHistoryKeys[index * timestampStride + 2]);
             // We should not get the empty list since we have at least one fake data to record
             // the battery level and status in each time slot, the empty list is used to
             // represent there is no enough data to apply interpolation arithmetic.
-            if (currentBatteryHistMap.isEmpty()
-                    || nextBatteryHistMap.isEmpty()
-                    || nextTwoBatteryHistMap.isEmpty()) {
+            if (batteryHistoryTable.getEntryCount(currentSlot) == 0
+                    || batteryHistoryTable.getEntryCount(nextSlot) == 0
+                    || batteryHistoryTable.getEntryCount(nextTwoSlot) == 0) {
                 resultMap.put(Integer.valueOf(index), new ArrayList<BatteryDiffEntry>());
                 continue;
             }
 
-            // Collects all keys in these three time slot records as all populations.
-            final Set<String> allBatteryHistEntryKeys = new HashSet<>();
-            allBatteryHistEntryKeys.addAll(currentBatteryHistMap.keySet());
-            allBatteryHistEntryKeys.addAll(nextBatteryHistMap.keySet());
-            allBatteryHistEntryKeys.addAll(nextTwoBatteryHistMap.keySet());
-
             double totalConsumePower = 0.0;
             final List<BatteryDiffEntry> batteryDiffEntryList = new ArrayList<>();
             // Adds a specific time slot BatteryDiffEntry list into result map.
             resultMap.put(Integer.valueOf(index), batteryDiffEntryList);
 
-            // Calculates all packages diff usage data in a specific time slot.
-            for (String key : allBatteryHistEntryKeys) {
-                final BatteryHistEntry currentEntry =
-                    currentBatteryHistMap.getOrDefault(key, EMPTY_BATTERY_HIST_ENTRY);
-                final BatteryHistEntry nextEntry =
-                    nextBatteryHistMap.getOrDefault(key, EMPTY_BATTERY_HIST_ENTRY);
-                final BatteryHistEntry nextTwoEntry =
-                    nextTwoBatteryHistMap.getOrDefault(key, EMPTY_BATTERY_HIST_ENTRY);
+            // Calculates all packages diff usage data in a specific time slot. Cells without
+            // data hold zero values, like the empty entry used to.
+            final int currentBase = currentSlot * rowCount;
+            final int nextBase = nextSlot * rowCount;
+            final int nextTwoBase = nextTwoSlot * rowCount;
+            for (int row = 0; row < rowCount; row++) {
+                final int current = currentBase + row;
+                final int next = nextBase + row;
+                final int nextTwo = nextTwoBase + row;
+                // Selects the first available entry in these three time slot records.
+                final BatteryHistEntry selectedBatteryEntry = entries[current] != null
+                    ? entries[current]
+                    : entries[next] != null ? entries[next] : entries[nextTwo];
+                if (selectedBatteryEntry == null) {
+                    continue;
+                }
                 // Cumulative values is a specific time slot for a specific app.
                 long foregroundUsageTimeInMs =
                     getDiffValue(
-                        currentEntry.mForegroundUsageTimeInMs,
-                        nextEntry.mForegroundUsageTimeInMs,
-                        nextTwoEntry.mForegroundUsageTimeInMs);
+                        foregroundUsageTimes[current],
+                        foregroundUsageTimes[next],
+                        foregroundUsageTimes[nextTwo]);
                 long backgroundUsageTimeInMs =
                     getDiffValue(
-                        currentEntry.mBackgroundUsageTimeInMs,
-                        nextEntry.mBackgroundUsageTimeInMs,
-                        nextTwoEntry.mBackgroundUsageTimeInMs);
+                        backgroundUsageTimes[current],
+                        backgroundUsageTimes[next],
+                        backgroundUsageTimes[nextTwo]);
                 double consumePower =
                     getDiffValue(
-                        currentEntry.mConsumePower,
-                        nextEntry.mConsumePower,
-                        nextTwoEntry.mConsumePower);
+                        consumePowers[current],
+                        consumePowers[next],
+                        consumePowers[nextTwo]);
                 // Excludes entry since we don't have enough data to calculate.
                 if (foregroundUsageTimeInMs == 0
                         && backgroundUsageTimeInMs == 0
                         && consumePower == 0) {
                     continue;
                 }
-                final BatteryHistEntry selectedBatteryEntry =
-                    selectBatteryHistEntry(currentEntry, nextEntry, nextTwoEntry);
-                if (selectedBatteryEntry == null) {
-                    continue;
-                }
                 // Forces refine the cumulative value since it may introduce deviation
                 // error since we will apply the interpolation arithmetic.
                 final float totalUsageTimeInMs =
@@ -237,7 +243,7 @@ public final class ConvertUtils {
                         Log.w(TAG, String.format("abnormal usage time %d|%d for:\n%s",
                                 Duration.ofMillis(foregroundUsageTimeInMs).getSeconds(),
                                 Duration.ofMillis(backgroundUsageTimeInMs).getSeconds(),
-                                currentEntry));
+                                selectedBatteryEntry));
                     }
                     foregroundUsageTimeInMs =
                         Math.round(foregroundUsageTimeInMs * ratio);
@@ -332,20 +338,6 @@ public final class ConvertUtils {
         return (v2 > v1 ? v2 - v1 : 0) + (v3 > v2 ? v3 - v2 : 0);
     }
 
-    private static BatteryHistEntry selectBatteryHistEntry(
-            BatteryHistEntry entry1,
-            BatteryHistEntry entry2,
-            BatteryHistEntry entry3) {
-        if (entry1 != null && entry1 != EMPTY_BATTERY_HIST_ENTRY) {
-            return entry1;
-        } else if (entry2 != null && entry2 != EMPTY_BATTERY_HIST_ENTRY) {
-            return entry2;
-        } else {
-            return entry3 != null && entry3 != EMPTY_BATTERY_HIST_ENTRY
-                ? entry3 : null;
-        }
-    }
-
     @VisibleForTesting
     static Locale getLocale(Context context) {
         if (context == null) {
@@ -154,6 +154,14 @@ public interface PowerUsageFeatureProvider {
      */
     Map<Long, Map<String, BatteryHistEntry>> getBatteryHistory(Context context);
 
+    /**
+     * Returns battery history data in columnar form, see {@link BatteryHistoryTable}. Defaults
+     * to converting {@link #getBatteryHistory(Context)}.
+     */
+    default BatteryHistoryTable getBatteryHistoryTable(Context context) {
+        return BatteryHistoryTable.from(getBatteryHistory(context));
+    }
+
     /**
      * Returns {@link Uri} to monitor battery history data is update.
      */
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.homepage.contextualcards;
+
+import android.app.settings.SettingsEnums;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.slice.Slice;
+
+import com.android.settings.overlay.FeatureFactory;
+import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Process-wide executor and result cache for {@link EligibleCardChecker}.
+ *
+ * <p>Eligibility results are cached per slice uri for {@link #CACHE_TTL_MS}. A check that misses
+ * the caller's deadline keeps running; once it finishes its result is cached and the caller is
+ * told so it can reload and show the card.
+ */
+public class CardEligibilityCache {
+
+    private static final String TAG = "CardEligibilityCache";
+
+    @VisibleForTesting
+    static final long CACHE_TTL_MS = 30000;
+    @VisibleForTesting
+    static final int MAX_THREADS = 4;
+    // Value logged with ACTION_CONTEXTUAL_CARD_ELIGIBILITY when the check misses its deadline.
+    @VisibleForTesting
+    static final int ELIGIBILITY_TIMEOUT = -1;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static CardEligibilityCache sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    // Guarded by itself.
+    private final Map<Uri, Entry> mEntries = new ArrayMap<>();
+    // Checks still running, so concurrent loads share them. Guarded by mEntries.
+    private final Map<Uri, CompletableFuture<ContextualCard>> mInFlight = new ArrayMap<>();
+    private int mGeneration;
+
+    /** Callback for checks that completed after the caller's deadline. */
+    public interface LateResultListener {
+        /** Called on a worker thread once a late card is known to be eligible. */
+        void onLateCardEligible(ContextualCard card);
+    }
+
+    public static synchronized CardEligibilityCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new CardEligibilityCache();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    CardEligibilityCache() {
+        mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Return the eligible cards among {@code candidates}, in their original order. Cards not
+     * resolved within {@code timeoutMs} are skipped and reported to {@code listener} later.
+     */
+    public List<ContextualCard> filterEligibleCards(Context context,
+            List<ContextualCard> candidates, long timeoutMs, LateResultListener listener) {
+        final long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        final List<CompletableFuture<ContextualCard>> futures = new ArrayList<>();
+        for (ContextualCard candidate : candidates) {
+            futures.add(getOrCheck(context, candidate));
+        }
+
+        final List<ContextualCard> cards = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            final CompletableFuture<ContextualCard> future = futures.get(i);
+            final ContextualCard candidate = candidates.get(i);
+            final long remaining = Math.max(0, deadline - SystemClock.elapsedRealtime());
+            try {
+                final ContextualCard card = future.get(remaining, TimeUnit.MILLISECONDS);
+                if (card != null) {
+                    cards.add(card);
+                }
+            } catch (TimeoutException e) {
+                Log.w(TAG, "Timeout getting eligible state for card: "
+                        + candidate.getSliceUri());
+                logTimeout(context, candidate);
+                if (listener != null) {
+                    future.thenAccept(card -> {
+                        if (card != null) {
+                            listener.onLateCardEligible(card);
+                        }
+                    });
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, "Failed to get eligible state for card", e);
+            }
+        }
+        return cards;
+    }
+
+    /** Drop every cached result, e.g. when the card provider asks for a refresh. */
+    public void invalidate() {
+        synchronized (mEntries) {
+            mEntries.clear();
+            mGeneration++;
+        }
+    }
+
+    private CompletableFuture<ContextualCard> getOrCheck(Context context,
+            ContextualCard candidate) {
+        final Uri uri = candidate.getSliceUri();
+        final int generation;
+        final CompletableFuture<ContextualCard> future;
+        synchronized (mEntries) {
+            final Entry entry = mEntries.get(uri);
+            if (entry != null
+                    && SystemClock.elapsedRealtime() - entry.mTimestamp < CACHE_TTL_MS) {
+                return CompletableFuture.completedFuture(entry.apply(candidate));
+            }
+            final CompletableFuture<ContextualCard> inFlight = mInFlight.get(uri);
+            if (inFlight != null) {
+                return inFlight.thenApply(card -> card == null ? null
+                        : candidate.mutate().setSlice(card.getSlice())
+                                .setHasInlineAction(card.hasInlineAction()).build());
+            }
+            generation = mGeneration;
+            future = new CompletableFuture<>();
+            mInFlight.put(uri, future);
+        }
+
+        mExecutor.execute(() -> {
+            ContextualCard card = null;
+            try {
+                card = createChecker(context, candidate).call();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to check eligibility for card: " + uri, e);
+            }
+            synchronized (mEntries) {
+                mInFlight.remove(uri);
+                // Results computed before an invalidate() are not cached.
+                if (generation == mGeneration) {
+                    mEntries.put(uri, new Entry(card));
+                }
+            }
+            future.complete(card);
+        });
+        return future;
+    }
+
+    @VisibleForTesting
+    EligibleCardChecker createChecker(Context context, ContextualCard card) {
+        return new EligibleCardChecker(context, card);
+    }
+
+    private void logTimeout(Context context, ContextualCard card) {
+        final MetricsFeatureProvider metricsFeatureProvider =
+                FeatureFactory.getFactory(context).getMetricsFeatureProvider();
+        metricsFeatureProvider.action(SettingsEnums.PAGE_UNKNOWN,
+                SettingsEnums.ACTION_CONTEXTUAL_CARD_ELIGIBILITY,
+                SettingsEnums.SETTINGS_HOMEPAGE,
+                card.getTextSliceUri() /* key */, ELIGIBILITY_TIMEOUT);
+    }
+
+    private static class Entry {
+        final boolean mEligible;
+        final Slice mSlice;
+        final boolean mHasInlineAction;
+        final long mTimestamp;
+
+        Entry(ContextualCard result) {
+            mEligible = result != null;
+            mSlice = result != null ? result.getSlice() : null;
+            mHasInlineAction = result != null && result.hasInlineAction();
+            mTimestamp = SystemClock.elapsedRealtime();
+        }
+
+        ContextualCard apply(ContextualCard candidate) {
+            if (!mEligible) {
+                return null;
+            }
+            return candidate.mutate()
+                    .setSlice(mSlice)
+                    .setHasInlineAction(mHasInlineAction)
+                    .build();
+        }
+    }
+}
@@ -38,14 +38,10 @@ import com.android.settings.homepage.contextualcards.logging.ContextualCardLogUt
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 import com.android.settingslib.utils.AsyncLoaderCompat;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 public class ContextualCardLoader extends AsyncLoaderCompat<List<ContextualCard>> {
 
@@ -62,6 +58,9 @@ public class ContextualCardLoader extends AsyncLoaderCompat<List<ContextualCard>
             new Handler(Looper.getMainLooper())) {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
+            if (CardContentProvider.REFRESH_CARD_URI.equals(uri)) {
+                getEligibilityCache().invalidate();
+            }
             if (isStarted()) {
                 mNotifyUri = uri;
                 forceLoad();
@@ -188,40 +187,18 @@ public class ContextualCardLoader extends AsyncLoaderCompat<List<ContextualCard>
             return candidates;
         }
 
-        final ExecutorService executor = Executors.newFixedThreadPool(candidates.size());
-        final List<ContextualCard> cards = new ArrayList<>();
-        List<Future<ContextualCard>> eligibleCards = new ArrayList<>();
-
-        final List<EligibleCardChecker> checkers = candidates.stream()
-                .map(card -> new EligibleCardChecker(mContext, card))
-                .collect(Collectors.toList());
-        try {
-            eligibleCards = executor.invokeAll(checkers, ELIGIBILITY_CHECKER_TIMEOUT_MS,
-                    TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            Log.w(TAG, "Failed to get eligible states for all cards", e);
-        }
-        executor.shutdown();
-
-        // Collect future and eligible cards
-        for (int i = 0; i < eligibleCards.size(); i++) {
-            final Future<ContextualCard> cardFuture = eligibleCards.get(i);
-            if (cardFuture.isCancelled()) {
-                Log.w(TAG, "Timeout getting eligible state for card: "
-                        + candidates.get(i).getSliceUri());
-                continue;
-            }
+        return getEligibilityCache().filterEligibleCards(mContext, candidates,
+                ELIGIBILITY_CHECKER_TIMEOUT_MS, card -> ThreadUtils.postOnMainThread(() -> {
+                    // The late card is cached now, reload so it shows up.
+                    if (isStarted()) {
+                        forceLoad();
+                    }
+                }));
+    }
 
-            try {
-                final ContextualCard card = cardFuture.get();
-                if (card != null) {
-                    cards.add(card);
-                }
-            } catch (Exception e) {
-                Log.w(TAG, "Failed to get eligible state for card", e);
-            }
-        }
-        return cards;
+    @VisibleForTesting
+    CardEligibilityCache getEligibilityCache() {
+        return CardEligibilityCache.getInstance();
     }
 
     private boolean isLargeCard(ContextualCard card) {
@@ -217,6 +217,11 @@ public class DarkThemeSlice implements CustomSliceable {
             mContext.getContentResolver().unregisterContentObserver(mContentObserver);
         }
 
+        @Override
+        protected int getUpdatePriority() {
+            return PRIORITY_INTERACTIVE;
+        }
+
         @Override
         public void close() {
         }
@@ -114,6 +114,11 @@ public class MediaOutputIndicatorWorker extends SliceBackgroundWorker implements
         mContext.unregisterReceiver(mReceiver);
     }
 
+    @Override
+    protected int getUpdatePriority() {
+        return PRIORITY_INTERACTIVE;
+    }
+
     @Override
     public void close() {
         mLocalBluetoothManager = null;
@@ -71,6 +71,7 @@ import com.android.settings.datausage.DataUsageUtils;
 import com.android.settings.location.WifiScanningFragment;
 import com.android.settings.search.BaseSearchIndexProvider;
 import com.android.settings.utils.AnnotationSpan;
+import com.android.settings.utils.PreferenceGroupReconciler;
 import com.android.settings.wifi.AddNetworkFragment;
 import com.android.settings.wifi.AddWifiNetworkPreference;
 import com.android.settings.wifi.ConfigureWifiEntryFragment;
@@ -100,6 +101,7 @@ import com.google.android.setupcompat.template.FooterButtonStyleUtils;
 import com.google.android.setupcompat.util.WizardManagerHelper;
 import com.google.android.setupdesign.GlifPreferenceLayout;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -135,6 +137,8 @@ public class NetworkProviderSettings extends RestrictedSettingsFragment
 
     private static final String PREF_KEY_AIRPLANE_MODE_MSG = "airplane_mode_message";
     private static final String PREF_KEY_EMPTY_WIFI_LIST = "wifi_empty_list";
+    // Only identifies the add network preference in the list of Wi-Fi entries.
+    private static final String PREF_KEY_ADD_WIFI_NETWORK = "add_wifi_network";
     // TODO(b/70983952): Rename these to use WifiEntry instead of AccessPoint.
     @VisibleForTesting
     static final String PREF_KEY_CONNECTED_ACCESS_POINTS = "connected_access_point";
@@ -237,6 +241,7 @@ public class NetworkProviderSettings extends RestrictedSettingsFragment
     PreferenceCategory mWifiEntryPreferenceCategory;
     @VisibleForTesting
     AddWifiNetworkPreference mAddWifiNetworkPreference;
+    private PreferenceGroupReconciler mWifiEntryReconciler;
     private WifiSwitchPreferenceController mWifiSwitchPreferenceController;
     @VisibleForTesting
     Preference mConfigureWifiSettingsPreference;
@@ -343,6 +348,7 @@ public class NetworkProviderSettings extends RestrictedSettingsFragment
         mConnectedWifiEntryPreferenceCategory = findPreference(PREF_KEY_CONNECTED_ACCESS_POINTS);
         mFirstWifiEntryPreferenceCategory = findPreference(PREF_KEY_FIRST_ACCESS_POINTS);
         mWifiEntryPreferenceCategory = findPreference(PREF_KEY_ACCESS_POINTS);
+        mWifiEntryReconciler = new PreferenceGroupReconciler(mWifiEntryPreferenceCategory);
         mConfigureWifiSettingsPreference = findPreference(PREF_KEY_CONFIGURE_NETWORK_SETTINGS);
         mSavedNetworksPreference = findPreference(PREF_KEY_SAVED_NETWORKS);
         mAddWifiNetworkPreference = new AddWifiNetworkPreference(getPrefContext());
@@ -968,53 +974,54 @@ public class NetworkProviderSettings extends RestrictedSettingsFragment
         }
 
         int index = 0;
-        cacheRemoveAllPrefs(mWifiEntryPreferenceCategory);
+        final List<PreferenceGroupReconciler.Item<?>> items = new ArrayList<>();
         List<WifiEntry> wifiEntries = mWifiPickerTracker.getWifiEntries();
         for (WifiEntry wifiEntry : wifiEntries) {
             hasAvailableWifiEntries = true;
-
-            String key = wifiEntry.getKey();
-            LongPressWifiEntryPreference pref =
-                    (LongPressWifiEntryPreference) getCachedPreference(key);
-            if (pref != null) {
-                if (pref.getWifiEntry() == wifiEntry) {
-                    pref.setOrder(index++);
-                    continue;
-                } else {
-                    // Create a new preference if the underlying WifiEntry object has changed
-                    removePreference(key);
-                }
-            }
-
-            pref = createLongPressWifiEntryPreference(wifiEntry);
-            pref.setKey(wifiEntry.getKey());
-            pref.setOrder(index++);
-            pref.refresh();
-
-            if (wifiEntry.getHelpUriString() != null) {
-                pref.setOnButtonClickListener(preference -> {
-                    openSubscriptionHelpPage(wifiEntry);
-                });
-            }
-            mWifiEntryPreferenceCategory.addPreference(pref);
+            items.add(new PreferenceGroupReconciler.Item<>(wifiEntry.getKey(), index++,
+                    new PreferenceGroupReconciler.Binder<LongPressWifiEntryPreference>() {
+                        @Override
+                        public LongPressWifiEntryPreference create() {
+                            final LongPressWifiEntryPreference pref =
+                                    createLongPressWifiEntryPreference(wifiEntry);
+                            pref.setKey(wifiEntry.getKey());
+                            pref.refresh();
+
+                            if (wifiEntry.getHelpUriString() != null) {
+                                pref.setOnButtonClickListener(preference -> {
+                                    openSubscriptionHelpPage(wifiEntry);
+                                });
+                            }
+                            return pref;
+                        }
+
+                        @Override
+                        public boolean canReuse(LongPressWifiEntryPreference pref) {
+                            // Create a new preference if the underlying WifiEntry object has
+                            // changed
+                            return pref.getWifiEntry() == wifiEntry;
+                        }
+                    }));
         }
-        removeCachedPrefs(mWifiEntryPreferenceCategory);
 
         if (!hasAvailableWifiEntries) {
             setProgressBarVisible(true);
-            Preference pref = new Preference(getPrefContext());
-            pref.setSelectable(false);
-            pref.setSummary(R.string.wifi_empty_list_wifi_on);
-            pref.setOrder(index++);
-            pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
-            mWifiEntryPreferenceCategory.addPreference(pref);
+            items.add(new PreferenceGroupReconciler.Item<>(PREF_KEY_EMPTY_WIFI_LIST, index++,
+                    () -> {
+                        Preference pref = new Preference(getPrefContext());
+                        pref.setSelectable(false);
+                        pref.setSummary(R.string.wifi_empty_list_wifi_on);
+                        pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
+                        return pref;
+                    }));
         } else {
             // Continuing showing progress bar for an additional delay to overlap with animation
             getView().postDelayed(mHideProgressBarRunnable, 1700 /* delay millis */);
         }
 
-        mAddWifiNetworkPreference.setOrder(index++);
-        mWifiEntryPreferenceCategory.addPreference(mAddWifiNetworkPreference);
+        items.add(new PreferenceGroupReconciler.Item<>(PREF_KEY_ADD_WIFI_NETWORK, index++,
+                () -> mAddWifiNetworkPreference));
+        mWifiEntryReconciler.reconcile(items);
         setAdditionalSettingsSummaries();
     }
 
@@ -1079,7 +1086,7 @@ public class NetworkProviderSettings extends RestrictedSettingsFragment
     }
 
     private void removeWifiEntryPreference() {
-        mWifiEntryPreferenceCategory.removeAll();
+        mWifiEntryReconciler.clear();
         mWifiEntryPreferenceCategory.setVisible(false);
     }
 
@@ -19,23 +19,16 @@ package com.android.settings.network.ims;
 import android.telephony.AccessNetworkConstants;
 import android.telephony.SubscriptionManager;
 import android.telephony.ims.ImsException;
-import android.telephony.ims.ImsMmTelManager;
-import android.telephony.ims.feature.ImsFeature;
 import android.telephony.ims.feature.MmTelFeature;
 import android.telephony.ims.stub.ImsRegistrationImplBase;
 
 import androidx.annotation.VisibleForTesting;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 /**
  * Controller class for querying IMS status
  */
 abstract class ImsQueryController {
 
-    private static final long TIMEOUT_MILLIS = 2000;
-
     private volatile int mCapability;
     private volatile int mTech;
     private volatile int mTransportType;
@@ -63,22 +56,33 @@ abstract class ImsQueryController {
         return (new ImsQueryTtyOnVolteStat(subId)).query();
     }
 
+    /**
+     * Starts notifying {@code listener} of IMS state changes of {@code subId}, and loads the state
+     * in the background so following queries don't block.
+     */
+    public void addListener(int subId, ImsStateService.Listener listener) {
+        if (!SubscriptionManager.isValidSubscriptionId(subId)) {
+            return;
+        }
+        ImsStateService.getInstance(subId).addListener(listener, mCapability, mTech,
+                mTransportType);
+    }
+
+    /** Stops notifying {@code listener} of IMS state changes of {@code subId}. */
+    public void removeListener(int subId, ImsStateService.Listener listener) {
+        if (!SubscriptionManager.isValidSubscriptionId(subId)) {
+            return;
+        }
+        ImsStateService.getInstance(subId).removeListener(listener);
+    }
+
     @VisibleForTesting
     boolean isEnabledByPlatform(int subId) throws InterruptedException, ImsException,
             IllegalArgumentException {
         if (!SubscriptionManager.isValidSubscriptionId(subId)) {
             return false;
         }
-
-        final ImsMmTelManager imsMmTelManager = ImsMmTelManager.createForSubscriptionId(subId);
-        // TODO: have a shared thread pool instead of create ExecutorService
-        //       everytime to improve performance.
-        final ExecutorService executor = Executors.newSingleThreadExecutor();
-        final BooleanConsumer booleanResult = new BooleanConsumer();
-        imsMmTelManager.isSupported(mCapability, mTransportType, executor, booleanResult);
-        // get() will be blocked until end of execution(isSupported()) within thread(executor)
-        // or timeout after TIMEOUT_MILLIS milliseconds
-        return booleanResult.get(TIMEOUT_MILLIS);
+        return ImsStateService.getInstance(subId).isSupported(mCapability, mTransportType);
     }
 
     @VisibleForTesting
@@ -86,7 +90,7 @@ abstract class ImsQueryController {
         if (!SubscriptionManager.isValidSubscriptionId(subId)) {
             return false;
         }
-        return (new ImsQueryProvisioningStat(subId, mCapability, mTech)).query();
+        return ImsStateService.getInstance(subId).isProvisioned(mCapability, mTech);
     }
 
     @VisibleForTesting
@@ -95,13 +99,6 @@ abstract class ImsQueryController {
         if (!SubscriptionManager.isValidSubscriptionId(subId)) {
             return false;
         }
-
-        final ImsMmTelManager imsMmTelManager = ImsMmTelManager.createForSubscriptionId(subId);
-        // TODO: have a shared thread pool instead of create ExecutorService
-        //       everytime to improve performance.
-        final ExecutorService executor = Executors.newSingleThreadExecutor();
-        final IntegerConsumer intResult = new IntegerConsumer();
-        imsMmTelManager.getFeatureState(executor, intResult);
-        return (intResult.get(TIMEOUT_MILLIS) == ImsFeature.STATE_READY);
+        return ImsStateService.getInstance(subId).isServiceStateReady();
     }
 }
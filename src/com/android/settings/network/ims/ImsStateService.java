@@ -0,0 +1,580 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.network.ims;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.telephony.AccessNetworkConstants;
+import android.telephony.ims.ImsException;
+import android.telephony.ims.ImsMmTelManager;
+import android.telephony.ims.ImsReasonInfo;
+import android.telephony.ims.ProvisioningManager;
+import android.telephony.ims.RegistrationManager;
+import android.telephony.ims.feature.ImsFeature;
+import android.telephony.ims.feature.MmTelFeature;
+import android.telephony.ims.stub.ImsRegistrationImplBase;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Queries and caches the IMS state of one subscription.
+ *
+ * <p>All subscriptions share one small executor for the preloads, which wait for IMS results.
+ * The results and the IMS callbacks are delivered directly on the binder thread instead, so
+ * they never queue behind the waiting preloads. Values are only cached while the subscription
+ * has {@link Listener}s. Then the IMS registration, capability and provisioning callbacks are
+ * registered, and the cached values are dropped whenever one of them reports a change. The
+ * state the listeners asked for is then loaded again in the background, and only once it is
+ * cached are the {@link Listener}s told to read it again, so they don't block the main thread.
+ * Queries that time out are not cached.
+ * Once the last listener is removed, for instance when the SIM is removed and its pages stop,
+ * the callbacks are unregistered and the service is dropped.
+ */
+public class ImsStateService {
+
+    private static final String TAG = "ImsStateService";
+
+    @VisibleForTesting
+    static final long TIMEOUT_MILLIS = 2000;
+    private static final int MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    @VisibleForTesting
+    static final String QUERY_SUPPORTED = "supported";
+    @VisibleForTesting
+    static final String QUERY_FEATURE_STATE = "feature_state";
+    @VisibleForTesting
+    static final String QUERY_PROVISIONED = "provisioned";
+
+    // Only completes futures and posts to the main thread, so it is fine on a binder thread.
+    private static final Executor CALLBACK_EXECUTOR = Runnable::run;
+
+    private static ThreadPoolExecutor sExecutor;
+    // Guarded by ImsStateService.class.
+    private static final SparseArray<ImsStateService> sInstances = new SparseArray<>();
+    // Guarded by itself.
+    private static final ArrayMap<String, QueryStats> sStats = new ArrayMap<>();
+
+    /** Notified on the main thread when the IMS state of a subscription may have changed. */
+    public interface Listener {
+        /** Called when the IMS state of {@code subId} changed. */
+        void onImsStateChanged(int subId);
+    }
+
+    private final int mSubId;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Cached values, and queries still running so callers share them. Guarded by this.
+    private final ArrayMap<String, Object> mCache = new ArrayMap<>();
+    private final ArrayMap<String, CompletableFuture<?>> mInFlight = new ArrayMap<>();
+    // Bumped on every change, so a query started before it doesn't cache a stale value.
+    private long mGeneration;
+    private boolean mCallbacksRegistered;
+    private ImsMmTelManager mRegisteredImsMmTelManager;
+    private ProvisioningManager mRegisteredProvisioningManager;
+    // The state listeners asked for, loaded again on every change. Guarded by this.
+    private final ArraySet<Preload> mPreloads = new ArraySet<>();
+    // Guarded by itself.
+    private final ArraySet<Listener> mListeners = new ArraySet<>();
+
+    private final RegistrationManager.RegistrationCallback mRegistrationCallback =
+            new RegistrationManager.RegistrationCallback() {
+                @Override
+                public void onRegistered(int imsTransportType) {
+                    invalidate();
+                }
+
+                @Override
+                public void onUnregistered(ImsReasonInfo info) {
+                    invalidate();
+                }
+            };
+
+    private final ImsMmTelManager.CapabilityCallback mCapabilityCallback =
+            new ImsMmTelManager.CapabilityCallback() {
+                @Override
+                public void onCapabilitiesStatusChanged(
+                        MmTelFeature.MmTelCapabilities capabilities) {
+                    invalidate();
+                }
+            };
+
+    private final ProvisioningManager.Callback mProvisioningCallback =
+            new ProvisioningManager.Callback() {
+                @Override
+                public void onProvisioningIntChanged(int item, int value) {
+                    invalidate();
+                }
+
+                @Override
+                public void onProvisioningStringChanged(int item, String value) {
+                    invalidate();
+                }
+            };
+
+    /** Returns the service of the subscription {@code subId}. */
+    public static synchronized ImsStateService getInstance(int subId) {
+        ImsStateService service = sInstances.get(subId);
+        if (service == null) {
+            // Drop the services nobody uses anymore, such as those of removed SIMs.
+            for (int i = sInstances.size() - 1; i >= 0; i--) {
+                if (sInstances.valueAt(i).isIdle()) {
+                    sInstances.removeAt(i);
+                }
+            }
+            service = new ImsStateService(subId);
+            sInstances.put(subId, service);
+        }
+        return service;
+    }
+
+    /** Returns the executor shared by all IMS queries. */
+    public static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, TAG));
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Returns the latency and timeout statistics of every kind of IMS query, for dumpsys.
+     */
+    public static JSONObject dumpStats() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        synchronized (sStats) {
+            for (int i = 0; i < sStats.size(); i++) {
+                final QueryStats stats = sStats.valueAt(i);
+                final JSONObject queryObj = new JSONObject();
+                queryObj.put("queries", stats.mQueries);
+                queryObj.put("cache_hits", stats.mCacheHits);
+                queryObj.put("timeouts", stats.mTimeouts);
+                queryObj.put("timeout_rate", stats.mQueries == 0
+                        ? 0 : (double) stats.mTimeouts / stats.mQueries);
+                queryObj.put("avg_latency_ms", stats.mQueries == 0
+                        ? 0 : stats.mTotalLatency / stats.mQueries);
+                queryObj.put("max_latency_ms", stats.mMaxLatency);
+                obj.put(sStats.keyAt(i), queryObj);
+            }
+        }
+        return obj;
+    }
+
+    @VisibleForTesting
+    ImsStateService(int subId) {
+        mSubId = subId;
+    }
+
+    /**
+     * Starts notifying {@code listener} of IMS state changes, and loads the state of
+     * {@code capability} in the background so following queries don't block.
+     *
+     * @param capability {@link MmTelFeature.MmTelCapabilities#MmTelCapability}
+     * @param tech {@link ImsRegistrationImplBase#ImsRegistrationTech}
+     * @param transportType {@link AccessNetworkConstants#TransportType}
+     */
+    public void addListener(Listener listener,
+            @MmTelFeature.MmTelCapabilities.MmTelCapability int capability,
+            @ImsRegistrationImplBase.ImsRegistrationTech int tech,
+            @AccessNetworkConstants.TransportType int transportType) {
+        addListener(listener);
+        final Preload preload = new Preload(capability, tech, transportType);
+        synchronized (this) {
+            mPreloads.add(preload);
+        }
+        getPreloadExecutor().execute(() -> {
+            final boolean wasCached = isCached(preload);
+            if (load(preload) && !wasCached) {
+                notifyListeners();
+            }
+        });
+    }
+
+    @VisibleForTesting
+    void addListener(Listener listener) {
+        synchronized (ImsStateService.class) {
+            // This service may have been dropped as idle after it was looked up.
+            if (sInstances.get(mSubId) == null) {
+                sInstances.put(mSubId, this);
+            }
+            synchronized (mListeners) {
+                mListeners.add(listener);
+            }
+        }
+    }
+
+    /**
+     * Stops notifying {@code listener}. Once no listener is left, stops caching the state and
+     * unregisters the IMS callbacks.
+     */
+    public void removeListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+            if (!mListeners.isEmpty()) {
+                return;
+            }
+        }
+        unregisterCallbacks();
+    }
+
+    /**
+     * Returns whether {@code capability} is supported over {@code transportType}, waiting up to
+     * {@link #TIMEOUT_MILLIS} when it isn't cached.
+     */
+    boolean isSupported(@MmTelFeature.MmTelCapabilities.MmTelCapability int capability,
+            @AccessNetworkConstants.TransportType int transportType)
+            throws InterruptedException, ImsException {
+        final Boolean supported = query(QUERY_SUPPORTED,
+                getSupportedKey(capability, transportType), future ->
+                        getImsMmTelManager().isSupported(capability, transportType,
+                                CALLBACK_EXECUTOR, future::complete));
+        return supported != null && supported;
+    }
+
+    /**
+     * Returns whether the MMTEL feature is ready, waiting up to {@link #TIMEOUT_MILLIS} when it
+     * isn't cached.
+     */
+    boolean isServiceStateReady() throws InterruptedException, ImsException {
+        final Integer state = query(QUERY_FEATURE_STATE, QUERY_FEATURE_STATE,
+                future -> getImsMmTelManager().getFeatureState(CALLBACK_EXECUTOR,
+                        future::complete));
+        return state != null && state == ImsFeature.STATE_READY;
+    }
+
+    /** Returns whether {@code capability} is provisioned over {@code tech}. */
+    boolean isProvisioned(@MmTelFeature.MmTelCapabilities.MmTelCapability int capability,
+            @ImsRegistrationImplBase.ImsRegistrationTech int tech) {
+        try {
+            final Boolean provisioned = query(QUERY_PROVISIONED,
+                    getProvisionedKey(capability, tech),
+                    future -> future.complete(queryProvisioningStatus(capability, tech)));
+            return provisioned != null && provisioned;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ImsException e) {
+            Log.w(TAG, "fail to get Provisioning stat. subId=" + mSubId, e);
+            return false;
+        }
+    }
+
+    @VisibleForTesting
+    ImsMmTelManager getImsMmTelManager() {
+        return ImsMmTelManager.createForSubscriptionId(mSubId);
+    }
+
+    @VisibleForTesting
+    ProvisioningManager getProvisioningManager() {
+        return ProvisioningManager.createForSubscriptionId(mSubId);
+    }
+
+    @VisibleForTesting
+    boolean queryProvisioningStatus(int capability, int tech) {
+        return new ImsQueryProvisioningStat(mSubId, capability, tech).query();
+    }
+
+    @VisibleForTesting
+    Executor getPreloadExecutor() {
+        return getExecutor();
+    }
+
+    @VisibleForTesting
+    void invalidate() {
+        final long generation;
+        final Preload[] preloads;
+        synchronized (this) {
+            generation = ++mGeneration;
+            mCache.clear();
+            // Queries started before the change must not be shared by the reload.
+            mInFlight.clear();
+            preloads = mPreloads.toArray(new Preload[0]);
+        }
+        getPreloadExecutor().execute(() -> {
+            for (Preload preload : preloads) {
+                load(preload);
+            }
+            synchronized (this) {
+                if (generation != mGeneration) {
+                    // Changed again while loading, the next reload notifies.
+                    return;
+                }
+            }
+            notifyListeners();
+        });
+    }
+
+    // Loads the state of preload into the cache, returns whether it succeeded.
+    private boolean load(Preload preload) {
+        try {
+            isSupported(preload.mCapability, preload.mTransportType);
+            isProvisioned(preload.mCapability, preload.mTech);
+            isServiceStateReady();
+            return true;
+        } catch (InterruptedException | ImsException | RuntimeException e) {
+            Log.w(TAG, "fail to load IMS state. subId=" + mSubId, e);
+            return false;
+        }
+    }
+
+    private boolean isCached(Preload preload) {
+        synchronized (this) {
+            return mCache.containsKey(getSupportedKey(preload.mCapability, preload.mTransportType))
+                    && mCache.containsKey(getProvisionedKey(preload.mCapability, preload.mTech))
+                    && mCache.containsKey(QUERY_FEATURE_STATE);
+        }
+    }
+
+    private boolean hasListeners() {
+        synchronized (mListeners) {
+            return !mListeners.isEmpty();
+        }
+    }
+
+    private synchronized boolean isIdle() {
+        return !mCallbacksRegistered && mInFlight.isEmpty() && !hasListeners();
+    }
+
+    private void notifyListeners() {
+        mMainHandler.post(() -> {
+            final Listener[] listeners;
+            synchronized (mListeners) {
+                listeners = mListeners.toArray(new Listener[0]);
+            }
+            for (Listener listener : listeners) {
+                listener.onImsStateChanged(mSubId);
+            }
+        });
+    }
+
+    // Returns the cached value of key, or runs request and waits for its result. Returns null if
+    // it timed out.
+    @SuppressWarnings("unchecked")
+    private <T> T query(String queryName, String key, Request<T> request)
+            throws InterruptedException, ImsException {
+        final boolean cacheable = registerCallbacks();
+        final CompletableFuture<T> future;
+        final long generation;
+        boolean started = false;
+        synchronized (this) {
+            final T cached = (T) mCache.get(key);
+            if (cached != null) {
+                recordCacheHit(queryName);
+                return cached;
+            }
+            CompletableFuture<T> inFlight = (CompletableFuture<T>) mInFlight.get(key);
+            if (inFlight == null) {
+                inFlight = new CompletableFuture<>();
+                mInFlight.put(key, inFlight);
+                started = true;
+            }
+            future = inFlight;
+            generation = mGeneration;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        if (started) {
+            try {
+                request.run(future);
+            } catch (ImsException | RuntimeException e) {
+                synchronized (this) {
+                    mInFlight.remove(key);
+                }
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+        T value = null;
+        boolean timedOut = false;
+        try {
+            value = future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Timeout querying " + queryName + ". subId=" + mSubId);
+            timedOut = true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ImsException) {
+                throw (ImsException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            recordStats(queryName, SystemClock.elapsedRealtime() - start, timedOut);
+        }
+        synchronized (this) {
+            if (mInFlight.get(key) == future && (future.isDone() || timedOut)) {
+                // A late result of a timed out query is dropped.
+                mInFlight.remove(key);
+            }
+            if (value != null && cacheable && generation == mGeneration) {
+                mCache.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    // Values are only cached while their changes are reported, and someone listens to them.
+    private synchronized boolean registerCallbacks() {
+        if (mCallbacksRegistered) {
+            return true;
+        }
+        if (!hasListeners()) {
+            return false;
+        }
+        final ImsMmTelManager imsMmTelManager = getImsMmTelManager();
+        final ProvisioningManager provisioningManager = getProvisioningManager();
+        boolean registrationRegistered = false;
+        boolean capabilityRegistered = false;
+        try {
+            imsMmTelManager.registerImsRegistrationCallback(CALLBACK_EXECUTOR,
+                    mRegistrationCallback);
+            registrationRegistered = true;
+            imsMmTelManager.registerMmTelCapabilityCallback(CALLBACK_EXECUTOR,
+                    mCapabilityCallback);
+            capabilityRegistered = true;
+            provisioningManager.registerProvisioningChangedCallback(CALLBACK_EXECUTOR,
+                    mProvisioningCallback);
+            mRegisteredImsMmTelManager = imsMmTelManager;
+            mRegisteredProvisioningManager = provisioningManager;
+            mCallbacksRegistered = true;
+        } catch (ImsException | RuntimeException e) {
+            Log.d(TAG, "IMS state of subId=" + mSubId + " won't be cached", e);
+            if (registrationRegistered) {
+                imsMmTelManager.unregisterImsRegistrationCallback(mRegistrationCallback);
+            }
+            if (capabilityRegistered) {
+                imsMmTelManager.unregisterMmTelCapabilityCallback(mCapabilityCallback);
+            }
+        }
+        return mCallbacksRegistered;
+    }
+
+    private synchronized void unregisterCallbacks() {
+        mGeneration++;
+        mCache.clear();
+        mPreloads.clear();
+        if (!mCallbacksRegistered) {
+            return;
+        }
+        mCallbacksRegistered = false;
+        try {
+            mRegisteredImsMmTelManager.unregisterImsRegistrationCallback(mRegistrationCallback);
+            mRegisteredImsMmTelManager.unregisterMmTelCapabilityCallback(mCapabilityCallback);
+            mRegisteredProvisioningManager.unregisterProvisioningChangedCallback(
+                    mProvisioningCallback);
+        } catch (RuntimeException e) {
+            // The subscription may be gone already.
+            Log.d(TAG, "fail to unregister IMS callbacks. subId=" + mSubId, e);
+        }
+        mRegisteredImsMmTelManager = null;
+        mRegisteredProvisioningManager = null;
+    }
+
+    private static String getSupportedKey(int capability, int transportType) {
+        return QUERY_SUPPORTED + "/" + capability + "/" + transportType;
+    }
+
+    private static String getProvisionedKey(int capability, int tech) {
+        return QUERY_PROVISIONED + "/" + capability + "/" + tech;
+    }
+
+    private static QueryStats getStats(String queryName) {
+        synchronized (sStats) {
+            QueryStats stats = sStats.get(queryName);
+            if (stats == null) {
+                stats = new QueryStats();
+                sStats.put(queryName, stats);
+            }
+            return stats;
+        }
+    }
+
+    private static void recordCacheHit(String queryName) {
+        synchronized (sStats) {
+            getStats(queryName).mCacheHits++;
+        }
+    }
+
+    private static void recordStats(String queryName, long latency, boolean timedOut) {
+        synchronized (sStats) {
+            final QueryStats stats = getStats(queryName);
+            stats.mQueries++;
+            stats.mTotalLatency += latency;
+            stats.mMaxLatency = Math.max(stats.mMaxLatency, latency);
+            if (timedOut) {
+                stats.mTimeouts++;
+            }
+        }
+    }
+
+    private interface Request<T> {
+        void run(CompletableFuture<T> future) throws ImsException;
+    }
+
+    private static final class Preload {
+        final int mCapability;
+        final int mTech;
+        final int mTransportType;
+
+        Preload(int capability, int tech, int transportType) {
+            mCapability = capability;
+            mTech = tech;
+            mTransportType = transportType;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Preload)) {
+                return false;
+            }
+            final Preload that = (Preload) other;
+            return mCapability == that.mCapability && mTech == that.mTech
+                    && mTransportType == that.mTransportType;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mCapability, mTech, mTransportType);
+        }
+    }
+
+    private static class QueryStats {
+        long mQueries;
+        long mCacheHits;
+        long mTimeouts;
+        long mTotalLatency;
+        long mMaxLatency;
+    }
+}
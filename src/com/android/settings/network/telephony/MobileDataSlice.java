@@ -237,6 +237,11 @@ public class MobileDataSlice implements CustomSliceable {
             mMobileDataObserver.unRegister(getContext());
         }
 
+        @Override
+        protected int getUpdatePriority() {
+            return PRIORITY_INTERACTIVE;
+        }
+
         @Override
         public void close() throws IOException {
             mMobileDataObserver = null;
@@ -31,6 +31,7 @@ import androidx.preference.PreferenceScreen;
 import androidx.preference.SwitchPreference;
 
 import com.android.settings.network.MobileDataEnabledListener;
+import com.android.settings.network.ims.ImsStateService;
 import com.android.settings.network.ims.VolteQueryImsState;
 import com.android.settings.network.ims.VtQueryImsState;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
@@ -42,7 +43,7 @@ import com.android.settingslib.core.lifecycle.events.OnStop;
  */
 public class VideoCallingPreferenceController extends TelephonyTogglePreferenceController implements
         LifecycleObserver, OnStart, OnStop,
-        MobileDataEnabledListener.Client,
+        MobileDataEnabledListener.Client, ImsStateService.Listener,
         Enhanced4gBasePreferenceController.On4gLteUpdateListener {
 
     private static final String TAG = "VideoCallingPreference";
@@ -79,12 +80,14 @@ public class VideoCallingPreferenceController extends TelephonyTogglePreferenceC
     public void onStart() {
         mTelephonyCallback.register(mContext, mSubId);
         mDataContentObserver.start(mSubId);
+        queryImsState(mSubId).addListener(mSubId, this);
     }
 
     @Override
     public void onStop() {
         mTelephonyCallback.unregister();
         mDataContentObserver.stop();
+        queryImsState(mSubId).removeListener(mSubId, this);
     }
 
     @Override
@@ -207,6 +210,15 @@ public class VideoCallingPreferenceController extends TelephonyTogglePreferenceC
         updateState(mPreference);
     }
 
+    /**
+     * Implementation of ImsStateService.Listener
+     */
+    public void onImsStateChanged(int subId) {
+        if (subId == mSubId && mPreference != null) {
+            updateState(mPreference);
+        }
+    }
+
     @VisibleForTesting
     VtQueryImsState queryImsState(int subId) {
         return new VtQueryImsState(mContext, subId);
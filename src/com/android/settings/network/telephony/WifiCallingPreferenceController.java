@@ -37,6 +37,7 @@ import androidx.preference.Preference;
 import androidx.preference.PreferenceScreen;
 
 import com.android.settings.R;
+import com.android.settings.network.ims.ImsStateService;
 import com.android.settings.network.ims.WifiCallingQueryImsState;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
 import com.android.settingslib.core.lifecycle.events.OnStart;
@@ -49,7 +50,7 @@ import java.util.List;
  */
 //TODO: Remove the class once Provider Model is always enabled in the future.
 public class WifiCallingPreferenceController extends TelephonyBasePreferenceController implements
-        LifecycleObserver, OnStart, OnStop {
+        LifecycleObserver, OnStart, OnStop, ImsStateService.Listener {
 
     private static final String TAG = "WifiCallingPreference";
 
@@ -80,11 +81,20 @@ public class WifiCallingPreferenceController extends TelephonyBasePreferenceCont
     @Override
     public void onStart() {
         mTelephonyCallback.register(mContext, mSubId);
+        queryImsState(mSubId).addListener(mSubId, this);
     }
 
     @Override
     public void onStop() {
         mTelephonyCallback.unregister();
+        queryImsState(mSubId).removeListener(mSubId, this);
+    }
+
+    @Override
+    public void onImsStateChanged(int subId) {
+        if (subId == mSubId && mPreference != null) {
+            updateState(mPreference);
+        }
     }
 
     @Override
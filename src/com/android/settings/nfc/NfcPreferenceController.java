@@ -175,6 +175,11 @@ public class NfcPreferenceController extends TogglePreferenceController
             getContext().unregisterReceiver(mUpdateObserver);
         }
 
+        @Override
+        protected int getUpdatePriority() {
+            return PRIORITY_INTERACTIVE;
+        }
+
         @Override
         public void close() throws IOException {
             mUpdateObserver = null;
@@ -28,7 +28,6 @@ import android.app.NotificationHistory;
 import android.app.NotificationManager;
 import android.app.role.RoleManager;
 import android.app.usage.IUsageStatsManager;
-import android.app.usage.UsageEvents;
 import android.companion.ICompanionDeviceManager;
 import android.content.ComponentName;
 import android.content.Context;
@@ -46,7 +45,6 @@ import android.os.ServiceManager;
 import android.os.UserHandle;
 import android.service.notification.ConversationChannelWrapper;
 import android.service.notification.NotificationListenerFilter;
-import android.text.format.DateUtils;
 import android.util.IconDrawableFactory;
 import android.util.Log;
 
@@ -72,10 +70,13 @@ public class NotificationBackend {
 
     static IUsageStatsManager sUsageStatsManager = IUsageStatsManager.Stub.asInterface(
             ServiceManager.getService(Context.USAGE_STATS_SERVICE));
-    private static final int DAYS_TO_CHECK = 7;
+    private static final int DAYS_TO_CHECK = NotificationsSentAggregator.DAYS_TO_CHECK;
     static INotificationManager sINM = INotificationManager.Stub.asInterface(
             ServiceManager.getService(Context.NOTIFICATION_SERVICE));
 
+    @VisibleForTesting
+    NotificationsSentAggregator mSentAggregator = NotificationsSentAggregator.getInstance();
+
     public AppRow loadAppRow(Context context, PackageManager pm, ApplicationInfo app) {
         final AppRow row = new AppRow();
         row.pkg = app.packageName;
@@ -483,47 +484,26 @@ public class NotificationBackend {
     }
 
     protected void recordAggregatedUsageEvents(Context context, AppRow appRow) {
-        long now = System.currentTimeMillis();
-        long startTime = now - (DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
-        UsageEvents events = null;
-        try {
-            events = sUsageStatsManager.queryEventsForPackageForUser(
-                    startTime, now, appRow.userId, appRow.pkg, context.getPackageName());
-        } catch (RemoteException e) {
-            e.printStackTrace();
-        }
-        recordAggregatedUsageEvents(events, appRow);
+        recordAggregatedUsageEvents(mSentAggregator.getChannelCounts(sUsageStatsManager,
+                context.getPackageName(), appRow.userId, appRow.pkg), appRow);
     }
 
-    protected void recordAggregatedUsageEvents(UsageEvents events, AppRow appRow) {
+    protected void recordAggregatedUsageEvents(
+            Map<String, NotificationsSentAggregator.SentCount> counts, AppRow appRow) {
         appRow.sentByChannel = new HashMap<>();
         appRow.sentByApp = new NotificationsSentState();
-        if (events != null) {
-            UsageEvents.Event event = new UsageEvents.Event();
-            while (events.hasNextEvent()) {
-                events.getNextEvent(event);
-
-                if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
-                    String channelId = event.mNotificationChannelId;
-                    if (channelId != null) {
-                        NotificationsSentState stats = appRow.sentByChannel.get(channelId);
-                        if (stats == null) {
-                            stats = new NotificationsSentState();
-                            appRow.sentByChannel.put(channelId, stats);
-                        }
-                        if (event.getTimeStamp() > stats.lastSent) {
-                            stats.lastSent = event.getTimeStamp();
-                            appRow.sentByApp.lastSent = event.getTimeStamp();
-                        }
-                        stats.sentCount++;
-                        appRow.sentByApp.sentCount++;
-                        calculateAvgSentCounts(stats);
-                    }
-                }
-
+        for (Map.Entry<String, NotificationsSentAggregator.SentCount> count : counts.entrySet()) {
+            NotificationsSentState stats = new NotificationsSentState();
+            stats.sentCount = count.getValue().sentCount;
+            stats.lastSent = count.getValue().lastSent;
+            calculateAvgSentCounts(stats);
+            appRow.sentByChannel.put(count.getKey(), stats);
+            if (stats.lastSent > appRow.sentByApp.lastSent) {
+                appRow.sentByApp.lastSent = stats.lastSent;
             }
-            calculateAvgSentCounts(appRow.sentByApp);
+            appRow.sentByApp.sentCount += stats.sentCount;
         }
+        calculateAvgSentCounts(appRow.sentByApp);
     }
 
     public static CharSequence getSentSummary(Context context, NotificationsSentState state,
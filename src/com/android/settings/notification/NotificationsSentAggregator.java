@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import android.app.usage.IUsageStatsManager;
+import android.app.usage.UsageEvents;
+import android.os.RemoteException;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.time.Clock;
+import java.util.Map;
+
+/**
+ * Counts the notifications each app sent over the last {@link #DAYS_TO_CHECK} days, shared by the
+ * notification app list and the per-app notification pages.
+ *
+ * <p>Counters are kept per user, package, channel and day. Each query only reads the usage events
+ * newer than the previous one, so opening the pages again doesn't rescan the whole week of events.
+ * The window is rounded to whole days.
+ */
+public class NotificationsSentAggregator {
+    private static final String TAG = "NotifSentAggregator";
+
+    public static final int DAYS_TO_CHECK = 7;
+    // The window starts on a partial day, so one bucket more than the number of days is needed.
+    private static final int BUCKETS = DAYS_TO_CHECK + 1;
+
+    private static NotificationsSentAggregator sInstance;
+
+    private final Clock mClock;
+    private final SparseArray<UserCounters> mUsers = new SparseArray<>();
+
+    public static synchronized NotificationsSentAggregator getInstance() {
+        if (sInstance == null) {
+            sInstance = new NotificationsSentAggregator(Clock.systemUTC());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public NotificationsSentAggregator(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Returns the sent counts of every package of {@code userId} that sent notifications, keyed by
+     * package name.
+     */
+    public synchronized Map<String, SentCount> getPackageCounts(IUsageStatsManager usageStats,
+            String callingPackage, int userId) {
+        final UserCounters user = refresh(usageStats, callingPackage, userId);
+        final long firstDay = user.getFirstDay();
+        final ArrayMap<String, SentCount> counts = new ArrayMap<>();
+        for (int i = 0; i < user.mPackages.size(); i++) {
+            final SentCount count = sumChannels(user.mPackages.valueAt(i), firstDay);
+            if (count != null) {
+                counts.put(user.mPackages.keyAt(i), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the sent counts of {@code pkg} across all its channels, or {@code null} if it didn't
+     * send any notification.
+     */
+    public synchronized SentCount getPackageCount(IUsageStatsManager usageStats,
+            String callingPackage, int userId, String pkg) {
+        final UserCounters user = refresh(usageStats, callingPackage, userId);
+        final ArrayMap<String, Counter> channels = user.mPackages.get(pkg);
+        return channels == null ? null : sumChannels(channels, user.getFirstDay());
+    }
+
+    /**
+     * Returns the sent counts of each channel of {@code pkg}, keyed by channel id. Notifications
+     * that weren't posted to a channel are left out.
+     */
+    public synchronized Map<String, SentCount> getChannelCounts(IUsageStatsManager usageStats,
+            String callingPackage, int userId, String pkg) {
+        final UserCounters user = refresh(usageStats, callingPackage, userId);
+        final ArrayMap<String, SentCount> counts = new ArrayMap<>();
+        final ArrayMap<String, Counter> channels = user.mPackages.get(pkg);
+        if (channels == null) {
+            return counts;
+        }
+        final long firstDay = user.getFirstDay();
+        for (int i = 0; i < channels.size(); i++) {
+            final String channelId = channels.keyAt(i);
+            final int sent = channels.valueAt(i).getCount(firstDay);
+            if (channelId != null && sent > 0) {
+                counts.put(channelId, new SentCount(sent, channels.valueAt(i).mLastSent));
+            }
+        }
+        return counts;
+    }
+
+    /** Drops all counters, so the next query reads the whole window again. */
+    public synchronized void clear() {
+        mUsers.clear();
+    }
+
+    private UserCounters refresh(IUsageStatsManager usageStats, String callingPackage,
+            int userId) {
+        final long now = mClock.millis();
+        UserCounters user = mUsers.get(userId);
+        if (user == null || user.mWatermark > now) {
+            // First query for this user, or the clock went backwards.
+            user = new UserCounters();
+            mUsers.put(userId, user);
+        }
+        final long windowStart =
+                getDay(now - DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK) * DateUtils.DAY_IN_MILLIS;
+        final long begin = Math.max(user.mWatermark, windowStart);
+        UsageEvents events = null;
+        try {
+            events = usageStats.queryEventsForUser(begin, now, userId, callingPackage);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Error querying usage events", e);
+        }
+        if (events == null) {
+            return user;
+        }
+        final UsageEvents.Event event = new UsageEvents.Event();
+        while (events.hasNextEvent()) {
+            events.getNextEvent(event);
+            if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
+                user.record(event.getPackageName(), event.mNotificationChannelId,
+                        event.getTimeStamp());
+            }
+        }
+        user.mWatermark = now;
+        user.prune(getDay(windowStart));
+        return user;
+    }
+
+    private static SentCount sumChannels(ArrayMap<String, Counter> channels, long firstDay) {
+        int sent = 0;
+        long lastSent = 0;
+        for (int i = 0; i < channels.size(); i++) {
+            final Counter counter = channels.valueAt(i);
+            final int count = counter.getCount(firstDay);
+            if (count > 0) {
+                sent += count;
+                lastSent = Math.max(lastSent, counter.mLastSent);
+            }
+        }
+        return sent == 0 ? null : new SentCount(sent, lastSent);
+    }
+
+    private static long getDay(long time) {
+        return time / DateUtils.DAY_IN_MILLIS;
+    }
+
+    /** How many notifications were sent and when the last one was sent. */
+    public static final class SentCount {
+        public final int sentCount;
+        public final long lastSent;
+
+        public SentCount(int sentCount, long lastSent) {
+            this.sentCount = sentCount;
+            this.lastSent = lastSent;
+        }
+    }
+
+    private static final class UserCounters {
+        // Events before this time were already counted.
+        long mWatermark;
+        long mPrunedDay = -1;
+        // Package name -> channel id (null for no channel) -> counter.
+        final ArrayMap<String, ArrayMap<String, Counter>> mPackages = new ArrayMap<>();
+
+        long getFirstDay() {
+            return getDay(mWatermark - DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
+        }
+
+        void record(String pkg, String channelId, long time) {
+            ArrayMap<String, Counter> channels = mPackages.get(pkg);
+            if (channels == null) {
+                channels = new ArrayMap<>();
+                mPackages.put(pkg, channels);
+            }
+            Counter counter = channels.get(channelId);
+            if (counter == null) {
+                counter = new Counter();
+                channels.put(channelId, counter);
+            }
+            counter.add(time);
+        }
+
+        // Drops the counters of channels that didn't send anything in the window, once a day.
+        void prune(long firstDay) {
+            if (mPrunedDay == firstDay) {
+                return;
+            }
+            mPrunedDay = firstDay;
+            for (int i = mPackages.size() - 1; i >= 0; i--) {
+                final ArrayMap<String, Counter> channels = mPackages.valueAt(i);
+                for (int j = channels.size() - 1; j >= 0; j--) {
+                    if (getDay(channels.valueAt(j).mLastSent) < firstDay) {
+                        channels.removeAt(j);
+                    }
+                }
+                if (channels.isEmpty()) {
+                    mPackages.removeAt(i);
+                }
+            }
+        }
+    }
+
+    /** Sent counts of one channel for each of the last {@link #BUCKETS} days. */
+    private static final class Counter {
+        final long[] mDays = new long[BUCKETS];
+        final int[] mCounts = new int[BUCKETS];
+        long mLastSent;
+
+        void add(long time) {
+            final long day = getDay(time);
+            final int slot = (int) (day % BUCKETS);
+            if (mDays[slot] != day) {
+                if (mDays[slot] > day) {
+                    // Older than the window kept in this slot.
+                    return;
+                }
+                mDays[slot] = day;
+                mCounts[slot] = 0;
+            }
+            mCounts[slot]++;
+            mLastSent = Math.max(mLastSent, time);
+        }
+
+        int getCount(long firstDay) {
+            int count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (mDays[i] >= firstDay) {
+                    count += mCounts[i];
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -22,22 +22,32 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.UserHandle;
+import android.util.ArrayMap;
 import android.util.Slog;
+import android.util.SparseArray;
 
+import com.android.settings.applications.AppIdentityCache;
+import com.android.settings.applications.AppIdentityCache.AppIdentity;
 import com.android.settings.notification.NotificationBackend;
 import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Future;
 
+/**
+ * Loads the notification history grouped by package. Packages are delivered one at a time, most
+ * recent first, as soon as their label and icon are loaded, so the first rows show up without
+ * waiting for every app of the day.
+ */
 public class HistoryLoader {
     private static final String TAG = "HistoryLoader";
     private final Context mContext;
     private final NotificationBackend mBackend;
     private final PackageManager mPm;
+    private Future<?> mLoad;
+    private volatile boolean mCancelled;
 
     public HistoryLoader(Context context, NotificationBackend backend, PackageManager pm) {
         mContext = context;
@@ -46,54 +56,102 @@ public class HistoryLoader {
     }
 
     public void load(OnHistoryLoaderListener listener) {
-        ThreadUtils.postOnBackgroundThread(() -> {
+        mLoad = ThreadUtils.postOnBackgroundThread(() -> {
             try {
-                Map<String, NotificationHistoryPackage> historicalNotifications = new HashMap<>();
-                NotificationHistory history =
+                final List<NotificationHistoryPackage> packages = groupByPackage(
                         mBackend.getNotificationHistory(mContext.getPackageName(),
-                                mContext.getAttributionTag());
-                while (history.hasNextNotification()) {
-                    HistoricalNotification hn = history.getNextNotification();
-
-                    String key = hn.getPackage() + "|" + hn.getUid();
-                    NotificationHistoryPackage hnsForPackage = historicalNotifications.getOrDefault(
-                            key,
-                            new NotificationHistoryPackage(hn.getPackage(), hn.getUid()));
-                    hnsForPackage.notifications.add(hn);
-                    historicalNotifications.put(key, hnsForPackage);
-                }
-                List<NotificationHistoryPackage> packages =
-                        new ArrayList<>(historicalNotifications.values());
+                                mContext.getAttributionTag()));
                 Collections.sort(packages,
                         (o1, o2) -> -1 * Long.compare(o1.getMostRecent(), o2.getMostRecent()));
+                final int packageCount = packages.size();
+                postIfNotCancelled(() -> listener.onHistoryLoaded(packageCount));
                 for (NotificationHistoryPackage nhp : packages) {
-                    ApplicationInfo info;
-                    try {
-                        info = mPm.getApplicationInfoAsUser(
-                                nhp.pkgName,
-                                PackageManager.MATCH_UNINSTALLED_PACKAGES
-                                        | PackageManager.MATCH_DISABLED_COMPONENTS
-                                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
-                                        | PackageManager.MATCH_DIRECT_BOOT_AWARE,
-                                UserHandle.getUserId(nhp.uid));
-                        if (info != null) {
-                            nhp.label = String.valueOf(mPm.getApplicationLabel(info));
-                            nhp.icon = mPm.getUserBadgedIcon(mPm.getApplicationIcon(info),
-                                    UserHandle.of(UserHandle.getUserId(nhp.uid)));
-                        }
-                    } catch (PackageManager.NameNotFoundException e) {
-                        // app is gone, just show package name and generic icon
-                        nhp.icon = mPm.getDefaultActivityIcon();
+                    if (mCancelled) {
+                        return;
                     }
+                    loadIdentity(nhp);
+                    postIfNotCancelled(() -> listener.onPackageLoaded(nhp));
                 }
-                ThreadUtils.postOnMainThread(() -> listener.onHistoryLoaded(packages));
             } catch (Exception e) {
                 Slog.e(TAG, "Error loading history", e);
             }
         });
     }
 
+    /** Stops delivering packages to the listener. */
+    public void cancel() {
+        mCancelled = true;
+        if (mLoad != null) {
+            mLoad.cancel(false /* mayInterruptIfRunning */);
+        }
+    }
+
+    private List<NotificationHistoryPackage> groupByPackage(NotificationHistory history) {
+        // By uid, then package name.
+        final SparseArray<ArrayMap<String, NotificationHistoryPackage>> packagesByUid =
+                new SparseArray<>();
+        final List<NotificationHistoryPackage> packages = new ArrayList<>();
+        while (history.hasNextNotification()) {
+            HistoricalNotification hn = history.getNextNotification();
+
+            ArrayMap<String, NotificationHistoryPackage> packagesForUid =
+                    packagesByUid.get(hn.getUid());
+            if (packagesForUid == null) {
+                packagesForUid = new ArrayMap<>(1);
+                packagesByUid.put(hn.getUid(), packagesForUid);
+            }
+            NotificationHistoryPackage hnsForPackage = packagesForUid.get(hn.getPackage());
+            if (hnsForPackage == null) {
+                hnsForPackage = new NotificationHistoryPackage(hn.getPackage(), hn.getUid());
+                packagesForUid.put(hn.getPackage(), hnsForPackage);
+                packages.add(hnsForPackage);
+            }
+            hnsForPackage.notifications.add(hn);
+        }
+        return packages;
+    }
+
+    private void loadIdentity(NotificationHistoryPackage nhp) {
+        ApplicationInfo info;
+        try {
+            info = mPm.getApplicationInfoAsUser(
+                    nhp.pkgName,
+                    PackageManager.MATCH_UNINSTALLED_PACKAGES
+                            | PackageManager.MATCH_DISABLED_COMPONENTS
+                            | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
+                            | PackageManager.MATCH_DIRECT_BOOT_AWARE,
+                    UserHandle.getUserId(nhp.uid));
+            if (info != null) {
+                final AppIdentity identity = AppIdentityCache.getInstance()
+                        .getApplicationIdentity(mContext, mPm, info,
+                                UserHandle.getUserId(nhp.uid));
+                if (identity != null) {
+                    nhp.label = String.valueOf(identity.label);
+                    nhp.icon = identity.getIcon();
+                }
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            // app is gone, just show package name and generic icon
+            nhp.icon = mPm.getDefaultActivityIcon();
+        }
+    }
+
+    private void postIfNotCancelled(Runnable runnable) {
+        ThreadUtils.postOnMainThread(() -> {
+            if (!mCancelled) {
+                runnable.run();
+            }
+        });
+    }
+
     interface OnHistoryLoaderListener {
-        void onHistoryLoaded(List<NotificationHistoryPackage> notificationsByPackage);
+        /**
+         * Called once the history is read, with the number of packages
+         * {@link #onPackageLoaded} will be called for.
+         */
+        void onHistoryLoaded(int packageCount);
+
+        /** Called for each package, most recent first, once its label and icon are loaded. */
+        void onPackageLoaded(NotificationHistoryPackage notificationsForPackage);
     }
 }
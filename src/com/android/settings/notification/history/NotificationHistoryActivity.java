@@ -149,22 +149,45 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
         }
     }
 
-    private HistoryLoader.OnHistoryLoaderListener mOnHistoryLoaderListener = notifications -> {
-        findViewById(R.id.today_list).setVisibility(
-                notifications.isEmpty() ? View.GONE : View.VISIBLE);
-        mCountdownLatch.countDown();
-        View recyclerView = mTodayView.findViewById(R.id.apps);
-        recyclerView.setClipToOutline(true);
-        mTodayView.setOutlineProvider(mOutlineProvider);
-        mSnoozeView.setOutlineProvider(mOutlineProvider);
+    private HistoryLoader.OnHistoryLoaderListener mOnHistoryLoaderListener =
+            new HistoryLoader.OnHistoryLoaderListener() {
+        @Override
+        public void onHistoryLoaded(int packageCount) {
+            findViewById(R.id.today_list).setVisibility(
+                    packageCount == 0 ? View.GONE : View.VISIBLE);
+            mCountdownLatch.countDown();
+            View recyclerView = mTodayView.findViewById(R.id.apps);
+            recyclerView.setClipToOutline(true);
+            mTodayView.setOutlineProvider(mOutlineProvider);
+            mSnoozeView.setOutlineProvider(mOutlineProvider);
+        }
+
         // for each package, new header and recycler view
-        for (int i = 0, notificationsSize = notifications.size(); i < notificationsSize; i++) {
-            NotificationHistoryPackage nhp = notifications.get(i);
-            View viewForPackage = LayoutInflater.from(this)
+        @Override
+        public void onPackageLoaded(NotificationHistoryPackage nhp) {
+            View viewForPackage = LayoutInflater.from(NotificationHistoryActivity.this)
                     .inflate(R.layout.notification_history_app_layout, null);
 
             final View container = viewForPackage.findViewById(R.id.notification_list_wrapper);
             container.setVisibility(View.GONE);
+
+            TextView count = viewForPackage.findViewById(R.id.count);
+            count.setText(getResources().getQuantityString(R.plurals.notification_history_count,
+                    nhp.notifications.size(), nhp.notifications.size()));
+
+            final NotificationHistoryRecyclerView rv =
+                    viewForPackage.findViewById(R.id.notification_list);
+            final NotificationHistoryAdapter adapter = new NotificationHistoryAdapter(mNm, rv,
+                    newCount -> {
+                        count.setText(getResources().getQuantityString(
+                                R.plurals.notification_history_count,
+                                newCount, newCount));
+                        if (newCount == 0) {
+                            viewForPackage.setVisibility(View.GONE);
+                        }
+                    }, mUiEventLogger);
+            rv.setAdapter(adapter);
+
             View header = viewForPackage.findViewById(R.id.app_header);
             NotificationExpandButton expand = viewForPackage.findViewById(
                     com.android.internal.R.id.expand_button);
@@ -176,10 +199,14 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
             header.setStateDescription(container.getVisibility() == View.VISIBLE
                     ? getString(R.string.condition_expand_hide)
                     : getString(R.string.condition_expand_show));
-            int finalI = i;
+            final int position = mTodayView.getChildCount();
             header.setOnClickListener(v -> {
                 container.setVisibility(container.getVisibility() == View.VISIBLE
                         ? View.GONE : View.VISIBLE);
+                // The notifications of a package are only listed once it's expanded.
+                if (container.getVisibility() == View.VISIBLE && adapter.getItemCount() == 0) {
+                    adapter.onRebuildComplete(new ArrayList<>(nhp.notifications));
+                }
                 expand.setExpanded(container.getVisibility() == View.VISIBLE);
                 header.setStateDescription(container.getVisibility() == View.VISIBLE
                         ? getString(R.string.condition_expand_hide)
@@ -188,7 +215,7 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
                 mUiEventLogger.logWithPosition((container.getVisibility() == View.VISIBLE)
                                 ? NotificationHistoryEvent.NOTIFICATION_HISTORY_PACKAGE_HISTORY_OPEN
                               : NotificationHistoryEvent.NOTIFICATION_HISTORY_PACKAGE_HISTORY_CLOSE,
-                        nhp.uid, nhp.pkgName, finalI);
+                        nhp.uid, nhp.pkgName, position);
             });
 
             TextView label = viewForPackage.findViewById(R.id.label);
@@ -198,24 +225,6 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
             ImageView icon = viewForPackage.findViewById(R.id.icon);
             icon.setImageDrawable(nhp.icon);
 
-            TextView count = viewForPackage.findViewById(R.id.count);
-            count.setText(getResources().getQuantityString(R.plurals.notification_history_count,
-                    nhp.notifications.size(), nhp.notifications.size()));
-
-            final NotificationHistoryRecyclerView rv =
-                    viewForPackage.findViewById(R.id.notification_list);
-            rv.setAdapter(new NotificationHistoryAdapter(mNm, rv,
-                    newCount -> {
-                        count.setText(getResources().getQuantityString(
-                                R.plurals.notification_history_count,
-                                newCount, newCount));
-                        if (newCount == 0) {
-                            viewForPackage.setVisibility(View.GONE);
-                        }
-                    }, mUiEventLogger));
-            ((NotificationHistoryAdapter) rv.getAdapter()).onRebuildComplete(
-                    new ArrayList<>(nhp.notifications));
-
             mTodayView.addView(viewForPackage);
         }
     };
@@ -258,6 +267,9 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
         mCountdownLatch = new CountDownLatch(2);
 
         mTodayView.removeAllViews();
+        if (mHistoryLoader != null) {
+            mHistoryLoader.cancel();
+        }
         mHistoryLoader = new HistoryLoader(this, new NotificationBackend(), mPm);
         mHistoryLoader.load(mOnHistoryLoaderListener);
 
@@ -308,6 +320,9 @@ public class NotificationHistoryActivity extends CollapsingToolbarBaseActivity {
         if (mCountdownFuture != null) {
             mCountdownFuture.cancel(true);
         }
+        if (mHistoryLoader != null) {
+            mHistoryLoader.cancel();
+        }
         super.onDestroy();
     }
 
@@ -35,6 +35,7 @@ import androidx.preference.PreferenceScreen;
 
 import com.android.settings.R;
 import com.android.settings.applications.AppInfoBase;
+import com.android.settings.applications.InstalledAppsSnapshot;
 import com.android.settings.applications.specialaccess.zenaccess.ZenAccessController;
 import com.android.settings.applications.specialaccess.zenaccess.ZenAccessDetails;
 import com.android.settings.applications.specialaccess.zenaccess.ZenAccessSettingObserverMixin;
@@ -107,7 +108,9 @@ public class ZenAccessSettings extends EmptyTextSettings implements
         final Set<String> requesting =
                 ZenAccessController.getPackagesRequestingNotificationPolicyAccess();
         if (!requesting.isEmpty()) {
-            final List<ApplicationInfo> installed = mPkgMan.getInstalledApplications(0);
+            final List<ApplicationInfo> installed =
+                    InstalledAppsSnapshot.get(mContext, UserHandle.myUserId())
+                            .getApplications(0 /* flags */);
             if (installed != null) {
                 for (ApplicationInfo app : installed) {
                     if (requesting.contains(app.packageName)) {
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import static com.android.settings.search.SettingsSearchIndexablesProvider.DEBUG;
+import static com.android.settings.search.SettingsSearchIndexablesProvider.SYSPROP_CRASH_ON_ERROR;
+
+import android.content.Context;
+import android.content.pm.ChangedPackages;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.util.ArrayMap;
+import android.util.FeatureFlagUtils;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.settingslib.development.DevelopmentSettingsEnabler;
+import com.android.settingslib.search.Indexable;
+import com.android.settingslib.search.SearchIndexableData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collects the non-indexable keys of every {@link Indexable.SearchIndexProvider}.
+ *
+ * <p>Providers run in parallel on a small pool, and one that takes longer than
+ * {@link #PROVIDER_TIMEOUT_MS} keeps its previous keys. A provider without previous keys is
+ * always waited for. Keys are reused while the inputs most controllers depend on are unchanged:
+ * user restrictions, feature flags, installed packages, configuration and developer options, for
+ * at most {@link #MAX_AGE_MS}. Every time the keys of a provider change, they are stamped with a
+ * new generation so callers can ask only for the providers that changed since the generation
+ * they last saw. Generations carry a random id of the collector in their upper bits, so a
+ * generation handed out by a previous process is never mistaken for a recent one.
+ */
+class NonIndexableKeysCollector {
+
+    private static final String TAG = "NonIndexableKeys";
+
+    @VisibleForTesting
+    static final int MAX_THREADS = 4;
+    @VisibleForTesting
+    static final long PROVIDER_TIMEOUT_MS = 2000;
+    // Upper bound for a whole collection, in case slow providers keep every thread busy.
+    @VisibleForTesting
+    static final long COLLECT_TIMEOUT_MS = 10000;
+    @VisibleForTesting
+    static final long MAX_AGE_MS = 5 * 60 * 1000;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+    private static final long GENERATION_COUNTER_MASK = 0xffffffffL;
+
+    private final ThreadPoolExecutor mExecutor;
+    // Keyed by the target class of the provider. Guarded by itself.
+    private final Map<Class<?>, Entry> mEntries = new ArrayMap<>();
+    // Providers still running, so overlapping queries share them. Guarded by mEntries.
+    private final Map<Class<?>, ProviderTask> mInFlight = new ArrayMap<>();
+    private final long mInstanceId = (new Random().nextInt() & 0x7fffffffL) << 32;
+    // Guarded by mEntries.
+    private long mGeneration = mInstanceId + 1;
+    private int mPackageSequence;
+    private int mPackageGeneration;
+
+    NonIndexableKeysCollector() {
+        mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, TAG));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Returns the non-indexable keys of all {@code bundles}. */
+    List<String> getNonIndexableKeys(Context context, Collection<SearchIndexableData> bundles) {
+        final List<String> nonIndexableKeys = new ArrayList<>();
+        for (Entry entry : collect(context, bundles).mEntries.values()) {
+            nonIndexableKeys.addAll(entry.mKeys);
+        }
+        return nonIndexableKeys;
+    }
+
+    /**
+     * Puts the non-indexable keys of the providers that changed after {@code sinceGeneration}
+     * into {@code changedKeys}, keyed by the class name of the page, and returns the generation
+     * to pass next time. All providers are reported for a generation of another collector.
+     *
+     * <p>When a provider timed out and fell back to its previous keys, the returned generation is
+     * the one from before this call, so its new keys are reported by the next call.
+     */
+    long getChangedNonIndexableKeys(Context context, Collection<SearchIndexableData> bundles,
+            long sinceGeneration, Map<String, List<String>> changedKeys) {
+        if ((sinceGeneration & ~GENERATION_COUNTER_MASK) != mInstanceId) {
+            sinceGeneration = 0L;
+        }
+        final long startGeneration;
+        synchronized (mEntries) {
+            startGeneration = mGeneration;
+        }
+        final CollectResult result = collect(context, bundles);
+        for (Map.Entry<Class<?>, Entry> entry : result.mEntries.entrySet()) {
+            if (entry.getValue().mChangedGeneration > sinceGeneration) {
+                changedKeys.put(entry.getKey().getName(), entry.getValue().mKeys);
+            }
+        }
+        synchronized (mEntries) {
+            return result.mComplete ? mGeneration : startGeneration;
+        }
+    }
+
+    private CollectResult collect(Context context, Collection<SearchIndexableData> bundles) {
+        final long start = SystemClock.elapsedRealtime();
+        final int inputs = getInputsSignature(context);
+        final Map<Class<?>, Entry> cached = new ArrayMap<>();
+        final Map<Class<?>, ProviderTask> tasks = new ArrayMap<>();
+        synchronized (mEntries) {
+            for (SearchIndexableData bundle : bundles) {
+                final Class<?> targetClass = bundle.getTargetClass();
+                final Entry entry = mEntries.get(targetClass);
+                if (entry != null && entry.mInputs == inputs
+                        && start - entry.mTimestamp < MAX_AGE_MS) {
+                    cached.put(targetClass, entry);
+                    continue;
+                }
+                ProviderTask task = mInFlight.get(targetClass);
+                if (task == null) {
+                    task = new ProviderTask(context, bundle, inputs);
+                    mInFlight.put(targetClass, task);
+                    mExecutor.execute(task);
+                }
+                tasks.put(targetClass, task);
+            }
+        }
+
+        final CollectResult result = new CollectResult();
+        for (SearchIndexableData bundle : bundles) {
+            final Class<?> targetClass = bundle.getTargetClass();
+            final ProviderTask task = tasks.get(targetClass);
+            final Entry entry = task == null ? cached.get(targetClass)
+                    : await(task, start, result);
+            if (entry != null) {
+                result.mEntries.put(targetClass, entry);
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Collected " + result.mEntries.size() + " providers, " + tasks.size()
+                    + " computed, total time " + (SystemClock.elapsedRealtime() - start));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the keys computed by the task, or the previous keys if it failed or timed out. A
+     * timeout marks {@code result} incomplete. Without previous keys, waits for the task however
+     * long it takes, as there is nothing to fall back to.
+     */
+    private Entry await(ProviderTask task, long collectStart, CollectResult result) {
+        final Class<?> targetClass = task.mBundle.getTargetClass();
+        final boolean hasPrevious;
+        synchronized (mEntries) {
+            hasPrevious = mEntries.containsKey(targetClass);
+        }
+        while (true) {
+            final long now = SystemClock.elapsedRealtime();
+            final long started = task.mStartTime;
+            final long deadline = Math.min(collectStart + COLLECT_TIMEOUT_MS,
+                    started == 0L ? now + PROVIDER_TIMEOUT_MS : started + PROVIDER_TIMEOUT_MS);
+            try {
+                return hasPrevious
+                        ? task.mResult.get(Math.max(0L, deadline - now), TimeUnit.MILLISECONDS)
+                        : task.mResult.get();
+            } catch (TimeoutException e) {
+                if (task.mStartTime == 0L
+                        && SystemClock.elapsedRealtime() < collectStart + COLLECT_TIMEOUT_MS) {
+                    // Still queued behind other providers.
+                    continue;
+                }
+                Log.w(TAG, "Timeout getting non-indexable keys from: " + targetClass.getName());
+                result.mComplete = false;
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted getting non-indexable keys", e);
+                Thread.currentThread().interrupt();
+                result.mComplete = false;
+            } catch (ExecutionException e) {
+                // Same as failing on the calling thread, see ProviderTask.
+                if (System.getProperty(SYSPROP_CRASH_ON_ERROR) != null) {
+                    throw new RuntimeException(e.getCause());
+                }
+                Log.e(TAG, "Error trying to get non-indexable keys from: "
+                        + targetClass.getName(), e.getCause());
+            }
+            synchronized (mEntries) {
+                return mEntries.get(targetClass);
+            }
+        }
+    }
+
+    // Hash of the inputs that decide whether most preference controllers are available.
+    private int getInputsSignature(Context context) {
+        final TreeSet<String> restrictions = new TreeSet<>();
+        final UserManager userManager = context.getSystemService(UserManager.class);
+        final Bundle bundle = userManager == null ? null : userManager.getUserRestrictions();
+        if (bundle != null) {
+            for (String key : bundle.keySet()) {
+                if (bundle.getBoolean(key)) {
+                    restrictions.add(key);
+                }
+            }
+        }
+        final int packageSequence;
+        synchronized (mEntries) {
+            packageSequence = mPackageSequence;
+        }
+        // Binder call, made without holding the lock.
+        final ChangedPackages changedPackages =
+                context.getPackageManager().getChangedPackages(packageSequence);
+        final int packageGeneration;
+        synchronized (mEntries) {
+            // Another query may have seen the same change in the meantime.
+            if (changedPackages != null
+                    && changedPackages.getSequenceNumber() > mPackageSequence) {
+                mPackageSequence = changedPackages.getSequenceNumber();
+                mPackageGeneration++;
+            }
+            packageGeneration = mPackageGeneration;
+        }
+        return Objects.hash(restrictions, new TreeMap<>(FeatureFlagUtils.getAllFeatureFlags()),
+                packageGeneration, context.getResources().getConfiguration(),
+                DevelopmentSettingsEnabler.isDevelopmentSettingsEnabled(context));
+    }
+
+    private class ProviderTask implements Runnable {
+        final Context mContext;
+        final SearchIndexableData mBundle;
+        final int mInputs;
+        final CompletableFuture<Entry> mResult = new CompletableFuture<>();
+        volatile long mStartTime;
+
+        ProviderTask(Context context, SearchIndexableData bundle, int inputs) {
+            mContext = context;
+            mBundle = bundle;
+            mInputs = inputs;
+        }
+
+        @Override
+        public void run() {
+            mStartTime = SystemClock.elapsedRealtime();
+            final Class<?> targetClass = mBundle.getTargetClass();
+            List<String> keys;
+            try {
+                keys = mBundle.getSearchIndexProvider().getNonIndexableKeys(mContext);
+            } catch (Exception e) {
+                // Catch a generic crash, so a crash in a specific controller doesn't lose all
+                // non-indexable keys. The caller decides whether to rethrow it.
+                synchronized (mEntries) {
+                    mInFlight.remove(targetClass);
+                }
+                mResult.completeExceptionally(e);
+                return;
+            }
+            final List<String> validKeys = new ArrayList<>();
+            if (keys != null) {
+                for (String key : keys) {
+                    if (key == null || key.isEmpty()) {
+                        Log.v(TAG, mBundle.getSearchIndexProvider()
+                                + " tried to add an empty non-indexable key");
+                    } else {
+                        validKeys.add(key);
+                    }
+                }
+            }
+            final Entry entry;
+            synchronized (mEntries) {
+                mInFlight.remove(targetClass);
+                final Entry previous = mEntries.get(targetClass);
+                final long changedGeneration;
+                if (previous != null && previous.mKeys.equals(validKeys)) {
+                    changedGeneration = previous.mChangedGeneration;
+                } else {
+                    changedGeneration = ++mGeneration;
+                }
+                entry = new Entry(validKeys, mInputs, changedGeneration);
+                mEntries.put(targetClass, entry);
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Non-indexables " + validKeys.size() + " from "
+                        + targetClass.getName() + ", total time "
+                        + (SystemClock.elapsedRealtime() - mStartTime));
+            }
+            mResult.complete(entry);
+        }
+    }
+
+    private static class CollectResult {
+        // Keeps the order of the providers.
+        final Map<Class<?>, Entry> mEntries = new LinkedHashMap<>();
+        // Whether every provider that had to be computed was.
+        boolean mComplete = true;
+    }
+
+    private static class Entry {
+        final List<String> mKeys;
+        final int mInputs;
+        final long mChangedGeneration;
+        final long mTimestamp = SystemClock.elapsedRealtime();
+
+        Entry(List<String> keys, int inputs, long changedGeneration) {
+            mKeys = keys;
+            mInputs = inputs;
+            mChangedGeneration = changedGeneration;
+        }
+    }
+}
@@ -45,18 +45,19 @@ import static android.provider.SearchIndexablesContract.SLICE_URI_PAIRS_COLUMNS;
 
 import static com.android.settings.dashboard.DashboardFragmentRegistry.CATEGORY_KEY_TO_PARENT_MAP;
 
+import android.Manifest;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.SearchIndexableResource;
 import android.provider.SearchIndexablesContract;
 import android.provider.SearchIndexablesProvider;
 import android.provider.SettingsSlicesContract;
 import android.text.TextUtils;
 import android.util.ArrayMap;
-import android.util.ArraySet;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
@@ -93,25 +94,58 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
     public static final String SYSPROP_CRASH_ON_ERROR =
             "debug.com.android.settings.search.crash_on_error";
 
-    private static final String TAG = "SettingsSearchProvider";
+    /**
+     * {@link #call} method returning only the non-indexable keys that changed since a
+     * generation, so the search index can be updated incrementally.
+     */
+    public static final String METHOD_GET_CHANGED_NON_INDEXABLE_KEYS =
+            "getChangedNonIndexableKeys";
+    public static final String EXTRA_GENERATION = "generation";
+    public static final String EXTRA_CHANGED_KEYS = "changed_keys";
 
-    private static final Collection<String> INVALID_KEYS;
+    private static final String TAG = "SettingsSearchProvider";
 
     // Search enabled states for injection (key: category key, value: search enabled)
     private Map<String, Boolean> mSearchEnabledByCategoryKeyMap;
-
-    static {
-        INVALID_KEYS = new ArraySet<>();
-        INVALID_KEYS.add(null);
-        INVALID_KEYS.add("");
-    }
+    private NonIndexableKeysCollector mNonIndexableKeysCollector;
 
     @Override
     public boolean onCreate() {
         mSearchEnabledByCategoryKeyMap = new ArrayMap<>();
+        mNonIndexableKeysCollector = new NonIndexableKeysCollector();
         return true;
     }
 
+    /**
+     * Returns the non-indexable keys of the pages whose keys changed since the generation passed
+     * as {@link #EXTRA_GENERATION}, for {@link #METHOD_GET_CHANGED_NON_INDEXABLE_KEYS}. The
+     * result holds the current generation and, in {@link #EXTRA_CHANGED_KEYS}, the keys of each
+     * changed page keyed by its class name.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!METHOD_GET_CHANGED_NON_INDEXABLE_KEYS.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        final Context context = getContext();
+        context.enforceCallingOrSelfPermission(Manifest.permission.READ_SEARCH_INDEXABLES, TAG);
+        final long sinceGeneration = extras == null ? 0L : extras.getLong(EXTRA_GENERATION);
+        final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
+                .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
+        final Map<String, List<String>> changedKeys = new ArrayMap<>();
+        final long generation = mNonIndexableKeysCollector.getChangedNonIndexableKeys(context,
+                bundles, sinceGeneration, changedKeys);
+
+        final Bundle keysBundle = new Bundle();
+        for (Map.Entry<String, List<String>> keys : changedKeys.entrySet()) {
+            keysBundle.putStringArrayList(keys.getKey(), new ArrayList<>(keys.getValue()));
+        }
+        final Bundle result = new Bundle();
+        result.putLong(EXTRA_GENERATION, generation);
+        result.putBundle(EXTRA_CHANGED_KEYS, keysBundle);
+        return result;
+    }
+
     @Override
     public Cursor queryXmlResources(String[] projection) {
         final MatrixCursor cursor = new MatrixCursor(INDEXABLES_XML_RES_COLUMNS);
@@ -273,52 +307,7 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
     private List<String> getNonIndexableKeysFromProvider(Context context) {
         final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
                 .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
-
-        final List<String> nonIndexableKeys = new ArrayList<>();
-
-        for (SearchIndexableData bundle : bundles) {
-            final long startTime = System.currentTimeMillis();
-            Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
-            List<String> providerNonIndexableKeys;
-            try {
-                providerNonIndexableKeys = provider.getNonIndexableKeys(context);
-            } catch (Exception e) {
-                // Catch a generic crash. In the absence of the catch, the background thread will
-                // silently fail anyway, so we aren't losing information by catching the exception.
-                // We crash when the system property exists so that we can test if crashes need to
-                // be fixed.
-                // The gain is that if there is a crash in a specific controller, we don't lose all
-                // non-indexable keys, but we can still find specific crashes in development.
-                if (System.getProperty(SYSPROP_CRASH_ON_ERROR) != null) {
-                    throw new RuntimeException(e);
-                }
-                Log.e(TAG, "Error trying to get non-indexable keys from: "
-                        + bundle.getTargetClass().getName(), e);
-                continue;
-            }
-
-            if (providerNonIndexableKeys == null || providerNonIndexableKeys.isEmpty()) {
-                if (DEBUG) {
-                    final long totalTime = System.currentTimeMillis() - startTime;
-                    Log.d(TAG, "No indexable, total time " + totalTime);
-                }
-                continue;
-            }
-
-            if (providerNonIndexableKeys.removeAll(INVALID_KEYS)) {
-                Log.v(TAG, provider + " tried to add an empty non-indexable key");
-            }
-
-            if (DEBUG) {
-                final long totalTime = System.currentTimeMillis() - startTime;
-                Log.d(TAG, "Non-indexables " + providerNonIndexableKeys.size() + ", total time "
-                        + totalTime);
-            }
-
-            nonIndexableKeys.addAll(providerNonIndexableKeys);
-        }
-
-        return nonIndexableKeys;
+        return mNonIndexableKeysCollector.getNonIndexableKeys(context, bundles);
     }
 
     private List<SearchIndexableResource> getSearchIndexableResourcesFromProvider(Context context) {
@@ -20,20 +20,18 @@ import android.annotation.MainThread;
 import android.annotation.Nullable;
 import android.content.Context;
 import android.net.Uri;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
-import android.os.Process;
-import android.os.SystemClock;
 import android.util.ArrayMap;
 import android.util.Log;
 
+import androidx.annotation.IntDef;
+import androidx.annotation.VisibleForTesting;
+
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -54,7 +52,23 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
 
     private static final String TAG = "SliceBackgroundWorker";
 
-    private static final long SLICE_UPDATE_THROTTLE_INTERVAL = 300L;
+    /**
+     * Priority of slices whose updates follow user interaction, e.g. toggles. They are dispatched
+     * separately from other slices with a shorter throttle interval.
+     */
+    public static final int PRIORITY_INTERACTIVE = 0;
+
+    /** Priority of slices showing data that changes on its own, e.g. scan results. */
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    @IntDef({PRIORITY_INTERACTIVE, PRIORITY_BACKGROUND})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface UpdatePriority {}
+
+    @VisibleForTesting
+    static final long INTERACTIVE_UPDATE_THROTTLE_INTERVAL = 100L;
+    @VisibleForTesting
+    static final long BACKGROUND_UPDATE_THROTTLE_INTERVAL = 300L;
 
     private static final Map<Uri, SliceBackgroundWorker> LIVE_WORKERS = new ArrayMap<>();
 
@@ -76,6 +90,22 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
         return mContext;
     }
 
+    /**
+     * Returns the {@link UpdatePriority} of the slice, {@link #PRIORITY_BACKGROUND} by default.
+     */
+    @UpdatePriority
+    protected int getUpdatePriority() {
+        return PRIORITY_BACKGROUND;
+    }
+
+    /**
+     * Returns the minimum interval between two notifications of the slice when it isn't busy.
+     */
+    protected long getUpdateThrottleInterval() {
+        return getUpdatePriority() == PRIORITY_INTERACTIVE
+                ? INTERACTIVE_UPDATE_THROTTLE_INTERVAL : BACKGROUND_UPDATE_THROTTLE_INTERVAL;
+    }
+
     /**
      * Returns the singleton instance of {@link SliceBackgroundWorker} for specified {@link Uri} if
      * exists
@@ -165,6 +195,17 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
         }
     }
 
+    /**
+     * Update the results when the worker already knows whether they changed, e.g. from the
+     * callback reporting the change, instead of comparing them with the cached results.
+     */
+    protected final void updateResults(List<E> results, boolean changed) {
+        mCachedResults = results;
+        if (changed) {
+            notifySliceChange();
+        }
+    }
+
     protected boolean areListsTheSame(List<E> a, List<E> b) {
         return a.equals(b);
     }
@@ -173,7 +214,7 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
      * Notify that data was updated and attempt to sync changes to the Slice.
      */
     protected final void notifySliceChange() {
-        NotifySliceChangeHandler.getInstance().updateSlice(this);
+        SliceChangeDispatcher.getInstance().dispatch(this);
     }
 
     void pin() {
@@ -182,67 +223,6 @@ public abstract class SliceBackgroundWorker<E> implements Closeable {
 
     void unpin() {
         onSliceUnpinned();
-        NotifySliceChangeHandler.getInstance().cancelSliceUpdate(this);
+        SliceChangeDispatcher.getInstance().cancel(this);
     }
-
-    private static class NotifySliceChangeHandler extends Handler {
-
-        private static final int MSG_UPDATE_SLICE = 1000;
-
-        private static NotifySliceChangeHandler sHandler;
-
-        private final Map<Uri, Long> mLastUpdateTimeLookup = Collections.synchronizedMap(
-                new ArrayMap<>());
-
-        private static NotifySliceChangeHandler getInstance() {
-            if (sHandler == null) {
-                final HandlerThread workerThread = new HandlerThread("NotifySliceChangeHandler",
-                        Process.THREAD_PRIORITY_BACKGROUND);
-                workerThread.start();
-                sHandler = new NotifySliceChangeHandler(workerThread.getLooper());
-            }
-            return sHandler;
-        }
-
-        private NotifySliceChangeHandler(Looper looper) {
-            super(looper);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            if (msg.what != MSG_UPDATE_SLICE) {
-                return;
-            }
-
-            final SliceBackgroundWorker worker = (SliceBackgroundWorker) msg.obj;
-            final Uri uri = worker.getUri();
-            final Context context = worker.getContext();
-            mLastUpdateTimeLookup.put(uri, SystemClock.uptimeMillis());
-            context.getContentResolver().notifyChange(uri, null);
-        }
-
-        private void updateSlice(SliceBackgroundWorker worker) {
-            if (hasMessages(MSG_UPDATE_SLICE, worker)) {
-                return;
-            }
-
-            final Message message = obtainMessage(MSG_UPDATE_SLICE, worker);
-            final long lastUpdateTime = mLastUpdateTimeLookup.getOrDefault(worker.getUri(), 0L);
-            if (lastUpdateTime == 0L) {
-                // Postpone the first update triggering by onSlicePinned() to avoid being too close
-                // to the first Slice bind.
-                sendMessageDelayed(message, SLICE_UPDATE_THROTTLE_INTERVAL);
-            } else if (SystemClock.uptimeMillis() - lastUpdateTime
-                    > SLICE_UPDATE_THROTTLE_INTERVAL) {
-                sendMessage(message);
-            } else {
-                sendMessageAtTime(message, lastUpdateTime + SLICE_UPDATE_THROTTLE_INTERVAL);
-            }
-        }
-
-        private void cancelSliceUpdate(SliceBackgroundWorker worker) {
-            removeMessages(MSG_UPDATE_SLICE, worker);
-            mLastUpdateTimeLookup.remove(worker.getUri());
-        }
-    };
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Notifies slice {@link Uri}s that their {@link SliceBackgroundWorker} has new data.
+ *
+ * <p>Interactive slices, e.g. toggles, are dispatched on their own thread so they aren't queued
+ * behind busy list workers. Updates of the same {@link Uri} are coalesced and throttled by the
+ * interval of the worker. That interval backs off while a worker keeps sending bursts of updates,
+ * and recovers once it calms down.
+ */
+public class SliceChangeDispatcher {
+
+    private static final int MSG_UPDATE_SLICE = 1000;
+
+    // Bursty workers are throttled up to this many times their own interval.
+    @VisibleForTesting
+    static final int MAX_BACKOFF_FACTOR = 4;
+
+    private static SliceChangeDispatcher sInstance;
+
+    private final Handler mInteractiveHandler;
+    private final Handler mBackgroundHandler;
+    // Guarded by itself.
+    private final ArrayMap<Uri, UriState> mStates = new ArrayMap<>();
+
+    static synchronized SliceChangeDispatcher getInstance() {
+        if (sInstance == null) {
+            final HandlerThread interactiveThread = new HandlerThread(
+                    "SliceChangeDispatcher:interactive", Process.THREAD_PRIORITY_DEFAULT);
+            interactiveThread.start();
+            final HandlerThread backgroundThread = new HandlerThread(
+                    "SliceChangeDispatcher:background", Process.THREAD_PRIORITY_BACKGROUND);
+            backgroundThread.start();
+            sInstance = new SliceChangeDispatcher(interactiveThread.getLooper(),
+                    backgroundThread.getLooper());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SliceChangeDispatcher(Looper interactiveLooper, Looper backgroundLooper) {
+        mInteractiveHandler = new DispatchHandler(interactiveLooper);
+        mBackgroundHandler = new DispatchHandler(backgroundLooper);
+    }
+
+    /**
+     * Returns the update statistics of every slice {@link Uri} notified so far, for dumpsys.
+     */
+    public static JSONObject dumpStats() throws JSONException {
+        final SliceChangeDispatcher dispatcher;
+        synchronized (SliceChangeDispatcher.class) {
+            dispatcher = sInstance;
+        }
+        return dispatcher == null ? new JSONObject() : dispatcher.dump();
+    }
+
+    /** Schedules a change notification of the {@link Uri} of {@code worker}. */
+    void dispatch(SliceBackgroundWorker worker) {
+        final long now = SystemClock.uptimeMillis();
+        final Handler handler = getHandler(worker);
+        synchronized (mStates) {
+            final UriState state = getState(worker);
+            if (state.mPendingSince != 0L) {
+                state.mSuppressed++;
+                state.mCoalesced = true;
+                return;
+            }
+            state.mPendingSince = now;
+            final Message message = handler.obtainMessage(MSG_UPDATE_SLICE, worker);
+            if (state.mLastDispatchTime == 0L) {
+                // Postpone the first update triggering by onSlicePinned() to avoid being too close
+                // to the first Slice bind.
+                handler.sendMessageDelayed(message, state.mInterval);
+            } else if (now - state.mLastDispatchTime > state.mInterval) {
+                handler.sendMessage(message);
+            } else {
+                handler.sendMessageAtTime(message, state.mLastDispatchTime + state.mInterval);
+            }
+        }
+    }
+
+    /** Drops the pending notification of {@code worker} and resets its throttling. */
+    void cancel(SliceBackgroundWorker worker) {
+        getHandler(worker).removeMessages(MSG_UPDATE_SLICE, worker);
+        synchronized (mStates) {
+            final UriState state = mStates.get(worker.getUri());
+            if (state != null) {
+                state.mPendingSince = 0L;
+                state.mLastDispatchTime = 0L;
+                state.mCoalesced = false;
+                state.mInterval = state.mBaseInterval;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    long getInterval(Uri uri) {
+        synchronized (mStates) {
+            final UriState state = mStates.get(uri);
+            return state == null ? 0L : state.mInterval;
+        }
+    }
+
+    @VisibleForTesting
+    JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        synchronized (mStates) {
+            for (int i = 0; i < mStates.size(); i++) {
+                final UriState state = mStates.valueAt(i);
+                final JSONObject uriObj = new JSONObject();
+                uriObj.put("priority", state.mPriority
+                        == SliceBackgroundWorker.PRIORITY_INTERACTIVE ? "interactive"
+                        : "background");
+                uriObj.put("interval_ms", state.mInterval);
+                uriObj.put("dispatched", state.mDispatched);
+                uriObj.put("suppressed", state.mSuppressed);
+                uriObj.put("avg_latency_ms", state.mDispatched == 0
+                        ? 0 : state.mTotalLatency / state.mDispatched);
+                uriObj.put("max_latency_ms", state.mMaxLatency);
+                obj.put(mStates.keyAt(i).toString(), uriObj);
+            }
+        }
+        return obj;
+    }
+
+    private Handler getHandler(SliceBackgroundWorker worker) {
+        return worker.getUpdatePriority() == SliceBackgroundWorker.PRIORITY_INTERACTIVE
+                ? mInteractiveHandler : mBackgroundHandler;
+    }
+
+    private UriState getState(SliceBackgroundWorker worker) {
+        UriState state = mStates.get(worker.getUri());
+        if (state == null) {
+            state = new UriState(worker.getUpdatePriority(), worker.getUpdateThrottleInterval());
+            mStates.put(worker.getUri(), state);
+        }
+        return state;
+    }
+
+    private void handleUpdate(SliceBackgroundWorker worker) {
+        final long now = SystemClock.uptimeMillis();
+        synchronized (mStates) {
+            final UriState state = mStates.get(worker.getUri());
+            if (state == null || state.mPendingSince == 0L) {
+                return;
+            }
+            final long latency = now - state.mPendingSince;
+            state.mDispatched++;
+            state.mTotalLatency += latency;
+            state.mMaxLatency = Math.max(state.mMaxLatency, latency);
+            if (state.mCoalesced && state.mLastDispatchTime != 0L) {
+                // Requests piling up behind the first, postponed update don't make it bursty.
+                state.mInterval = Math.min(state.mInterval * 2,
+                        state.mBaseInterval * MAX_BACKOFF_FACTOR);
+            } else if (state.mLastDispatchTime != 0L
+                    && now - state.mLastDispatchTime > state.mInterval * 2) {
+                state.mInterval = state.mBaseInterval;
+            }
+            state.mCoalesced = false;
+            state.mPendingSince = 0L;
+            state.mLastDispatchTime = now;
+        }
+        worker.getContext().getContentResolver().notifyChange(worker.getUri(), null);
+    }
+
+    private class DispatchHandler extends Handler {
+
+        DispatchHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MSG_UPDATE_SLICE) {
+                handleUpdate((SliceBackgroundWorker) msg.obj);
+            }
+        }
+    }
+
+    private static class UriState {
+        final int mPriority;
+        final long mBaseInterval;
+        long mInterval;
+        long mLastDispatchTime;
+        // Time of the first request since the last dispatch, 0 when nothing is pending.
+        long mPendingSince;
+        // Whether more requests came in while one was pending.
+        boolean mCoalesced;
+        long mDispatched;
+        long mSuppressed;
+        long mTotalLatency;
+        long mMaxLatency;
+
+        UriState(int priority, long interval) {
+            mPriority = priority;
+            mBaseInterval = interval;
+            mInterval = interval;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import android.net.Uri;
+import android.util.LruCache;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * In-memory cache of rows read from the slices index.
+ *
+ * <p>Entries are tagged with the index version of {@link SlicesDatabaseHelper} and the locale
+ * they were read in. Any change to either drops the whole cache.
+ */
+class SliceDataCache {
+
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 64;
+
+    private final LruCache<String, SliceData> mByKey = new LruCache<>(MAX_ENTRIES);
+    private final LruCache<Uri, SliceData> mByUri = new LruCache<>(MAX_ENTRIES);
+    // All indexed slices, built from a single table scan.
+    private List<IndexedUri> mUriIndex;
+    private int mVersion = -1;
+    private Locale mLocale;
+
+    /** A slice uri and whether it is public, as stored in the index. */
+    static class IndexedUri {
+        final Uri mUri;
+        final boolean mIsPublicSlice;
+
+        IndexedUri(Uri uri, boolean isPublicSlice) {
+            mUri = uri;
+            mIsPublicSlice = isPublicSlice;
+        }
+    }
+
+    /**
+     * @return {@code true} if the cache was filled against {@code version} and {@code locale},
+     * meaning the index has already been verified for them.
+     */
+    synchronized boolean isValid(int version, Locale locale) {
+        return mVersion == version && locale.equals(mLocale);
+    }
+
+    /** Drop every entry unless the cache already matches {@code version} and {@code locale}. */
+    synchronized void validate(int version, Locale locale) {
+        if (isValid(version, locale)) {
+            return;
+        }
+        mByKey.evictAll();
+        mByUri.evictAll();
+        mUriIndex = null;
+        mVersion = version;
+        mLocale = locale;
+    }
+
+    synchronized SliceData getByKey(String key) {
+        return mByKey.get(key);
+    }
+
+    synchronized SliceData getByUri(Uri uri) {
+        return mByUri.get(uri);
+    }
+
+    synchronized List<IndexedUri> getUriIndex() {
+        return mUriIndex;
+    }
+
+    synchronized void putByKey(int version, String key, SliceData data) {
+        if (version == mVersion) {
+            mByKey.put(key, data);
+        }
+    }
+
+    synchronized void putByUri(int version, Uri uri, SliceData data) {
+        if (version == mVersion) {
+            mByUri.put(uri, data);
+        }
+    }
+
+    synchronized void putUriIndex(int version, List<IndexedUri> uriIndex) {
+        if (version == mVersion) {
+            mUriIndex = uriIndex;
+        }
+    }
+}
@@ -61,12 +61,22 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Converts all Slice sources into {@link SliceData}.
@@ -101,8 +111,31 @@ class SliceDataConverter {
     public List<SliceData> getSliceData() {
         List<SliceData> sliceData = new ArrayList<>();
 
+        for (ProviderSliceData providerSliceData : getProviderSliceData(
+                Collections.emptyMap(), null /* executor */)) {
+            sliceData.addAll(providerSliceData.mSliceData);
+        }
+
+        final List<SliceData> a11ySliceData = getAccessibilitySliceData();
+        sliceData.addAll(a11ySliceData);
+        return sliceData;
+    }
+
+    /**
+     * Convert every search index provider, skipping the ones whose fingerprint still matches
+     * {@code knownFingerprints}.
+     *
+     * @param knownFingerprints fingerprints of the previous run, keyed by fragment name.
+     * @param executor parses providers in parallel when non-null, otherwise they are parsed
+     *                 serially on the calling thread.
+     * @return one entry per provider, in provider order. {@link ProviderSliceData#mSliceData} is
+     * {@code null} for providers that did not change.
+     */
+    List<ProviderSliceData> getProviderSliceData(Map<String, String> knownFingerprints,
+            ExecutorService executor) {
         final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(mContext)
                 .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
+        final List<Callable<ProviderSliceData>> tasks = new ArrayList<>();
 
         for (SearchIndexableData bundle : bundles) {
             final String fragmentName = bundle.getTargetClass().getName();
@@ -115,25 +148,51 @@ class SliceDataConverter {
                 continue;
             }
 
-            final List<SliceData> providerSliceData = getSliceDataFromProvider(provider,
-                    fragmentName);
-            sliceData.addAll(providerSliceData);
+            tasks.add(() -> getSliceDataFromProvider(provider, fragmentName,
+                    knownFingerprints.get(fragmentName)));
         }
 
-        final List<SliceData> a11ySliceData = getAccessibilitySliceData();
-        sliceData.addAll(a11ySliceData);
-        return sliceData;
+        final List<ProviderSliceData> providerSliceData = new ArrayList<>();
+        if (executor == null) {
+            for (Callable<ProviderSliceData> task : tasks) {
+                try {
+                    providerSliceData.add(task.call());
+                } catch (Exception e) {
+                    Log.w(TAG, "Get slice data from provider failed ", e);
+                }
+            }
+            return providerSliceData;
+        }
+
+        try {
+            for (Future<ProviderSliceData> future : executor.invokeAll(tasks)) {
+                try {
+                    providerSliceData.add(future.get());
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Get slice data from provider failed ", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while getting slice data", e);
+            Thread.currentThread().interrupt();
+        }
+        return providerSliceData;
     }
 
-    private List<SliceData> getSliceDataFromProvider(SearchIndexProvider provider,
-            String fragmentName) {
+    private ProviderSliceData getSliceDataFromProvider(SearchIndexProvider provider,
+            String fragmentName, String knownFingerprint) {
         final List<SliceData> sliceData = new ArrayList<>();
 
         final List<SearchIndexableResource> resList =
                 provider.getXmlResourcesToIndex(mContext, true /* enabled */);
 
+        final String fingerprint = getFingerprint(fragmentName, resList);
         if (resList == null) {
-            return sliceData;
+            return new ProviderSliceData(fragmentName, fingerprint, sliceData);
+        }
+
+        if (!fingerprint.isEmpty() && fingerprint.equals(knownFingerprint)) {
+            return new ProviderSliceData(fragmentName, fingerprint, null /* sliceData */);
         }
 
         // TODO (b/67996923) get a list of permanent NIKs and skip the invalid keys.
@@ -149,7 +208,71 @@ class SliceDataConverter {
             sliceData.addAll(xmlSliceData);
         }
 
-        return sliceData;
+        return new ProviderSliceData(fragmentName, fingerprint, sliceData);
+    }
+
+    /**
+     * @return a key that changes whenever the rows of a provider may change without its
+     * controllers being consulted: the provider class, the locale, and the content of its XML
+     * resources, including the text of the strings they reference. Returns an empty string,
+     * which never matches, if the XML cannot be read.
+     */
+    @VisibleForTesting
+    String getFingerprint(String fragmentName, List<SearchIndexableResource> resList) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return "";
+        }
+        updateDigest(digest, fragmentName);
+        updateDigest(digest, Locale.getDefault().toLanguageTag());
+        if (resList != null) {
+            for (SearchIndexableResource resource : resList) {
+                updateDigest(digest, String.valueOf(resource.xmlResId));
+                if (resource.xmlResId == 0) {
+                    continue;
+                }
+                try {
+                    updateDigestFromXml(digest, resource.xmlResId);
+                } catch (XmlPullParserException | IOException | Resources.NotFoundException e) {
+                    Log.w(TAG, "Cannot fingerprint XML of " + fragmentName, e);
+                    return "";
+                }
+            }
+        }
+        return new BigInteger(1 /* signum */, digest.digest()).toString(16);
+    }
+
+    // Walks the XML without instantiating any controller, which is what makes parsing slow.
+    private void updateDigestFromXml(MessageDigest digest, int xmlResId)
+            throws XmlPullParserException, IOException {
+        final Resources res = mContext.getResources();
+        try (XmlResourceParser parser = res.getXml(xmlResId)) {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                updateDigest(digest, parser.getName());
+                for (int i = 0; i < parser.getAttributeCount(); i++) {
+                    updateDigest(digest, parser.getAttributeName(i));
+                    final int resId = parser.getAttributeResourceValue(i, 0 /* defaultValue */);
+                    if (resId != 0 && "string".equals(res.getResourceTypeName(resId))) {
+                        updateDigest(digest, String.valueOf(res.getText(resId)));
+                    } else {
+                        updateDigest(digest, parser.getAttributeValue(i));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
     }
 
     private List<SliceData> getSliceDataFromXML(int xmlResId, String fragmentName) {
@@ -259,7 +382,7 @@ class SliceDataConverter {
         return xmlSliceData;
     }
 
-    private List<SliceData> getAccessibilitySliceData() {
+    List<SliceData> getAccessibilitySliceData() {
         final List<SliceData> sliceData = new ArrayList<>();
 
         final String accessibilityControllerClassName =
@@ -321,4 +444,17 @@ class SliceDataConverter {
                 mContext);
         return accessibilityManager.getInstalledAccessibilityServiceList();
     }
-}
\ No newline at end of file
+
+    /** The slice rows of a single search index provider. */
+    static class ProviderSliceData {
+        final String mFragmentName;
+        final String mFingerprint;
+        final List<SliceData> mSliceData;
+
+        ProviderSliceData(String fragmentName, String fingerprint, List<SliceData> sliceData) {
+            mFragmentName = fragmentName;
+            mFingerprint = fingerprint;
+            mSliceData = sliceData;
+        }
+    }
+}
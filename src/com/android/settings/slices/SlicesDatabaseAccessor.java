@@ -32,7 +32,9 @@ import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.slices.SlicesDatabaseHelper.IndexColumns;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Class used to map a {@link Uri} from {@link SettingsSliceProvider} to a Slice.
@@ -53,6 +55,30 @@ public class SlicesDatabaseAccessor {
             IndexColumns.HIGHLIGHT_MENU_RESOURCE,
     };
 
+    // Constant so that SQLite reuses the compiled statement from the connection's cache.
+    private static final String KEY_MATCH_QUERY = "SELECT "
+            + String.join(",", SELECT_COLUMNS_ALL)
+            + " FROM " + TABLE_SLICES_INDEX
+            + " WHERE " + IndexColumns.KEY + " = ?";
+
+    private static final String URI_INDEX_QUERY = "SELECT "
+            + IndexColumns.SLICE_URI + "," + IndexColumns.PUBLIC_SLICE
+            + " FROM " + TABLE_SLICES_INDEX;
+
+    private static final int COLUMN_KEY = getColumnIndex(IndexColumns.KEY);
+    private static final int COLUMN_TITLE = getColumnIndex(IndexColumns.TITLE);
+    private static final int COLUMN_SUMMARY = getColumnIndex(IndexColumns.SUMMARY);
+    private static final int COLUMN_SCREENTITLE = getColumnIndex(IndexColumns.SCREENTITLE);
+    private static final int COLUMN_KEYWORDS = getColumnIndex(IndexColumns.KEYWORDS);
+    private static final int COLUMN_ICON_RESOURCE = getColumnIndex(IndexColumns.ICON_RESOURCE);
+    private static final int COLUMN_FRAGMENT = getColumnIndex(IndexColumns.FRAGMENT);
+    private static final int COLUMN_CONTROLLER = getColumnIndex(IndexColumns.CONTROLLER);
+    private static final int COLUMN_SLICE_TYPE = getColumnIndex(IndexColumns.SLICE_TYPE);
+    private static final int COLUMN_UNAVAILABLE_SLICE_SUBTITLE =
+            getColumnIndex(IndexColumns.UNAVAILABLE_SLICE_SUBTITLE);
+    private static final int COLUMN_HIGHLIGHT_MENU_RESOURCE =
+            getColumnIndex(IndexColumns.HIGHLIGHT_MENU_RESOURCE);
+
     private final Context mContext;
     private final SlicesDatabaseHelper mHelper;
 
@@ -72,9 +98,15 @@ public class SlicesDatabaseAccessor {
         if (pathData == null) {
             throw new IllegalStateException("Invalid Slices uri: " + uri);
         }
-        try (Cursor cursor = getIndexedSliceData(pathData.second /* key */)) {
-            return buildSliceData(cursor, uri, pathData.first /* isIntentOnly */);
+        final SliceDataCache cache = mHelper.getSliceDataCache();
+        final int version = verifyIndexing(cache);
+        SliceData data = cache.getByUri(uri);
+        if (data == null) {
+            data = withUri(getSliceDataFromKey(cache, version, pathData.second /* key */), uri,
+                    pathData.first /* isIntentOnly */);
+            cache.putByUri(version, uri, data);
         }
+        return data;
     }
 
     /**
@@ -83,9 +115,8 @@ public class SlicesDatabaseAccessor {
      * Used when handling the action of the {@link Slice}.
      */
     public SliceData getSliceDataFromKey(String key) {
-        try (Cursor cursor = getIndexedSliceData(key)) {
-            return buildSliceData(cursor, null /* uri */, false /* isIntentOnly */);
-        }
+        final SliceDataCache cache = mHelper.getSliceDataCache();
+        return getSliceDataFromKey(cache, verifyIndexing(cache), key);
     }
 
     /**
@@ -93,37 +124,53 @@ public class SlicesDatabaseAccessor {
      * {@param authority}.
      */
     public List<Uri> getSliceUris(String authority, boolean isPublicSlice) {
-        verifyIndexing();
+        final SliceDataCache cache = mHelper.getSliceDataCache();
+        final int version = verifyIndexing(cache);
+        List<SliceDataCache.IndexedUri> uriIndex = cache.getUriIndex();
+        if (uriIndex == null) {
+            uriIndex = loadUriIndex();
+            cache.putUriIndex(version, uriIndex);
+        }
+
         final List<Uri> uris = new ArrayList<>();
-        final String whereClause = IndexColumns.PUBLIC_SLICE + (isPublicSlice ? "=1" : "=0");
+        for (SliceDataCache.IndexedUri indexedUri : uriIndex) {
+            if (indexedUri.mIsPublicSlice == isPublicSlice
+                    && (TextUtils.isEmpty(authority)
+                    || TextUtils.equals(authority, indexedUri.mUri.getAuthority()))) {
+                uris.add(indexedUri.mUri);
+            }
+        }
+        return uris;
+    }
+
+    private List<SliceDataCache.IndexedUri> loadUriIndex() {
+        final List<SliceDataCache.IndexedUri> uriIndex = new ArrayList<>();
         final SQLiteDatabase database = mHelper.getReadableDatabase();
-        final String[] columns = new String[]{IndexColumns.SLICE_URI};
-        try (Cursor resultCursor = database.query(TABLE_SLICES_INDEX, columns,
-                whereClause /* where */, null /* selection */, null /* groupBy */,
-                null /* having */, null /* orderBy */)) {
-            if (!resultCursor.moveToFirst()) {
-                return uris;
+        try (Cursor resultCursor = database.rawQuery(URI_INDEX_QUERY, null /* selectionArgs */)) {
+            while (resultCursor.moveToNext()) {
+                uriIndex.add(new SliceDataCache.IndexedUri(
+                        Uri.parse(resultCursor.getString(0 /* SLICE_URI */)),
+                        resultCursor.getInt(1 /* PUBLIC_SLICE */) == 1));
             }
+        }
+        return uriIndex;
+    }
 
-            do {
-                final Uri uri = Uri.parse(resultCursor.getString(0 /* SLICE_URI */));
-                if (TextUtils.isEmpty(authority)
-                        || TextUtils.equals(authority, uri.getAuthority())) {
-                    uris.add(uri);
-                }
-            } while (resultCursor.moveToNext());
+    private SliceData getSliceDataFromKey(SliceDataCache cache, int version, String key) {
+        SliceData data = cache.getByKey(key);
+        if (data == null) {
+            try (Cursor cursor = getIndexedSliceData(key)) {
+                data = buildSliceData(cursor, null /* uri */, false /* isIntentOnly */);
+            }
+            cache.putByKey(version, key, data);
         }
-        return uris;
+        return data;
     }
 
     private Cursor getIndexedSliceData(String path) {
-        verifyIndexing();
-
-        final String whereClause = buildKeyMatchWhereClause();
         final SQLiteDatabase database = mHelper.getReadableDatabase();
         final String[] selection = new String[]{path};
-        final Cursor resultCursor = database.query(TABLE_SLICES_INDEX, SELECT_COLUMNS_ALL,
-                whereClause, selection, null /* groupBy */, null /* having */, null /* orderBy */);
+        final Cursor resultCursor = database.rawQuery(KEY_MATCH_QUERY, selection);
 
         int numResults = resultCursor.getCount();
 
@@ -142,52 +189,61 @@ public class SlicesDatabaseAccessor {
         return resultCursor;
     }
 
-    private String buildKeyMatchWhereClause() {
-        return new StringBuilder(IndexColumns.KEY)
-                .append(" = ?")
-                .toString();
-    }
-
     private static SliceData buildSliceData(Cursor cursor, Uri uri, boolean isIntentOnly) {
-        final String key = cursor.getString(cursor.getColumnIndex(IndexColumns.KEY));
-        final String title = cursor.getString(cursor.getColumnIndex(IndexColumns.TITLE));
-        final String summary = cursor.getString(cursor.getColumnIndex(IndexColumns.SUMMARY));
-        final String screenTitle = cursor.getString(
-                cursor.getColumnIndex(IndexColumns.SCREENTITLE));
-        final String keywords = cursor.getString(cursor.getColumnIndex(IndexColumns.KEYWORDS));
-        final int iconResource = cursor.getInt(cursor.getColumnIndex(IndexColumns.ICON_RESOURCE));
-        final String fragmentClassName = cursor.getString(
-                cursor.getColumnIndex(IndexColumns.FRAGMENT));
-        final String controllerClassName = cursor.getString(
-                cursor.getColumnIndex(IndexColumns.CONTROLLER));
-        int sliceType = cursor.getInt(
-                cursor.getColumnIndex(IndexColumns.SLICE_TYPE));
-        final String unavailableSliceSubtitle = cursor.getString(
-                cursor.getColumnIndex(IndexColumns.UNAVAILABLE_SLICE_SUBTITLE));
-        final int highlightMenuRes = cursor.getInt(
-                cursor.getColumnIndex(IndexColumns.HIGHLIGHT_MENU_RESOURCE));
-
+        int sliceType = cursor.getInt(COLUMN_SLICE_TYPE);
         if (isIntentOnly) {
             sliceType = SliceData.SliceType.INTENT;
         }
 
         return new SliceData.Builder()
-                .setKey(key)
-                .setTitle(title)
-                .setSummary(summary)
-                .setScreenTitle(screenTitle)
-                .setKeywords(keywords)
-                .setIcon(iconResource)
-                .setFragmentName(fragmentClassName)
-                .setPreferenceControllerClassName(controllerClassName)
+                .setKey(cursor.getString(COLUMN_KEY))
+                .setTitle(cursor.getString(COLUMN_TITLE))
+                .setSummary(cursor.getString(COLUMN_SUMMARY))
+                .setScreenTitle(cursor.getString(COLUMN_SCREENTITLE))
+                .setKeywords(cursor.getString(COLUMN_KEYWORDS))
+                .setIcon(cursor.getInt(COLUMN_ICON_RESOURCE))
+                .setFragmentName(cursor.getString(COLUMN_FRAGMENT))
+                .setPreferenceControllerClassName(cursor.getString(COLUMN_CONTROLLER))
                 .setUri(uri)
                 .setSliceType(sliceType)
-                .setUnavailableSliceSubtitle(unavailableSliceSubtitle)
-                .setHighlightMenuRes(highlightMenuRes)
+                .setUnavailableSliceSubtitle(cursor.getString(COLUMN_UNAVAILABLE_SLICE_SUBTITLE))
+                .setHighlightMenuRes(cursor.getInt(COLUMN_HIGHLIGHT_MENU_RESOURCE))
+                .build();
+    }
+
+    private static SliceData withUri(SliceData data, Uri uri, boolean isIntentOnly) {
+        return new SliceData.Builder()
+                .setKey(data.getKey())
+                .setTitle(data.getTitle())
+                .setSummary(data.getSummary())
+                .setScreenTitle(data.getScreenTitle())
+                .setKeywords(data.getKeywords())
+                .setIcon(data.getIconResource())
+                .setFragmentName(data.getFragmentClassName())
+                .setPreferenceControllerClassName(data.getPreferenceController())
+                .setUri(uri)
+                .setSliceType(isIntentOnly ? SliceData.SliceType.INTENT : data.getSliceType())
+                .setUnavailableSliceSubtitle(data.getUnavailableSliceSubtitle())
+                .setHighlightMenuRes(data.getHighlightMenuRes())
                 .build();
     }
 
-    private void verifyIndexing() {
+    private static int getColumnIndex(String column) {
+        return Arrays.asList(SELECT_COLUMNS_ALL).indexOf(column);
+    }
+
+    /**
+     * Make sure the index is up to date, skipping the check when the cache was already filled
+     * against the current index.
+     *
+     * @return the index version the cache is valid for.
+     */
+    private int verifyIndexing(SliceDataCache cache) {
+        final Locale locale = Locale.getDefault();
+        final int currentVersion = mHelper.getIndexVersion();
+        if (cache.isValid(currentVersion, locale)) {
+            return currentVersion;
+        }
         final long uidToken = Binder.clearCallingIdentity();
         try {
             FeatureFactory.getFactory(
@@ -195,5 +251,8 @@ public class SlicesDatabaseAccessor {
         } finally {
             Binder.restoreCallingIdentity(uidToken);
         }
+        final int version = mHelper.getIndexVersion();
+        cache.validate(version, locale);
+        return version;
     }
-}
\ No newline at end of file
+}
@@ -16,15 +16,21 @@
 
 package com.android.settings.slices;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Defines the schema for the Slices database.
@@ -36,10 +42,27 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "slices_index.db";
     private static final String SHARED_PREFS_TAG = "slices_shared_prefs";
 
-    private static final int DATABASE_VERSION = 9;
+    private static final int DATABASE_VERSION = 10;
+
+    // Row of TABLE_PROVIDER_FINGERPRINTS holding the build tag of the code the fingerprinted rows
+    // were built with. Never a fragment class name.
+    private static final String BUILD_TAG_ROW = "build";
 
     public interface Tables {
         String TABLE_SLICES_INDEX = "slices_index";
+        String TABLE_PROVIDER_FINGERPRINTS = "slices_fingerprints";
+    }
+
+    public interface FingerprintColumns {
+        /**
+         * Class name of the fragment whose search index provider was indexed.
+         */
+        String FRAGMENT = "fragment";
+
+        /**
+         * Fingerprint of the provider inputs the rows of the fragment were built from.
+         */
+        String FINGERPRINT = "fingerprint";
     }
 
     public interface IndexColumns {
@@ -141,7 +164,22 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
                     + " INTEGER DEFAULT 0 "
                     + ");";
 
+    private static final String CREATE_FINGERPRINTS_TABLE =
+            "CREATE TABLE " + Tables.TABLE_PROVIDER_FINGERPRINTS
+                    + "("
+                    + FingerprintColumns.FRAGMENT
+                    + " TEXT PRIMARY KEY, "
+                    + FingerprintColumns.FINGERPRINT
+                    + " TEXT"
+                    + ");";
+
     private final Context mContext;
+    private final SliceDataCache mSliceDataCache = new SliceDataCache();
+    // Bumped whenever the index is rebuilt, so in-memory copies of its rows can be dropped.
+    private final AtomicInteger mIndexVersion = new AtomicInteger();
+    private volatile IndexStats mLastIndexStats;
+    // Version of Settings, which doesn't change while it runs. -1 until read.
+    private volatile long mVersionCode = -1;
 
     private static SlicesDatabaseHelper sSingleton;
 
@@ -176,12 +214,10 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
      * {@link#isNewIndexingState(Context)} will return {@code true}.
      */
     void reconstruct(SQLiteDatabase db) {
-        mContext.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE)
-                .edit()
-                .clear()
-                .apply();
+        clearIndexedState();
         dropTables(db);
         createDatabases(db);
+        mIndexVersion.incrementAndGet();
     }
 
     /**
@@ -191,6 +227,81 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
     public void setIndexedState() {
         setBuildIndexed();
         setLocaleIndexed();
+        mIndexVersion.incrementAndGet();
+    }
+
+    /**
+     * @return a counter that changes every time the index is rebuilt.
+     */
+    int getIndexVersion() {
+        return mIndexVersion.get();
+    }
+
+    SliceDataCache getSliceDataCache() {
+        return mSliceDataCache;
+    }
+
+    /**
+     * Un-marks the state of the data without dropping the index, for an incremental re-index.
+     */
+    void clearIndexedState() {
+        mContext.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE)
+                .edit()
+                .clear()
+                .apply();
+    }
+
+    /**
+     * @return the provider fingerprints stored by the last index, keyed by fragment name. Empty
+     * if the index was never built, has been reconstructed since, or was built by another build
+     * or version of Settings: the fingerprints don't cover the controllers, which also fill rows.
+     */
+    Map<String, String> getProviderFingerprints(SQLiteDatabase db) {
+        final Map<String, String> fingerprints = new ArrayMap<>();
+        try (Cursor cursor = db.query(Tables.TABLE_PROVIDER_FINGERPRINTS,
+                new String[]{FingerprintColumns.FRAGMENT, FingerprintColumns.FINGERPRINT},
+                null /* selection */, null /* selectionArgs */, null /* groupBy */,
+                null /* having */, null /* orderBy */)) {
+            while (cursor.moveToNext()) {
+                fingerprints.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        final String buildTag = fingerprints.remove(BUILD_TAG_ROW);
+        if (!getBuildTag().equals(buildTag)) {
+            fingerprints.clear();
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Replaces the stored provider fingerprints. Should be called in the same transaction as the
+     * writes to TABLE_SLICES_INDEX they describe.
+     */
+    void setProviderFingerprints(SQLiteDatabase db, Map<String, String> fingerprints) {
+        db.delete(Tables.TABLE_PROVIDER_FINGERPRINTS, null /* whereClause */,
+                null /* whereArgs */);
+        final ContentValues values = new ContentValues();
+        for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+            values.put(FingerprintColumns.FRAGMENT, entry.getKey());
+            values.put(FingerprintColumns.FINGERPRINT, entry.getValue());
+            db.replaceOrThrow(Tables.TABLE_PROVIDER_FINGERPRINTS, null /* nullColumnHack */,
+                    values);
+        }
+        values.put(FingerprintColumns.FRAGMENT, BUILD_TAG_ROW);
+        values.put(FingerprintColumns.FINGERPRINT, getBuildTag());
+        db.replaceOrThrow(Tables.TABLE_PROVIDER_FINGERPRINTS, null /* nullColumnHack */, values);
+    }
+
+    /**
+     * @return statistics of the last index run in this process, or {@code null} if there was
+     * none.
+     */
+    public IndexStats getLastIndexStats() {
+        return mLastIndexStats;
+    }
+
+    void setLastIndexStats(IndexStats stats) {
+        mLastIndexStats = stats;
     }
 
     /**
@@ -204,11 +315,13 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
 
     private void createDatabases(SQLiteDatabase db) {
         db.execSQL(CREATE_SLICES_TABLE);
+        db.execSQL(CREATE_FINGERPRINTS_TABLE);
         Log.d(TAG, "Created databases");
     }
 
     private void dropTables(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SLICES_INDEX);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_PROVIDER_FINGERPRINTS);
     }
 
     private void setBuildIndexed() {
@@ -237,8 +350,74 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
                 .getBoolean(Locale.getDefault().toString(), false /* default */);
     }
 
+    /**
+     * @return a tag that changes with the system build and with the version of Settings, which
+     * can be updated on its own.
+     */
     @VisibleForTesting
     String getBuildTag() {
-        return Build.FINGERPRINT;
+        return Build.FINGERPRINT + "/" + getVersionCode();
+    }
+
+    private long getVersionCode() {
+        if (mVersionCode < 0) {
+            try {
+                mVersionCode = mContext.getPackageManager()
+                        .getPackageInfo(mContext.getPackageName(), 0 /* flags */)
+                        .getLongVersionCode();
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(TAG, "Cannot get the version of Settings", e);
+                mVersionCode = 0;
+            }
+        }
+        return mVersionCode;
+    }
+
+    /**
+     * Outcome of one run of {@link SlicesIndexer}.
+     */
+    public static class IndexStats {
+        private final boolean mIncremental;
+        private final long mDurationMs;
+        private final int mRowsWritten;
+        private final int mProvidersParsed;
+        private final int mProvidersSkipped;
+
+        IndexStats(boolean incremental, long durationMs, int rowsWritten, int providersParsed,
+                int providersSkipped) {
+            mIncremental = incremental;
+            mDurationMs = durationMs;
+            mRowsWritten = rowsWritten;
+            mProvidersParsed = providersParsed;
+            mProvidersSkipped = providersSkipped;
+        }
+
+        public boolean isIncremental() {
+            return mIncremental;
+        }
+
+        public long getDurationMs() {
+            return mDurationMs;
+        }
+
+        public int getRowsWritten() {
+            return mRowsWritten;
+        }
+
+        public int getProvidersParsed() {
+            return mProvidersParsed;
+        }
+
+        public int getProvidersSkipped() {
+            return mProvidersSkipped;
+        }
+
+        @Override
+        public String toString() {
+            return (mIncremental ? "incremental" : "full") + " index took " + mDurationMs
+                    + "ms, rows written: " + mRowsWritten
+                    + ", providers parsed: " + mProvidersParsed
+                    + ", providers skipped: " + mProvidersSkipped;
+        }
     }
-}
\ No newline at end of file
+}
@@ -16,20 +16,31 @@
 
 package com.android.settings.slices;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.android.settings.accessibility.AccessibilitySlicePreferenceController;
 import com.android.settings.core.BasePreferenceController;
 import com.android.settings.dashboard.DashboardFragment;
 import com.android.settings.overlay.FeatureFactory;
+import com.android.settings.slices.SliceDataConverter.ProviderSliceData;
 import com.android.settings.slices.SlicesDatabaseHelper.IndexColumns;
 import com.android.settings.slices.SlicesDatabaseHelper.Tables;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Manages the conversion of {@link DashboardFragment} and {@link BasePreferenceController} to
@@ -39,10 +50,35 @@ class SlicesIndexer implements Runnable {
 
     private static final String TAG = "SlicesIndexer";
 
+    private static final int MAX_PARSER_THREADS = 4;
+
+    // Same columns, in the same order, as the ones bound in insertSliceData().
+    private static final String INSERT_SLICE_SQL = "INSERT OR REPLACE INTO "
+            + Tables.TABLE_SLICES_INDEX + " ("
+            + IndexColumns.KEY + ", "
+            + IndexColumns.SLICE_URI + ", "
+            + IndexColumns.TITLE + ", "
+            + IndexColumns.SUMMARY + ", "
+            + IndexColumns.SCREENTITLE + ", "
+            + IndexColumns.KEYWORDS + ", "
+            + IndexColumns.ICON_RESOURCE + ", "
+            + IndexColumns.FRAGMENT + ", "
+            + IndexColumns.CONTROLLER + ", "
+            + IndexColumns.SLICE_TYPE + ", "
+            + IndexColumns.UNAVAILABLE_SLICE_SUBTITLE + ", "
+            + IndexColumns.PUBLIC_SLICE + ", "
+            + IndexColumns.HIGHLIGHT_MENU_RESOURCE
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     private Context mContext;
 
     private SlicesDatabaseHelper mHelper;
 
+    // Only set while indexAll() runs, getSliceData() parses serially otherwise.
+    private ExecutorService mExecutor;
+    // Fingerprints of the providers read by the last getSliceData() call.
+    private final Map<String, String> mFingerprints = new ArrayMap<>();
+
     public SlicesIndexer(Context context) {
         mContext = context;
         mHelper = SlicesDatabaseHelper.getInstance(mContext);
@@ -58,7 +94,11 @@ class SlicesIndexer implements Runnable {
 
     /**
      * Synchronously takes data obtained from {@link SliceDataConverter} and indexes it into a
-     * SQLite database
+     * SQLite database.
+     *
+     * <p>When a previous run of the same build and version of Settings left provider fingerprints
+     * behind, only the providers whose fingerprint changed are parsed and rewritten. Otherwise
+     * the index is rebuilt from scratch, as controllers may have changed.
      */
     protected void indexSliceData() {
         if (mHelper.isSliceDataIndexed()) {
@@ -68,58 +108,154 @@ class SlicesIndexer implements Runnable {
 
         final SQLiteDatabase database = mHelper.getWritableDatabase();
 
-        long startTime = System.currentTimeMillis();
+        final long startTime = SystemClock.elapsedRealtime();
+        final Map<String, String> knownFingerprints = mHelper.getProviderFingerprints(database);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_PARSER_THREADS, Runtime.getRuntime().availableProcessors()));
+        try {
+            final SlicesDatabaseHelper.IndexStats stats = knownFingerprints.isEmpty()
+                    ? indexAll(database, executor, startTime)
+                    : indexChanged(database, executor, knownFingerprints, startTime);
+            mHelper.setLastIndexStats(stats);
+            Log.d(TAG, "Indexing slices database: " + stats);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private SlicesDatabaseHelper.IndexStats indexAll(SQLiteDatabase database,
+            ExecutorService executor, long startTime) {
+        mExecutor = executor;
+        final List<SliceData> indexData = getSliceData();
+
         database.beginTransaction();
         try {
             mHelper.reconstruct(database);
-            List<SliceData> indexData = getSliceData();
             insertSliceData(database, indexData);
+            mHelper.setProviderFingerprints(database, mFingerprints);
 
             mHelper.setIndexedState();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mExecutor = null;
+        }
+        return new SlicesDatabaseHelper.IndexStats(false /* incremental */,
+                SystemClock.elapsedRealtime() - startTime, indexData.size(),
+                mFingerprints.size(), 0 /* providersSkipped */);
+    }
+
+    private SlicesDatabaseHelper.IndexStats indexChanged(SQLiteDatabase database,
+            ExecutorService executor, Map<String, String> knownFingerprints, long startTime) {
+        final List<ProviderSliceData> providers =
+                getProviderSliceData(knownFingerprints, executor);
+        // Accessibility services come and go without any XML change, always refresh them.
+        final List<SliceData> a11ySliceData = getAccessibilitySliceData();
+
+        final Map<String, String> fingerprints = new ArrayMap<>();
+        final Set<String> staleFragments = new ArraySet<>(knownFingerprints.keySet());
+        final List<SliceData> indexData = new ArrayList<>();
+        int providersParsed = 0;
+        for (ProviderSliceData provider : providers) {
+            fingerprints.put(provider.mFragmentName, provider.mFingerprint);
+            if (provider.mSliceData == null) {
+                staleFragments.remove(provider.mFragmentName);
+                continue;
+            }
+            providersParsed++;
+            indexData.addAll(provider.mSliceData);
+        }
+        indexData.addAll(a11ySliceData);
+
+        database.beginTransaction();
+        try {
+            mHelper.clearIndexedState();
+            // Covers changed providers and those which no longer exist.
+            for (String fragment : staleFragments) {
+                database.delete(Tables.TABLE_SLICES_INDEX, IndexColumns.FRAGMENT + " = ?",
+                        new String[]{fragment});
+            }
+            database.delete(Tables.TABLE_SLICES_INDEX, IndexColumns.CONTROLLER + " = ?",
+                    new String[]{AccessibilitySlicePreferenceController.class.getName()});
+            insertSliceData(database, indexData);
+            mHelper.setProviderFingerprints(database, fingerprints);
 
-            // TODO (b/71503044) Log indexing time.
-            Log.d(TAG,
-                    "Indexing slices database took: " + (System.currentTimeMillis() - startTime));
+            mHelper.setIndexedState();
             database.setTransactionSuccessful();
         } finally {
             database.endTransaction();
         }
+        return new SlicesDatabaseHelper.IndexStats(true /* incremental */,
+                SystemClock.elapsedRealtime() - startTime, indexData.size(), providersParsed,
+                providers.size() - providersParsed);
     }
 
+    /**
+     * @return every row of the index, for a full rebuild. Also collects the provider
+     * fingerprints to store along with them.
+     */
     @VisibleForTesting
     List<SliceData> getSliceData() {
+        mFingerprints.clear();
+        final List<SliceData> sliceData = new ArrayList<>();
+        for (ProviderSliceData provider : getProviderSliceData(Collections.emptyMap(),
+                mExecutor)) {
+            mFingerprints.put(provider.mFragmentName, provider.mFingerprint);
+            sliceData.addAll(provider.mSliceData);
+        }
+        sliceData.addAll(getAccessibilitySliceData());
+        return sliceData;
+    }
+
+    @VisibleForTesting
+    List<ProviderSliceData> getProviderSliceData(Map<String, String> knownFingerprints,
+            ExecutorService executor) {
+        return getSliceDataConverter().getProviderSliceData(knownFingerprints, executor);
+    }
+
+    @VisibleForTesting
+    List<SliceData> getAccessibilitySliceData() {
+        return getSliceDataConverter().getAccessibilitySliceData();
+    }
+
+    private SliceDataConverter getSliceDataConverter() {
         return FeatureFactory.getFactory(mContext)
                 .getSlicesFeatureProvider()
-                .getSliceDataConverter(mContext)
-                .getSliceData();
+                .getSliceDataConverter(mContext);
     }
 
     @VisibleForTesting
     void insertSliceData(SQLiteDatabase database, List<SliceData> indexData) {
-        ContentValues values;
-
-        for (SliceData dataRow : indexData) {
-            values = new ContentValues();
-            values.put(IndexColumns.KEY, dataRow.getKey());
-            values.put(IndexColumns.SLICE_URI, dataRow.getUri().toSafeString());
-            values.put(IndexColumns.TITLE, dataRow.getTitle());
-            values.put(IndexColumns.SUMMARY, dataRow.getSummary());
-            final CharSequence screenTitle = dataRow.getScreenTitle();
-            if (screenTitle != null) {
-                values.put(IndexColumns.SCREENTITLE, screenTitle.toString());
+        final SQLiteStatement insert = database.compileStatement(INSERT_SLICE_SQL);
+        try {
+            for (SliceData dataRow : indexData) {
+                insert.clearBindings();
+                bindString(insert, 1, dataRow.getKey());
+                bindString(insert, 2, dataRow.getUri().toSafeString());
+                bindString(insert, 3, dataRow.getTitle());
+                bindString(insert, 4, dataRow.getSummary());
+                final CharSequence screenTitle = dataRow.getScreenTitle();
+                bindString(insert, 5, screenTitle != null ? screenTitle.toString() : null);
+                bindString(insert, 6, dataRow.getKeywords());
+                insert.bindLong(7, dataRow.getIconResource());
+                bindString(insert, 8, dataRow.getFragmentClassName());
+                bindString(insert, 9, dataRow.getPreferenceController());
+                insert.bindLong(10, dataRow.getSliceType());
+                bindString(insert, 11, dataRow.getUnavailableSliceSubtitle());
+                insert.bindLong(12, dataRow.isPublicSlice() ? 1 : 0);
+                insert.bindLong(13, dataRow.getHighlightMenuRes());
+                insert.executeInsert();
             }
-            values.put(IndexColumns.KEYWORDS, dataRow.getKeywords());
-            values.put(IndexColumns.ICON_RESOURCE, dataRow.getIconResource());
-            values.put(IndexColumns.FRAGMENT, dataRow.getFragmentClassName());
-            values.put(IndexColumns.CONTROLLER, dataRow.getPreferenceController());
-            values.put(IndexColumns.SLICE_TYPE, dataRow.getSliceType());
-            values.put(IndexColumns.UNAVAILABLE_SLICE_SUBTITLE,
-                    dataRow.getUnavailableSliceSubtitle());
-            values.put(IndexColumns.PUBLIC_SLICE, dataRow.isPublicSlice());
-            values.put(IndexColumns.HIGHLIGHT_MENU_RESOURCE, dataRow.getHighlightMenuRes());
-
-            database.replaceOrThrow(Tables.TABLE_SLICES_INDEX, null /* nullColumnHack */,
-                    values);
+        } finally {
+            insert.close();
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceGroup;
+
+import java.util.List;
+
+/**
+ * Keeps the {@link Preference}s of a {@link PreferenceGroup} in sync with a target list of
+ * {@link Item}s.
+ *
+ * <p>Unlike {@link PreferenceGroupChildrenCache} or removing all preferences and adding them back,
+ * only the difference is applied: preferences whose key is gone are removed, new keys are added,
+ * and kept preferences are only reordered and rebound. All the changes are made in one call, so
+ * the list adapter syncs the hierarchy once and only rebinds what changed.
+ *
+ * <p>Items are matched by their own key rather than {@link Preference#getKey()}, so groups whose
+ * preferences share a key can be reconciled too. The reconciler owns the whole group: children it
+ * didn't add are removed, and preferences it added that were removed some other way are added
+ * back.
+ */
+public class PreferenceGroupReconciler {
+
+    private final PreferenceGroup mGroup;
+    // Preferences of the items of the last reconciliation, by item key.
+    private final ArrayMap<String, Preference> mPreferences = new ArrayMap<>();
+
+    public PreferenceGroupReconciler(PreferenceGroup group) {
+        mGroup = group;
+    }
+
+    /** Creates, reuses and binds the preference of one {@link Item}. */
+    public interface Binder<T extends Preference> {
+        /** Returns a new preference for the item. */
+        T create();
+
+        /**
+         * Returns whether {@code preference}, created for an item with the same key, can keep
+         * showing the item. Otherwise it is replaced by a new one.
+         */
+        default boolean canReuse(T preference) {
+            return true;
+        }
+
+        /** Updates {@code preference}, either new or reused, to show the item. */
+        default void bind(T preference) {
+        }
+    }
+
+    /** One preference of the target list. */
+    public static final class Item<T extends Preference> {
+        final String mKey;
+        final int mOrder;
+        final Binder<T> mBinder;
+
+        public Item(String key, int order, Binder<T> binder) {
+            mKey = key;
+            mOrder = order;
+            mBinder = binder;
+        }
+    }
+
+    /**
+     * Updates the group so the managed preferences are exactly those of {@code items}, in their
+     * order. Items must have distinct keys.
+     */
+    public void reconcile(List<Item<?>> items) {
+        final ArraySet<String> keys = new ArraySet<>(items.size());
+        for (int i = 0, size = items.size(); i < size; i++) {
+            keys.add(items.get(i).mKey);
+        }
+        for (int i = mPreferences.size() - 1; i >= 0; i--) {
+            if (!keys.contains(mPreferences.keyAt(i))) {
+                removeAt(i);
+            }
+        }
+        final ArraySet<Preference> managed = new ArraySet<>(mPreferences.values());
+        for (int i = mGroup.getPreferenceCount() - 1; i >= 0; i--) {
+            final Preference child = mGroup.getPreference(i);
+            if (!managed.contains(child)) {
+                mGroup.removePreference(child);
+            }
+        }
+        for (int i = 0, size = items.size(); i < size; i++) {
+            apply(items.get(i));
+        }
+    }
+
+    /** Removes all preferences from the group. */
+    public void clear() {
+        mPreferences.clear();
+        mGroup.removeAll();
+    }
+
+    /** Returns the preference of the item {@code key}, or {@code null}. */
+    @SuppressWarnings("unchecked")
+    public <T extends Preference> T get(String key) {
+        return (T) mPreferences.get(key);
+    }
+
+    /** Returns the number of items of the last reconciliation. */
+    public int size() {
+        return mPreferences.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Preference> void apply(Item<T> item) {
+        T preference = (T) mPreferences.get(item.mKey);
+        if (preference != null
+                && (preference.getParent() != mGroup || !item.mBinder.canReuse(preference))) {
+            removeAt(mPreferences.indexOfKey(item.mKey));
+            preference = null;
+        }
+        if (preference == null) {
+            preference = item.mBinder.create();
+            preference.setOrder(item.mOrder);
+            item.mBinder.bind(preference);
+            mPreferences.put(item.mKey, preference);
+            mGroup.addPreference(preference);
+            return;
+        }
+        // No-op when the order didn't change, so kept preferences don't resort the group.
+        preference.setOrder(item.mOrder);
+        item.mBinder.bind(preference);
+    }
+
+    private void removeAt(int index) {
+        mGroup.removePreference(mPreferences.valueAt(index));
+        mPreferences.removeAt(index);
+    }
+}
@@ -140,6 +140,7 @@ public class ConfigDialogFragment extends InstrumentedDialogFragment implements
                     connect(profile, shouldLockdown);
                 } else {
                     save(profile, false);
+                    notifyProfilesChanged();
                 }
             } catch (RemoteException e) {
                 Log.w(TAG, "Failed to check active VPN state. Skipping.", e);
@@ -155,6 +156,7 @@ public class ConfigDialogFragment extends InstrumentedDialogFragment implements
             LegacyVpnProfileStore.remove(Credentials.VPN + profile.key);
 
             updateLockdownVpn(false, profile);
+            notifyProfilesChanged();
         }
         dismiss();
     }
@@ -196,6 +198,15 @@ public class ConfigDialogFragment extends InstrumentedDialogFragment implements
         updateLockdownVpn(lockdown, profile);
     }
 
+    // The VPN list can't observe the profile store, so tell it about the change. After a connect,
+    // this is only called once the VPN was started, so the list sees it connecting and polls it
+    // quickly.
+    private void notifyProfilesChanged() {
+        if (getTargetFragment() instanceof VpnSettings) {
+            ((VpnSettings) getTargetFragment()).refreshVpns();
+        }
+    }
+
     private void connect(VpnProfile profile, boolean lockdown) {
         save(profile, lockdown);
 
@@ -209,6 +220,7 @@ public class ConfigDialogFragment extends InstrumentedDialogFragment implements
                 Toast.makeText(mContext, R.string.vpn_no_network, Toast.LENGTH_LONG).show();
             }
         }
+        notifyProfilesChanged();
     }
 
     /**
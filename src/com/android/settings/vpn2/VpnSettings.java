@@ -16,6 +16,8 @@
 
 package com.android.settings.vpn2;
 
+import static android.app.AppOpsManager.OPSTR_ACTIVATE_PLATFORM_VPN;
+import static android.app.AppOpsManager.OPSTR_ACTIVATE_VPN;
 import static android.app.AppOpsManager.OP_ACTIVATE_PLATFORM_VPN;
 import static android.app.AppOpsManager.OP_ACTIVATE_VPN;
 
@@ -24,8 +26,10 @@ import android.annotation.WorkerThread;
 import android.app.Activity;
 import android.app.AppOpsManager;
 import android.app.settings.SettingsEnums;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
@@ -66,10 +70,12 @@ import com.android.settingslib.RestrictedLockUtilsInternal;
 import com.google.android.collect.Lists;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -81,7 +87,13 @@ public class VpnSettings extends RestrictedSettingsFragment implements
     private static final String LOG_TAG = "VpnSettings";
 
     private static final int RESCAN_MESSAGE = 0;
-    private static final int RESCAN_INTERVAL_MS = 1000;
+    // Legacy VPNs report their connection progress without any callback, so they are polled
+    // while connecting.
+    @VisibleForTesting
+    static final int TRANSITION_RESCAN_INTERVAL_MS = 1000;
+    // Nothing reports profile store changes made outside this screen.
+    @VisibleForTesting
+    static final int SLOW_RESCAN_INTERVAL_MS = 30 * 1000;
 
     private static final NetworkRequest VPN_REQUEST = new NetworkRequest.Builder()
             .removeCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
@@ -92,6 +104,7 @@ public class VpnSettings extends RestrictedSettingsFragment implements
     private ConnectivityManager mConnectivityManager;
     private UserManager mUserManager;
     private VpnManager mVpnManager;
+    private AppOpsManager mAppOpsManager;
 
     private Map<String, LegacyVpnPreference> mLegacyVpnPreferences = new ArrayMap<>();
     private Map<AppVpnInfo, AppPreference> mAppPreferences = new ArrayMap<>();
@@ -100,6 +113,8 @@ public class VpnSettings extends RestrictedSettingsFragment implements
     private Handler mUpdater;
     private HandlerThread mUpdaterThread;
     private LegacyVpnInfo mConnectedLegacyVpn;
+    // State shown by the last update, only used on the updater thread.
+    private VpnListState mShownState;
 
     private boolean mUnavailable;
 
@@ -119,6 +134,7 @@ public class VpnSettings extends RestrictedSettingsFragment implements
         mUserManager = (UserManager) getSystemService(Context.USER_SERVICE);
         mConnectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         mVpnManager = (VpnManager) getSystemService(Context.VPN_MANAGEMENT_SERVICE);
+        mAppOpsManager = (AppOpsManager) getSystemService(Context.APP_OPS_SERVICE);
 
         mUnavailable = isUiRestricted();
         setHasOptionsMenu(!mUnavailable);
@@ -188,14 +204,28 @@ public class VpnSettings extends RestrictedSettingsFragment implements
             getEmptyTextView().setText(R.string.vpn_no_vpns_added);
         }
 
-        // Start monitoring
-        mConnectivityManager.registerNetworkCallback(VPN_REQUEST, mNetworkCallback);
-
         // Trigger a refresh
+        mShownState = null;
         mUpdaterThread = new HandlerThread("Refresh VPN list in background");
         mUpdaterThread.start();
-        mUpdater = new Handler(mUpdaterThread.getLooper(), this);
-        mUpdater.sendEmptyMessage(RESCAN_MESSAGE);
+        synchronized (this) {
+            mUpdater = new Handler(mUpdaterThread.getLooper(), this);
+        }
+        refreshVpns();
+
+        // Start monitoring
+        mConnectivityManager.registerNetworkCallback(VPN_REQUEST, mNetworkCallback);
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        getContext().registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, packageFilter,
+                null /* broadcastPermission */, null /* scheduler */);
+        mAppOpsManager.startWatchingMode(OPSTR_ACTIVATE_VPN, null /* packageName */,
+                mOpChangedListener);
+        mAppOpsManager.startWatchingMode(OPSTR_ACTIVATE_PLATFORM_VPN, null /* packageName */,
+                mOpChangedListener);
     }
 
     @Override
@@ -207,6 +237,8 @@ public class VpnSettings extends RestrictedSettingsFragment implements
 
         // Stop monitoring
         mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
+        getContext().unregisterReceiver(mPackageReceiver);
+        mAppOpsManager.stopWatchingMode(mOpChangedListener);
 
         synchronized (this) {
             mUpdater.removeCallbacksAndMessages(null);
@@ -237,20 +269,106 @@ public class VpnSettings extends RestrictedSettingsFragment implements
         final Set<AppVpnInfo> alwaysOnAppVpnInfos = getAlwaysOnAppVpnInfos();
         final String lockdownVpnKey = VpnUtils.getLockdownVpn();
 
-        // Refresh list of VPNs
-        activity.runOnUiThread(new UpdatePreferences(this)
-                .legacyVpns(vpnProfiles, connectedLegacyVpns, lockdownVpnKey)
-                .appVpns(vpnApps, connectedAppVpns, alwaysOnAppVpnInfos));
+        // Refresh list of VPNs, only if anything changed since the last refresh
+        final VpnListState state = new VpnListState(vpnProfiles, vpnApps, connectedLegacyVpns,
+                connectedAppVpns, alwaysOnAppVpnInfos, lockdownVpnKey);
+        if (!state.equals(mShownState)) {
+            mShownState = state;
+            activity.runOnUiThread(new UpdatePreferences(this)
+                    .legacyVpns(vpnProfiles, connectedLegacyVpns, lockdownVpnKey)
+                    .appVpns(vpnApps, connectedAppVpns, alwaysOnAppVpnInfos));
+        }
 
         synchronized (this) {
             if (mUpdater != null) {
                 mUpdater.removeMessages(RESCAN_MESSAGE);
-                mUpdater.sendEmptyMessageDelayed(RESCAN_MESSAGE, RESCAN_INTERVAL_MS);
+                mUpdater.sendEmptyMessageDelayed(RESCAN_MESSAGE,
+                        getRescanIntervalMs(mConnectedLegacyVpn));
             }
         }
         return true;
     }
 
+    /**
+     * Reloads the VPN list in the background. Requests made before the reload starts are merged
+     * into one.
+     */
+    public void refreshVpns() {
+        synchronized (this) {
+            if (mUpdater != null) {
+                // Also replaces the pending poll.
+                mUpdater.removeMessages(RESCAN_MESSAGE);
+                mUpdater.sendEmptyMessage(RESCAN_MESSAGE);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static int getRescanIntervalMs(LegacyVpnInfo connectedLegacyVpn) {
+        if (connectedLegacyVpn != null
+                && (connectedLegacyVpn.state == LegacyVpnInfo.STATE_INITIALIZING
+                || connectedLegacyVpn.state == LegacyVpnInfo.STATE_CONNECTING)) {
+            return TRANSITION_RESCAN_INTERVAL_MS;
+        }
+        return SLOW_RESCAN_INTERVAL_MS;
+    }
+
+    /**
+     * Everything shown by the VPN list, to tell whether a reload changed anything.
+     */
+    @VisibleForTesting
+    static final class VpnListState {
+        private final List<byte[]> mEncodedProfiles = new ArrayList<>();
+        private final List<AppVpnInfo> mVpnApps;
+        private final Map<String, Integer> mLegacyVpnStates = new ArrayMap<>();
+        private final Set<AppVpnInfo> mConnectedAppVpns;
+        private final Set<AppVpnInfo> mAlwaysOnAppVpnInfos;
+        private final String mLockdownVpnKey;
+
+        VpnListState(List<VpnProfile> vpnProfiles, List<AppVpnInfo> vpnApps,
+                Map<String, LegacyVpnInfo> connectedLegacyVpns, Set<AppVpnInfo> connectedAppVpns,
+                Set<AppVpnInfo> alwaysOnAppVpnInfos, String lockdownVpnKey) {
+            // VpnProfile has no equals(), but its encoding holds everything the list shows.
+            for (VpnProfile profile : vpnProfiles) {
+                mEncodedProfiles.add(profile.encode());
+            }
+            mVpnApps = vpnApps;
+            for (LegacyVpnInfo vpn : connectedLegacyVpns.values()) {
+                mLegacyVpnStates.put(vpn.key, vpn.state);
+            }
+            mConnectedAppVpns = connectedAppVpns;
+            mAlwaysOnAppVpnInfos = alwaysOnAppVpnInfos;
+            mLockdownVpnKey = lockdownVpnKey;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof VpnListState)) {
+                return false;
+            }
+            final VpnListState that = (VpnListState) other;
+            if (mEncodedProfiles.size() != that.mEncodedProfiles.size()) {
+                return false;
+            }
+            for (int i = 0; i < mEncodedProfiles.size(); i++) {
+                if (!Arrays.equals(mEncodedProfiles.get(i), that.mEncodedProfiles.get(i))) {
+                    return false;
+                }
+            }
+            return mVpnApps.equals(that.mVpnApps)
+                    && mLegacyVpnStates.equals(that.mLegacyVpnStates)
+                    && mConnectedAppVpns.equals(that.mConnectedAppVpns)
+                    && mAlwaysOnAppVpnInfos.equals(that.mAlwaysOnAppVpnInfos)
+                    && Objects.equals(mLockdownVpnKey, that.mLockdownVpnKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mEncodedProfiles.size(), mVpnApps, mLegacyVpnStates,
+                    mConnectedAppVpns, mAlwaysOnAppVpnInfos, mLockdownVpnKey);
+        }
+    }
+
     @VisibleForTesting
     static class UpdatePreferences implements Runnable {
         private List<VpnProfile> vpnProfiles = Collections.<VpnProfile>emptyList();
@@ -430,19 +548,26 @@ public class VpnSettings extends RestrictedSettingsFragment implements
     private NetworkCallback mNetworkCallback = new NetworkCallback() {
         @Override
         public void onAvailable(Network network) {
-            if (mUpdater != null) {
-                mUpdater.sendEmptyMessage(RESCAN_MESSAGE);
-            }
+            refreshVpns();
         }
 
         @Override
         public void onLost(Network network) {
-            if (mUpdater != null) {
-                mUpdater.sendEmptyMessage(RESCAN_MESSAGE);
-            }
+            refreshVpns();
+        }
+    };
+
+    // VPN apps come and go with their packages.
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            refreshVpns();
         }
     };
 
+    private final AppOpsManager.OnOpChangedListener mOpChangedListener =
+            (op, packageName) -> refreshVpns();
+
     @VisibleForTesting @UiThread
     public LegacyVpnPreference findOrCreatePreference(VpnProfile profile, boolean update) {
         LegacyVpnPreference pref = mLegacyVpnPreferences.get(profile.key);
@@ -45,13 +45,12 @@ import androidx.slice.builders.SliceAction;
 
 import com.android.settings.R;
 import com.android.settings.Utils;
+import com.android.settings.network.ims.ImsStateService;
 import com.android.settings.network.ims.WifiCallingQueryImsState;
 import com.android.settings.slices.SliceBroadcastReceiver;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -357,8 +356,7 @@ public class WifiCallingSliceHelper {
                 return imsMmTelManager.getVoWiFiModeSetting();
             }
         });
-        final ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.execute(wfcModeTask);
+        ImsStateService.getExecutor().execute(wfcModeTask);
         return wfcModeTask.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
     }
 
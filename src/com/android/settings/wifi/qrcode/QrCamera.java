@@ -18,6 +18,7 @@ package com.android.settings.wifi.qrcode;
 
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
@@ -27,7 +28,6 @@ import android.hardware.Camera.Parameters;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Message;
-import android.util.ArrayMap;
 import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
@@ -35,21 +35,14 @@ import android.view.WindowManager;
 
 import androidx.annotation.VisibleForTesting;
 
-import com.google.zxing.BarcodeFormat;
 import com.google.zxing.BinaryBitmap;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.ReaderException;
-import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
 
 /**
  * Manage the camera for the QR scanner and help the decoder to get the image inside the scanning
@@ -72,21 +65,20 @@ public class QrCamera extends Handler {
 
     private static final long AUTOFOCUS_INTERVAL_MS = 1500L;
 
-    private static Map<DecodeHintType, List<BarcodeFormat>> HINTS = new ArrayMap<>();
-    private static List<BarcodeFormat> FORMATS = new ArrayList<>();
-
-    static {
-        FORMATS.add(BarcodeFormat.QR_CODE);
-        HINTS.put(DecodeHintType.POSSIBLE_FORMATS, FORMATS);
-    }
+    /**
+     * The number of preview buffers given to the camera: one being decoded, one waiting to be
+     * decoded and one being captured.
+     */
+    private static final int PREVIEW_BUFFER_COUNT = 3;
 
     @VisibleForTesting
     Camera mCamera;
     private Size mPreviewSize;
     private WeakReference<Context> mContext;
     private ScannerCallback mScannerCallback;
-    private MultiFormatReader mReader;
+    private QrFrameDecoder mDecoder;
     private DecodingTask mDecodeTask;
+    private ExecutorService mDecodeExecutor;
     private int mCameraOrientation;
     @VisibleForTesting
     Camera.Parameters mParameters;
@@ -94,8 +86,7 @@ public class QrCamera extends Handler {
     public QrCamera(Context context, ScannerCallback callback) {
         mContext =  new WeakReference<Context>(context);
         mScannerCallback = callback;
-        mReader = new MultiFormatReader();
-        mReader.setHints(HINTS);
+        mDecoder = new QrFrameDecoder();
     }
 
     /**
@@ -108,7 +99,8 @@ public class QrCamera extends Handler {
         if (mDecodeTask == null) {
             mDecodeTask = new DecodingTask(surface);
             // Execute in the separate thread pool to prevent block other AsyncTask.
-            mDecodeTask.executeOnExecutor(Executors.newSingleThreadExecutor());
+            mDecodeExecutor = Executors.newSingleThreadExecutor();
+            mDecodeTask.executeOnExecutor(mDecodeExecutor);
         }
     }
 
@@ -122,7 +114,13 @@ public class QrCamera extends Handler {
             mDecodeTask.cancel(true);
             mDecodeTask = null;
         }
+        if (mDecodeExecutor != null) {
+            // Lets the decoding thread exit once the cancelled task returns.
+            mDecodeExecutor.shutdown();
+            mDecodeExecutor = null;
+        }
         if (mCamera != null) {
+            mCamera.setPreviewCallbackWithBuffer(null);
             mCamera.stopPreview();
         }
     }
@@ -229,9 +227,16 @@ public class QrCamera extends Handler {
         return true;
     }
 
+    /**
+     * Decodes preview frames until a valid QR code is found. Frames are captured into a few
+     * preview buffers while the previous one is decoded. A frame arriving while another one is
+     * still waiting replaces it, so the decoder always picks up the latest frame.
+     */
     private class DecodingTask extends AsyncTask<Void, Void, String> {
-        private QrYuvLuminanceSource mImage;
+        private final Object mFrameLock = new Object();
         private SurfaceTexture mSurface;
+        // The latest captured frame not decoded yet. Guarded by mFrameLock.
+        private byte[] mPendingFrame;
 
         private DecodingTask(SurfaceTexture surface) {
             mSurface = surface;
@@ -242,43 +247,69 @@ public class QrCamera extends Handler {
             if (!initCamera(mSurface)) {
                 return null;
             }
+            final Camera camera = mCamera;
+            startCapture(camera);
 
-            final Semaphore imageGot = new Semaphore(0);
             while (true) {
-                // This loop will try to capture preview image continuously until a valid QR Code
+                // This loop will try to decode preview images continuously until a valid QR Code
                 // decoded. The caller can also call {@link #stop()} to interrupts scanning loop.
-                mCamera.setOneShotPreviewCallback(
-                        (imageData, camera) -> {
-                            mImage = getFrameImage(imageData);
-                            imageGot.release();
-                        });
+                final byte[] frame;
                 try {
-                    // Semaphore.acquire() blocking until permit is available, or the thread is
-                    // interrupted.
-                    imageGot.acquire();
-                    Result qrCode = null;
-                    try {
-                        qrCode =
-                                mReader.decodeWithState(
-                                        new BinaryBitmap(new HybridBinarizer(mImage)));
-                    } catch (ReaderException e) {
-                        // No logging since every time the reader cannot decode the
-                        // image, this ReaderException will be thrown.
-                    } finally {
-                        mReader.reset();
-                    }
-                    if (qrCode != null) {
-                        if (mScannerCallback.isValid(qrCode.getText())) {
-                            return qrCode.getText();
-                        }
-                    }
+                    frame = takeFrame();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     return null;
                 }
+                final String qrCode = mDecoder.decode(frame, mPreviewSize.getWidth(),
+                        mPreviewSize.getHeight(),
+                        mScannerCallback.getFramePosition(mPreviewSize, mCameraOrientation));
+                returnFrame(camera, frame);
+                if (qrCode != null && mScannerCallback.isValid(qrCode)) {
+                    return qrCode;
+                }
             }
         }
 
+        private void startCapture(Camera camera) {
+            final int bufferSize = mPreviewSize.getWidth() * mPreviewSize.getHeight()
+                    * ImageFormat.getBitsPerPixel(mParameters.getPreviewFormat()) / 8;
+            for (int i = 0; i < PREVIEW_BUFFER_COUNT; i++) {
+                camera.addCallbackBuffer(new byte[bufferSize]);
+            }
+            camera.setPreviewCallbackWithBuffer((imageData, previewCamera) -> {
+                final byte[] staleFrame;
+                synchronized (mFrameLock) {
+                    staleFrame = mPendingFrame;
+                    mPendingFrame = imageData;
+                    mFrameLock.notify();
+                }
+                if (staleFrame != null) {
+                    // Dropped without decoding, a newer frame is available.
+                    previewCamera.addCallbackBuffer(staleFrame);
+                }
+            });
+        }
+
+        private byte[] takeFrame() throws InterruptedException {
+            synchronized (mFrameLock) {
+                while (mPendingFrame == null) {
+                    mFrameLock.wait();
+                }
+                final byte[] frame = mPendingFrame;
+                mPendingFrame = null;
+                return frame;
+            }
+        }
+
+        // Gives a decoded frame back to the camera, on the thread it delivers frames on.
+        private void returnFrame(Camera camera, byte[] frame) {
+            post(() -> {
+                if (mCamera == camera && mDecodeTask == this) {
+                    camera.addCallbackBuffer(frame);
+                }
+            });
+        }
+
         @Override
         protected void onPostExecute(String qrCode) {
             if (qrCode != null) {
@@ -364,14 +395,6 @@ public class QrCamera extends Handler {
         mScannerCallback.setTransform(matrix);
     }
 
-    private QrYuvLuminanceSource getFrameImage(byte[] imageData) {
-        final Rect frame = mScannerCallback.getFramePosition(mPreviewSize, mCameraOrientation);
-        final QrYuvLuminanceSource image = new QrYuvLuminanceSource(imageData,
-                mPreviewSize.getWidth(), mPreviewSize.getHeight());
-        return (QrYuvLuminanceSource)
-                image.crop(frame.left, frame.top, frame.width(), frame.height());
-    }
-
     @Override
     public void handleMessage(Message msg) {
         switch (msg.what) {
@@ -455,17 +478,9 @@ public class QrCamera extends Handler {
 
     @VisibleForTesting
     protected void decodeImage(BinaryBitmap image) {
-        Result qrCode = null;
-
-        try {
-            qrCode = mReader.decodeWithState(image);
-        } catch (ReaderException e) {
-        } finally {
-            mReader.reset();
-        }
-
+        final String qrCode = mDecoder.decode(image);
         if (qrCode != null) {
-            mScannerCallback.handleSuccessfulResult(qrCode.getText());
+            mScannerCallback.handleSuccessfulResult(qrCode);
         }
     }
 
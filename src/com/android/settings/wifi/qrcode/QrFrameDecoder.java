@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi.qrcode;
+
+import android.graphics.Rect;
+import android.util.ArrayMap;
+
+import androidx.annotation.WorkerThread;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes QR codes from camera preview frames. The cropped picture of a frame is copied into the
+ * array of the previous frame, so decoding a stream of frames of the same size only allocates the
+ * decoder's own structures.
+ *
+ * <p>Not thread safe, frames are expected to be decoded one at a time.
+ */
+public class QrFrameDecoder {
+
+    private static Map<DecodeHintType, List<BarcodeFormat>> HINTS = new ArrayMap<>();
+    private static List<BarcodeFormat> FORMATS = new ArrayList<>();
+
+    static {
+        FORMATS.add(BarcodeFormat.QR_CODE);
+        HINTS.put(DecodeHintType.POSSIBLE_FORMATS, FORMATS);
+    }
+
+    private final MultiFormatReader mReader;
+    private byte[] mCropBuffer;
+
+    public QrFrameDecoder() {
+        mReader = new MultiFormatReader();
+        mReader.setHints(HINTS);
+    }
+
+    /**
+     * Returns the text of the QR code in the {@code crop} area of a preview frame, or null if
+     * there isn't one.
+     *
+     * @param frame The preview frame, starting with its luminance plane like NV21 frames.
+     * @param width The width of the preview frame.
+     * @param height The height of the preview frame.
+     * @param crop The area of the preview frame to look for a QR code in.
+     */
+    @WorkerThread
+    public String decode(byte[] frame, int width, int height, Rect crop) {
+        final QrYuvLuminanceSource image = new QrYuvLuminanceSource(frame, width, height)
+                .crop(crop.left, crop.top, crop.width(), crop.height(), mCropBuffer);
+        mCropBuffer = image.getMatrix();
+        return decode(new BinaryBitmap(new HybridBinarizer(image)));
+    }
+
+    /** Returns the text of the QR code in {@code image}, or null if there isn't one. */
+    @WorkerThread
+    public String decode(BinaryBitmap image) {
+        Result qrCode = null;
+        try {
+            qrCode = mReader.decodeWithState(image);
+        } catch (ReaderException e) {
+            // No logging since every time the reader cannot decode the
+            // image, this ReaderException will be thrown.
+        } finally {
+            mReader.reset();
+        }
+        return qrCode != null ? qrCode.getText() : null;
+    }
+}
@@ -42,7 +42,18 @@ public class QrYuvLuminanceSource extends LuminanceSource {
 
     @Override
     public LuminanceSource crop(int left, int top, int crop_width, int crop_height) {
-        final byte[] newImage = new byte[crop_width * crop_height];
+        return crop(left, top, crop_width, crop_height, null /* buffer */);
+    }
+
+    /**
+     * Crops the picture like {@link #crop(int, int, int, int)}, into {@code buffer} if it has
+     * exactly the size of the cropped picture, or into a new array otherwise. Reusing the array
+     * of the previous frame saves allocating one per preview frame.
+     */
+    public QrYuvLuminanceSource crop(int left, int top, int crop_width, int crop_height,
+            byte[] buffer) {
+        final byte[] newImage = buffer != null && buffer.length == crop_width * crop_height
+                ? buffer : new byte[crop_width * crop_height];
         int inputOffset = top * mWidth + left;
 
         if (left + crop_width > mWidth || top + crop_height > mHeight) {
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.applications.manageapplications.AppSearchIndex;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Measures filtering 2,000 apps while a query is typed one character at a time, scanning every
+ * label on each keystroke and with {@link AppSearchIndex}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppSearchIndexPerfTest {
+    private static final int WARM_UP_TIME = 5;
+    private static final int TEST_TIME = 50;
+    private static final int ENTRY_COUNT = 2000;
+    private static final String QUERY = "settings provider";
+    private static final String[] WORDS = {"Settings", "Camera", "Gallery", "Música", "Clock",
+            "Provider", "Café", "Maps", "Weather", "Notes", "Calendar", "Files"};
+
+    private Context mContext;
+    private Bundle mBundle;
+    private ArrayList<AppEntry> mEntries;
+
+    @Before
+    public void setUp() {
+        mContext = getInstrumentation().getTargetContext();
+        mBundle = new Bundle();
+        mEntries = new ArrayList<>(ENTRY_COUNT);
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            final ApplicationInfo info = new ApplicationInfo();
+            info.packageName = "com.example.app" + i;
+            info.sourceDir = "/data/app/" + info.packageName;
+            final AppEntry entry = new AppEntry(mContext, info, i);
+            entry.label = WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length]
+                    + " " + i;
+            mEntries.add(entry);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void typeQuery_labelScan() {
+        measure("label_scan", query -> {
+            final ArrayList<AppEntry> matchedEntries = new ArrayList<>();
+            for (AppEntry entry : mEntries) {
+                if (entry.label.toLowerCase().contains(query.toLowerCase())) {
+                    matchedEntries.add(entry);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void typeQuery_searchIndex() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final AppSearchIndex index = new AppSearchIndex(mEntries, Locale.getDefault());
+        mBundle.putString("AppSearchIndexPerfTest_index_build_us",
+                String.valueOf((SystemClock.elapsedRealtimeNanos() - start) / 1000));
+        measure("search_index", index::filter);
+    }
+
+    // Filters the entries for each prefix of the query, then clears it.
+    private void measure(String name, Consumer<String> filter) {
+        for (int i = 0; i < WARM_UP_TIME; i++) {
+            typeQuery(filter);
+        }
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (int i = 0; i < TEST_TIME; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            typeQuery(filter);
+            final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+            totalNanos += elapsed;
+            maxNanos = Math.max(maxNanos, elapsed);
+        }
+        mBundle.putString(String.format("AppSearchIndexPerfTest_%s_%s", name, "avg_us"),
+                String.valueOf(totalNanos / TEST_TIME / 1000));
+        mBundle.putString(String.format("AppSearchIndexPerfTest_%s_%s", name, "max_us"),
+                String.valueOf(maxNanos / 1000));
+    }
+
+    private static void typeQuery(Consumer<String> filter) {
+        for (int i = 1; i <= QUERY.length(); i++) {
+            filter.accept(QUERY.substring(0, i));
+        }
+        filter.accept("");
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.fuelgauge.BatteryDiffEntry;
+import com.android.settings.fuelgauge.BatteryHistEntry;
+import com.android.settings.fuelgauge.BatteryHistoryTable;
+import com.android.settings.fuelgauge.ConvertUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares computing battery usage diffs over nested history maps against
+ * {@link BatteryHistoryTable}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatteryHistoryPerfTest {
+    private static final int WARM_UP_TIME = 5;
+    private static final int TEST_TIME = 30;
+    private static final int UID_COUNT = 400;
+    // Same shape as BatteryChartPreferenceController.
+    private static final int KEY_COUNT = 25;
+    private static final int TIME_SLOT_SIZE = 12;
+    private static final BatteryHistEntry EMPTY_ENTRY = new BatteryHistEntry(new ContentValues());
+
+    private Context mContext;
+    private Bundle mBundle;
+    private Map<Long, Map<String, BatteryHistEntry>> mBatteryHistoryMap;
+    private long[] mBatteryHistoryKeys;
+
+    @Before
+    public void setUp() {
+        mContext = getInstrumentation().getTargetContext();
+        mBundle = new Bundle();
+        mBatteryHistoryMap = new HashMap<>();
+        mBatteryHistoryKeys = new long[KEY_COUNT];
+        for (int slot = 0; slot < KEY_COUNT; slot++) {
+            final long timestamp = 1000L * (slot + 1);
+            mBatteryHistoryKeys[slot] = timestamp;
+            final Map<String, BatteryHistEntry> entryMap = new HashMap<>();
+            for (int uid = 0; uid < UID_COUNT; uid++) {
+                final BatteryHistEntry entry = createEntry(10000 + uid, slot);
+                entryMap.put(entry.getKey(), entry);
+            }
+            mBatteryHistoryMap.put(timestamp, entryMap);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void getIndexedUsageMap_nestedMaps() {
+        measure("nested_maps", () -> computeWithNestedMaps());
+    }
+
+    @Test
+    public void getIndexedUsageMap_table() {
+        final BatteryHistoryTable table = BatteryHistoryTable.from(mBatteryHistoryMap);
+        measure("table", () -> ConvertUtils.getIndexedUsageMap(mContext, TIME_SLOT_SIZE,
+                mBatteryHistoryKeys, table, /*purgeLowPercentageAndFakeData=*/ false));
+    }
+
+    @Test
+    public void getIndexedUsageMap_tableIncludingConversion() {
+        measure("table_with_conversion", () -> ConvertUtils.getIndexedUsageMap(mContext,
+                TIME_SLOT_SIZE, mBatteryHistoryKeys, mBatteryHistoryMap,
+                /*purgeLowPercentageAndFakeData=*/ false));
+    }
+
+    private void measure(String name, Runnable block) {
+        for (int i = 0; i < WARM_UP_TIME; i++) {
+            block.run();
+        }
+        long totalNanos = 0;
+        final long startBytes = getAllocatedBytes();
+        for (int i = 0; i < TEST_TIME; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            block.run();
+            totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        final long allocatedBytes = getAllocatedBytes() - startBytes;
+        mBundle.putString(String.format("BatteryHistoryPerfTest_%s_%s", name, "avg_us"),
+                String.valueOf(totalNanos / TEST_TIME / 1000));
+        mBundle.putString(String.format("BatteryHistoryPerfTest_%s_%s", name, "avg_alloc_kb"),
+                String.valueOf(allocatedBytes / TEST_TIME / 1024));
+    }
+
+    private static long getAllocatedBytes() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+
+    // The per slot diff over nested maps, as ConvertUtils did before BatteryHistoryTable.
+    private void computeWithNestedMaps() {
+        final Map<Integer, List<BatteryDiffEntry>> resultMap = new HashMap<>();
+        for (int index = 0; index < TIME_SLOT_SIZE; index++) {
+            final Map<String, BatteryHistEntry> current =
+                    mBatteryHistoryMap.get(Long.valueOf(mBatteryHistoryKeys[index * 2]));
+            final Map<String, BatteryHistEntry> next =
+                    mBatteryHistoryMap.get(Long.valueOf(mBatteryHistoryKeys[index * 2 + 1]));
+            final Map<String, BatteryHistEntry> nextTwo =
+                    mBatteryHistoryMap.get(Long.valueOf(mBatteryHistoryKeys[index * 2 + 2]));
+            final Set<String> keys = new HashSet<>();
+            keys.addAll(current.keySet());
+            keys.addAll(next.keySet());
+            keys.addAll(nextTwo.keySet());
+            final List<BatteryDiffEntry> entries = new ArrayList<>();
+            resultMap.put(Integer.valueOf(index), entries);
+            for (String key : keys) {
+                final BatteryHistEntry entry1 = current.getOrDefault(key, EMPTY_ENTRY);
+                final BatteryHistEntry entry2 = next.getOrDefault(key, EMPTY_ENTRY);
+                final BatteryHistEntry entry3 = nextTwo.getOrDefault(key, EMPTY_ENTRY);
+                entries.add(new BatteryDiffEntry(mContext,
+                        diff(entry1.mForegroundUsageTimeInMs, entry2.mForegroundUsageTimeInMs,
+                                entry3.mForegroundUsageTimeInMs),
+                        diff(entry1.mBackgroundUsageTimeInMs, entry2.mBackgroundUsageTimeInMs,
+                                entry3.mBackgroundUsageTimeInMs),
+                        diff(entry1.mConsumePower, entry2.mConsumePower,
+                                entry3.mConsumePower),
+                        entry1));
+            }
+        }
+    }
+
+    private static long diff(long v1, long v2, long v3) {
+        return (v2 > v1 ? v2 - v1 : 0) + (v3 > v2 ? v3 - v2 : 0);
+    }
+
+    private static double diff(double v1, double v2, double v3) {
+        return (v2 > v1 ? v2 - v1 : 0) + (v3 > v2 ? v3 - v2 : 0);
+    }
+
+    private static BatteryHistEntry createEntry(long uid, int slot) {
+        final ContentValues values = new ContentValues();
+        values.put(BatteryHistEntry.KEY_UID, Long.valueOf(uid));
+        values.put(BatteryHistEntry.KEY_PACKAGE_NAME, "com.example.app" + uid);
+        values.put(BatteryHistEntry.KEY_APP_LABEL, "App " + uid);
+        values.put(BatteryHistEntry.KEY_CONSUMER_TYPE,
+                Integer.valueOf(ConvertUtils.CONSUMER_TYPE_UID_BATTERY));
+        values.put(BatteryHistEntry.KEY_CONSUME_POWER, Double.valueOf(slot * 0.5));
+        values.put(BatteryHistEntry.KEY_FOREGROUND_USAGE_TIME, Long.valueOf(slot * 1000L));
+        values.put(BatteryHistEntry.KEY_BACKGROUND_USAGE_TIME, Long.valueOf(slot * 500L));
+        values.put(BatteryHistEntry.KEY_BATTERY_LEVEL, Integer.valueOf(100 - slot));
+        return new BatteryHistEntry(values);
+    }
+}
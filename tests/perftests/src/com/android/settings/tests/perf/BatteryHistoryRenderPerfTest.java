@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.content.Context;
+import android.os.BatteryStats.HistoryItem;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.SparseIntArray;
+import android.view.View.MeasureSpec;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.fuelgauge.BatteryHistoryReader;
+import com.android.settings.fuelgauge.BatteryInfo;
+import com.android.settings.fuelgauge.BatteryLevelDownsampler;
+import com.android.settings.widget.UsageView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures drawing a synthetic five day battery history, with a record every ten seconds, in a
+ * {@link UsageView} with every point of the history and downsampled to the width of the view,
+ * including laying the view out again as after a rotation.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatteryHistoryRenderPerfTest {
+    private static final int WARM_UP_TIME = 3;
+    private static final int TEST_TIME = 20;
+    private static final long HISTORY_LENGTH_MS = 5 * 24 * 60 * 60 * 1000L;
+    private static final long RECORD_INTERVAL_MS = 10 * 1000L;
+    // The device is restarted once a day, leaving a gap in the graph.
+    private static final long RESTART_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+    private static final long START_WALLTIME = 1609459200000L;
+    private static final int PORTRAIT_WIDTH = 1080;
+    private static final int LANDSCAPE_WIDTH = 2340;
+    private static final int HEIGHT = 600;
+
+    private Context mContext;
+    private Bundle mBundle;
+    private BatteryHistoryReader mReader;
+
+    @Before
+    public void setUp() {
+        mContext = getInstrumentation().getTargetContext();
+        mBundle = new Bundle();
+        final List<HistoryItem> records = createHistory();
+        final long start = SystemClock.elapsedRealtimeNanos();
+        mReader = BatteryHistoryReader.read(records);
+        mBundle.putString("BatteryHistoryRenderPerfTest_read_us",
+                String.valueOf((SystemClock.elapsedRealtimeNanos() - start) / 1000));
+        mBundle.putString("BatteryHistoryRenderPerfTest_records", String.valueOf(mReader.size()));
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void drawHistory_allPoints() {
+        measure("all_points", false /* downsample */);
+    }
+
+    @Test
+    public void drawHistory_downsampled() {
+        measure("downsampled", true /* downsample */);
+    }
+
+    private void measure(String name, boolean downsample) {
+        for (int i = 0; i < WARM_UP_TIME; i++) {
+            drawHistory(downsample);
+        }
+        long totalNanos = 0;
+        int pointCount = 0;
+        for (int i = 0; i < TEST_TIME; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            pointCount = drawHistory(downsample);
+            totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        mBundle.putString(String.format("BatteryHistoryRenderPerfTest_%s_%s", name, "avg_us"),
+                String.valueOf(totalNanos / TEST_TIME / 1000));
+        mBundle.putString(String.format("BatteryHistoryRenderPerfTest_%s_%s", name, "points"),
+                String.valueOf(pointCount));
+    }
+
+    // Binds the history to a new view laid out in portrait then landscape, returns the number of
+    // points added to the view.
+    private int drawHistory(boolean downsample) {
+        final UsageView view = new UsageView(mContext, null /* attrs */);
+        layout(view, PORTRAIT_WIDTH);
+        final PathParser parser = new PathParser(view, downsample ? PORTRAIT_WIDTH : 0);
+        mReader.replay(parser);
+        layout(view, LANDSCAPE_WIDTH);
+        return parser.mPointCount;
+    }
+
+    private static void layout(UsageView view, int width) {
+        view.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, HEIGHT);
+    }
+
+    // A record every RECORD_INTERVAL_MS with the battery level slowly going up and down, and a
+    // restart every RESTART_INTERVAL_MS.
+    private static List<HistoryItem> createHistory() {
+        final List<HistoryItem> records = new ArrayList<>();
+        final Random random = new Random(0);
+        records.add(createRecord(HistoryItem.CMD_RESET, 0, 100));
+        int level = 100;
+        boolean charging = false;
+        for (long time = RECORD_INTERVAL_MS; time < HISTORY_LENGTH_MS;
+                time += RECORD_INTERVAL_MS) {
+            if (time % RESTART_INTERVAL_MS == 0) {
+                records.add(createRecord(HistoryItem.CMD_START, time, level));
+                records.add(createRecord(HistoryItem.CMD_CURRENT_TIME, time, level));
+            }
+            if (random.nextInt(charging ? 8 : 30) == 0) {
+                level += charging ? 1 : -1;
+            }
+            if (level <= 15 || level >= 100) {
+                charging = level <= 15;
+            }
+            records.add(createRecord(HistoryItem.CMD_UPDATE, time, level));
+        }
+        return records;
+    }
+
+    private static HistoryItem createRecord(byte cmd, long time, int level) {
+        final HistoryItem record = new HistoryItem();
+        record.cmd = cmd;
+        record.time = time;
+        record.currentTime = START_WALLTIME + time;
+        record.batteryLevel = (byte) level;
+        return record;
+    }
+
+    // The graph of BatteryInfo#bindHistory, with every point if width is 0.
+    private static class PathParser implements BatteryInfo.BatteryDataParser {
+        private final UsageView mView;
+        private final int mWidth;
+        private BatteryLevelDownsampler mDownsampler;
+        private SparseIntArray mPoints = new SparseIntArray();
+        private int mPointCount;
+
+        PathParser(UsageView view, int width) {
+            mView = view;
+            mWidth = width;
+        }
+
+        @Override
+        public void onParsingStarted(long startTime, long endTime) {
+            mView.clearPaths();
+            mView.configureGraph((int) (endTime - startTime), 100);
+            if (mWidth > 0) {
+                mDownsampler = new BatteryLevelDownsampler(endTime - startTime, mWidth);
+            }
+        }
+
+        @Override
+        public void onDataPoint(long time, HistoryItem record) {
+            if (mDownsampler != null) {
+                mDownsampler.add((int) time, record.batteryLevel);
+            } else {
+                mPoints.put((int) time, record.batteryLevel);
+            }
+        }
+
+        @Override
+        public void onDataGap() {
+            if (mDownsampler != null) {
+                mPoints = mDownsampler.finishSegment();
+            }
+            if (mPoints.size() > 1) {
+                mView.addPath(mPoints);
+                mPointCount += mPoints.size();
+            }
+            mPoints = new SparseIntArray();
+        }
+
+        @Override
+        public void onParsingDone() {
+            onDataGap();
+        }
+    }
+}
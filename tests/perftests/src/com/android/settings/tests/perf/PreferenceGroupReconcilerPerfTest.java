@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceGroupAdapter;
+import androidx.preference.PreferenceManager;
+import androidx.preference.PreferenceScreen;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.utils.PreferenceGroupChildrenCache;
+import com.android.settings.utils.PreferenceGroupReconciler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures refreshing a list of 80 Wi-Fi like entries after a scan, with the cached preferences
+ * pattern and with {@link PreferenceGroupReconciler}. Each refresh runs on the main thread together
+ * with the hierarchy sync of the list adapter, roughly the work of one frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PreferenceGroupReconcilerPerfTest {
+    private static final int WARM_UP_TIME = 5;
+    private static final int TEST_TIME = 50;
+    private static final int ENTRY_COUNT = 80;
+    // Entries whose position changes on each scan.
+    private static final int MOVED_ENTRY_COUNT = 5;
+
+    private Context mContext;
+    private Bundle mBundle;
+    private PreferenceScreen mGroup;
+    private int mScan;
+    private int mAdapterChanges;
+
+    @Before
+    public void setUp() {
+        mContext = getInstrumentation().getTargetContext();
+        mBundle = new Bundle();
+        getInstrumentation().runOnMainSync(() -> {
+            mGroup = new PreferenceManager(mContext).createPreferenceScreen(mContext);
+            final PreferenceGroupAdapter adapter = new PreferenceGroupAdapter(mGroup);
+            adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    mAdapterChanges++;
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    mAdapterChanges += itemCount;
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    mAdapterChanges += itemCount;
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    mAdapterChanges += itemCount;
+                }
+
+                @Override
+                public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                    mAdapterChanges += itemCount;
+                }
+            });
+        });
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void refresh_cachedPreferences() {
+        final PreferenceGroupChildrenCache cache = new PreferenceGroupChildrenCache();
+        measure("cached_preferences", () -> {
+            cache.cacheRemoveAllPrefs(mGroup);
+            final List<String> keys = getScanResults(++mScan);
+            for (int i = 0; i < keys.size(); i++) {
+                Preference preference = cache.getCachedPreference(keys.get(i));
+                if (preference == null) {
+                    preference = createPreference(keys.get(i));
+                    mGroup.addPreference(preference);
+                }
+                preference.setOrder(i);
+            }
+            cache.removeCachedPrefs(mGroup);
+        });
+    }
+
+    @Test
+    public void refresh_removeAll() {
+        measure("remove_all", () -> {
+            mGroup.removeAll();
+            final List<String> keys = getScanResults(++mScan);
+            for (int i = 0; i < keys.size(); i++) {
+                final Preference preference = createPreference(keys.get(i));
+                preference.setOrder(i);
+                mGroup.addPreference(preference);
+            }
+        });
+    }
+
+    @Test
+    public void refresh_reconciler() {
+        final PreferenceGroupReconciler reconciler = new PreferenceGroupReconciler(mGroup);
+        measure("reconciler", () -> {
+            final List<String> keys = getScanResults(++mScan);
+            final List<PreferenceGroupReconciler.Item<?>> items = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                final String key = keys.get(i);
+                items.add(new PreferenceGroupReconciler.Item<>(key, i,
+                        () -> createPreference(key)));
+            }
+            reconciler.reconcile(items);
+        });
+    }
+
+    private void measure(String name, Runnable refresh) {
+        for (int i = 0; i < WARM_UP_TIME; i++) {
+            runAndSync(refresh);
+        }
+        mAdapterChanges = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (int i = 0; i < TEST_TIME; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            runAndSync(refresh);
+            final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+            totalNanos += elapsed;
+            maxNanos = Math.max(maxNanos, elapsed);
+        }
+        mBundle.putString(String.format("PreferenceGroupReconcilerPerfTest_%s_%s", name, "avg_us"),
+                String.valueOf(totalNanos / TEST_TIME / 1000));
+        mBundle.putString(String.format("PreferenceGroupReconcilerPerfTest_%s_%s", name, "max_us"),
+                String.valueOf(maxNanos / 1000));
+        mBundle.putString(
+                String.format("PreferenceGroupReconcilerPerfTest_%s_%s", name, "adapter_changes"),
+                String.valueOf(mAdapterChanges / TEST_TIME));
+    }
+
+    // Runs the refresh and the hierarchy sync it posts to the main thread.
+    private void runAndSync(Runnable refresh) {
+        getInstrumentation().runOnMainSync(refresh);
+        getInstrumentation().waitForIdleSync();
+    }
+
+    // The same entries on every scan, except a few that move and one that is replaced.
+    private static List<String> getScanResults(int scan) {
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            keys.add("entry" + i);
+        }
+        for (int i = 0; i < MOVED_ENTRY_COUNT; i++) {
+            final int from = (scan * MOVED_ENTRY_COUNT + i) % ENTRY_COUNT;
+            keys.add(keys.remove(from));
+        }
+        keys.set(scan % ENTRY_COUNT, "entry" + (ENTRY_COUNT + scan));
+        return keys;
+    }
+
+    private Preference createPreference(String key) {
+        final Preference preference = new Preference(mContext);
+        preference.setKey(key);
+        preference.setTitle(key);
+        return preference;
+    }
+}
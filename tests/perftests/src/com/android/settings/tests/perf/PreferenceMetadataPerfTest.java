@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.R;
+import com.android.settings.core.PreferenceMetadataCache;
+import com.android.settings.core.PreferenceXmlParserUtils;
+import com.android.settings.core.PreferenceXmlParserUtils.MetadataFlag;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares parsing preference xml on every call against {@link PreferenceMetadataCache}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PreferenceMetadataPerfTest {
+    private static final int WARM_UP_TIME = 5;
+    private static final int TEST_TIME = 50;
+    private static final int[] XML_RES_IDS = new int[]{
+            R.xml.top_level_settings,
+            R.xml.display_settings,
+            R.xml.sound_settings,
+            R.xml.location_settings,
+            R.xml.power_usage_summary
+    };
+    // Flags DashboardFragment asks for when creating controllers from xml.
+    private static final int FLAGS = MetadataFlag.FLAG_NEED_KEY
+            | MetadataFlag.FLAG_NEED_PREF_CONTROLLER
+            | MetadataFlag.FLAG_INCLUDE_PREF_SCREEN
+            | MetadataFlag.FLAG_FOR_WORK;
+
+    private Context mContext;
+    private PreferenceMetadataCache mCache;
+    private Bundle mBundle;
+
+    @Before
+    public void setUp() {
+        mContext = getInstrumentation().getTargetContext();
+        mCache = PreferenceMetadataCache.getInstance(mContext);
+        mBundle = new Bundle();
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void extractMetadata_liveParsing() throws Exception {
+        report("live", measure(() -> {
+            for (int xmlResId : XML_RES_IDS) {
+                PreferenceXmlParserUtils.parseMetadata(mContext, xmlResId, FLAGS);
+            }
+        }));
+    }
+
+    @Test
+    public void extractMetadata_cachedOnDisk() throws Exception {
+        warmUpCache();
+        report("disk", measure(() -> {
+            mCache.clearMemory();
+            for (int xmlResId : XML_RES_IDS) {
+                PreferenceXmlParserUtils.extractMetadata(mContext, xmlResId, FLAGS);
+            }
+        }));
+    }
+
+    @Test
+    public void extractMetadata_cachedInMemory() throws Exception {
+        warmUpCache();
+        report("memory", measure(() -> {
+            for (int xmlResId : XML_RES_IDS) {
+                PreferenceXmlParserUtils.extractMetadata(mContext, xmlResId, FLAGS);
+            }
+        }));
+    }
+
+    private void warmUpCache() throws Exception {
+        for (int xmlResId : XML_RES_IDS) {
+            PreferenceXmlParserUtils.extractMetadata(mContext, xmlResId, FLAGS);
+        }
+        // Let the background write land before reading the file back.
+        SystemClock.sleep(1000);
+    }
+
+    private long[] measure(Block block) throws Exception {
+        for (int i = 0; i < WARM_UP_TIME; i++) {
+            block.run();
+        }
+        final long[] results = new long[TEST_TIME];
+        for (int i = 0; i < TEST_TIME; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            block.run();
+            results[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return results;
+    }
+
+    private void report(String name, long[] results) {
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (long result : results) {
+            total += result;
+            min = Math.min(min, result);
+            max = Math.max(max, result);
+        }
+        mBundle.putString(String.format("PreferenceMetadataPerfTest_%s_%s", name, "avg_us"),
+                String.valueOf(total / results.length / 1000));
+        mBundle.putString(String.format("PreferenceMetadataPerfTest_%s_%s", name, "min_us"),
+                String.valueOf(min / 1000));
+        mBundle.putString(String.format("PreferenceMetadataPerfTest_%s_%s", name, "max_us"),
+                String.valueOf(max / 1000));
+    }
+
+    private interface Block {
+        void run() throws Exception;
+    }
+}
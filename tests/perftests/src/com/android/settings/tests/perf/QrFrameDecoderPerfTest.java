@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.wifi.qrcode.QrCodeGenerator;
+import com.android.settings.wifi.qrcode.QrFrameDecoder;
+import com.android.settings.wifi.qrcode.QrYuvLuminanceSource;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures decoding a sequence of 1280x960 NV21 preview frames, most of them without a readable
+ * QR code as when the camera is still being aimed, the way each frame used to be decoded and with
+ * {@link QrFrameDecoder}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QrFrameDecoderPerfTest {
+    private static final int WARM_UP_TIME = 2;
+    private static final int TEST_TIME = 10;
+    private static final int FRAME_WIDTH = 1280;
+    private static final int FRAME_HEIGHT = 960;
+    private static final int FRAME_COUNT = 30;
+    // One frame in this many shows the QR code.
+    private static final int QR_CODE_FRAME_INTERVAL = 10;
+    private static final String QR_CODE = "WIFI:S:perf-test;T:WPA;P:password;;";
+    private static final Rect CROP = new Rect(320, 160, 960, 800);
+
+    private Bundle mBundle;
+    private List<byte[]> mFrames;
+
+    @Before
+    public void setUp() throws Exception {
+        mBundle = new Bundle();
+        mFrames = new ArrayList<>(FRAME_COUNT);
+        final Bitmap qrCode = QrCodeGenerator.encodeQrCode(QR_CODE, CROP.width() / 2);
+        final Random random = new Random(0);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            mFrames.add(createFrame(i % QR_CODE_FRAME_INTERVAL == 0 ? qrCode : null, random));
+        }
+        qrCode.recycle();
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void decode_newBuffers() {
+        final QrFrameDecoder decoder = new QrFrameDecoder();
+        measure("new_buffers", frame -> {
+            final LuminanceSource image = new QrYuvLuminanceSource(frame, FRAME_WIDTH,
+                    FRAME_HEIGHT).crop(CROP.left, CROP.top, CROP.width(), CROP.height());
+            return decoder.decode(new BinaryBitmap(new HybridBinarizer(image)));
+        });
+    }
+
+    @Test
+    public void decode_frameDecoder() {
+        final QrFrameDecoder decoder = new QrFrameDecoder();
+        measure("frame_decoder",
+                frame -> decoder.decode(frame, FRAME_WIDTH, FRAME_HEIGHT, CROP));
+    }
+
+    private void measure(String name, FrameDecoder decoder) {
+        for (int i = 0; i < WARM_UP_TIME; i++) {
+            decodeAll(decoder);
+        }
+        long totalNanos = 0;
+        int decoded = 0;
+        for (int i = 0; i < TEST_TIME; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            decoded += decodeAll(decoder);
+            totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        assertEquals(TEST_TIME * FRAME_COUNT / QR_CODE_FRAME_INTERVAL, decoded);
+        mBundle.putString(String.format("QrFrameDecoderPerfTest_%s_%s", name, "frame_avg_us"),
+                String.valueOf(totalNanos / TEST_TIME / FRAME_COUNT / 1000));
+        mBundle.putString(String.format("QrFrameDecoderPerfTest_%s_%s", name, "frames_per_s"),
+                String.valueOf(TEST_TIME * FRAME_COUNT * 1_000_000_000L / totalNanos));
+    }
+
+    private int decodeAll(FrameDecoder decoder) {
+        int decoded = 0;
+        for (byte[] frame : mFrames) {
+            if (QR_CODE.equals(decoder.decode(frame))) {
+                decoded++;
+            }
+        }
+        return decoded;
+    }
+
+    // A noisy grey NV21 frame, with qrCode drawn in the middle of the crop area if not null.
+    private static byte[] createFrame(Bitmap qrCode, Random random) {
+        final byte[] frame = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+        for (int i = 0; i < FRAME_WIDTH * FRAME_HEIGHT; i++) {
+            frame[i] = (byte) (96 + random.nextInt(64));
+        }
+        for (int i = FRAME_WIDTH * FRAME_HEIGHT; i < frame.length; i++) {
+            frame[i] = (byte) 128;
+        }
+        if (qrCode != null) {
+            final int left = CROP.centerX() - qrCode.getWidth() / 2;
+            final int top = CROP.centerY() - qrCode.getHeight() / 2;
+            for (int y = 0; y < qrCode.getHeight(); y++) {
+                for (int x = 0; x < qrCode.getWidth(); x++) {
+                    final int luminance = Color.red(qrCode.getPixel(x, y)) > 128 ? 235 : 16;
+                    frame[(top + y) * FRAME_WIDTH + left + x] = (byte) luminance;
+                }
+            }
+        }
+        return frame;
+    }
+
+    private interface FrameDecoder {
+        String decode(byte[] frame);
+    }
+}
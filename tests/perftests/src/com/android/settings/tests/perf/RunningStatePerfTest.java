@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.applications.RunningState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures {@link RunningState} updates over a synthetic snapshot of 500 processes, both when
+ * ActivityManager reports the same processes again and when some of them changed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RunningStatePerfTest {
+    private static final int WARM_UP_TIME = 5;
+    private static final int TEST_TIME = 30;
+    private static final int PROCESS_COUNT = 500;
+    private static final int CHANGED_PROCESS_COUNT = 10;
+    private static final int FIRST_PID = 20000;
+
+    private Context mContext;
+    private Bundle mBundle;
+    private RunningState mState;
+    private long[] mPss;
+    private int mTick;
+
+    @Before
+    public void setUp() {
+        mContext = getInstrumentation().getTargetContext();
+        mBundle = new Bundle();
+        // RunningState creates its UI handler on the constructing thread.
+        getInstrumentation().runOnMainSync(() -> mState = new RunningState(mContext));
+        mPss = new long[PROCESS_COUNT];
+        for (int i = 0; i < PROCESS_COUNT; i++) {
+            mPss[i] = 10000 + i;
+        }
+        mState.setProcessPssReader(pids -> {
+            final long[] pss = new long[pids.length];
+            for (int i = 0; i < pids.length; i++) {
+                pss[i] = mPss[pids[i] - FIRST_PID];
+            }
+            return pss;
+        });
+        mState.update(mContext, new ArrayList<>(), createProcesses(0));
+    }
+
+    @After
+    public void tearDown() {
+        mState.quitBackgroundThread();
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void update_sameProcesses() {
+        measure("same_processes", () -> mState.update(mContext, new ArrayList<>(),
+                createProcesses(0)));
+    }
+
+    @Test
+    public void update_sameProcessesNewSizes() {
+        measure("same_processes_new_sizes", () -> {
+            for (int i = 0; i < PROCESS_COUNT; i++) {
+                mPss[i] += 1024;
+            }
+            mState.update(mContext, new ArrayList<>(), createProcesses(0));
+        });
+    }
+
+    @Test
+    public void update_changedProcesses() {
+        measure("changed_processes", () -> mState.update(mContext, new ArrayList<>(),
+                createProcesses(++mTick)));
+    }
+
+    private void measure(String name, Runnable block) {
+        for (int i = 0; i < WARM_UP_TIME; i++) {
+            block.run();
+        }
+        long totalNanos = 0;
+        final long startBytes = getAllocatedBytes();
+        for (int i = 0; i < TEST_TIME; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            block.run();
+            totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        final long allocatedBytes = getAllocatedBytes() - startBytes;
+        mBundle.putString(String.format("RunningStatePerfTest_%s_%s", name, "avg_us"),
+                String.valueOf(totalNanos / TEST_TIME / 1000));
+        mBundle.putString(String.format("RunningStatePerfTest_%s_%s", name, "avg_alloc_kb"),
+                String.valueOf(allocatedBytes / TEST_TIME / 1024));
+    }
+
+    private static long getAllocatedBytes() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+
+    // Mostly cached processes plus some foreground ones, like a device with many apps in
+    // memory. A non-zero tick moves a few processes in the LRU list.
+    private static List<ActivityManager.RunningAppProcessInfo> createProcesses(int tick) {
+        final List<ActivityManager.RunningAppProcessInfo> processes = new ArrayList<>();
+        for (int i = 0; i < PROCESS_COUNT; i++) {
+            final ActivityManager.RunningAppProcessInfo pi =
+                    new ActivityManager.RunningAppProcessInfo("com.example.process" + i,
+                            FIRST_PID + i, new String[] {"com.example.package" + i});
+            pi.uid = Process.myUid();
+            pi.lru = i;
+            if (i % 20 == 0) {
+                pi.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+                pi.importanceReasonCode =
+                        ActivityManager.RunningAppProcessInfo.REASON_PROVIDER_IN_USE;
+            } else {
+                pi.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_CACHED;
+            }
+            processes.add(pi);
+        }
+        for (int i = 0; tick > 0 && i < CHANGED_PROCESS_COUNT; i++) {
+            final int index = (tick * CHANGED_PROCESS_COUNT + i) % PROCESS_COUNT;
+            processes.get(index).lru = PROCESS_COUNT + tick;
+        }
+        return processes;
+    }
+}
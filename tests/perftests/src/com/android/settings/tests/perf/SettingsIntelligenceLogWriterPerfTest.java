@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.app.settings.SettingsEnums;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.core.instrumentation.SettingsIntelligenceLogWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the cost of {@link SettingsIntelligenceLogWriter#action} on the calling thread, for
+ * bursts such as slider or scroll metrics.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SettingsIntelligenceLogWriterPerfTest {
+    private static final int WARM_UP_TIME = 5;
+    private static final int TEST_TIME = 20;
+    // Below the buffer capacity, so the worker keeps up between bursts.
+    private static final int BURST_SIZE = SettingsIntelligenceLogWriter.BUFFER_CAPACITY / 2;
+    // Pause between bursts, for the worker to drain them.
+    private static final long BURST_INTERVAL_MS = 100;
+
+    private Bundle mBundle;
+    private SettingsIntelligenceLogWriter mLogWriter;
+
+    @Before
+    public void setUp() {
+        mBundle = new Bundle();
+        mLogWriter = new SettingsIntelligenceLogWriter();
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().sendStatus(0, mBundle);
+    }
+
+    @Test
+    public void action_burst() {
+        for (int i = 0; i < WARM_UP_TIME; i++) {
+            logBurst();
+        }
+        final long droppedBefore = mLogWriter.getDroppedCount();
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (int i = 0; i < TEST_TIME; i++) {
+            final long elapsed = logBurst();
+            totalNanos += elapsed;
+            maxNanos = Math.max(maxNanos, elapsed);
+        }
+        putResult("avg_ns_per_event", totalNanos / TEST_TIME / BURST_SIZE);
+        putResult("max_ns_per_event", maxNanos / BURST_SIZE);
+        putResult("dropped", mLogWriter.getDroppedCount() - droppedBefore);
+    }
+
+    // Returns the time spent logging one burst.
+    private long logBurst() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BURST_SIZE; i++) {
+            mLogWriter.action(SettingsEnums.PAGE_UNKNOWN, SettingsEnums.PAGE_VISIBLE,
+                    SettingsEnums.SETTINGS_HOMEPAGE, "slider", i);
+        }
+        final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        SystemClock.sleep(BURST_INTERVAL_MS);
+        return elapsed;
+    }
+
+    private void putResult(String name, long value) {
+        mBundle.putString(String.format("SettingsIntelligenceLogWriterPerfTest_%s", name),
+                String.valueOf(value));
+    }
+}
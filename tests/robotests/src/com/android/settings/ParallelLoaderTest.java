@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+
+// Loads run right away, and ShadowThreadUtils delivers their values right away too.
+@RunWith(RobolectricTestRunner.class)
+public class ParallelLoaderTest {
+
+    @Mock
+    private ParallelLoader.Callback<Integer, Integer> mCallback;
+
+    private ExecutorService mExecutor;
+    private ParallelLoader<Integer, Integer> mLoader;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mExecutor = MoreExecutors.newDirectExecutorService();
+    }
+
+    @Test
+    public void start_noKeys_shouldFinish() {
+        new ParallelLoader<Integer, Integer>(Collections.emptyList(), key -> key, mCallback,
+                mExecutor).start();
+
+        verify(mCallback).onFinished();
+    }
+
+    @Test
+    public void start_shouldDeliverEveryValueThenFinish() {
+        new ParallelLoader<>(Arrays.asList(1, 2), key -> key * 10, mCallback, mExecutor)
+                .start();
+
+        final InOrder inOrder = inOrder(mCallback);
+        inOrder.verify(mCallback).onLoaded(1, 10);
+        inOrder.verify(mCallback).onLoaded(2, 20);
+        inOrder.verify(mCallback).onFinished();
+    }
+
+    @Test
+    public void start_loadFailed_shouldStillFinish() {
+        new ParallelLoader<Integer, Integer>(Arrays.asList(1, 2), key -> {
+            if (key == 1) {
+                throw new IllegalStateException("not available");
+            }
+            return key;
+        }, mCallback, mExecutor).start();
+
+        verify(mCallback, never()).onLoaded(eq(1), any());
+        verify(mCallback).onLoaded(2, 2);
+        verify(mCallback).onFinished();
+    }
+
+    @Test
+    public void cancel_shouldDropValues() {
+        mLoader = new ParallelLoader<>(Arrays.asList(1, 2), key -> {
+            mLoader.cancel();
+            return key;
+        }, mCallback, mExecutor);
+
+        mLoader.start();
+
+        assertThat(mLoader.isCancelled()).isTrue();
+        verify(mCallback, never()).onLoaded(anyInt(), any());
+        verify(mCallback, never()).onFinished();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Base64;
+
+import com.android.settings.TrustedCredentialsSettings.ParsedCert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TrustedCredentialsSettingsTest {
+
+    private static final String ALIAS = "system:test.0";
+
+    // Self-signed, "O=Example Org 1, CN=Example CA 1".
+    private static final byte[] CERTIFICATE_1 = Base64.decode(""
+            + "MIICPDCCAaWgAwIBAgIUUcneUP6ZkwkHxQpoNdzgzU5+U0kwDQYJKoZIhvcNAQELBQAwLzEWMBQG"
+            + "A1UECgwNRXhhbXBsZSBPcmcgMTEVMBMGA1UEAwwMRXhhbXBsZSBDQSAxMCAXDTI2MTAxNzA5MDc1"
+            + "NFoYDzIxMjYwOTIzMDkwNzU0WjAvMRYwFAYDVQQKDA1FeGFtcGxlIE9yZyAxMRUwEwYDVQQDDAxF"
+            + "eGFtcGxlIENBIDEwgZ8wDQYJKoZIhvcNAQEBBQADgY0AMIGJAoGBAMlg3w6tmYsj90DfiOPPlmEB"
+            + "xYBTAG5M+E2aD/flw3H7hFr1ANtfB+SYS/paqgv6E6jnBDl9BQbMQoxqUG/Abhw73lSYsTiMHNXk"
+            + "zI8VD10ODG+AgVoxrib2AZCLdPiC1P8azBwKh0LaZ7LQ7TtykJhTVwfPBKnlt0Et3UpVxa9xAgMB"
+            + "AAGjUzBRMB0GA1UdDgQWBBT0fxGgFqwdd8NiI9hCTSRXD5JprjAfBgNVHSMEGDAWgBT0fxGgFqwd"
+            + "d8NiI9hCTSRXD5JprjAPBgNVHRMBAf8EBTADAQH/MA0GCSqGSIb3DQEBCwUAA4GBAC6MSa9vYzWy"
+            + "RwTgmsmjGP0yYKgxyBpztpebP1KZHYcWzZw5hQ/5FbF44aSJgAV0AxDz/T5Hdp9oD5qHxF/YWsOR"
+            + "QYDYWunaiL7iCoeVsYnKetpWD++bllcfN1uN5yROhUt0GPG34WhWWa173LjbrUxN/ib483M+HcX+"
+            + "IWnyDnOV", Base64.DEFAULT);
+
+    // Self-signed, "O=Example Org 2, CN=Example CA 2".
+    private static final byte[] CERTIFICATE_2 = Base64.decode(""
+            + "MIICPDCCAaWgAwIBAgIUKFOK/hppkDxxkyvjW1blnnMa2FkwDQYJKoZIhvcNAQELBQAwLzEWMBQG"
+            + "A1UECgwNRXhhbXBsZSBPcmcgMjEVMBMGA1UEAwwMRXhhbXBsZSBDQSAyMCAXDTI2MTAxNzA5MDc1"
+            + "NFoYDzIxMjYwOTIzMDkwNzU0WjAvMRYwFAYDVQQKDA1FeGFtcGxlIE9yZyAyMRUwEwYDVQQDDAxF"
+            + "eGFtcGxlIENBIDIwgZ8wDQYJKoZIhvcNAQEBBQADgY0AMIGJAoGBAK6YL/84AMYBQMbNqsQUehhK"
+            + "bcR2m+Yx/k8RmxeroCR4e3fY8GM/U7twU2ACtUBzfAvJtqzG4w1QsBjJ8qZoVLkZcxwoxBwW9RKU"
+            + "sWWBnMRy3o2g2OOQ+JdbS+S9X3sGZRJDkopNfNTmAOeiuLGjTLYgHnYVMhbq6VWcGBJoiaIZAgMB"
+            + "AAGjUzBRMB0GA1UdDgQWBBSn2shQEmPV0h5URhn6O9hUYu7abDAfBgNVHSMEGDAWgBSn2shQEmPV"
+            + "0h5URhn6O9hUYu7abDAPBgNVHRMBAf8EBTADAQH/MA0GCSqGSIb3DQEBCwUAA4GBAHU0xT5hn1Ux"
+            + "NQuVuq5FcZysj+RiA271zSFbxs/UyWPyawDqUnB0xbrKiEDW2W0ufSIN1uMS7vF7KWZaZY4YL5hF"
+            + "XYQ6ikxW1+7yre2xXp4w4VXtLPfxP9P87WtBOmQEq9KJod91rOEvZ5ZQPt/lHq7OOfm+EPUSqfKf"
+            + "Hj83W8af", Base64.DEFAULT);
+
+    @Test
+    public void parsedCert_shouldUseOrganizationAsPrimarySubject() {
+        final ParsedCert parsedCert = ParsedCert.get(ALIAS, CERTIFICATE_1);
+
+        assertThat(parsedCert.mSubjectPrimary).isEqualTo("Example Org 1");
+        assertThat(parsedCert.mSubjectSecondary).isEqualTo("Example CA 1");
+    }
+
+    @Test
+    public void parsedCert_sameCertificate_shouldReuseParsedCert() {
+        final ParsedCert parsedCert = ParsedCert.get(ALIAS, CERTIFICATE_1);
+
+        assertThat(ParsedCert.get(ALIAS, CERTIFICATE_1.clone())).isSameInstanceAs(parsedCert);
+    }
+
+    @Test
+    public void parsedCert_certificateChanged_shouldParseAgain() {
+        final ParsedCert parsedCert = ParsedCert.get(ALIAS, CERTIFICATE_1);
+
+        final ParsedCert changedCert = ParsedCert.get(ALIAS, CERTIFICATE_2);
+
+        assertThat(changedCert).isNotSameInstanceAs(parsedCert);
+        assertThat(changedCert.mSubjectPrimary).isEqualTo("Example Org 2");
+    }
+
+    @Test
+    public void parsedCert_otherAlias_shouldNotShareParsedCert() {
+        final ParsedCert parsedCert = ParsedCert.get(ALIAS, CERTIFICATE_1);
+
+        assertThat(ParsedCert.get("user:test.0", CERTIFICATE_1)).isNotSameInstanceAs(parsedCert);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+import android.os.UserHandle;
+
+import com.android.settings.applications.AppIdentityCache.AppIdentity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppIdentityCacheTest {
+
+    private static final String PACKAGE_NAME = "com.android.test";
+    private static final int UID = 10123;
+    private static final int USER_ID = 0;
+    private static final int OTHER_USER_ID = 10;
+
+    private Context mContext;
+    private PackageManager mPackageManager;
+    private AppIdentityCache mCache;
+    private Locale mDefaultLocale;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mPackageManager = mContext.getPackageManager();
+        mCache = new AppIdentityCache(AppIdentityCache.MAX_CACHE_BYTES);
+        mDefaultLocale = Locale.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    @Test
+    public void getApplicationIdentity_secondCall_shouldNotLoadLabelAgain() {
+        final ApplicationInfo info = createApplicationInfo();
+        doReturn("label").when(info).loadLabel(mPackageManager);
+
+        final AppIdentity first = mCache.getApplicationIdentity(mContext, mPackageManager, info);
+        final AppIdentity second = mCache.getApplicationIdentity(mContext, mPackageManager, info);
+
+        assertThat(first.label.toString()).isEqualTo("label");
+        assertThat(second).isSameInstanceAs(first);
+        verify(info, times(1)).loadLabel(mPackageManager);
+    }
+
+    @Test
+    public void getApplicationIdentity_otherUser_shouldLoadSeparately() {
+        final ApplicationInfo info = createApplicationInfo();
+        doReturn("label").when(info).loadLabel(mPackageManager);
+
+        mCache.getApplicationIdentity(mContext, mPackageManager, info, 0 /* userId */);
+        mCache.getApplicationIdentity(mContext, mPackageManager, info, 10 /* userId */);
+
+        verify(info, times(2)).loadLabel(mPackageManager);
+    }
+
+    @Test
+    public void peekUidIdentity_localeChanged_shouldDropEntries() {
+        Locale.setDefault(Locale.US);
+        mCache.putUidIdentity(UID, new AppIdentity("label", PACKAGE_NAME, null));
+        assertThat(mCache.peekUidIdentity(mContext, UID)).isNotNull();
+
+        Locale.setDefault(Locale.TAIWAN);
+
+        assertThat(mCache.peekUidIdentity(mContext, UID)).isNull();
+    }
+
+    @Test
+    public void getUidIdentity_invalidUid_shouldReturnNull() {
+        assertThat(mCache.getUidIdentity(mContext, 0)).isNull();
+        assertThat(mCache.getUidIdentity(mContext, Process.INVALID_UID)).isNull();
+    }
+
+    @Test
+    public void invalidatePackage_shouldDropEntriesOfPackageAndUid() {
+        mCache.putUidIdentity(UID, new AppIdentity("label", null, null));
+        mCache.putUidIdentity(UID + 1, new AppIdentity("label", PACKAGE_NAME, null));
+        mCache.putUidIdentity(UID + 2, new AppIdentity("label", "com.android.other", null));
+
+        mCache.invalidatePackage(USER_ID, PACKAGE_NAME, UID);
+
+        assertThat(mCache.peekUidIdentity(mContext, UID)).isNull();
+        assertThat(mCache.peekUidIdentity(mContext, UID + 1)).isNull();
+        assertThat(mCache.peekUidIdentity(mContext, UID + 2)).isNotNull();
+    }
+
+    @Test
+    public void invalidatePackage_otherUser_shouldKeepEntries() {
+        final int otherUid = UserHandle.getUid(OTHER_USER_ID, UID + 1);
+        mCache.putUidIdentity(UID + 1, new AppIdentity("label", PACKAGE_NAME, null));
+        mCache.putUidIdentity(otherUid, new AppIdentity("label", PACKAGE_NAME, null));
+
+        mCache.invalidatePackage(OTHER_USER_ID, PACKAGE_NAME, Process.INVALID_UID);
+
+        assertThat(mCache.peekUidIdentity(mContext, UID + 1)).isNotNull();
+        assertThat(mCache.peekUidIdentity(mContext, otherUid)).isNull();
+    }
+
+    @Test
+    public void invalidatePackage_applicationIdentity_shouldOnlyDropItsUser() {
+        final ApplicationInfo info = createApplicationInfo();
+        doReturn("label").when(info).loadLabel(mPackageManager);
+        mCache.getApplicationIdentity(mContext, mPackageManager, info, USER_ID);
+        mCache.getApplicationIdentity(mContext, mPackageManager, info, OTHER_USER_ID);
+
+        mCache.invalidatePackage(OTHER_USER_ID, PACKAGE_NAME, Process.INVALID_UID);
+        mCache.getApplicationIdentity(mContext, mPackageManager, info, USER_ID);
+        mCache.getApplicationIdentity(mContext, mPackageManager, info, OTHER_USER_ID);
+
+        verify(info, times(3)).loadLabel(mPackageManager);
+    }
+
+    @Test
+    public void peekUidIdentity_shouldRegisterReceiverForAllUsers() {
+        final Context context = mock(Context.class);
+        when(context.getApplicationContext()).thenReturn(context);
+
+        mCache.peekUidIdentity(context, UID);
+        mCache.peekUidIdentity(context, UID);
+
+        verify(context).registerReceiverAsUser(any(BroadcastReceiver.class), eq(UserHandle.ALL),
+                any(IntentFilter.class), isNull(), isNull());
+    }
+
+    @Test
+    public void putUidIdentity_overBudget_shouldEvictLeastRecentlyUsed() {
+        mCache = new AppIdentityCache(2 * AppIdentityCache.MIN_ENTRY_BYTES);
+        mCache.putUidIdentity(UID, new AppIdentity("label", null, null));
+        mCache.putUidIdentity(UID + 1, new AppIdentity("label", null, null));
+        mCache.peekUidIdentity(mContext, UID);
+
+        mCache.putUidIdentity(UID + 2, new AppIdentity("label", null, null));
+
+        assertThat(mCache.peekUidIdentity(mContext, UID)).isNotNull();
+        assertThat(mCache.peekUidIdentity(mContext, UID + 1)).isNull();
+        assertThat(mCache.getCachedBytes()).isEqualTo(2 * AppIdentityCache.MIN_ENTRY_BYTES);
+    }
+
+    @Test
+    public void putUidIdentity_bitmapIcon_shouldChargeBitmapSize() {
+        final Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        mCache.putUidIdentity(UID, new AppIdentity("label", PACKAGE_NAME,
+                new BitmapDrawable(mContext.getResources(), bitmap)));
+
+        assertThat(mCache.getCachedBytes()).isEqualTo(bitmap.getAllocationByteCount());
+    }
+
+    @Test
+    public void getIcon_shouldReturnNewDrawableForEachConsumer() {
+        final Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        final AppIdentity identity = new AppIdentity("label", PACKAGE_NAME,
+                new BitmapDrawable(mContext.getResources(), bitmap));
+
+        final Drawable first = identity.getIcon();
+        first.setBounds(0, 0, 5, 5);
+        final Drawable second = identity.getIcon();
+
+        assertThat(second).isNotSameInstanceAs(first);
+        assertThat(second.getBounds().isEmpty()).isTrue();
+        assertThat(((BitmapDrawable) second).getBitmap()).isSameInstanceAs(bitmap);
+    }
+
+    @Test
+    public void getIcon_noIcon_shouldReturnNull() {
+        assertThat(new AppIdentity("label", null, null).getIcon()).isNull();
+    }
+
+    @Test
+    public void loadUidIdentities_cachedUids_shouldReportAllAndFinish() throws Exception {
+        mCache.putUidIdentity(UID, new AppIdentity("label", null, null));
+        mCache.putUidIdentity(UID + 1, new AppIdentity("label", null, null));
+        final List<Integer> loadedUids = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        mCache.loadUidIdentities(mContext, new int[] {UID, UID + 1},
+                new AppIdentityCache.Listener() {
+                    @Override
+                    public void onUidIdentityLoaded(int uid, AppIdentity identity) {
+                        loadedUids.add(uid);
+                    }
+
+                    @Override
+                    public void onLoadFinished() {
+                        latch.countDown();
+                    }
+                });
+
+        assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(loadedUids).containsExactly(UID, UID + 1);
+    }
+
+    private ApplicationInfo createApplicationInfo() {
+        final ApplicationInfo info = spy(new ApplicationInfo());
+        info.packageName = PACKAGE_NAME;
+        info.uid = UID;
+        return info;
+    }
+}
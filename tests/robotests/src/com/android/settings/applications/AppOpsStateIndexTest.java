@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageInfo;
+import android.content.pm.ParceledListSlice;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppOpsStateIndexTest {
+
+    private static final String PACKAGE_NAME = "pkg1";
+    private static final int USER_ID = 0;
+    private static final int UID = UserHandle.getUid(USER_ID, 10001);
+    private static final String[] PERMISSIONS = {Manifest.permission.SYSTEM_ALERT_WINDOW};
+
+    @Mock
+    private Context mContext;
+    @Mock
+    private UserManager mUserManager;
+    @Mock
+    private IPackageManager mPackageManagerService;
+    @Mock
+    private AppOpsManager mAppOpsManager;
+    @Mock
+    private AppOpsStateIndex.Listener mListener;
+
+    private AppOpsStateIndex mIndex;
+
+    @Before
+    public void setUp() throws RemoteException {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getSystemService(Context.USER_SERVICE)).thenReturn(mUserManager);
+        when(mContext.getSystemService(Context.APP_OPS_SERVICE)).thenReturn(mAppOpsManager);
+        when(mContext.getPackageName()).thenReturn("com.android.settings");
+        when(mUserManager.getUserProfiles())
+                .thenReturn(Collections.singletonList(UserHandle.of(USER_ID)));
+        when(mPackageManagerService.getAppOpPermissionPackages(anyString()))
+                .thenReturn(new String[] {PACKAGE_NAME});
+        when(mPackageManagerService.isPackageAvailable(PACKAGE_NAME, USER_ID)).thenReturn(true);
+        when(mPackageManagerService.getPackagesHoldingPermissions(any(), anyInt(), anyInt()))
+                .thenReturn(new ParceledListSlice<>(Collections.<PackageInfo>emptyList()));
+        when(mPackageManagerService.getPackageUid(eq(PACKAGE_NAME), anyInt(), eq(USER_ID)))
+                .thenReturn(UID);
+        mIndex = new AppOpsStateIndex(mContext, mPackageManagerService,
+                new int[] {AppOpsManager.OP_SYSTEM_ALERT_WINDOW}, PERMISSIONS);
+    }
+
+    @Test
+    public void getAll_notWatched_shouldLoadEveryTime() throws RemoteException {
+        mIndex.getAll();
+        mIndex.getAll();
+
+        verify(mPackageManagerService, times(2)).getAppOpPermissionPackages(anyString());
+    }
+
+    @Test
+    public void getAll_watched_shouldLoadOnce() throws RemoteException {
+        mIndex.startWatching(mListener);
+
+        assertThat(mIndex.getAll().get(USER_ID)).containsKey(PACKAGE_NAME);
+        assertThat(mIndex.get(USER_ID, PACKAGE_NAME)).isNotNull();
+        assertThat(mIndex.getPackageCount(USER_ID)).isEqualTo(1);
+
+        verify(mPackageManagerService).getAppOpPermissionPackages(anyString());
+    }
+
+    @Test
+    public void get_notWatched_shouldNotLoad() throws RemoteException {
+        assertThat(mIndex.get(USER_ID, PACKAGE_NAME)).isNull();
+
+        verify(mPackageManagerService, never()).getAppOpPermissionPackages(anyString());
+    }
+
+    @Test
+    public void refreshAppOpMode_watched_shouldReloadPackageAndNotify() throws RemoteException {
+        mIndex.startWatching(mListener);
+        mIndex.getAll();
+        final PackageInfo packageInfo = createRequestingPackageInfo();
+        when(mPackageManagerService.getPackageInfo(eq(PACKAGE_NAME), anyInt(), eq(USER_ID)))
+                .thenReturn(packageInfo);
+
+        mIndex.refreshAppOpMode(PACKAGE_NAME);
+
+        final AppStateAppOpsBridge.PermissionState state = mIndex.get(USER_ID, PACKAGE_NAME);
+        assertThat(state.packageInfo).isSameInstanceAs(packageInfo);
+        assertThat(state.permissionDeclared).isTrue();
+        verify(mListener).onPermissionStateChanged(PACKAGE_NAME, UID);
+    }
+
+    @Test
+    public void get_shouldReturnCopy() {
+        mIndex.startWatching(mListener);
+        mIndex.getAll();
+
+        mIndex.get(USER_ID, PACKAGE_NAME).appOpMode = AppOpsManager.MODE_ERRORED;
+
+        assertThat(mIndex.get(USER_ID, PACKAGE_NAME).appOpMode)
+                .isEqualTo(AppOpsManager.MODE_DEFAULT);
+    }
+
+    @Test
+    public void getAll_packageChangedWhileLoading_shouldLoadAgain() throws RemoteException {
+        mIndex.startWatching(mListener);
+        when(mPackageManagerService.getAppOpPermissionPackages(anyString())).thenAnswer(
+                invocation -> {
+                    mIndex.refreshPackage(PACKAGE_NAME, USER_ID);
+                    return new String[] {PACKAGE_NAME};
+                });
+
+        mIndex.getAll();
+        mIndex.getAll();
+
+        verify(mPackageManagerService, times(2)).getAppOpPermissionPackages(anyString());
+    }
+
+    @Test
+    public void refreshPackage_noLongerRequested_shouldRemoveState() throws RemoteException {
+        mIndex.startWatching(mListener);
+        mIndex.getAll();
+        when(mPackageManagerService.getPackageInfo(eq(PACKAGE_NAME), anyInt(), eq(USER_ID)))
+                .thenReturn(new PackageInfo());
+
+        mIndex.refreshPackage(PACKAGE_NAME, USER_ID);
+
+        assertThat(mIndex.get(USER_ID, PACKAGE_NAME)).isNull();
+    }
+
+    @Test
+    public void stopWatching_shouldLoadAgain() throws RemoteException {
+        mIndex.startWatching(mListener);
+        mIndex.getAll();
+
+        mIndex.stopWatching(mListener);
+        mIndex.getAll();
+
+        verify(mPackageManagerService, times(2)).getAppOpPermissionPackages(anyString());
+    }
+
+    private static PackageInfo createRequestingPackageInfo() {
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = PACKAGE_NAME;
+        packageInfo.requestedPermissions = PERMISSIONS;
+        packageInfo.requestedPermissionsFlags = new int[] {0};
+        return packageInfo;
+    }
+}
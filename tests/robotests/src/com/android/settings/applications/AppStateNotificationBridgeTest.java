@@ -59,6 +59,7 @@ import android.widget.Switch;
 import com.android.settings.R;
 import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
 import com.android.settings.notification.NotificationBackend;
+import com.android.settings.notification.NotificationsSentAggregator;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 
@@ -70,6 +71,9 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -91,6 +95,7 @@ public class AppStateNotificationBridgeTest {
     @Mock
     private NotificationBackend mBackend;
     private Context mContext;
+    private NotificationsSentAggregator mSentAggregator;
     private AppStateNotificationBridge mBridge;
 
     @Before
@@ -103,9 +108,13 @@ public class AppStateNotificationBridgeTest {
         // most tests assume no work profile
         when(mUserManager.getProfileIdsWithDisabled(anyInt())).thenReturn(new int[]{});
         mContext = RuntimeEnvironment.application.getApplicationContext();
+        // The events below are sent at the very beginning of time.
+        mSentAggregator = new NotificationsSentAggregator(
+                Clock.fixed(Instant.ofEpochMilli(DAY_IN_MILLIS), ZoneOffset.UTC));
 
         mBridge = new AppStateNotificationBridge(mContext, mState,
-                mock(AppStateBaseBridge.Callback.class), mUsageStats, mUserManager, mBackend);
+                mock(AppStateBaseBridge.Callback.class), mUsageStats, mUserManager, mBackend,
+                mSentAggregator);
     }
 
     private AppEntry getMockAppEntry(String pkg) {
@@ -291,7 +300,8 @@ public class AppStateNotificationBridgeTest {
         // has work profile
         when(mUserManager.getProfileIdsWithDisabled(anyInt())).thenReturn(new int[]{1});
         mBridge = new AppStateNotificationBridge(mContext, mState,
-                mock(AppStateBaseBridge.Callback.class), mUsageStats, mUserManager, mBackend);
+                mock(AppStateBaseBridge.Callback.class), mUsageStats, mUserManager, mBackend,
+                mSentAggregator);
 
         List<Event> eventsProfileOwner = new ArrayList<>();
         for (int i = 0; i < 8; i++) {
@@ -344,8 +354,7 @@ public class AppStateNotificationBridgeTest {
 
     @Test
     public void testUpdateExtraInfo_noEvents() throws RemoteException {
-        when(mUsageStats.queryEventsForPackageForUser(
-                anyLong(), anyLong(), anyInt(), anyString(), anyString()))
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
                 .thenReturn(mock(UsageEvents.class));
         AppEntry entry = getMockAppEntry(PKG1);
 
@@ -365,8 +374,8 @@ public class AppStateNotificationBridgeTest {
         }
 
         UsageEvents usageEvents = getUsageEvents(events);
-        when(mUsageStats.queryEventsForPackageForUser(
-                anyLong(), anyLong(), anyInt(), anyString(), anyString())).thenReturn(usageEvents);
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(usageEvents);
 
         AppEntry entry = getMockAppEntry(PKG1);
         mBridge.updateExtraInfo(entry, "", 0);
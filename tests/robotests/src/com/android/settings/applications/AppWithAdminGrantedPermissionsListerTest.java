@@ -29,6 +29,7 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import android.app.admin.DevicePolicyManager;
+import android.content.Context;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageManager;
 import android.content.pm.UserInfo;
@@ -73,6 +74,8 @@ public final class AppWithAdminGrantedPermissionsListerTest {
     private final String PERMISSION_2 = "some.permission.2";
     private final String[] PERMISSIONS = {PERMISSION_1, PERMISSION_2};
 
+    @Mock
+    private Context mContext;
     @Mock
     private UserManager mUserManager;
     @Mock
@@ -87,6 +90,9 @@ public final class AppWithAdminGrantedPermissionsListerTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        // Installed apps are listed through the application context.
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
     }
 
     @Test
@@ -210,7 +216,7 @@ public final class AppWithAdminGrantedPermissionsListerTest {
             AppWithAdminGrantedPermissionsLister {
 
         private AppWithAdminGrantedPermissionsListerTestable(String[] permissions) {
-            super(permissions, mPackageManager, mPackageManagerService,
+            super(mContext, permissions, mPackageManager, mPackageManagerService,
                     mDevicePolicyManager, mUserManager);
         }
 
@@ -28,6 +28,7 @@ import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
@@ -68,6 +69,8 @@ public final class InstalledAppListerTest {
     private final int MAIN_USER_APP_UID = MAIN_USER_ID * PER_USER_UID_RANGE;
     private final int MANAGED_PROFILE_APP_UID = MANAGED_PROFILE_ID * PER_USER_UID_RANGE;
 
+    @Mock
+    private Context mContext;
     @Mock
     private UserManager mUserManager;
     @Mock
@@ -78,6 +81,9 @@ public final class InstalledAppListerTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        // Installed apps are listed through the application context.
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
     }
 
     private void expectQueryIntentActivities(int userId, String packageName, boolean launchable) {
@@ -189,7 +195,7 @@ public final class InstalledAppListerTest {
 
     private class InstalledAppListerTestable extends InstalledAppLister {
         private InstalledAppListerTestable() {
-            super(mPackageManager, mUserManager);
+            super(mContext, mPackageManager, mUserManager);
         }
 
         @Override
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.android.settings.testutils.ApplicationTestUtils.buildInfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.UserHandle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+@RunWith(RobolectricTestRunner.class)
+public class InstalledAppsSnapshotTest {
+
+    private static final int USER_ID = 0;
+    private static final int OTHER_USER_ID = 10;
+    private static final String APP_1 = "app1";
+    private static final String APP_2 = "app2";
+
+    @Mock
+    private Context mAppContext;
+    @Mock
+    private Context mActivityContext;
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private PackageManager mActivityPackageManager;
+
+    private InstalledAppsSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mAppContext.getApplicationContext()).thenReturn(mAppContext);
+        when(mAppContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mActivityContext.getApplicationContext()).thenReturn(mAppContext);
+        when(mActivityContext.getPackageManager()).thenReturn(mActivityPackageManager);
+        when(mPackageManager.getInstalledApplicationsAsUser(0 /* flags */, USER_ID))
+                .thenReturn(Arrays.asList(
+                        buildInfo(10001, APP_1, 0 /* flags */, 0 /* targetSdkVersion */),
+                        buildInfo(10002, APP_2, ApplicationInfo.FLAG_SYSTEM,
+                                0 /* targetSdkVersion */)));
+        mSnapshot = InstalledAppsSnapshot.get(mAppContext, USER_ID);
+    }
+
+    @Test
+    public void get_sameUser_shouldReturnSameSnapshot() {
+        assertThat(InstalledAppsSnapshot.get(mActivityContext, USER_ID))
+                .isSameInstanceAs(mSnapshot);
+    }
+
+    @Test
+    public void get_otherUser_shouldReturnOtherSnapshot() {
+        assertThat(InstalledAppsSnapshot.get(mAppContext, OTHER_USER_ID))
+                .isNotSameInstanceAs(mSnapshot);
+    }
+
+    @Test
+    public void get_shouldRegisterPackageReceiverOnceForAllUsers() {
+        InstalledAppsSnapshot.get(mActivityContext, OTHER_USER_ID);
+
+        verify(mAppContext).registerReceiverAsUser(any(BroadcastReceiver.class),
+                eq(UserHandle.ALL), any(IntentFilter.class), isNull(), isNull());
+        verify(mActivityContext, never()).registerReceiverAsUser(any(BroadcastReceiver.class),
+                any(UserHandle.class), any(IntentFilter.class), any(), any());
+    }
+
+    @Test
+    public void getApplications_shouldQueryPackageManagerOfApplicationContext() {
+        InstalledAppsSnapshot.get(mActivityContext, USER_ID).getApplications(0 /* flags */);
+
+        verify(mPackageManager).getInstalledApplicationsAsUser(0 /* flags */, USER_ID);
+        verify(mActivityContext, never()).getPackageManager();
+    }
+
+    @Test
+    public void getApplications_calledTwice_shouldQueryOnce() {
+        mSnapshot.getApplications(0 /* flags */);
+        final List<ApplicationInfo> applications = mSnapshot.getApplications(0 /* flags */);
+
+        assertThat(applications).hasSize(2);
+        verify(mPackageManager).getInstalledApplicationsAsUser(0 /* flags */, USER_ID);
+    }
+
+    @Test
+    public void getApplications_packageChanged_shouldQueryAgain() {
+        mSnapshot.getApplications(0 /* flags */);
+
+        InstalledAppsSnapshot.invalidateAll();
+        mSnapshot.getApplications(0 /* flags */);
+
+        verify(mPackageManager, times(2)).getInstalledApplicationsAsUser(0 /* flags */, USER_ID);
+    }
+
+    @Test
+    public void getApplications_withFilter_shouldOnlyReturnMatchingApplications() {
+        final List<ApplicationInfo> applications = mSnapshot.getApplications(0 /* flags */,
+                InstalledAppsSnapshot.FILTER_NON_SYSTEM);
+
+        assertThat(applications).hasSize(1);
+        assertThat(applications.get(0).packageName).isEqualTo(APP_1);
+    }
+
+    @Test
+    public void getRequestingPermissionFilter_shouldMatchRequestingApplications() {
+        final PackageInfo requesting = new PackageInfo();
+        requesting.packageName = APP_1;
+        requesting.requestedPermissions = new String[] {Manifest.permission.CAMERA};
+        final PackageInfo notRequesting = new PackageInfo();
+        notRequesting.packageName = APP_2;
+        when(mPackageManager.getInstalledPackagesAsUser(PackageManager.GET_PERMISSIONS, USER_ID))
+                .thenReturn(Arrays.asList(requesting, notRequesting));
+
+        final Predicate<ApplicationInfo> filter =
+                mSnapshot.getRequestingPermissionFilter(Manifest.permission.CAMERA);
+        final List<ApplicationInfo> applications = mSnapshot.getApplications(0 /* flags */);
+
+        assertThat(filter.test(applications.get(0))).isTrue();
+        assertThat(filter.test(applications.get(1))).isFalse();
+        mSnapshot.getRequestingPermissionFilter(Manifest.permission.CAMERA);
+        verify(mPackageManager).getInstalledPackagesAsUser(PackageManager.GET_PERMISSIONS,
+                USER_ID);
+    }
+}
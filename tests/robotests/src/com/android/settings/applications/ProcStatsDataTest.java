@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+
+import com.android.internal.app.procstats.ProcessStats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+
+@RunWith(RobolectricTestRunner.class)
+public class ProcStatsDataTest {
+
+    private static final long DURATION_1 = ProcessStatsBase.sDurations[0];
+    private static final long DURATION_2 = ProcessStatsBase.sDurations[1];
+
+    private Context mContext;
+    private ProcStatsData mData;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mData = createData(false /* useXfer */);
+        mData.setDuration(DURATION_1);
+    }
+
+    @After
+    public void tearDown() {
+        ProcStatsData.clearXferStats();
+    }
+
+    @Test
+    public void setDuration_notLoaded_shouldHaveNoStats() {
+        mData.refreshStats(false);
+
+        mData.setDuration(DURATION_2);
+
+        assertThat(mData.hasStats()).isFalse();
+        assertThat(mData.getEntries()).isNull();
+    }
+
+    @Test
+    public void refreshStats_notLoaded_shouldLoad() {
+        mData.refreshStats(false);
+
+        verify(mData).load();
+        assertThat(mData.hasStats()).isTrue();
+    }
+
+    @Test
+    public void setDuration_loadedBefore_shouldRestoreStatsWithoutLoading() {
+        mData.refreshStats(false);
+        final Object entries = mData.getEntries();
+        mData.setDuration(DURATION_2);
+        mData.refreshStats(false);
+
+        mData.setDuration(DURATION_1);
+
+        verify(mData, times(2)).load();
+        verify(mData, times(2)).computeEntries();
+        assertThat(mData.hasStats()).isTrue();
+        assertThat(mData.getEntries()).isSameInstanceAs(entries);
+    }
+
+    @Test
+    public void refreshStats_forceLoad_shouldLoadAgain() {
+        mData.refreshStats(false);
+
+        mData.refreshStats(true);
+
+        verify(mData, times(2)).load();
+    }
+
+    @Test
+    public void setStats_shouldComputeAgainWithoutLoading() {
+        mData.refreshStats(false);
+        final Object entries = mData.getEntries();
+
+        mData.setStats(ProcessStatsUi.FOREGROUND_PROC_STATES);
+
+        verify(mData).load();
+        verify(mData, times(2)).computeEntries();
+        assertThat(mData.getEntries()).isNotSameInstanceAs(entries);
+    }
+
+    @Test
+    public void setDuration_loadedWithOtherStates_shouldOnlyReuseLoadedStats() {
+        mData.refreshStats(false);
+        mData.setDuration(DURATION_2);
+        mData.refreshStats(false);
+        mData.setStats(ProcessStatsUi.FOREGROUND_PROC_STATES);
+
+        mData.setDuration(DURATION_1);
+
+        assertThat(mData.hasStats()).isFalse();
+        mData.refreshStats(false);
+        verify(mData, times(2)).load();
+        assertThat(mData.hasStats()).isTrue();
+    }
+
+    @Test
+    public void xferStats_shouldBeTakenOnce() {
+        mData.refreshStats(false);
+        mData.xferStats();
+
+        final ProcStatsData first = createData(true /* useXfer */);
+        first.setDuration(DURATION_1);
+        final ProcStatsData second = createData(true /* useXfer */);
+        second.setDuration(DURATION_1);
+
+        assertThat(first.hasStats()).isTrue();
+        verify(first, never()).load();
+        assertThat(second.hasStats()).isFalse();
+    }
+
+    @Test
+    public void clearXferStats_shouldDropStats() {
+        mData.refreshStats(false);
+        mData.xferStats();
+
+        ProcStatsData.clearXferStats();
+        final ProcStatsData data = createData(true /* useXfer */);
+        data.setDuration(DURATION_1);
+
+        assertThat(data.hasStats()).isFalse();
+    }
+
+    // Loading and computing the stats is replaced by empty stats.
+    private ProcStatsData createData(boolean useXfer) {
+        final ProcStatsData data = spy(new ProcStatsData(mContext, useXfer));
+        doAnswer(invocation -> {
+            ReflectionHelpers.setField(data, "mStats", mock(ProcessStats.class));
+            return null;
+        }).when(data).load();
+        doAnswer(invocation -> {
+            ReflectionHelpers.setField(data, "pkgEntries", new ArrayList<>());
+            return null;
+        }).when(data).computeEntries();
+        return data;
+    }
+}
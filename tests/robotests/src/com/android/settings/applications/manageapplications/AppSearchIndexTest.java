@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+
+import android.content.pm.ApplicationInfo;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppSearchIndexTest {
+
+    private AppSearchIndex mIndex;
+
+    @Before
+    public void setUp() {
+        final ArrayList<AppEntry> entries = new ArrayList<>();
+        entries.add(createEntry("Google Maps", "com.google.android.apps.maps"));
+        entries.add(createEntry("Café Finder", "com.example.cafe"));
+        entries.add(createEntry("Banana", "com.example.fruit"));
+        entries.add(createEntry("MANGO", "org.mango.app"));
+        mIndex = new AppSearchIndex(entries, Locale.US);
+    }
+
+    @Test
+    public void filter_emptyQuery_shouldReturnAllEntries() {
+        assertThat(mIndex.filter("")).isSameInstanceAs(mIndex.getEntries());
+        assertThat(mIndex.filter("  ")).isSameInstanceAs(mIndex.getEntries());
+    }
+
+    @Test
+    public void filter_substring_shouldIgnoreCase() {
+        assertThat(getLabels(mIndex.filter("an"))).containsExactly("Banana", "MANGO").inOrder();
+    }
+
+    @Test
+    public void filter_shouldIgnoreAccents() {
+        assertThat(getLabels(mIndex.filter("cafe"))).containsExactly("Café Finder");
+        assertThat(getLabels(mIndex.filter("CAFÉ"))).containsExactly("Café Finder");
+    }
+
+    @Test
+    public void filter_wordPrefixes_shouldMatchLabelWords() {
+        assertThat(getLabels(mIndex.filter("goo ma"))).containsExactly("Google Maps");
+        assertThat(getLabels(mIndex.filter("fin caf"))).containsExactly("Café Finder");
+    }
+
+    @Test
+    public void filter_packageName_shouldOnlyMatchPackageLikeQuery() {
+        assertThat(getLabels(mIndex.filter("fruit"))).isEmpty();
+        assertThat(getLabels(mIndex.filter("com.example")))
+                .containsExactly("Café Finder", "Banana");
+        assertThat(getLabels(mIndex.filter("com.example.fr"))).containsExactly("Banana");
+    }
+
+    @Test
+    public void filter_extendedQuery_shouldNarrowPreviousMatches() {
+        assertThat(getLabels(mIndex.filter("a"))).hasSize(4);
+        assertThat(getLabels(mIndex.filter("an"))).containsExactly("Banana", "MANGO");
+        assertThat(getLabels(mIndex.filter("ana"))).containsExactly("Banana");
+    }
+
+    @Test
+    public void filter_shortenedQuery_shouldSearchAllEntriesAgain() {
+        mIndex.filter("ana");
+
+        assertThat(getLabels(mIndex.filter("an"))).containsExactly("Banana", "MANGO");
+        assertThat(getLabels(mIndex.filter("m"))).containsExactly("Google Maps", "MANGO");
+    }
+
+    private static AppEntry createEntry(String label, String packageName) {
+        final AppEntry entry = mock(AppEntry.class);
+        entry.label = label;
+        entry.info = new ApplicationInfo();
+        entry.info.packageName = packageName;
+        return entry;
+    }
+
+    private static List<String> getLabels(List<AppEntry> entries) {
+        final List<String> labels = new ArrayList<>();
+        for (AppEntry entry : entries) {
+            labels.add(entry.label);
+        }
+        return labels;
+    }
+}
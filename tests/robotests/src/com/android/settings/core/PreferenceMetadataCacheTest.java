@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.android.settings.R;
+import com.android.settings.core.PreferenceXmlParserUtils.MetadataFlag;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class PreferenceMetadataCacheTest {
+
+    private static final int FLAGS = MetadataFlag.FLAG_NEED_KEY
+            | MetadataFlag.FLAG_NEED_PREF_TYPE
+            | MetadataFlag.FLAG_NEED_PREF_TITLE
+            | MetadataFlag.FLAG_NEED_SEARCHABLE;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Context mContext;
+    private File mFile;
+    private PreferenceMetadataCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = getApplicationContext();
+        mFile = new File(mTemporaryFolder.getRoot(), "metadata");
+        mCache = new PreferenceMetadataCache(mFile);
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void getMetadata_shouldMatchLiveParsing() throws Exception {
+        final List<Bundle> expected = PreferenceXmlParserUtils.parseMetadata(mContext,
+                R.xml.display_settings, FLAGS);
+
+        // Second call is served from memory.
+        mCache.getMetadata(mContext, R.xml.display_settings, FLAGS);
+        final List<Bundle> metadata = mCache.getMetadata(mContext, R.xml.display_settings,
+                FLAGS);
+
+        assertSameMetadata(metadata, expected);
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void getMetadata_includePrefScreen_shouldMatchLiveParsing() throws Exception {
+        final int flags = FLAGS | MetadataFlag.FLAG_INCLUDE_PREF_SCREEN
+                | MetadataFlag.FLAG_NEED_PREF_APPEND;
+        final List<Bundle> expected = PreferenceXmlParserUtils.parseMetadata(mContext,
+                R.xml.battery_saver_schedule_settings, flags);
+
+        mCache.getMetadata(mContext, R.xml.battery_saver_schedule_settings, FLAGS);
+        final List<Bundle> metadata = mCache.getMetadata(mContext,
+                R.xml.battery_saver_schedule_settings, flags);
+
+        assertSameMetadata(metadata, expected);
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void getMetadata_afterWrite_shouldLoadOtherTablesFromDisk() throws Exception {
+        mCache.getMetadata(mContext, R.xml.display_settings, FLAGS);
+        mCache.getMetadata(mContext, R.xml.location_settings, FLAGS);
+        mCache.writeTables();
+
+        final PreferenceMetadataCache cache = new PreferenceMetadataCache(mFile);
+        final List<Bundle> metadata = cache.getMetadata(mContext, R.xml.display_settings, FLAGS);
+
+        assertThat(cache.hasTable(R.xml.location_settings)).isTrue();
+        assertSameMetadata(metadata, PreferenceXmlParserUtils.parseMetadata(mContext,
+                R.xml.display_settings, FLAGS));
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void getMetadata_corruptedFile_shouldParse() throws Exception {
+        mCache.getMetadata(mContext, R.xml.display_settings, FLAGS);
+        mCache.writeTables();
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[] {0, 0, 0, PreferenceMetadataCache.FORMAT_VERSION, 1});
+        }
+
+        final PreferenceMetadataCache cache = new PreferenceMetadataCache(mFile);
+        final List<Bundle> metadata = cache.getMetadata(mContext, R.xml.display_settings, FLAGS);
+
+        assertSameMetadata(metadata, PreferenceXmlParserUtils.parseMetadata(mContext,
+                R.xml.display_settings, FLAGS));
+    }
+
+    private static void assertSameMetadata(List<Bundle> actual, List<Bundle> expected) {
+        assertThat(actual).hasSize(expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).keySet()).isEqualTo(expected.get(i).keySet());
+            for (String key : expected.get(i).keySet()) {
+                assertThat(actual.get(i).get(key)).isEqualTo(expected.get(i).get(key));
+            }
+        }
+    }
+}
@@ -31,6 +31,8 @@ import org.robolectric.RuntimeEnvironment;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -75,4 +77,33 @@ public class SettingsIntelligenceLogWriterTest {
         assertThat(settingsLog.getChangedPreferenceKey()).isEqualTo("package");
         assertThat(settingsLog.getChangedPreferenceIntValue()).isEqualTo(100);
     }
+
+    @Test
+    public void serialize_hasSizeTwo_returnAllLogs() throws IOException {
+        List<SettingsLog> events = new ArrayList<>();
+        events.add(SettingsLog.newBuilder().setAction(SettingsEnums.PAGE_VISIBLE).build());
+        events.add(SettingsLog.newBuilder().setAction(SettingsEnums.PAGE_HIDE).build());
+
+        final byte[] data = SettingsIntelligenceLogWriter.serialize(events);
+
+        final DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+        assertThat(inputStream.readInt()).isEqualTo(2);
+        for (SettingsLog event : events) {
+            final byte[] change = new byte[inputStream.readInt()];
+            inputStream.read(change);
+            assertThat(SettingsLog.parseFrom(change).getAction()).isEqualTo(event.getAction());
+        }
+        assertThat(inputStream.available()).isEqualTo(0);
+        inputStream.close();
+    }
+
+    @Test
+    public void formatTimestamp_shouldKeepZonedDateTimeFormat() {
+        final long timestampNanos = 1_620_000_000_123_000_000L;
+
+        final String timestamp = SettingsIntelligenceLogWriter.formatTimestamp(timestampNanos);
+
+        assertThat(ZonedDateTime.parse(timestamp).toInstant())
+                .isEqualTo(Instant.ofEpochSecond(0, timestampNanos));
+    }
 }
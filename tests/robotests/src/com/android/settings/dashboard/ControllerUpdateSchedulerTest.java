@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.android.settingslib.core.instrumentation.Instrumentable.METRICS_CATEGORY_UNKNOWN;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import android.app.settings.SettingsEnums;
+import android.content.Context;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceCategory;
+import androidx.preference.PreferenceManager;
+import androidx.preference.PreferenceScreen;
+
+import com.android.settingslib.core.AbstractPreferenceController;
+import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(RobolectricTestRunner.class)
+public class ControllerUpdateSchedulerTest {
+    private static final String KEY = "my_key";
+
+    private Context mContext;
+    private PreferenceScreen mScreen;
+    private ControllerUpdateScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        final PreferenceManager preferenceManager = new PreferenceManager(mContext);
+        mScreen = preferenceManager.createPreferenceScreen(mContext);
+        mScheduler = new ControllerUpdateScheduler(null /* metricsFeature */,
+                METRICS_CATEGORY_UNKNOWN);
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.release();
+    }
+
+    @Test
+    public void computePreferencePositions_followsScreenOrder() {
+        final Preference first = new Preference(mContext);
+        first.setKey("first");
+        final PreferenceCategory category = new PreferenceCategory(mContext);
+        category.setKey("category");
+        final Preference nested = new Preference(mContext);
+        nested.setKey("nested");
+        final Preference last = new Preference(mContext);
+        last.setKey("last");
+        mScreen.addPreference(first);
+        mScreen.addPreference(category);
+        category.addPreference(nested);
+        mScreen.addPreference(last);
+
+        final Map<String, Integer> positions =
+                ControllerUpdateScheduler.computePreferencePositions(mScreen);
+
+        assertThat(positions.get("first")).isEqualTo(0);
+        assertThat(positions.get("category")).isEqualTo(1);
+        assertThat(positions.get("nested")).isEqualTo(2);
+        assertThat(positions.get("last")).isEqualTo(3);
+    }
+
+    @Test
+    public void updatePreferenceStates_available_updateStateOnMainThread() {
+        final TestPreferenceController controller =
+                spy(new TestPreferenceController(mContext, KEY, true /* available */));
+        addPreference(KEY);
+
+        mScheduler.updatePreferenceStates(mScreen,
+                Collections.singletonList(Arrays.asList(controller)));
+        Robolectric.flushForegroundThreadScheduler();
+
+        verify(controller).updateState(any(Preference.class));
+    }
+
+    @Test
+    public void updatePreferenceStates_notAvailable_noUpdateState() {
+        final TestPreferenceController controller =
+                spy(new TestPreferenceController(mContext, KEY, false /* available */));
+        addPreference(KEY);
+
+        mScheduler.updatePreferenceStates(mScreen,
+                Collections.singletonList(Arrays.asList(controller)));
+        Robolectric.flushForegroundThreadScheduler();
+
+        verify(controller, never()).updateState(any(Preference.class));
+    }
+
+    @Test
+    public void updatePreferenceStates_readsPreferenceKeyOnce() {
+        final TestPreferenceController controller =
+                spy(new TestPreferenceController(mContext, KEY, true /* available */));
+        addPreference(KEY);
+
+        mScheduler.updatePreferenceStates(mScreen,
+                Collections.singletonList(Arrays.asList(controller)));
+        Robolectric.flushForegroundThreadScheduler();
+
+        verify(controller).getPreferenceKey();
+        verify(controller).updateState(any(Preference.class));
+    }
+
+    @Test
+    public void updatePreferenceStates_preferenceNotExist_noUpdateState() {
+        final TestPreferenceController controller =
+                spy(new TestPreferenceController(mContext, KEY, true /* available */));
+
+        mScheduler.updatePreferenceStates(mScreen,
+                Collections.singletonList(Arrays.asList(controller)));
+        Robolectric.flushForegroundThreadScheduler();
+
+        verify(controller, never()).updateState(any(Preference.class));
+    }
+
+    @Test
+    public void updatePreferenceStates_releasedBeforeApply_noUpdateState() {
+        final TestPreferenceController controller =
+                spy(new TestPreferenceController(mContext, KEY, true /* available */));
+        addPreference(KEY);
+
+        mScheduler.updatePreferenceStates(mScreen,
+                Collections.singletonList(Arrays.asList(controller)));
+        mScheduler.release();
+        Robolectric.flushForegroundThreadScheduler();
+
+        verify(controller, never()).updateState(any(Preference.class));
+    }
+
+    @Test
+    public void updatePreferenceStates_missedDeadline_reportsTimeoutKey() {
+        final MetricsFeatureProvider metricsFeature = mock(MetricsFeatureProvider.class);
+        final ControllerUpdateScheduler scheduler = new ControllerUpdateScheduler(
+                metricsFeature, METRICS_CATEGORY_UNKNOWN);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final BlockingPreferenceController controller =
+                new BlockingPreferenceController(mContext, KEY, latch);
+        addPreference(KEY);
+
+        try {
+            scheduler.updatePreferenceStates(mScreen,
+                    Collections.singletonList(Arrays.asList(controller)));
+        } finally {
+            latch.countDown();
+            scheduler.release();
+        }
+
+        verify(metricsFeature).action(SettingsEnums.PAGE_UNKNOWN,
+                SettingsEnums.ACTION_CONTROLLER_UPDATE_STATE, METRICS_CATEGORY_UNKNOWN,
+                ControllerUpdateScheduler.TIMEOUT_KEY_PREFIX + "BlockingPreferenceController",
+                (int) ControllerUpdateScheduler.CONTROLLER_TIMEOUT_MS);
+        verify(metricsFeature, never()).action(anyInt(), anyInt(), anyInt(),
+                eq("BlockingPreferenceController"), anyInt());
+    }
+
+    private void addPreference(String key) {
+        final Preference preference = new Preference(mContext);
+        preference.setKey(key);
+        mScreen.addPreference(preference);
+    }
+
+    static class TestPreferenceController extends AbstractPreferenceController {
+        private final String mKey;
+        private final boolean mAvailable;
+
+        TestPreferenceController(Context context, String key, boolean available) {
+            super(context);
+            mKey = key;
+            mAvailable = available;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return mAvailable;
+        }
+
+        @Override
+        public String getPreferenceKey() {
+            return mKey;
+        }
+    }
+
+    static class BlockingPreferenceController extends TestPreferenceController {
+        private final CountDownLatch mLatch;
+
+        BlockingPreferenceController(Context context, String key, CountDownLatch latch) {
+            super(context, key, true /* available */);
+            mLatch = latch;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            try {
+                mLatch.await();
+            } catch (InterruptedException e) {
+                // Interrupted when the scheduler is released.
+            }
+            return false;
+        }
+    }
+}
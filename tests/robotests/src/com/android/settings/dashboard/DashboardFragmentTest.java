@@ -238,6 +238,29 @@ public class DashboardFragmentTest {
         mTestFragment.onAttach(RuntimeEnvironment.application);
         mTestFragment.onResume();
 
+        // The paralleled update reads the key of every controller once to order the updates,
+        // including the ones that turn out to be unavailable.
+        verify(mockController1, times(2)).getPreferenceKey();
+        verify(mockController2, times(2)).getPreferenceKey();
+    }
+
+    @Test
+    public void updateState_notParalleled_skipUnavailablePrefs() {
+        final List<AbstractPreferenceController> preferenceControllers = mTestFragment.mControllers;
+        final AbstractPreferenceController mockController1 =
+                mock(AbstractPreferenceController.class);
+        final AbstractPreferenceController mockController2 =
+                mock(AbstractPreferenceController.class);
+        when(mockController1.getPreferenceKey()).thenReturn("key1");
+        when(mockController2.getPreferenceKey()).thenReturn("key2");
+        preferenceControllers.add(mockController1);
+        preferenceControllers.add(mockController2);
+        when(mockController1.isAvailable()).thenReturn(false);
+        when(mockController2.isAvailable()).thenReturn(true);
+        mTestFragment.setUsingControllerEnhancement(false);
+        mTestFragment.onAttach(RuntimeEnvironment.application);
+        mTestFragment.onResume();
+
         verify(mockController1).getPreferenceKey();
         verify(mockController2, times(2)).getPreferenceKey();
     }
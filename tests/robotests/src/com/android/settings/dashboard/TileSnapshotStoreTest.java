@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.util.ArrayMap;
+
+import com.android.settingslib.drawer.ActivityTile;
+import com.android.settingslib.drawer.CategoryKey;
+import com.android.settingslib.drawer.DashboardCategory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class TileSnapshotStoreTest {
+
+    private static final String TILE_PACKAGE = "com.android.test.tiles";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Context mContext;
+    private File mFile;
+    private TileSnapshotStore mStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        mFile = new File(mTemporaryFolder.getRoot(), "snapshot");
+        mStore = new TileSnapshotStore(mFile, Runnable::run /* writeExecutor */);
+    }
+
+    @Test
+    public void read_noSnapshot_returnNull() {
+        assertThat(mStore.read(mContext)).isNull();
+    }
+
+    @Test
+    public void writeThenRead_shouldRestoreCategories() {
+        mStore.write(mStore.marshall(mContext, createSnapshot(mContext.getPackageName())));
+
+        final CategoryManager.CategorySnapshot snapshot = mStore.read(mContext);
+
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.mCategories).hasSize(1);
+        final DashboardCategory category =
+                snapshot.mCategoryByKeyMap.get(CategoryKey.CATEGORY_HOMEPAGE);
+        assertThat(category.getTilesCount()).isEqualTo(1);
+        assertThat(category.getTile(0).getPackageName()).isEqualTo(mContext.getPackageName());
+    }
+
+    @Test
+    public void save_shouldWriteSnapshot() {
+        mStore.save(mContext, createSnapshot(mContext.getPackageName()));
+
+        final CategoryManager.CategorySnapshot snapshot = mStore.read(mContext);
+
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.mCategoryByKeyMap.get(CategoryKey.CATEGORY_HOMEPAGE)
+                .getTilesCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void save_newerSaveRequested_shouldOnlyWriteNewerSnapshot() {
+        final List<Runnable> writes = new ArrayList<>();
+        mStore = new TileSnapshotStore(mFile, writes::add);
+        mStore.save(mContext, createSnapshot(mContext.getPackageName()));
+        mStore.save(mContext, createSnapshot("not.installed"));
+
+        // The newer snapshot doesn't validate, so nothing is written at all.
+        for (Runnable write : writes) {
+            write.run();
+        }
+
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    @Test
+    public void read_settingsUpdated_returnNull() {
+        installPackage(TILE_PACKAGE, 1 /* versionCode */);
+        installPackage(mContext.getPackageName(), 1 /* versionCode */);
+        mStore.write(mStore.marshall(mContext, createSnapshot(TILE_PACKAGE)));
+        assertThat(mStore.read(mContext)).isNotNull();
+
+        installPackage(mContext.getPackageName(), 2 /* versionCode */);
+
+        assertThat(mStore.read(mContext)).isNull();
+    }
+
+    @Test
+    public void marshall_unknownPackage_returnNull() {
+        assertThat(mStore.marshall(mContext, createSnapshot("not.installed"))).isNull();
+    }
+
+    @Test
+    public void read_corruptedFile_returnNull() throws Exception {
+        mStore.write(new byte[] {1, 2, 3});
+
+        assertThat(mStore.read(mContext)).isNull();
+    }
+
+    private void installPackage(String packageName, long versionCode) {
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = packageName;
+        packageInfo.applicationInfo = new ApplicationInfo();
+        packageInfo.applicationInfo.packageName = packageName;
+        packageInfo.setLongVersionCode(versionCode);
+        shadowOf(mContext.getPackageManager()).installPackage(packageInfo);
+    }
+
+    private static CategoryManager.CategorySnapshot createSnapshot(String packageName) {
+        final ActivityInfo activityInfo = new ActivityInfo();
+        activityInfo.packageName = packageName;
+        activityInfo.name = "class";
+        activityInfo.applicationInfo = new ApplicationInfo();
+        final DashboardCategory category = new DashboardCategory(CategoryKey.CATEGORY_HOMEPAGE);
+        category.addTile(new ActivityTile(activityInfo, CategoryKey.CATEGORY_HOMEPAGE));
+        final Map<String, DashboardCategory> categoryByKeyMap = new ArrayMap<>();
+        categoryByKeyMap.put(category.key, category);
+        return new CategoryManager.CategorySnapshot(Arrays.asList(category), categoryByKeyMap);
+    }
+}
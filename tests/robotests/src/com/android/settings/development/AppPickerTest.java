@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.development;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.UserHandle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppPickerTest {
+
+    private static final String PERMISSION = Manifest.permission.ACCESS_MOCK_LOCATION;
+    private static final String REQUESTING_APP = "com.example.requesting";
+    private static final String OTHER_APP = "com.example.other";
+
+    @Mock
+    private PackageManager mPackageManager;
+
+    private Context mContext;
+    private AppPicker mAppPicker;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = spy(RuntimeEnvironment.application);
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mPackageManager.getInstalledApplicationsAsUser(0 /* flags */, UserHandle.myUserId()))
+                .thenReturn(Arrays.asList(createApplicationInfo(REQUESTING_APP, 10001),
+                        createApplicationInfo(OTHER_APP, 10002)));
+        mAppPicker = Robolectric.buildActivity(AppPicker.class).get();
+    }
+
+    @Test
+    public void appListAdapter_noPermission_shouldListAllApps() {
+        final AppPicker.AppListAdapter adapter = mAppPicker.new AppListAdapter(mContext);
+
+        assertThat(adapter.getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void appListAdapter_requestingPermission_shouldOnlyListRequestingApps()
+            throws Exception {
+        final PackageInfo requesting = new PackageInfo();
+        requesting.packageName = REQUESTING_APP;
+        requesting.requestedPermissions = new String[] {PERMISSION};
+        final PackageInfo other = new PackageInfo();
+        other.packageName = OTHER_APP;
+        when(mPackageManager.getInstalledPackagesAsUser(PackageManager.GET_PERMISSIONS,
+                UserHandle.myUserId())).thenReturn(Arrays.asList(requesting, other));
+        ReflectionHelpers.setField(mAppPicker, "mPermissionName", PERMISSION);
+
+        final AppPicker.AppListAdapter adapter = mAppPicker.new AppListAdapter(mContext);
+
+        assertThat(adapter.getCount()).isEqualTo(1);
+        assertThat(adapter.getItem(0).info.packageName).isEqualTo(REQUESTING_APP);
+        // Requested permissions are resolved at once, not per app.
+        verify(mPackageManager, never()).getPackageInfo(anyString(), anyInt());
+    }
+
+    private static ApplicationInfo createApplicationInfo(String packageName, int uid) {
+        final ApplicationInfo info = new ApplicationInfo();
+        info.packageName = packageName;
+        info.uid = uid;
+        info.nonLocalizedLabel = packageName;
+        return info;
+    }
+}
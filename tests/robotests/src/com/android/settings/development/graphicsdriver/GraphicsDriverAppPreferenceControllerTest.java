@@ -24,6 +24,8 @@ import static com.android.settings.testutils.ApplicationTestUtils.buildInfo;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -87,6 +89,7 @@ public class GraphicsDriverAppPreferenceControllerTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         mContext = spy(RuntimeEnvironment.application);
+        when(mContext.getApplicationContext()).thenReturn(mContext);
         mResolver = mContext.getContentResolver();
         mValueList =
                 mContext.getResources().getStringArray(
@@ -316,7 +319,7 @@ public class GraphicsDriverAppPreferenceControllerTest {
                 buildInfo(uid, APP_2, ApplicationInfo.FLAG_SYSTEM, 0 /* targetSdkVersion */);
         final ApplicationInfo app3 = buildInfo(uid, APP_3, 0 /* flags */, 0 /* targetSdkVersion */);
 
-        when(mPackageManager.getInstalledApplications(0 /* flags */))
+        when(mPackageManager.getInstalledApplicationsAsUser(eq(0) /* flags */, anyInt()))
                 .thenReturn(Arrays.asList(app3, app2, app1));
         when(mPackageManager.getApplicationLabel(app1)).thenReturn(APP_1);
         when(mPackageManager.getApplicationLabel(app2)).thenReturn(APP_2);
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import com.android.settingslib.applications.StorageStatsSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class StorageResultCacheTest {
+
+    private static final String UUID = "1234-5678";
+
+    private StorageResultCache mCache;
+
+    @Before
+    public void setUp() {
+        final Context context = RuntimeEnvironment.application;
+        mCache = new StorageResultCache(context);
+    }
+
+    @Test
+    public void get_nothingPersisted_shouldReturnNull() {
+        assertThat(mCache.get(UUID)).isNull();
+        assertThat(mCache.get(null /* uuid */)).isNull();
+    }
+
+    @Test
+    public void put_shouldPersistResultsOfEachUser() {
+        final StorageAsyncLoader.StorageResult result = new StorageAsyncLoader.StorageResult();
+        result.gamesSize = 1;
+        result.allAppsExceptGamesSize = 2;
+        result.imagesSize = 3;
+        result.trashSize = 4;
+        result.duplicateCodeSize = 5;
+        result.lastUpdatedTime = 6;
+        result.externalStats = new StorageStatsSource.ExternalStorageStats(10, 7, 8, 9, 0);
+        final SparseArray<StorageAsyncLoader.StorageResult> results = new SparseArray<>();
+        results.put(0, result);
+        results.put(10, new StorageAsyncLoader.StorageResult());
+
+        mCache.put(UUID, results);
+
+        final SparseArray<StorageAsyncLoader.StorageResult> persisted = mCache.get(UUID);
+        assertThat(persisted.size()).isEqualTo(2);
+        final StorageAsyncLoader.StorageResult persistedResult = persisted.get(0);
+        assertThat(persistedResult.gamesSize).isEqualTo(1L);
+        assertThat(persistedResult.allAppsExceptGamesSize).isEqualTo(2L);
+        assertThat(persistedResult.imagesSize).isEqualTo(3L);
+        assertThat(persistedResult.trashSize).isEqualTo(4L);
+        assertThat(persistedResult.duplicateCodeSize).isEqualTo(5L);
+        assertThat(persistedResult.lastUpdatedTime).isEqualTo(6L);
+        assertThat(persistedResult.externalStats.totalBytes).isEqualTo(10L);
+        assertThat(persistedResult.externalStats.imageBytes).isEqualTo(9L);
+        assertThat(persisted.get(10).externalStats).isNull();
+        // Other volumes are kept apart.
+        assertThat(mCache.get(null /* uuid */)).isNull();
+    }
+
+    @Test
+    public void remove_shouldDropResults() {
+        final SparseArray<StorageAsyncLoader.StorageResult> results = new SparseArray<>();
+        results.put(0, new StorageAsyncLoader.StorageResult());
+        mCache.put(UUID, results);
+
+        mCache.remove(UUID);
+
+        assertThat(mCache.get(UUID)).isNull();
+    }
+}
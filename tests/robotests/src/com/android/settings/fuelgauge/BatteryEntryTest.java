@@ -37,6 +37,8 @@ import android.os.UserBatteryConsumer;
 import android.os.UserManager;
 
 import com.android.settings.R;
+import com.android.settings.applications.AppIdentityCache;
+import com.android.settings.applications.AppIdentityCache.AppIdentity;
 import com.android.settings.fuelgauge.BatteryEntry.NameAndIcon;
 
 import org.junit.Before;
@@ -74,6 +76,7 @@ public class BatteryEntryTest {
 
     @Before
     public void stubContextToReturnMockPackageManager() {
+        AppIdentityCache.getInstance().invalidate();
         mContext = spy(RuntimeEnvironment.application);
         when(mMockContext.getPackageManager()).thenReturn(mockPackageManager);
     }
@@ -213,13 +216,28 @@ public class BatteryEntryTest {
     public void testUidCache_switchLocale_shouldCleanCache() {
         BatteryEntry.stopRequestQueue();
 
+        final AppIdentityCache cache = AppIdentityCache.getInstance();
         Locale.setDefault(new Locale("en_US"));
-        BatteryEntry.sUidCache.put(Integer.toString(APP_UID), null);
-        assertThat(BatteryEntry.sUidCache).isNotEmpty();
+        cache.putUidIdentity(APP_UID, new AppIdentity("label", null, null));
+        assertThat(cache.peekUidIdentity(mMockContext, APP_UID)).isNotNull();
 
         Locale.setDefault(new Locale("zh_TW"));
-        createBatteryEntryForApp(null, null, HIGH_DRAIN_PACKAGE);
-        assertThat(BatteryEntry.sUidCache).isEmpty(); // check if cache is clear
+        final BatteryEntry entry = createBatteryEntryForApp(null, null, HIGH_DRAIN_PACKAGE);
+        // check if cache is clear
+        assertThat(cache.peekUidIdentity(mMockContext, APP_UID)).isNull();
+        assertThat(entry.getLabel()).isNotEqualTo("label");
+    }
+
+    @Test
+    public void batteryEntryForApp_cachedIdentity_shouldUseCachedLabel() {
+        BatteryEntry.stopRequestQueue();
+        AppIdentityCache.getInstance().putUidIdentity(APP_UID,
+                new AppIdentity("cached label", null, null));
+
+        final BatteryEntry entry = createBatteryEntryForApp(null, null, HIGH_DRAIN_PACKAGE);
+
+        assertThat(entry.getLabel()).isEqualTo("cached label");
+        assertThat(BatteryEntry.sRequestQueue).doesNotContain(entry);
     }
 
     @Test
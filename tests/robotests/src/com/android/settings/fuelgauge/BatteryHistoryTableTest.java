@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public final class BatteryHistoryTableTest {
+
+    @Test
+    public void from_nullMap_returnNull() {
+        assertThat(BatteryHistoryTable.from(null)).isNull();
+    }
+
+    @Test
+    public void from_shouldSortTimestampsAndCollectRows() {
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap = new HashMap<>();
+        putEntry(batteryHistoryMap, 300L, createEntry(1L, 10L, 50));
+        putEntry(batteryHistoryMap, 100L, createEntry(1L, 5L, 60));
+        putEntry(batteryHistoryMap, 100L, createEntry(2L, 7L, 70));
+        batteryHistoryMap.put(200L, new HashMap<>());
+
+        final BatteryHistoryTable table = BatteryHistoryTable.from(batteryHistoryMap);
+
+        assertThat(table.getSlotCount()).isEqualTo(3);
+        assertThat(table.getRowCount()).isEqualTo(2);
+        assertThat(table.getTimestamps(3)).isEqualTo(new long[] {100L, 200L, 300L});
+        assertThat(table.getSlot(300L)).isEqualTo(2);
+        assertThat(table.getSlot(400L)).isLessThan(0);
+        assertThat(table.getEntryCount(table.getSlot(100L))).isEqualTo(2);
+        assertThat(table.getEntryCount(table.getSlot(200L))).isEqualTo(0);
+    }
+
+    @Test
+    public void getAverageBatteryLevel_shouldAverageEntries() {
+        final Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap = new HashMap<>();
+        putEntry(batteryHistoryMap, 100L, createEntry(1L, 5L, 60));
+        putEntry(batteryHistoryMap, 100L, createEntry(2L, 7L, 71));
+        batteryHistoryMap.put(200L, new HashMap<>());
+
+        final BatteryHistoryTable table = BatteryHistoryTable.from(batteryHistoryMap);
+
+        assertThat(table.getAverageBatteryLevel(table.getSlot(100L))).isEqualTo(66);
+        assertThat(table.getAverageBatteryLevel(table.getSlot(200L))).isEqualTo(-1);
+        assertThat(table.getAverageBatteryLevel(table.getSlot(300L))).isEqualTo(-1);
+    }
+
+    private static void putEntry(Map<Long, Map<String, BatteryHistEntry>> batteryHistoryMap,
+            long timestamp, BatteryHistEntry entry) {
+        batteryHistoryMap.computeIfAbsent(timestamp, key -> new HashMap<>())
+            .put(entry.getKey(), entry);
+    }
+
+    private static BatteryHistEntry createEntry(
+            long uid, long foregroundUsageTimeInMs, int batteryLevel) {
+        final ContentValues values = new ContentValues();
+        values.put(BatteryHistEntry.KEY_UID, Long.valueOf(uid));
+        values.put(BatteryHistEntry.KEY_CONSUMER_TYPE,
+            Integer.valueOf(ConvertUtils.CONSUMER_TYPE_UID_BATTERY));
+        values.put(BatteryHistEntry.KEY_FOREGROUND_USAGE_TIME,
+            Long.valueOf(foregroundUsageTimeInMs));
+        values.put(BatteryHistEntry.KEY_BATTERY_LEVEL, Integer.valueOf(batteryLevel));
+        return new BatteryHistEntry(values);
+    }
+}
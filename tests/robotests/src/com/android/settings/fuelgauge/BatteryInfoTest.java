@@ -96,6 +96,7 @@ public class BatteryInfoTest {
         mDisChargingBatteryBroadcast = BatteryTestUtils.getDischargingIntent();
 
         mChargingBatteryBroadcast = BatteryTestUtils.getChargingIntent();
+        BatteryInfo.clearHistoryPathCache();
     }
 
     @Test
@@ -261,6 +262,37 @@ public class BatteryInfoTest {
         assertThat(info.chargeLabel).isEqualTo("50% - Charging temporarily limited");
     }
 
+    @Test
+    public void testBindHistory_sameHistoryLoadedAgain_readsHistoryOnce() {
+        mockBatteryStatsHistory();
+        UsageView view = mock(UsageView.class);
+        when(view.getContext()).thenReturn(mContext);
+
+        getBatteryInfo(false /* charging */, false /* enhanced */, false /* estimate */)
+                .bindHistory(view);
+        getBatteryInfo(false /* charging */, false /* enhanced */, false /* estimate */)
+                .bindHistory(view);
+
+        verify(mBatteryUsageStats, times(1)).iterateBatteryStatsHistory();
+        verify(view, times(2)).addPath(any(SparseIntArray.class));
+    }
+
+    @Test
+    public void testBindHistory_newerHistoryLoaded_readsHistoryAgain() {
+        mockBatteryStatsHistory();
+        UsageView view = mock(UsageView.class);
+        when(view.getContext()).thenReturn(mContext);
+
+        getBatteryInfo(false /* charging */, false /* enhanced */, false /* estimate */)
+                .bindHistory(view);
+        doReturn(Duration.ofMinutes(5).toMillis()).when(mBatteryUsageStats)
+                .getStatsEndTimestamp();
+        getBatteryInfo(false /* charging */, false /* enhanced */, false /* estimate */)
+                .bindHistory(view);
+
+        verify(mBatteryUsageStats, times(2)).iterateBatteryStatsHistory();
+    }
+
     // Make our battery stats return a sequence of battery events.
     private void mockBatteryStatsHistory() {
         // Mock out new data every time iterateBatteryStatsHistory is called.
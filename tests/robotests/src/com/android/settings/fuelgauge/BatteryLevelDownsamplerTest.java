@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.SparseIntArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatteryLevelDownsamplerTest {
+
+    @Test
+    public void finishSegment_fewPointsPerBucket_shouldKeepAllPoints() {
+        final BatteryLevelDownsampler downsampler = new BatteryLevelDownsampler(1000, 10);
+        downsampler.add(0, 100);
+        downsampler.add(150, 99);
+        downsampler.add(350, 98);
+
+        final SparseIntArray points = downsampler.finishSegment();
+
+        assertThat(points.size()).isEqualTo(3);
+        assertThat(points.keyAt(2)).isEqualTo(350);
+        assertThat(points.valueAt(2)).isEqualTo(98);
+    }
+
+    @Test
+    public void finishSegment_manyPointsPerBucket_shouldKeepFirstMinMaxAndLast() {
+        final BatteryLevelDownsampler downsampler = new BatteryLevelDownsampler(1000, 1);
+        final int[] levels = {50, 52, 47, 55, 49, 51};
+        for (int i = 0; i < levels.length; i++) {
+            downsampler.add(i * 100, levels[i]);
+        }
+
+        final SparseIntArray points = downsampler.finishSegment();
+
+        assertThat(points.size()).isEqualTo(4);
+        assertThat(points.get(0)).isEqualTo(50);
+        assertThat(points.get(200)).isEqualTo(47);
+        assertThat(points.get(300)).isEqualTo(55);
+        assertThat(points.get(500)).isEqualTo(51);
+    }
+
+    @Test
+    public void finishSegment_longHistory_shouldKeepAtMostFourPointsPerBucket() {
+        final BatteryLevelDownsampler downsampler = new BatteryLevelDownsampler(100_000, 100);
+        for (int time = 0; time <= 100_000; time += 10) {
+            downsampler.add(time, 100 - time / 1000);
+        }
+
+        final SparseIntArray points = downsampler.finishSegment();
+
+        assertThat(points.size()).isAtMost(400);
+        assertThat(points.keyAt(0)).isEqualTo(0);
+        assertThat(points.valueAt(0)).isEqualTo(100);
+        assertThat(points.keyAt(points.size() - 1)).isEqualTo(100_000);
+        assertThat(points.valueAt(points.size() - 1)).isEqualTo(0);
+    }
+
+    @Test
+    public void finishSegment_shouldStartNewSegment() {
+        final BatteryLevelDownsampler downsampler = new BatteryLevelDownsampler(1000, 10);
+        downsampler.add(0, 100);
+        downsampler.add(50, 99);
+        downsampler.finishSegment();
+        downsampler.add(500, 90);
+        downsampler.add(550, 89);
+
+        final SparseIntArray points = downsampler.finishSegment();
+
+        assertThat(points.size()).isEqualTo(2);
+        assertThat(points.keyAt(0)).isEqualTo(500);
+    }
+}
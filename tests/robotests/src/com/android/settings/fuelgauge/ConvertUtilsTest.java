@@ -267,8 +267,8 @@ public final class ConvertUtilsTest {
         for (int index = 0; index < remainingSize; index++) {
             batteryHistoryMap.put(105L + index + 1, new HashMap<>());
         }
-        when(mPowerUsageFeatureProvider.getBatteryHistory(mContext))
-            .thenReturn(batteryHistoryMap);
+        when(mPowerUsageFeatureProvider.getBatteryHistoryTable(mContext))
+            .thenReturn(BatteryHistoryTable.from(batteryHistoryMap));
 
         final List<BatteryDiffEntry> batteryDiffEntryList =
             BatteryChartPreferenceController.getBatteryLast24HrUsageData(mContext);
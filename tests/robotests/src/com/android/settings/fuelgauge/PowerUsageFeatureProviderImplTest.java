@@ -165,4 +165,9 @@ public class PowerUsageFeatureProviderImplTest {
     public void testGetResumeChargeIntent_returnNull() {
         assertThat(mPowerFeatureProvider.getResumeChargeIntent()).isNull();
     }
+
+    @Test
+    public void testGetBatteryHistoryTable_noBatteryHistory_returnNull() {
+        assertThat(mPowerFeatureProvider.getBatteryHistoryTable(mContext)).isNull();
+    }
 }
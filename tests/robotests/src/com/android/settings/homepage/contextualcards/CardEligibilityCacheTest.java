@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.homepage.contextualcards;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.settings.SettingsEnums;
+import android.content.Context;
+
+import com.android.settings.slices.CustomSliceRegistry;
+import com.android.settings.testutils.FakeFeatureFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class CardEligibilityCacheTest {
+
+    private static final long TIMEOUT_MS = 1000;
+
+    private Context mContext;
+    private FakeFeatureFactory mFakeFeatureFactory;
+    private CardEligibilityCache mCache;
+    private ContextualCard mCard;
+    private EligibleCardChecker mChecker;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mFakeFeatureFactory = FakeFeatureFactory.setupForTest();
+        mCache = spy(new CardEligibilityCache());
+        mCard = new ContextualCard.Builder()
+                .setName("test_low_storage")
+                .setCardType(ContextualCard.CardType.SLICE)
+                .setSliceUri(CustomSliceRegistry.LOW_STORAGE_SLICE_URI)
+                .build();
+        mChecker = mock(EligibleCardChecker.class);
+        doReturn(mChecker).when(mCache).createChecker(any(Context.class),
+                any(ContextualCard.class));
+    }
+
+    @Test
+    public void filterEligibleCards_eligible_returnCard() {
+        when(mChecker.call()).thenReturn(mCard);
+
+        final List<ContextualCard> cards = mCache.filterEligibleCards(mContext,
+                Arrays.asList(mCard), TIMEOUT_MS, null /* listener */);
+
+        assertThat(cards).hasSize(1);
+        assertThat(cards.get(0).getSliceUri()).isEqualTo(mCard.getSliceUri());
+    }
+
+    @Test
+    public void filterEligibleCards_notEligible_returnEmpty() {
+        when(mChecker.call()).thenReturn(null);
+
+        final List<ContextualCard> cards = mCache.filterEligibleCards(mContext,
+                Arrays.asList(mCard), TIMEOUT_MS, null /* listener */);
+
+        assertThat(cards).isEmpty();
+    }
+
+    @Test
+    public void filterEligibleCards_calledTwice_shouldCheckOnce() {
+        when(mChecker.call()).thenReturn(mCard);
+
+        mCache.filterEligibleCards(mContext, Arrays.asList(mCard), TIMEOUT_MS, null);
+        final List<ContextualCard> cards = mCache.filterEligibleCards(mContext,
+                Arrays.asList(mCard), TIMEOUT_MS, null);
+
+        assertThat(cards).hasSize(1);
+        verify(mChecker, times(1)).call();
+    }
+
+    @Test
+    public void filterEligibleCards_afterInvalidate_shouldCheckAgain() {
+        when(mChecker.call()).thenReturn(mCard);
+
+        mCache.filterEligibleCards(mContext, Arrays.asList(mCard), TIMEOUT_MS, null);
+        mCache.invalidate();
+        mCache.filterEligibleCards(mContext, Arrays.asList(mCard), TIMEOUT_MS, null);
+
+        verify(mChecker, times(2)).call();
+    }
+
+    @Test
+    public void filterEligibleCards_timeout_shouldNotifyLateCardAndLog() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return mCard;
+        }).when(mChecker).call();
+        final CountDownLatch lateResult = new CountDownLatch(1);
+
+        final List<ContextualCard> cards = mCache.filterEligibleCards(mContext,
+                Collections.singletonList(mCard), 0 /* timeoutMs */,
+                card -> lateResult.countDown());
+        release.countDown();
+
+        assertThat(cards).isEmpty();
+        assertThat(lateResult.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        verify(mFakeFeatureFactory.metricsFeatureProvider).action(
+                eq(SettingsEnums.PAGE_UNKNOWN),
+                eq(SettingsEnums.ACTION_CONTEXTUAL_CARD_ELIGIBILITY),
+                eq(SettingsEnums.SETTINGS_HOMEPAGE),
+                eq(mCard.getTextSliceUri()),
+                eq(CardEligibilityCache.ELIGIBILITY_TIMEOUT));
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.network.ims;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+import android.telephony.AccessNetworkConstants;
+import android.telephony.ims.ImsException;
+import android.telephony.ims.ImsMmTelManager;
+import android.telephony.ims.ProvisioningManager;
+import android.telephony.ims.RegistrationManager;
+import android.telephony.ims.feature.ImsFeature;
+import android.telephony.ims.feature.MmTelFeature;
+import android.telephony.ims.stub.ImsRegistrationImplBase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+@RunWith(RobolectricTestRunner.class)
+public class ImsStateServiceTest {
+
+    private static final int SUB_ID = 1;
+    private static final int CAPABILITY = MmTelFeature.MmTelCapabilities.CAPABILITY_TYPE_VOICE;
+    private static final int TRANSPORT_TYPE = AccessNetworkConstants.TRANSPORT_TYPE_WLAN;
+    private static final int TECH = ImsRegistrationImplBase.REGISTRATION_TECH_IWLAN;
+
+    @Mock
+    private ImsMmTelManager mImsMmTelManager;
+    @Mock
+    private ProvisioningManager mProvisioningManager;
+
+    private ImsStateService mService;
+    private ImsStateService.Listener mListener = subId -> {};
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mService = new TestImsStateService();
+        doAnswer(invocation -> {
+            final Consumer<Boolean> callback = invocation.getArgument(3);
+            callback.accept(true);
+            return null;
+        }).when(mImsMmTelManager).isSupported(anyInt(), anyInt(), any(), any());
+        doAnswer(invocation -> {
+            final Consumer<Integer> callback = invocation.getArgument(1);
+            callback.accept(ImsFeature.STATE_READY);
+            return null;
+        }).when(mImsMmTelManager).getFeatureState(any(), any());
+    }
+
+    @Test
+    public void isSupported_queriedTwice_shouldQueryImsOnce() throws Exception {
+        mService.addListener(mListener);
+
+        assertThat(mService.isSupported(CAPABILITY, TRANSPORT_TYPE)).isTrue();
+        assertThat(mService.isSupported(CAPABILITY, TRANSPORT_TYPE)).isTrue();
+
+        verify(mImsMmTelManager).isSupported(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    public void isSupported_afterInvalidate_shouldQueryImsAgain() throws Exception {
+        mService.addListener(mListener);
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        mService.invalidate();
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        verify(mImsMmTelManager, times(2)).isSupported(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    public void isSupported_cached_shouldCountCacheHit() throws Exception {
+        mService.addListener(mListener);
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+        final int cacheHits = ImsStateService.dumpStats()
+                .getJSONObject(ImsStateService.QUERY_SUPPORTED).getInt("cache_hits");
+
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        assertThat(ImsStateService.dumpStats().getJSONObject(ImsStateService.QUERY_SUPPORTED)
+                .getInt("cache_hits")).isEqualTo(cacheHits + 1);
+    }
+
+    @Test
+    public void invalidate_shouldReloadRegisteredStateBeforeNotifying() throws Exception {
+        final boolean[] notified = new boolean[1];
+        mService.addListener(subId -> notified[0] = true, CAPABILITY, TECH, TRANSPORT_TYPE);
+        shadowOf(Looper.getMainLooper()).idle();
+        notified[0] = false;
+
+        mService.invalidate();
+
+        verify(mImsMmTelManager, times(2)).isSupported(anyInt(), anyInt(), any(), any());
+        verify(mImsMmTelManager, times(2)).getFeatureState(any(), any());
+        assertThat(notified[0]).isFalse();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertThat(notified[0]).isTrue();
+        assertThat(mService.isSupported(CAPABILITY, TRANSPORT_TYPE)).isTrue();
+        verify(mImsMmTelManager, times(2)).isSupported(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    public void invalidate_afterLastListenerRemoved_shouldNotReload() throws Exception {
+        mService.addListener(mListener, CAPABILITY, TECH, TRANSPORT_TYPE);
+        mService.removeListener(mListener);
+
+        mService.invalidate();
+
+        verify(mImsMmTelManager).isSupported(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    public void isSupported_callbacksNotRegistered_shouldNotCache() throws Exception {
+        doThrow(new ImsException("unavailable")).when(mImsMmTelManager)
+                .registerImsRegistrationCallback(any(),
+                        any(RegistrationManager.RegistrationCallback.class));
+        mService.addListener(mListener);
+
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        verify(mImsMmTelManager, times(2)).isSupported(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    public void isSupported_noListener_shouldNotCacheNorRegisterCallbacks() throws Exception {
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        verify(mImsMmTelManager, times(2)).isSupported(anyInt(), anyInt(), any(), any());
+        verify(mImsMmTelManager, never()).registerImsRegistrationCallback(any(),
+                any(RegistrationManager.RegistrationCallback.class));
+    }
+
+    @Test
+    public void isSupported_shouldNotDeliverResultOnQueryExecutor() throws Exception {
+        final ArgumentCaptor<Executor> captor = ArgumentCaptor.forClass(Executor.class);
+
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        verify(mImsMmTelManager).isSupported(anyInt(), anyInt(), captor.capture(), any());
+        assertThat(captor.getValue()).isNotSameInstanceAs(ImsStateService.getExecutor());
+    }
+
+    @Test
+    public void removeListener_lastListener_shouldUnregisterCallbacksAndStopCaching()
+            throws Exception {
+        mService.addListener(mListener);
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        mService.removeListener(mListener);
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        verify(mImsMmTelManager).unregisterImsRegistrationCallback(
+                any(RegistrationManager.RegistrationCallback.class));
+        verify(mImsMmTelManager).unregisterMmTelCapabilityCallback(any());
+        verify(mProvisioningManager).unregisterProvisioningChangedCallback(any());
+        verify(mImsMmTelManager, times(2)).isSupported(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    public void removeListener_otherListenerLeft_shouldKeepCallbacks() throws Exception {
+        final ImsStateService.Listener otherListener = subId -> {};
+        mService.addListener(mListener);
+        mService.addListener(otherListener);
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        mService.removeListener(mListener);
+        mService.isSupported(CAPABILITY, TRANSPORT_TYPE);
+
+        verify(mImsMmTelManager, never()).unregisterImsRegistrationCallback(
+                any(RegistrationManager.RegistrationCallback.class));
+        verify(mImsMmTelManager).isSupported(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    public void getInstance_otherSubscriptionIdle_shouldDropIt() {
+        final ImsStateService service = ImsStateService.getInstance(SUB_ID + 100);
+
+        ImsStateService.getInstance(SUB_ID + 101);
+
+        assertThat(ImsStateService.getInstance(SUB_ID + 100)).isNotSameInstanceAs(service);
+    }
+
+    private class TestImsStateService extends ImsStateService {
+        TestImsStateService() {
+            super(SUB_ID);
+        }
+
+        @Override
+        ImsMmTelManager getImsMmTelManager() {
+            return mImsMmTelManager;
+        }
+
+        @Override
+        ProvisioningManager getProvisioningManager() {
+            return mProvisioningManager;
+        }
+
+        @Override
+        boolean queryProvisioningStatus(int capability, int tech) {
+            return true;
+        }
+
+        @Override
+        Executor getPreloadExecutor() {
+            return Runnable::run;
+        }
+    }
+}
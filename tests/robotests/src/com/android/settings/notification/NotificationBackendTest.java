@@ -16,15 +16,20 @@
 
 package com.android.settings.notification;
 
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import android.app.role.RoleManager;
+import android.app.usage.IUsageStatsManager;
 import android.app.usage.UsageEvents;
 import android.bluetooth.BluetoothAdapter;
 import android.companion.ICompanionDeviceManager;
@@ -49,6 +54,9 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -119,7 +127,7 @@ public class NotificationBackendTest {
     }
 
     @Test
-    public void testGetAggregatedUsageEvents_multipleEventsAgg() {
+    public void testGetAggregatedUsageEvents_multipleEventsAgg() throws Exception {
         List<UsageEvents.Event> events = new ArrayList<>();
         UsageEvents.Event good = new UsageEvents.Event();
         good.mEventType = UsageEvents.Event.NOTIFICATION_INTERRUPTION;
@@ -139,11 +147,17 @@ public class NotificationBackendTest {
         good1.mNotificationChannelId = "channel1";
         good1.mTimeStamp = 6;
         events.add(good1);
+        IUsageStatsManager usageStats = mock(IUsageStatsManager.class);
+        when(usageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(events));
         NotificationBackend backend = new NotificationBackend();
+        backend.mSentAggregator = new NotificationsSentAggregator(
+                Clock.fixed(Instant.ofEpochMilli(DAY_IN_MILLIS), ZoneOffset.UTC));
 
         AppRow appRow = new AppRow();
         appRow.pkg = "pkg";
-        backend.recordAggregatedUsageEvents(getUsageEvents(events), appRow);
+        backend.recordAggregatedUsageEvents(backend.mSentAggregator.getChannelCounts(
+                usageStats, "settings", 0, "pkg"), appRow);
 
         assertThat(appRow.sentByChannel.get("channel1").sentCount).isEqualTo(2);
         assertThat(appRow.sentByChannel.get("channel1").lastSent).isEqualTo(6);
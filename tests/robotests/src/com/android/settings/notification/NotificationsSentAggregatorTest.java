@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.app.usage.IUsageStatsManager;
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageEvents.Event;
+import android.os.Parcel;
+
+import com.android.settings.notification.NotificationsSentAggregator.SentCount;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationsSentAggregatorTest {
+
+    private static final String CALLING_PACKAGE = "com.android.settings";
+    private static final int PACKAGE_COUNT = 100;
+    private static final int CHANNEL_COUNT = 4;
+    // Two weeks of events, so part of them falls out of the window while replaying.
+    private static final int EVENT_COUNT = 50000;
+    private static final long START = 100 * DAY_IN_MILLIS;
+    private static final long END = START + 14 * DAY_IN_MILLIS;
+
+    private IUsageStatsManager mUsageStats;
+    private FakeClock mClock;
+    private NotificationsSentAggregator mAggregator;
+    private List<Event> mEvents;
+    private String[] mPackages;
+    private int mEventsRead;
+
+    @Before
+    public void setUp() throws Exception {
+        mUsageStats = mock(IUsageStatsManager.class);
+        mClock = new FakeClock();
+        mAggregator = new NotificationsSentAggregator(mClock);
+        mPackages = new String[PACKAGE_COUNT];
+        for (int i = 0; i < PACKAGE_COUNT; i++) {
+            mPackages[i] = "pkg" + i;
+        }
+        Arrays.sort(mPackages);
+        mEvents = createEvents();
+
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenAnswer(invocation -> {
+                    final long begin = invocation.getArgument(0);
+                    final long end = invocation.getArgument(1);
+                    final List<Event> events = new ArrayList<>();
+                    for (Event event : mEvents) {
+                        if (event.mTimeStamp >= begin && event.mTimeStamp < end) {
+                            events.add(event);
+                        }
+                    }
+                    mEventsRead += events.size();
+                    return getUsageEvents(events);
+                });
+    }
+
+    @Test
+    public void getPackageCounts_replayEventsHourly_shouldMatchFullScan() {
+        for (long now = START + DAY_IN_MILLIS; now <= END; now += HOUR_IN_MILLIS) {
+            mClock.mMillis = now;
+            final Map<String, SentCount> counts =
+                    mAggregator.getPackageCounts(mUsageStats, CALLING_PACKAGE, 0);
+
+            final Map<String, SentCount> expected = scan(now, null /* channelsOfPackage */);
+            assertThat(counts.keySet()).isEqualTo(expected.keySet());
+            for (String pkg : expected.keySet()) {
+                assertThat(counts.get(pkg).sentCount).isEqualTo(expected.get(pkg).sentCount);
+                assertThat(counts.get(pkg).lastSent).isEqualTo(expected.get(pkg).lastSent);
+            }
+        }
+
+        // Every event was read once, even though the window was counted hourly.
+        assertThat(mEventsRead).isEqualTo(countEventsBefore(END));
+    }
+
+    @Test
+    public void getChannelCounts_afterReplay_shouldMatchFullScan() {
+        for (long now = START + DAY_IN_MILLIS; now <= END; now += DAY_IN_MILLIS / 3) {
+            mClock.mMillis = now;
+            mAggregator.getPackageCounts(mUsageStats, CALLING_PACKAGE, 0);
+        }
+
+        final Map<String, SentCount> counts =
+                mAggregator.getChannelCounts(mUsageStats, CALLING_PACKAGE, 0, mPackages[0]);
+
+        final Map<String, SentCount> expected = scan(mClock.mMillis, mPackages[0]);
+        assertThat(counts.keySet()).isEqualTo(expected.keySet());
+        for (String channelId : expected.keySet()) {
+            assertThat(counts.get(channelId).sentCount)
+                    .isEqualTo(expected.get(channelId).sentCount);
+            assertThat(counts.get(channelId).lastSent)
+                    .isEqualTo(expected.get(channelId).lastSent);
+        }
+    }
+
+    @Test
+    public void getPackageCount_noNotifications_shouldReturnNull() {
+        mClock.mMillis = END;
+
+        assertThat(mAggregator.getPackageCount(mUsageStats, CALLING_PACKAGE, 0, "unknown"))
+                .isNull();
+    }
+
+    @Test
+    public void getPackageCounts_clockMovedBack_shouldCountWindowAgain() {
+        mClock.mMillis = END;
+        mAggregator.getPackageCounts(mUsageStats, CALLING_PACKAGE, 0);
+        mClock.mMillis = END - 2 * DAY_IN_MILLIS;
+
+        final Map<String, SentCount> counts =
+                mAggregator.getPackageCounts(mUsageStats, CALLING_PACKAGE, 0);
+
+        final Map<String, SentCount> expected = scan(mClock.mMillis, null /* channelsOfPackage */);
+        assertThat(counts.keySet()).isEqualTo(expected.keySet());
+        for (String pkg : expected.keySet()) {
+            assertThat(counts.get(pkg).sentCount).isEqualTo(expected.get(pkg).sentCount);
+        }
+    }
+
+    /**
+     * Counts the events of the window ending at {@code now} the way the pages used to, by package,
+     * or by channel of {@code channelsOfPackage} when it is set.
+     */
+    private Map<String, SentCount> scan(long now, String channelsOfPackage) {
+        final long firstDay = (now - 7 * DAY_IN_MILLIS) / DAY_IN_MILLIS;
+        final Map<String, SentCount> counts = new HashMap<>();
+        for (Event event : mEvents) {
+            if (event.mTimeStamp >= now || event.mTimeStamp / DAY_IN_MILLIS < firstDay) {
+                continue;
+            }
+            final String key;
+            if (channelsOfPackage == null) {
+                key = event.mPackage;
+            } else if (channelsOfPackage.equals(event.mPackage)
+                    && event.mNotificationChannelId != null) {
+                key = event.mNotificationChannelId;
+            } else {
+                continue;
+            }
+            final SentCount count = counts.get(key);
+            counts.put(key, count == null
+                    ? new SentCount(1, event.mTimeStamp)
+                    : new SentCount(count.sentCount + 1,
+                            Math.max(count.lastSent, event.mTimeStamp)));
+        }
+        return counts;
+    }
+
+    private int countEventsBefore(long time) {
+        int count = 0;
+        for (Event event : mEvents) {
+            if (event.mTimeStamp < time) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<Event> createEvents() {
+        final Random random = new Random(0);
+        final List<Event> events = new ArrayList<>();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            final Event event = new Event();
+            // A few packages send most of the notifications.
+            event.mPackage = mPackages[(int) (PACKAGE_COUNT * Math.pow(random.nextDouble(), 3))];
+            event.mTimeStamp = START + (long) (random.nextDouble() * (END - START));
+            if (i % 10 == 0) {
+                event.mEventType = Event.ACTIVITY_RESUMED;
+            } else {
+                event.mEventType = Event.NOTIFICATION_INTERRUPTION;
+                final int channel = random.nextInt(CHANNEL_COUNT + 1);
+                event.mNotificationChannelId = channel == CHANNEL_COUNT ? null : "channel" + channel;
+            }
+            events.add(event);
+        }
+        events.sort((a, b) -> Long.compare(a.mTimeStamp, b.mTimeStamp));
+        return events;
+    }
+
+    private UsageEvents getUsageEvents(List<Event> events) {
+        UsageEvents usageEvents = new UsageEvents(events, mPackages);
+        Parcel parcel = Parcel.obtain();
+        parcel.setDataPosition(0);
+        usageEvents.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        return UsageEvents.CREATOR.createFromParcel(parcel);
+    }
+
+    private static class FakeClock extends Clock {
+        long mMillis;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(mMillis);
+        }
+
+        @Override
+        public long millis() {
+            return mMillis;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification.history;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.NotificationHistory;
+import android.app.NotificationHistory.HistoricalNotification;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Parcel;
+import android.os.UserHandle;
+
+import com.android.settings.notification.NotificationBackend;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+// ShadowThreadUtils runs the load and delivers its results right away.
+@RunWith(RobolectricTestRunner.class)
+public class HistoryLoaderTest {
+
+    private static final String PACKAGE_1 = "com.example.app1";
+    private static final String PACKAGE_2 = "com.example.app2";
+    private static final int UID_1 = UserHandle.getUid(0, 10001);
+    private static final int UID_2 = UserHandle.getUid(0, 10002);
+    private static final int OTHER_PROFILE_UID_1 = UserHandle.getUid(10, 10001);
+
+    @Mock
+    private NotificationBackend mBackend;
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private HistoryLoader.OnHistoryLoaderListener mListener;
+
+    private Context mContext;
+    private HistoryLoader mLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        when(mPackageManager.getApplicationInfoAsUser(anyString(), anyInt(), anyInt()))
+                .thenAnswer(invocation -> createApplicationInfo(invocation.getArgument(0),
+                        invocation.getArgument(2)));
+        mLoader = new HistoryLoader(mContext, mBackend, mPackageManager);
+    }
+
+    @Test
+    public void load_shouldReportPackageCountBeforePackages() {
+        setHistory(createNotification(PACKAGE_1, UID_1, 100),
+                createNotification(PACKAGE_2, UID_2, 200));
+
+        mLoader.load(mListener);
+
+        final InOrder inOrder = inOrder(mListener);
+        inOrder.verify(mListener).onHistoryLoaded(2);
+        inOrder.verify(mListener, times(2)).onPackageLoaded(any());
+    }
+
+    @Test
+    public void load_shouldDeliverMostRecentPackageFirst() {
+        setHistory(createNotification(PACKAGE_1, UID_1, 100),
+                createNotification(PACKAGE_2, UID_2, 300),
+                createNotification(PACKAGE_1, UID_1, 200));
+
+        mLoader.load(mListener);
+
+        final List<NotificationHistoryPackage> packages = getLoadedPackages(2);
+        assertThat(packages.get(0).pkgName).isEqualTo(PACKAGE_2);
+        assertThat(packages.get(1).pkgName).isEqualTo(PACKAGE_1);
+        assertThat(packages.get(1).notifications).hasSize(2);
+    }
+
+    @Test
+    public void load_samePackageInTwoProfiles_shouldDeliverTwoPackages() {
+        setHistory(createNotification(PACKAGE_1, UID_1, 100),
+                createNotification(PACKAGE_1, OTHER_PROFILE_UID_1, 200));
+
+        mLoader.load(mListener);
+
+        final List<NotificationHistoryPackage> packages = getLoadedPackages(2);
+        assertThat(packages.get(0).uid).isEqualTo(OTHER_PROFILE_UID_1);
+        assertThat(packages.get(1).uid).isEqualTo(UID_1);
+    }
+
+    @Test
+    public void load_shouldDeliverPackagesWithTheirLabel() {
+        setHistory(createNotification(PACKAGE_1, UID_1, 100));
+
+        mLoader.load(mListener);
+
+        assertThat(getLoadedPackages(1).get(0).label).isEqualTo(PACKAGE_1 + " label");
+    }
+
+    @Test
+    public void load_packageGone_shouldStillDeliverIt() throws Exception {
+        when(mPackageManager.getApplicationInfoAsUser(eq(PACKAGE_1), anyInt(), anyInt()))
+                .thenThrow(new PackageManager.NameNotFoundException());
+        setHistory(createNotification(PACKAGE_1, UID_1, 100));
+
+        mLoader.load(mListener);
+
+        assertThat(getLoadedPackages(1).get(0).pkgName).isEqualTo(PACKAGE_1);
+    }
+
+    @Test
+    public void cancel_whileDelivering_shouldNotDeliverRemainingPackages() {
+        setHistory(createNotification(PACKAGE_1, UID_1, 100),
+                createNotification(PACKAGE_2, UID_2, 200));
+        doAnswer(invocation -> {
+            mLoader.cancel();
+            return null;
+        }).when(mListener).onPackageLoaded(any());
+
+        mLoader.load(mListener);
+
+        final List<NotificationHistoryPackage> packages = getLoadedPackages(1);
+        assertThat(packages.get(0).pkgName).isEqualTo(PACKAGE_2);
+    }
+
+    private List<NotificationHistoryPackage> getLoadedPackages(int count) {
+        final ArgumentCaptor<NotificationHistoryPackage> captor =
+                ArgumentCaptor.forClass(NotificationHistoryPackage.class);
+        verify(mListener, times(count)).onPackageLoaded(captor.capture());
+        return captor.getAllValues();
+    }
+
+    // The history is read back from a parcel, as it comes from the notification manager.
+    private void setHistory(HistoricalNotification... notifications) {
+        final NotificationHistory history = new NotificationHistory();
+        for (HistoricalNotification notification : notifications) {
+            history.addNotificationToWrite(notification);
+        }
+        history.poolStringsFromNotifications();
+        final Parcel parcel = Parcel.obtain();
+        history.writeToParcel(parcel, 0 /* flags */);
+        parcel.setDataPosition(0);
+        when(mBackend.getNotificationHistory(any(), any()))
+                .thenReturn(NotificationHistory.CREATOR.createFromParcel(parcel));
+    }
+
+    private static HistoricalNotification createNotification(String packageName, int uid,
+            long postedTimeMs) {
+        return new HistoricalNotification.Builder()
+                .setPackage(packageName)
+                .setUid(uid)
+                .setUserId(UserHandle.getUserId(uid))
+                .setChannelId("channel")
+                .setChannelName("Channel")
+                .setPostedTimeMs(postedTimeMs)
+                .setTitle("title")
+                .setText("text")
+                .build();
+    }
+
+    private static ApplicationInfo createApplicationInfo(String packageName, int userId) {
+        final ApplicationInfo info = new ApplicationInfo();
+        info.packageName = packageName;
+        info.uid = UserHandle.getUid(userId, 10001);
+        info.nonLocalizedLabel = packageName + " label";
+        return info;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification.history;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.INotificationManager;
+import android.app.NotificationHistory.HistoricalNotification;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import com.android.internal.logging.UiEventLogger;
+import com.android.settings.R;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.util.ReflectionHelpers;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationHistoryActivityTest {
+
+    private static final String PACKAGE = "com.example.app";
+    private static final int UID = UserHandle.getUid(0, 10001);
+
+    @Mock
+    private INotificationManager mNm;
+    @Mock
+    private UiEventLogger mUiEventLogger;
+
+    private NotificationHistoryActivity mActivity;
+    private LinearLayout mTodayView;
+    private HistoryLoader.OnHistoryLoaderListener mListener;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mActivity = Robolectric.buildActivity(NotificationHistoryActivity.class).get();
+        mTodayView = new LinearLayout(mActivity);
+        ReflectionHelpers.setField(mActivity, "mTodayView", mTodayView);
+        ReflectionHelpers.setField(mActivity, "mNm", mNm);
+        ReflectionHelpers.setField(mActivity, "mUm", mActivity.getSystemService(UserManager.class));
+        ReflectionHelpers.setField(mActivity, "mUiEventLogger", mUiEventLogger);
+        mListener = ReflectionHelpers.getField(mActivity, "mOnHistoryLoaderListener");
+    }
+
+    @Test
+    public void onPackageLoaded_shouldAddPackageWithLabel() {
+        mListener.onPackageLoaded(createPackage("App", 2));
+
+        assertThat(mTodayView.getChildCount()).isEqualTo(1);
+        final TextView label = mTodayView.getChildAt(0).findViewById(R.id.label);
+        assertThat(label.getText().toString()).isEqualTo("App");
+    }
+
+    @Test
+    public void onPackageLoaded_noLabel_shouldShowPackageName() {
+        mListener.onPackageLoaded(createPackage(null /* label */, 1));
+
+        final TextView label = mTodayView.getChildAt(0).findViewById(R.id.label);
+        assertThat(label.getText().toString()).isEqualTo(PACKAGE);
+    }
+
+    @Test
+    public void onPackageLoaded_shouldAddPackagesInDeliveryOrder() {
+        mListener.onPackageLoaded(createPackage("First", 1));
+        mListener.onPackageLoaded(createPackage("Second", 1));
+
+        assertThat(((TextView) mTodayView.getChildAt(0).findViewById(R.id.label)).getText()
+                .toString()).isEqualTo("First");
+        assertThat(((TextView) mTodayView.getChildAt(1).findViewById(R.id.label)).getText()
+                .toString()).isEqualTo("Second");
+    }
+
+    @Test
+    public void onPackageLoaded_shouldNotListNotificationsUntilExpanded() {
+        mListener.onPackageLoaded(createPackage("App", 3));
+
+        final View viewForPackage = mTodayView.getChildAt(0);
+        assertThat(getAdapter(viewForPackage).getItemCount()).isEqualTo(0);
+        assertThat(viewForPackage.findViewById(R.id.notification_list_wrapper).getVisibility())
+                .isEqualTo(View.GONE);
+    }
+
+    @Test
+    public void clickHeader_shouldListNotificationsOnce() {
+        mListener.onPackageLoaded(createPackage("App", 3));
+        final View viewForPackage = mTodayView.getChildAt(0);
+        final View header = viewForPackage.findViewById(R.id.app_header);
+
+        header.performClick();
+
+        assertThat(viewForPackage.findViewById(R.id.notification_list_wrapper).getVisibility())
+                .isEqualTo(View.VISIBLE);
+        assertThat(getAdapter(viewForPackage).getItemCount()).isEqualTo(3);
+
+        header.performClick();
+        header.performClick();
+
+        assertThat(getAdapter(viewForPackage).getItemCount()).isEqualTo(3);
+    }
+
+    private static NotificationHistoryAdapter getAdapter(View viewForPackage) {
+        final NotificationHistoryRecyclerView rv =
+                viewForPackage.findViewById(R.id.notification_list);
+        return (NotificationHistoryAdapter) rv.getAdapter();
+    }
+
+    private static NotificationHistoryPackage createPackage(String label, int count) {
+        final NotificationHistoryPackage nhp = new NotificationHistoryPackage(PACKAGE, UID);
+        nhp.label = label;
+        for (int i = 0; i < count; i++) {
+            nhp.notifications.add(new HistoricalNotification.Builder()
+                    .setPackage(PACKAGE)
+                    .setUid(UID)
+                    .setUserId(UserHandle.getUserId(UID))
+                    .setChannelId("channel")
+                    .setChannelName("Channel")
+                    .setPostedTimeMs(i)
+                    .setTitle("title " + i)
+                    .setText("text")
+                    .build());
+        }
+        return nhp;
+    }
+}
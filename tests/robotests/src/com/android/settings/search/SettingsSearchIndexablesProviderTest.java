@@ -149,6 +149,62 @@ public class SettingsSearchIndexablesProviderTest {
         assertThat(keys).containsAtLeast("pref_key_1", "pref_key_3", "pref_key_5");
     }
 
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void getChangedNonIndexableKeys_firstCall_returnsAllPages() {
+        final Bundle result = mProvider.call(
+                SettingsSearchIndexablesProvider.METHOD_GET_CHANGED_NON_INDEXABLE_KEYS, null,
+                new Bundle());
+
+        final Bundle changedKeys =
+                result.getBundle(SettingsSearchIndexablesProvider.EXTRA_CHANGED_KEYS);
+        assertThat(changedKeys.keySet()).containsExactly(FakeSettingsFragment.class.getName());
+        assertThat(changedKeys.getStringArrayList(FakeSettingsFragment.class.getName()))
+                .containsAtLeast("pref_key_1", "pref_key_3", "pref_key_5");
+        assertThat(result.getLong(SettingsSearchIndexablesProvider.EXTRA_GENERATION))
+                .isGreaterThan(0L);
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void getChangedNonIndexableKeys_sinceCurrentGeneration_returnsNothing() {
+        final Bundle first = mProvider.call(
+                SettingsSearchIndexablesProvider.METHOD_GET_CHANGED_NON_INDEXABLE_KEYS, null,
+                new Bundle());
+        final Bundle extras = new Bundle();
+        extras.putLong(SettingsSearchIndexablesProvider.EXTRA_GENERATION,
+                first.getLong(SettingsSearchIndexablesProvider.EXTRA_GENERATION));
+
+        final Bundle second = mProvider.call(
+                SettingsSearchIndexablesProvider.METHOD_GET_CHANGED_NON_INDEXABLE_KEYS, null,
+                extras);
+
+        assertThat(second.getBundle(SettingsSearchIndexablesProvider.EXTRA_CHANGED_KEYS)
+                .isEmpty()).isTrue();
+        assertThat(second.getLong(SettingsSearchIndexablesProvider.EXTRA_GENERATION))
+                .isEqualTo(first.getLong(SettingsSearchIndexablesProvider.EXTRA_GENERATION));
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void getChangedNonIndexableKeys_generationOfPreviousProcess_returnsAllPages() {
+        final Bundle first = mProvider.call(
+                SettingsSearchIndexablesProvider.METHOD_GET_CHANGED_NON_INDEXABLE_KEYS, null,
+                new Bundle());
+        final Bundle extras = new Bundle();
+        extras.putLong(SettingsSearchIndexablesProvider.EXTRA_GENERATION,
+                first.getLong(SettingsSearchIndexablesProvider.EXTRA_GENERATION));
+        // A restarted process starts over with a new collector.
+        mProvider.onCreate();
+
+        final Bundle second = mProvider.call(
+                SettingsSearchIndexablesProvider.METHOD_GET_CHANGED_NON_INDEXABLE_KEYS, null,
+                extras);
+
+        assertThat(second.getBundle(SettingsSearchIndexablesProvider.EXTRA_CHANGED_KEYS)
+                .keySet()).containsExactly(FakeSettingsFragment.class.getName());
+    }
+
     @Test
     public void refreshSearchEnabledState_classNotFoundInCategoryMap_hasInjectionRawData() {
         mProvider.refreshSearchEnabledState(mContext,
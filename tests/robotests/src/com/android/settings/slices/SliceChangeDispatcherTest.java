@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import static com.android.settings.slices.SliceBackgroundWorker
+        .BACKGROUND_UPDATE_THROTTLE_INTERVAL;
+import static com.android.settings.slices.SliceBackgroundWorker
+        .INTERACTIVE_UPDATE_THROTTLE_INTERVAL;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Looper;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class SliceChangeDispatcherTest {
+
+    private static final Uri BACKGROUND_URI = Uri.parse("content://test/background");
+    private static final Uri INTERACTIVE_URI = Uri.parse("content://test/interactive");
+
+    @Mock
+    private Context mContext;
+    @Mock
+    private ContentResolver mResolver;
+    private SliceChangeDispatcher mDispatcher;
+    private TestWorker mBackgroundWorker;
+    private TestWorker mInteractiveWorker;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getContentResolver()).thenReturn(mResolver);
+        mDispatcher = new SliceChangeDispatcher(Looper.getMainLooper(), Looper.getMainLooper());
+        mBackgroundWorker = new TestWorker(mContext, BACKGROUND_URI,
+                SliceBackgroundWorker.PRIORITY_BACKGROUND);
+        mInteractiveWorker = new TestWorker(mContext, INTERACTIVE_URI,
+                SliceBackgroundWorker.PRIORITY_INTERACTIVE);
+    }
+
+    @Test
+    public void dispatch_burst_shouldNotifyOnceAndCountSuppressed() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            mDispatcher.dispatch(mBackgroundWorker);
+        }
+
+        idle(BACKGROUND_UPDATE_THROTTLE_INTERVAL);
+
+        verify(mResolver, times(1)).notifyChange(BACKGROUND_URI, null);
+        final JSONObject stats = mDispatcher.dump().getJSONObject(BACKGROUND_URI.toString());
+        assertThat(stats.getLong("dispatched")).isEqualTo(1);
+        assertThat(stats.getLong("suppressed")).isEqualTo(3);
+        assertThat(stats.getLong("max_latency_ms")).isEqualTo(BACKGROUND_UPDATE_THROTTLE_INTERVAL);
+        assertThat(stats.getString("priority")).isEqualTo("background");
+    }
+
+    @Test
+    public void dispatch_interactive_shouldUseShorterInterval() {
+        mDispatcher.dispatch(mInteractiveWorker);
+        mDispatcher.dispatch(mBackgroundWorker);
+
+        idle(INTERACTIVE_UPDATE_THROTTLE_INTERVAL);
+
+        verify(mResolver).notifyChange(INTERACTIVE_URI, null);
+        verify(mResolver, never()).notifyChange(BACKGROUND_URI, null);
+    }
+
+    @Test
+    public void dispatch_repeatedBursts_shouldBackOffUpToMax() {
+        mDispatcher.dispatch(mBackgroundWorker);
+        idle(BACKGROUND_UPDATE_THROTTLE_INTERVAL);
+
+        long interval = BACKGROUND_UPDATE_THROTTLE_INTERVAL;
+        for (int i = 0; i < 4; i++) {
+            mDispatcher.dispatch(mBackgroundWorker);
+            mDispatcher.dispatch(mBackgroundWorker);
+            idle(interval);
+            interval = Math.min(interval * 2, BACKGROUND_UPDATE_THROTTLE_INTERVAL
+                    * SliceChangeDispatcher.MAX_BACKOFF_FACTOR);
+            assertThat(mDispatcher.getInterval(BACKGROUND_URI)).isEqualTo(interval);
+        }
+    }
+
+    @Test
+    public void dispatch_quietAfterBurst_shouldRecoverInterval() {
+        mDispatcher.dispatch(mBackgroundWorker);
+        idle(BACKGROUND_UPDATE_THROTTLE_INTERVAL);
+        mDispatcher.dispatch(mBackgroundWorker);
+        mDispatcher.dispatch(mBackgroundWorker);
+        idle(BACKGROUND_UPDATE_THROTTLE_INTERVAL);
+        assertThat(mDispatcher.getInterval(BACKGROUND_URI))
+                .isEqualTo(2 * BACKGROUND_UPDATE_THROTTLE_INTERVAL);
+
+        idle(10 * BACKGROUND_UPDATE_THROTTLE_INTERVAL);
+        mDispatcher.dispatch(mBackgroundWorker);
+        idle(0);
+
+        assertThat(mDispatcher.getInterval(BACKGROUND_URI))
+                .isEqualTo(BACKGROUND_UPDATE_THROTTLE_INTERVAL);
+    }
+
+    @Test
+    public void cancel_shouldDropPendingUpdate() {
+        mDispatcher.dispatch(mBackgroundWorker);
+
+        mDispatcher.cancel(mBackgroundWorker);
+        idle(BACKGROUND_UPDATE_THROTTLE_INTERVAL);
+
+        verify(mResolver, never()).notifyChange(BACKGROUND_URI, null);
+    }
+
+    private static void idle(long millis) {
+        ShadowLooper.idleMainLooper(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class TestWorker extends SliceBackgroundWorker<Void> {
+
+        private final int mPriority;
+
+        TestWorker(Context context, Uri uri, int priority) {
+            super(context, uri);
+            mPriority = priority;
+        }
+
+        @Override
+        protected int getUpdatePriority() {
+            return mPriority;
+        }
+
+        @Override
+        protected void onSlicePinned() {
+        }
+
+        @Override
+        protected void onSliceUnpinned() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -317,6 +317,49 @@ public class SlicesDatabaseAccessorTest {
         assertThat(data.getUnavailableSliceSubtitle()).isEqualTo(subtitle);
     }
 
+    @Test
+    public void getSliceDataFromKey_calledTwice_returnCachedData() {
+        final String key = "key";
+        SliceTestUtils.insertSliceToDb(mContext, key);
+
+        final SliceData data = mAccessor.getSliceDataFromKey(key);
+
+        assertThat(mAccessor.getSliceDataFromKey(key)).isSameInstanceAs(data);
+    }
+
+    @Test
+    public void getSliceDataFromKey_indexRebuilt_reloadFromDatabase() {
+        final String key = "key";
+        final String subtitle = "subtitle";
+        SliceTestUtils.insertSliceToDb(mContext, key);
+        mAccessor.getSliceDataFromKey(key);
+
+        SlicesDatabaseHelper.getInstance(mContext).setIndexedState();
+        SliceTestUtils.insertSliceToDb(mContext, key, true /* isPlatformSlice */, subtitle);
+
+        assertThat(mAccessor.getSliceDataFromKey(key).getUnavailableSliceSubtitle())
+                .isEqualTo(subtitle);
+    }
+
+    @Test
+    public void getSliceDataFromUri_sameKeyAsCachedKey_keepUriAndIntentOnlyType() {
+        final String key = "key";
+        SliceTestUtils.insertSliceToDb(mContext, key);
+        mAccessor.getSliceDataFromKey(key);
+        final Uri uri = new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .authority(SettingsSliceProvider.SLICE_AUTHORITY)
+                .appendPath(SettingsSlicesContract.PATH_SETTING_INTENT)
+                .appendPath(key)
+                .build();
+
+        final SliceData data = mAccessor.getSliceDataFromUri(uri);
+
+        assertThat(data.getUri()).isEqualTo(uri);
+        assertThat(data.getSliceType()).isEqualTo(SliceData.SliceType.INTENT);
+        assertThat(mAccessor.getSliceDataFromKey(key).getUri()).isNull();
+    }
+
     @Implements(ApplicationPackageManager.class)
     public static class ShadowApplicationPackageManager extends
             org.robolectric.shadows.ShadowApplicationPackageManager {
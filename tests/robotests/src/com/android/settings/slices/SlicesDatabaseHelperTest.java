@@ -36,6 +36,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.Collections;
 import java.util.Locale;
 
 @RunWith(RobolectricTestRunner.class)
@@ -126,6 +127,24 @@ public class SlicesDatabaseHelperTest {
         assertThat(mSlicesDatabaseHelper.isSliceDataIndexed()).isFalse();
     }
 
+    @Test
+    public void getProviderFingerprints_sameBuild_returnsFingerprints() {
+        mSlicesDatabaseHelper.setProviderFingerprints(mDatabase,
+                Collections.singletonMap("fragmentClassName", "fingerprint"));
+
+        assertThat(mSlicesDatabaseHelper.getProviderFingerprints(mDatabase))
+                .containsExactly("fragmentClassName", "fingerprint");
+    }
+
+    @Test
+    public void getProviderFingerprints_buildChanged_returnsEmpty() {
+        mSlicesDatabaseHelper.setProviderFingerprints(mDatabase,
+                Collections.singletonMap("fragmentClassName", "fingerprint"));
+        doReturn("newBuild").when(mSlicesDatabaseHelper).getBuildTag();
+
+        assertThat(mSlicesDatabaseHelper.getProviderFingerprints(mDatabase)).isEmpty();
+    }
+
     private ContentValues getMockRow() {
         final ContentValues values = new ContentValues();
         values.put(IndexColumns.KEY, "key");
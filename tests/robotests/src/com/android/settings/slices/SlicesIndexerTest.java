@@ -18,17 +18,25 @@ package com.android.settings.slices;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Build;
 
+import com.android.settings.search.SearchFeatureProviderImpl;
 import com.android.settings.slices.SlicesDatabaseHelper.IndexColumns;
 import com.android.settings.testutils.DatabaseTestUtils;
+import com.android.settings.testutils.FakeFeatureFactory;
+import com.android.settings.testutils.FakeIndexProvider;
+import com.android.settingslib.search.SearchIndexableData;
 
 import org.junit.After;
 import org.junit.Before;
@@ -36,8 +44,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
@@ -201,6 +213,117 @@ public class SlicesIndexerTest {
         }
     }
 
+    @Test
+    public void indexSliceData_unchangedProvider_skipsProvider() {
+        final SlicesDatabaseHelper helper = SlicesDatabaseHelper.getInstance(mContext);
+        final List<SliceData> sliceData = getMockIndexableData(false);
+        doReturn(Collections.emptyList()).when(mManager).getAccessibilitySliceData();
+        doReturn(Collections.singletonList(new SliceDataConverter.ProviderSliceData(
+                        FRAGMENT_NAME, "fingerprint", sliceData)),
+                Collections.singletonList(new SliceDataConverter.ProviderSliceData(
+                        FRAGMENT_NAME, "fingerprint", null /* sliceData */)))
+                .when(mManager).getProviderSliceData(anyMap(), any());
+
+        mManager.run();
+        helper.clearIndexedState();
+        mManager.run();
+
+        final SlicesDatabaseHelper.IndexStats stats = helper.getLastIndexStats();
+        assertThat(stats.isIncremental()).isTrue();
+        assertThat(stats.getProvidersSkipped()).isEqualTo(1);
+        assertThat(stats.getRowsWritten()).isEqualTo(0);
+        assertThat(helper.isSliceDataIndexed()).isTrue();
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index", null)) {
+            assertThat(cursor.getCount()).isEqualTo(sliceData.size());
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void indexSliceData_changedProvider_replacesRows() {
+        final SlicesDatabaseHelper helper = SlicesDatabaseHelper.getInstance(mContext);
+        final List<SliceData> newSliceData = getMockIndexableData(false).subList(0, 1);
+        doReturn(Collections.emptyList()).when(mManager).getAccessibilitySliceData();
+        doReturn(Collections.singletonList(new SliceDataConverter.ProviderSliceData(
+                        FRAGMENT_NAME, "fingerprint", getMockIndexableData(false))),
+                Collections.singletonList(new SliceDataConverter.ProviderSliceData(
+                        FRAGMENT_NAME, "new fingerprint", newSliceData)))
+                .when(mManager).getProviderSliceData(anyMap(), any());
+
+        mManager.run();
+        helper.clearIndexedState();
+        mManager.run();
+
+        final SlicesDatabaseHelper.IndexStats stats = helper.getLastIndexStats();
+        assertThat(stats.isIncremental()).isTrue();
+        assertThat(stats.getProvidersParsed()).isEqualTo(1);
+        assertThat(stats.getRowsWritten()).isEqualTo(1);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index", null)) {
+            assertThat(cursor.getCount()).isEqualTo(1);
+            cursor.moveToFirst();
+            assertThat(cursor.getString(cursor.getColumnIndex(IndexColumns.KEY)))
+                    .isEqualTo(KEYS[0]);
+        } finally {
+            db.close();
+        }
+        assertThat(helper.getProviderFingerprints(helper.getWritableDatabase()))
+                .containsEntry(FRAGMENT_NAME, "new fingerprint");
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void indexSliceData_newBuild_reindexesUnchangedProvider() {
+        final FakeFeatureFactory featureFactory = FakeFeatureFactory.setupForTest();
+        featureFactory.searchFeatureProvider = new SearchFeatureProviderImpl();
+        final Collection<SearchIndexableData> providers = featureFactory.searchFeatureProvider
+                .getSearchIndexableResources().getProviderValues();
+        providers.clear();
+        providers.add(new SearchIndexableData(FakeIndexProvider.class,
+                FakeIndexProvider.SEARCH_INDEX_DATA_PROVIDER));
+        when(featureFactory.slicesFeatureProvider.getSliceDataConverter(any()))
+                .thenReturn(new SliceDataConverter(mContext));
+        doReturn(Collections.emptyList()).when(mManager).getAccessibilitySliceData();
+        final SlicesDatabaseHelper helper = SlicesDatabaseHelper.getInstance(mContext);
+        final String fingerprint = Build.FINGERPRINT;
+
+        mManager.run();
+        final int rowCount = helper.getLastIndexStats().getRowsWritten();
+        try {
+            // A system update changes the build fingerprint, which triggers a reindex.
+            ReflectionHelpers.setStaticField(Build.class, "FINGERPRINT", fingerprint + "-ota");
+            assertThat(helper.isSliceDataIndexed()).isFalse();
+            mManager.run();
+        } finally {
+            ReflectionHelpers.setStaticField(Build.class, "FINGERPRINT", fingerprint);
+        }
+
+        // The controllers of the provider may have changed even though its XML didn't.
+        final SlicesDatabaseHelper.IndexStats stats = helper.getLastIndexStats();
+        assertThat(rowCount).isGreaterThan(0);
+        assertThat(stats.isIncremental()).isFalse();
+        assertThat(stats.getProvidersParsed()).isEqualTo(1);
+        assertThat(stats.getProvidersSkipped()).isEqualTo(0);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT * FROM slices_index", null)) {
+            assertThat(cursor.getCount()).isEqualTo(rowCount);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void getSliceData_outsideOfIndexing_shouldNotCrash() {
+        doReturn(Collections.singletonList(new SliceDataConverter.ProviderSliceData(
+                FRAGMENT_NAME, "fingerprint", getMockIndexableData(false))))
+                .when(mManager).getProviderSliceData(anyMap(), any());
+        doReturn(Collections.emptyList()).when(mManager).getAccessibilitySliceData();
+
+        assertThat(mManager.getSliceData()).hasSize(KEYS.length);
+    }
+
     private void insertSpecialCase(String key, String title) {
         final ContentValues values = new ContentValues();
         values.put(IndexColumns.KEY, key);
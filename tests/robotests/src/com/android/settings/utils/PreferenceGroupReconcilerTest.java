@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceManager;
+import androidx.preference.PreferenceScreen;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class PreferenceGroupReconcilerTest {
+
+    private Context mContext;
+    private PreferenceScreen mGroup;
+    private PreferenceGroupReconciler mReconciler;
+    private int mCreatedCount;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mGroup = new PreferenceManager(mContext).createPreferenceScreen(mContext);
+        mReconciler = new PreferenceGroupReconciler(mGroup);
+    }
+
+    @Test
+    public void reconcile_shouldAddItemsInOrder() {
+        mReconciler.reconcile(items("a", "b", "c"));
+
+        assertThat(mGroup.getPreferenceCount()).isEqualTo(3);
+        assertThat(getKeysByOrder()).containsExactly("a", "b", "c").inOrder();
+        assertThat(mCreatedCount).isEqualTo(3);
+    }
+
+    @Test
+    public void reconcile_sameKeys_shouldReusePreferences() {
+        mReconciler.reconcile(items("a", "b", "c"));
+        final Preference b = mReconciler.get("b");
+
+        mReconciler.reconcile(items("c", "b", "d"));
+
+        assertThat(mReconciler.get("b")).isSameInstanceAs(b);
+        assertThat(mGroup.findPreference("a")).isNull();
+        assertThat(getKeysByOrder()).containsExactly("c", "b", "d").inOrder();
+        // Only d is new.
+        assertThat(mCreatedCount).isEqualTo(4);
+    }
+
+    @Test
+    public void reconcile_cannotReuse_shouldReplacePreference() {
+        mReconciler.reconcile(items("a"));
+        final Preference a = mReconciler.get("a");
+        final List<PreferenceGroupReconciler.Item<?>> items = new ArrayList<>();
+        items.add(new PreferenceGroupReconciler.Item<>("a", 0,
+                new PreferenceGroupReconciler.Binder<Preference>() {
+                    @Override
+                    public Preference create() {
+                        return createPreference("a");
+                    }
+
+                    @Override
+                    public boolean canReuse(Preference preference) {
+                        return false;
+                    }
+                }));
+
+        mReconciler.reconcile(items);
+
+        assertThat(mGroup.getPreferenceCount()).isEqualTo(1);
+        assertThat(mReconciler.get("a")).isNotSameInstanceAs(a);
+        assertThat(mGroup.getPreference(0)).isSameInstanceAs(mReconciler.get("a"));
+    }
+
+    @Test
+    public void reconcile_shouldBindReusedPreferences() {
+        mReconciler.reconcile(items("a"));
+        final List<PreferenceGroupReconciler.Item<?>> items = new ArrayList<>();
+        items.add(new PreferenceGroupReconciler.Item<>("a", 0,
+                new PreferenceGroupReconciler.Binder<Preference>() {
+                    @Override
+                    public Preference create() {
+                        return createPreference("a");
+                    }
+
+                    @Override
+                    public void bind(Preference preference) {
+                        preference.setTitle("updated");
+                    }
+                }));
+
+        mReconciler.reconcile(items);
+
+        assertThat(mReconciler.get("a").getTitle().toString()).isEqualTo("updated");
+    }
+
+    @Test
+    public void reconcile_unknownChildren_shouldBeRemoved() {
+        mGroup.addPreference(createPreference("other"));
+
+        mReconciler.reconcile(items("a"));
+
+        assertThat(mGroup.getPreferenceCount()).isEqualTo(1);
+        assertThat(mGroup.findPreference("other")).isNull();
+    }
+
+    @Test
+    public void reconcile_removedElsewhere_shouldAddBack() {
+        mReconciler.reconcile(items("a", "b"));
+        mGroup.removeAll();
+
+        mReconciler.reconcile(items("a", "b"));
+
+        assertThat(getKeysByOrder()).containsExactly("a", "b").inOrder();
+    }
+
+    @Test
+    public void clear_shouldRemoveAll() {
+        mReconciler.reconcile(items("a", "b"));
+
+        mReconciler.clear();
+
+        assertThat(mGroup.getPreferenceCount()).isEqualTo(0);
+        assertThat(mReconciler.size()).isEqualTo(0);
+    }
+
+    private List<PreferenceGroupReconciler.Item<?>> items(String... keys) {
+        final List<PreferenceGroupReconciler.Item<?>> items = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            final String key = keys[i];
+            items.add(new PreferenceGroupReconciler.Item<>(key, i, () -> createPreference(key)));
+        }
+        return items;
+    }
+
+    private Preference createPreference(String key) {
+        mCreatedCount++;
+        final Preference preference = new Preference(mContext);
+        preference.setKey(key);
+        return preference;
+    }
+
+    private List<String> getKeysByOrder() {
+        final List<Preference> preferences = new ArrayList<>();
+        for (int i = 0; i < mGroup.getPreferenceCount(); i++) {
+            preferences.add(mGroup.getPreference(i));
+        }
+        preferences.sort((a, b) -> Integer.compare(a.getOrder(), b.getOrder()));
+        final List<String> keys = new ArrayList<>();
+        for (Preference preference : preferences) {
+            keys.add(preference.getKey());
+        }
+        return keys;
+    }
+}
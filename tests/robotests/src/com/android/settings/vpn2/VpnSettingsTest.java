@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.vpn2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.internal.net.LegacyVpnInfo;
+import com.android.internal.net.VpnProfile;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class VpnSettingsTest {
+
+    private static final String KEY = "1234";
+
+    @Test
+    public void vpnListState_sameContent_shouldBeEqual() {
+        assertThat(createState(createProfile("vpn"), LegacyVpnInfo.STATE_CONNECTED))
+                .isEqualTo(createState(createProfile("vpn"), LegacyVpnInfo.STATE_CONNECTED));
+    }
+
+    @Test
+    public void vpnListState_profileChanged_shouldNotBeEqual() {
+        assertThat(createState(createProfile("vpn"), LegacyVpnInfo.STATE_CONNECTED))
+                .isNotEqualTo(createState(createProfile("renamed"),
+                        LegacyVpnInfo.STATE_CONNECTED));
+    }
+
+    @Test
+    public void vpnListState_connectionStateChanged_shouldNotBeEqual() {
+        assertThat(createState(createProfile("vpn"), LegacyVpnInfo.STATE_CONNECTING))
+                .isNotEqualTo(createState(createProfile("vpn"), LegacyVpnInfo.STATE_CONNECTED));
+    }
+
+    @Test
+    public void getRescanIntervalMs_legacyVpnConnecting_shouldPollFast() {
+        assertThat(VpnSettings.getRescanIntervalMs(createLegacyVpnInfo(
+                LegacyVpnInfo.STATE_CONNECTING)))
+                .isEqualTo(VpnSettings.TRANSITION_RESCAN_INTERVAL_MS);
+    }
+
+    @Test
+    public void getRescanIntervalMs_settled_shouldPollSlowly() {
+        assertThat(VpnSettings.getRescanIntervalMs(null))
+                .isEqualTo(VpnSettings.SLOW_RESCAN_INTERVAL_MS);
+        assertThat(VpnSettings.getRescanIntervalMs(createLegacyVpnInfo(
+                LegacyVpnInfo.STATE_CONNECTED)))
+                .isEqualTo(VpnSettings.SLOW_RESCAN_INTERVAL_MS);
+    }
+
+    private static VpnSettings.VpnListState createState(VpnProfile profile, int state) {
+        final Map<String, LegacyVpnInfo> connectedLegacyVpns =
+                Collections.singletonMap(KEY, createLegacyVpnInfo(state));
+        return new VpnSettings.VpnListState(Collections.singletonList(profile),
+                Collections.emptyList(), connectedLegacyVpns, Collections.emptySet(),
+                Collections.emptySet(), null /* lockdownVpnKey */);
+    }
+
+    private static VpnProfile createProfile(String name) {
+        final VpnProfile profile = new VpnProfile(KEY);
+        profile.name = name;
+        return profile;
+    }
+
+    private static LegacyVpnInfo createLegacyVpnInfo(int state) {
+        final LegacyVpnInfo info = new LegacyVpnInfo();
+        info.key = KEY;
+        info.state = state;
+        return info;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi.qrcode;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class QrFrameDecoderTest {
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+    private static final Rect CROP = new Rect(160, 80, 480, 400);
+    private static final String QR_CODE = "http://www.google.com";
+
+    private QrFrameDecoder mDecoder;
+
+    @Before
+    public void setUp() {
+        mDecoder = new QrFrameDecoder();
+    }
+
+    @Test
+    public void decode_qrCodeInCropArea_shouldReturnText() throws Exception {
+        assertThat(mDecoder.decode(createFrame(CROP.centerX(), CROP.centerY()), FRAME_WIDTH,
+                FRAME_HEIGHT, CROP)).isEqualTo(QR_CODE);
+    }
+
+    @Test
+    public void decode_qrCodeOutsideCropArea_shouldReturnNull() throws Exception {
+        assertThat(mDecoder.decode(createFrame(-1, -1), FRAME_WIDTH, FRAME_HEIGHT, CROP))
+                .isNull();
+    }
+
+    @Test
+    public void decode_successiveFrames_shouldNotReusePreviousPicture() throws Exception {
+        final byte[] qrCodeFrame = createFrame(CROP.centerX(), CROP.centerY());
+        final byte[] emptyFrame = createFrame(-1, -1);
+
+        assertThat(mDecoder.decode(qrCodeFrame, FRAME_WIDTH, FRAME_HEIGHT, CROP))
+                .isEqualTo(QR_CODE);
+        assertThat(mDecoder.decode(emptyFrame, FRAME_WIDTH, FRAME_HEIGHT, CROP)).isNull();
+        assertThat(mDecoder.decode(qrCodeFrame, FRAME_WIDTH, FRAME_HEIGHT, CROP))
+                .isEqualTo(QR_CODE);
+    }
+
+    // A white NV21 frame with the QR code centered on (centerX, centerY), or without it if
+    // centerX is negative.
+    private static byte[] createFrame(int centerX, int centerY) throws Exception {
+        final byte[] frame = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (i < FRAME_WIDTH * FRAME_HEIGHT ? 235 : 128);
+        }
+        if (centerX < 0) {
+            return frame;
+        }
+        final Bitmap qrCode = QrCodeGenerator.encodeQrCode(QR_CODE, 200);
+        final int left = centerX - qrCode.getWidth() / 2;
+        final int top = centerY - qrCode.getHeight() / 2;
+        for (int y = 0; y < qrCode.getHeight(); y++) {
+            for (int x = 0; x < qrCode.getWidth(); x++) {
+                if (Color.red(qrCode.getPixel(x, y)) < 128) {
+                    frame[(top + y) * FRAME_WIDTH + left + x] = (byte) 16;
+                }
+            }
+        }
+        qrCode.recycle();
+        return frame;
+    }
+}
@@ -81,6 +81,9 @@ public class StorageAsyncLoaderTest {
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         mContext = spy(ApplicationProvider.getApplicationContext());
+        // Installed apps are listed through the application context.
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
         mInfo = new ArrayList<>();
         mLoader = new StorageAsyncLoader(mContext, mUserManager, "id", mSource, mPackageManager);
         when(mPackageManager.getInstalledApplicationsAsUser(eq(PRIMARY_USER_ID), anyInt()))
@@ -208,6 +211,39 @@ public class StorageAsyncLoaderTest {
         assertThat(result.get(PRIMARY_USER_ID).allAppsExceptGamesSize).isEqualTo(33L);
     }
 
+    @Test
+    public void testDuplicateCodeIsCountedForLaterUsers() throws Exception {
+        UserInfo info = new UserInfo();
+        info.id = SECONDARY_USER_ID;
+        mUsers.add(info);
+        addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+
+        SparseArray<StorageAsyncLoader.StorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.size()).isEqualTo(2);
+        assertThat(result.get(PRIMARY_USER_ID).duplicateCodeSize).isEqualTo(0L);
+        assertThat(result.get(SECONDARY_USER_ID).duplicateCodeSize).isEqualTo(1L);
+    }
+
+    @Test
+    public void testResultsArePersisted() throws Exception {
+        final StorageResultCache cache = new StorageResultCache(mContext);
+        mLoader = new StorageAsyncLoader(mContext, mUserManager, "id", mSource, mPackageManager,
+                cache, null /* interimResultHandler */);
+        addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_GAME);
+
+        try {
+            mLoader.loadInBackground();
+
+            final SparseArray<StorageAsyncLoader.StorageResult> persisted = cache.get("id");
+            assertThat(persisted.size()).isEqualTo(1);
+            assertThat(persisted.get(PRIMARY_USER_ID).gamesSize).isEqualTo(11L);
+            assertThat(persisted.get(PRIMARY_USER_ID).lastUpdatedTime).isGreaterThan(0L);
+        } finally {
+            cache.remove("id");
+        }
+    }
+
     private ApplicationInfo addPackage(String packageName, long cacheSize, long codeSize,
             long dataSize, int category) throws Exception {
         StorageStatsSource.AppStorageStats storageStats =